@@ -12,6 +12,8 @@ import java.security.CodeSource;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.xins.client.async.CAPICallFuture;
+
 import org.xins.common.MandatoryArgumentChecker;
 
 import org.xins.common.collections.PropertyReader;
@@ -358,6 +360,27 @@ public abstract class AbstractCAPI {
       return _caller.getXINSCallConfig();
    }
 
+   /**
+    * Executes the specified call request asynchronously. The call is
+    * executed on a thread of a shared pool; the returned object can be used
+    * to wait for the result.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the handle to the result of the call, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public final CAPICallFuture callAsync(AbstractCAPICallRequest request)
+   throws IllegalArgumentException {
+      return new CAPICallFuture(this, request);
+   }
+
    /**
     * Returns the XINS service caller to use.
     *
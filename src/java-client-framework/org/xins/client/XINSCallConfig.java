@@ -31,6 +31,11 @@ public final class XINSCallConfig extends CallConfig {
     */
    private HTTPCallConfig _httpCallConfig;
 
+   /**
+    * Flag that indicates whether the binary calling convention is used.
+    */
+   private boolean _binaryConvention;
+
    /**
     * Constructs a new <code>XINSCallConfig</code> object.
     */
@@ -115,6 +120,67 @@ public final class XINSCallConfig extends CallConfig {
       _httpCallConfig.setFollowRedirect(follow);
    }
 
+   /**
+    * Indicates whether the body of a POST request is compressed with gzip.
+    *
+    * @return
+    *    <code>true</code> if the body of a POST request is compressed.
+    *
+    * @since XINS 2.4
+    */
+   public boolean getCompressRequest() {
+      return _httpCallConfig.getCompressRequest();
+   }
+
+   /**
+    * Sets whether the body of a POST request is compressed with gzip. This
+    * reduces the size of requests with a large data section. The body is
+    * only compressed if it is large enough. The called API must use XINS
+    * 2.4 or higher.
+    *
+    * @param compress
+    *    <code>true</code> if the body of a POST request should be
+    *    compressed.
+    *
+    * @since XINS 2.4
+    */
+   public void setCompressRequest(boolean compress) {
+
+      // Store the setting in the HTTP call configuration
+      _httpCallConfig.setCompressRequest(compress);
+   }
+
+   /**
+    * Indicates whether the calls use the binary calling convention.
+    *
+    * @return
+    *    <code>true</code> if the calls use the <code>_xins-bin</code>
+    *    calling convention, <code>false</code> if they use the
+    *    <code>_xins-std</code> calling convention.
+    *
+    * @since XINS 2.4
+    */
+   public boolean getBinaryConvention() {
+      return _binaryConvention;
+   }
+
+   /**
+    * Sets whether the calls use the binary calling convention. The request
+    * and the result are then encoded in a compact binary format, which is
+    * faster to produce and to read than URL-encoded parameters and XML. The
+    * requests are always sent with HTTP POST. The called API must use XINS
+    * 2.4 or higher.
+    *
+    * @param binary
+    *    <code>true</code> if the calls should use the <code>_xins-bin</code>
+    *    calling convention.
+    *
+    * @since XINS 2.4
+    */
+   public void setBinaryConvention(boolean binary) {
+      _binaryConvention = binary;
+   }
+
    /**
     * Describes this configuration.
     *
@@ -126,7 +192,9 @@ public final class XINSCallConfig extends CallConfig {
    public String describe() {
 
       String description = "XINS call config [failOverAllowed=" + isFailOverAllowed() + "; method=" +
-            TextUtils.quote(_httpCallConfig.getMethod().toString()) + ']';
+            TextUtils.quote(_httpCallConfig.getMethod().toString()) + "; compressRequest=" +
+            _httpCallConfig.getCompressRequest() + "; binaryConvention=" +
+            _binaryConvention + ']';
 
       return description;
    }
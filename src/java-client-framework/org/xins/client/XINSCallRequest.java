@@ -14,12 +14,14 @@ import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.text.PatternUtils;
 import org.xins.common.xml.Element;
 import org.xins.common.xml.ElementSerializer;
+import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.collections.PropertyReader;
 import org.xins.common.collections.PropertyReaderUtils;
 import org.xins.common.collections.ProtectedPropertyReader;
 import org.xins.common.http.HTTPCallConfig;
 import org.xins.common.http.HTTPCallRequest;
 import org.xins.common.http.HTTPMethod;
+import org.xins.common.io.BinaryCallWriter;
 import org.xins.common.service.CallRequest;
 
 /**
@@ -524,10 +526,45 @@ public final class XINSCallRequest extends CallRequest {
     *    <code>null</code>.
     */
    HTTPCallRequest getHTTPCallRequest() {
+      return getHTTPCallRequest(false);
+   }
+
+   /**
+    * Returns an <code>HTTPCallRequest</code> that can be used to execute this
+    * XINS request, with either the standard or the binary calling
+    * convention.
+    *
+    * @param binary
+    *    <code>true</code> if the request should use the binary calling
+    *    convention, <code>false</code> if it should use the standard calling
+    *    convention.
+    *
+    * @return
+    *    this request converted to an {@link HTTPCallRequest}, never
+    *    <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   HTTPCallRequest getHTTPCallRequest(boolean binary) {
 
       // Construct an HTTP call request
-      HTTPCallRequest httpRequest = new HTTPCallRequest(_httpParams,
-                                                        HTTP_STATUS_CODE_VERIFIER);
+      HTTPCallRequest httpRequest;
+      if (binary) {
+
+         // Only the calling convention and the diagnostic context ID are sent
+         // as HTTP parameters, the rest of the request is in the body
+         BasicPropertyReader httpParams = new BasicPropertyReader();
+         httpParams.set("_convention", "_xins-bin");
+         String contextID = _httpParams.get(CONTEXT_ID_HTTP_PARAMETER_NAME);
+         if (contextID != null) {
+            httpParams.set(CONTEXT_ID_HTTP_PARAMETER_NAME, contextID);
+         }
+         httpRequest = new HTTPCallRequest(httpParams, HTTP_STATUS_CODE_VERIFIER);
+         byte[] body = BinaryCallWriter.writeRequest(_functionName, _parameters, _dataSection);
+         httpRequest.setBody(body, BinaryCallWriter.CONTENT_TYPE);
+      } else {
+         httpRequest = new HTTPCallRequest(_httpParams, HTTP_STATUS_CODE_VERIFIER);
+      }
 
       // If there is a XINS call config, create an HTTP call config
       XINSCallConfig xinsConfig = getXINSCallConfig();
@@ -535,6 +572,7 @@ public final class XINSCallRequest extends CallRequest {
          HTTPCallConfig httpConfig = new HTTPCallConfig();
          httpConfig.setFailOverAllowed(xinsConfig.isFailOverAllowed());
          httpConfig.setMethod(xinsConfig.getHTTPMethod());
+         httpConfig.setCompressRequest(xinsConfig.getCompressRequest());
          httpRequest.setHTTPCallConfig(httpConfig);
       }
 
@@ -8,14 +8,21 @@ package org.xins.client;
 
 import java.io.ByteArrayInputStream;
 import java.util.Iterator;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.collections.PropertyReader;
+import org.xins.common.io.BinaryCallReader;
 import org.xins.common.text.ParseException;
 import org.xins.common.text.TextUtils;
 import org.xins.common.xml.Element;
 import org.xins.common.xml.ElementParser;
+import org.xins.common.xml.StAXElementParser;
 
 /**
  * XINS call result parser. XML is parsed to produce a {@link XINSCallResult}
@@ -35,6 +42,16 @@ import org.xins.common.xml.ElementParser;
  * <p>Note: This parser is
  * <a href="http://www.w3.org/TR/REC-xml-names/">XML Namespaces</a>-aware.
  *
+ * <p>When StAX is used, the result is read as a stream: only the
+ * <code>param</code> elements and the data section are converted to
+ * {@link Element} objects. StAX is used if
+ * {@link ElementParser#isStAXEnabled()} returns <code>true</code>, unless
+ * set otherwise with {@link #XINSCallResultParser(boolean)}.
+ *
+ * <p>Since XINS 2.4, results of the <code>_xins-bin</code> calling
+ * convention are also accepted. They are recognized by their first bytes and
+ * read with {@link BinaryCallReader}.
+ *
  * @version $Revision$ $Date$
  *
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
@@ -45,15 +62,32 @@ import org.xins.common.xml.ElementParser;
 public class XINSCallResultParser {
 
    /**
-    * The parser used to parse the XML.
+    * Indicates whether the result is read as a stream with StAX.
     */
-   private final ElementParser _parser;
+   private final boolean _useStAX;
 
    /**
-    * Constructs a new <code>XINSCallResultParser</code>.
+    * Constructs a new <code>XINSCallResultParser</code>. StAX is used if
+    * it is selected for {@link ElementParser}.
     */
    public XINSCallResultParser() {
-      _parser = new ElementParser();
+      this(ElementParser.isStAXEnabled());
+   }
+
+   /**
+    * Constructs a new <code>XINSCallResultParser</code> that uses either
+    * SAX or StAX.
+    *
+    * @param useStAX
+    *    <code>true</code> to read the result as a stream with StAX, which
+    *    requires Java 6 or a StAX implementation in the class path,
+    *    <code>false</code> to parse it to an {@link Element} with
+    *    {@link ElementParser} first.
+    *
+    * @since XINS 2.4
+    */
+   public XINSCallResultParser(boolean useStAX) {
+      _useStAX = useStAX;
    }
 
    /**
@@ -79,13 +113,27 @@ public class XINSCallResultParser {
       // Check preconditions
       MandatoryArgumentChecker.check("xml", xml);
 
+      // Read a result of the binary calling convention, without XML parsing
+      if (BinaryCallReader.isBinary(xml)) {
+         try {
+            return new XINSCallResultDataImpl(new BinaryCallReader(xml));
+         } catch (ParseException exception) {
+            Log.log_2205(exception, exception.getDetail());
+            throw exception;
+         }
+      }
+
       ByteArrayInputStream stream = null;
       try {
 
          // Convert the byte array to an input stream
          stream = new ByteArrayInputStream(xml);
 
-         Element resultElement = _parser.parse(stream);
+         if (_useStAX) {
+            return parseStream(stream);
+         }
+
+         Element resultElement = ElementParser.getThreadInstance().parse(stream);
 
          return new XINSCallResultDataImpl(resultElement);
 
@@ -120,6 +168,39 @@ public class XINSCallResultParser {
       }
    }
 
+   /**
+    * Reads a result from a stream with StAX.
+    *
+    * @param stream
+    *    the stream containing the XML, cannot be <code>null</code>.
+    *
+    * @return
+    *    the parsed result of the call, never <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the XML is not valid or if it is not a valid XINS API function
+    *    call result.
+    *
+    * @throws XMLStreamException
+    *    if the XML is not valid.
+    */
+   private static XINSCallResultData parseStream(ByteArrayInputStream stream)
+   throws ParseException, XMLStreamException {
+      XMLStreamReader reader = StAXElementParser.createReader(stream);
+      try {
+         StAXElementParser.nextElement(reader);
+         XINSCallResultData result = new XINSCallResultDataImpl(reader);
+
+         // Check the rest of the document
+         while (reader.hasNext()) {
+            reader.next();
+         }
+         return result;
+      } finally {
+         reader.close();
+      }
+   }
+
    /**
     * SAX event handler that will parse the result from a call to a XINS
     * service.
@@ -163,24 +244,158 @@ public class XINSCallResultParser {
        */
       private XINSCallResultDataImpl(Element resultElement) throws ParseException {
 
-         if (!"result".equals(resultElement.getLocalName())) {
-            String detail = "Incorrect root element '" + resultElement.getLocalName() + "'. Excpected 'result'.";
+         checkResultElement(resultElement.getLocalName(), resultElement.getNamespaceURI());
+         checkText(resultElement.getText());
+
+         // Get and check the error code if any.
+         setErrorCode(resultElement.getAttribute("errorcode"), resultElement.getAttribute("code"));
+
+         // Get and check the parameters, if any.
+         Iterator itParamElements = resultElement.getChildElements("param").iterator();
+         while (itParamElements.hasNext()) {
+            addParameter((Element) itParamElements.next());
+         }
+
+         // Get the data section, if any.
+         if (resultElement.getChildElements("data").size() > 0) {
+             _dataSection = resultElement.getUniqueChildElement("data");
+         }
+      }
+
+      /**
+       * Constructs a new <code>XINSCallResultDataImpl</code> instance from a
+       * stream. Only the <code>param</code> elements and the data section
+       * are converted to {@link Element} objects.
+       *
+       * @param reader
+       *    the stream reader, on the start tag of the <code>result</code>
+       *    element, cannot be <code>null</code>. The reader is left on its
+       *    end tag.
+       *
+       * @throws ParseException
+       *    if the parse XML does not match the XINS protocol.
+       *
+       * @throws XMLStreamException
+       *    if the XML is not valid.
+       */
+      private XINSCallResultDataImpl(XMLStreamReader reader)
+      throws ParseException, XMLStreamException {
+
+         String namespaceURI = reader.getNamespaceURI();
+         checkResultElement(reader.getLocalName(), "".equals(namespaceURI) ? null : namespaceURI);
+
+         // Get and check the error code if any.
+         setErrorCode(getAttribute(reader, "errorcode"), getAttribute(reader, "code"));
+
+         // As for the elements, the text is the one after the last child
+         StringBuffer text = new StringBuffer();
+         while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            int event = reader.getEventType();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+               text.setLength(0);
+               String name = reader.getLocalName();
+               if ("param".equals(name)) {
+                  addParameter(StAXElementParser.readElement(reader));
+               } else if ("data".equals(name)) {
+                  if (_dataSection != null) {
+                     throw new ParseException("More than one \"data\" children found in the \"result\" element.");
+                  }
+                  _dataSection = StAXElementParser.readElement(reader);
+               } else {
+                  skipElement(reader);
+               }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                  || event == XMLStreamConstants.SPACE) {
+               text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+               throw new XMLStreamException("Unexpected end of the document.");
+            }
+         }
+         checkText(text.length() > 0 ? text.toString() : null);
+      }
+
+      /**
+       * Constructs a new <code>XINSCallResultDataImpl</code> instance from a
+       * result of the binary calling convention.
+       *
+       * @param reader
+       *    the reader of the binary result, cannot be <code>null</code>.
+       *
+       * @throws ParseException
+       *    if the binary result is not valid.
+       */
+      private XINSCallResultDataImpl(BinaryCallReader reader) throws ParseException {
+         _errorCode = reader.readString();
+         if (TextUtils.isEmpty(_errorCode)) {
+            _errorCode = null;
+         }
+         _parameters = reader.readParameters();
+         if (_parameters.size() == 0) {
+            _parameters = null;
+         }
+         _dataSection = reader.readElement();
+         reader.end();
+      }
+
+      /**
+       * Checks the name of the root element.
+       *
+       * @param localName
+       *    the local name of the root element, cannot be <code>null</code>.
+       *
+       * @param namespaceURI
+       *    the namespace URI of the root element, can be <code>null</code>.
+       *
+       * @throws ParseException
+       *    if the root element is not a <code>result</code> element without
+       *    namespace.
+       */
+      private static void checkResultElement(String localName, String namespaceURI)
+      throws ParseException {
+         if (!"result".equals(localName)) {
+            String detail = "Incorrect root element '" + localName + "'. Excpected 'result'.";
             throw new ParseException(detail);
          }
-         if (resultElement.getNamespaceURI() != null) {
+         if (namespaceURI != null) {
             String detail = "No namespace is allowed for the 'result' element. The namespace used is '" +
-                  resultElement.getNamespaceURI() + "'.";
+                  namespaceURI + "'.";
             throw new ParseException(detail);
          }
-         if (resultElement.getText() != null && !resultElement.getText().trim().equals("")) {
+      }
+
+      /**
+       * Checks the PCDATA of the <code>result</code> element.
+       *
+       * @param text
+       *    the PCDATA, can be <code>null</code>.
+       *
+       * @throws ParseException
+       *    if the PCDATA is not white space.
+       */
+      private static void checkText(String text) throws ParseException {
+         if (text != null && !text.trim().equals("")) {
             String detail = "No PCDATA is allowed for the 'result' element. The PCDATA returned is '" +
-                  resultElement.getText() + "'.";
+                  text + "'.";
             throw new ParseException(detail);
          }
+      }
 
-         // Get and check the error code if any.
-         _errorCode = resultElement.getAttribute("errorcode");
-         String oldErrorCode = resultElement.getAttribute("code");
+      /**
+       * Sets the error code.
+       *
+       * @param errorCode
+       *    the value of the <code>errorcode</code> attribute, can be
+       *    <code>null</code>.
+       *
+       * @param oldErrorCode
+       *    the value of the <code>code</code> attribute, can be
+       *    <code>null</code>.
+       *
+       * @throws ParseException
+       *    if both attributes are set with different values.
+       */
+      private void setErrorCode(String errorCode, String oldErrorCode) throws ParseException {
+         _errorCode = errorCode;
          if (TextUtils.isEmpty(_errorCode) && !TextUtils.isEmpty(oldErrorCode)) {
             _errorCode = oldErrorCode;
          }
@@ -192,34 +407,84 @@ public class XINSCallResultParser {
                              + "\", while attribute code=\"" + oldErrorCode + "\".";
                throw new ParseException(detail);
          }
+      }
 
-         // Get and check the parameters, if any.
-         Iterator itParamElements = resultElement.getChildElements("param").iterator();
-         while (itParamElements.hasNext()) {
-            Element nextParam = (Element) itParamElements.next();
-            String paramName = nextParam.getAttribute("name");
-            if (TextUtils.isEmpty(paramName)) {
-               throw new ParseException("No parameter name specified for a parameter: " + nextParam.toString());
-            }
-            String paramValue = nextParam.getText();
-            if (_parameters != null && _parameters.get(paramName) != null &&
-                  !_parameters.get(paramName).equals(paramValue)) {
-               String detail = "Duplicate output parameter '" + paramName +
-                     "'with different values: '" + _parameters.get(paramName) +
-                     "' and '" + paramValue + "'.";
-               throw new ParseException(detail);
+      /**
+       * Adds an output parameter.
+       *
+       * @param nextParam
+       *    the <code>param</code> element, cannot be <code>null</code>.
+       *
+       * @throws ParseException
+       *    if the parameter has no name or if it has a different value than a
+       *    previous parameter with the same name.
+       */
+      private void addParameter(Element nextParam) throws ParseException {
+         String paramName = nextParam.getAttribute("name");
+         if (TextUtils.isEmpty(paramName)) {
+            throw new ParseException("No parameter name specified for a parameter: " + nextParam.toString());
+         }
+         String paramValue = nextParam.getText();
+         if (_parameters != null && _parameters.get(paramName) != null &&
+               !_parameters.get(paramName).equals(paramValue)) {
+            String detail = "Duplicate output parameter '" + paramName +
+                  "'with different values: '" + _parameters.get(paramName) +
+                  "' and '" + paramValue + "'.";
+            throw new ParseException(detail);
+         }
+         if (!TextUtils.isEmpty(paramValue) && nextParam.getNamespaceURI() == null) {
+            if (_parameters == null) {
+               _parameters = new BasicPropertyReader();
             }
-            if (!TextUtils.isEmpty(paramValue) && nextParam.getNamespaceURI() == null) {
-               if (_parameters == null) {
-                  _parameters = new BasicPropertyReader();
-               }
-               _parameters.set(paramName, paramValue);
+            _parameters.set(paramName, paramValue);
+         }
+      }
+
+      /**
+       * Returns the value of an attribute without namespace of the current
+       * element.
+       *
+       * @param reader
+       *    the stream reader, on a start tag, cannot be <code>null</code>.
+       *
+       * @param localName
+       *    the local name of the attribute, cannot be <code>null</code>.
+       *
+       * @return
+       *    the value of the attribute, or <code>null</code> if it is not set.
+       */
+      private static String getAttribute(XMLStreamReader reader, String localName) {
+         for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String namespaceURI = reader.getAttributeNamespace(i);
+            if ((namespaceURI == null || namespaceURI.length() == 0)
+                  && localName.equals(reader.getAttributeLocalName(i))) {
+               return reader.getAttributeValue(i);
             }
          }
+         return null;
+      }
 
-         // Get the data section, if any.
-         if (resultElement.getChildElements("data").size() > 0) {
-             _dataSection = resultElement.getUniqueChildElement("data");
+      /**
+       * Skips an element and its content.
+       *
+       * @param reader
+       *    the stream reader, on the start tag of the element, cannot be
+       *    <code>null</code>. The reader is left on its end tag.
+       *
+       * @throws XMLStreamException
+       *    if the XML is not valid.
+       */
+      private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+         int depth = 1;
+         while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+               depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+               depth--;
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+               throw new XMLStreamException("Unexpected end of the document.");
+            }
          }
       }
 
@@ -12,6 +12,8 @@ import org.xins.common.FormattedParameters;
 
 import org.xins.logdoc.ExceptionUtils;
 
+import org.xins.client.async.XINSCallFuture;
+
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 import org.xins.common.collections.PropertyReader;
@@ -19,6 +21,7 @@ import org.xins.common.http.HTTPCallConfig;
 import org.xins.common.http.HTTPCallException;
 import org.xins.common.http.HTTPCallRequest;
 import org.xins.common.http.HTTPCallResult;
+import org.xins.common.http.HTTPConnectionPool;
 import org.xins.common.http.HTTPServiceCaller;
 import org.xins.common.http.StatusCodeHTTPCallException;
 import org.xins.common.service.CallConfig;
@@ -144,6 +147,14 @@ public class XINSServiceCaller extends ServiceCaller {
     */
    private HashMap _serviceCallers;
 
+   /**
+    * The pool of persistent HTTP connections shared by the HTTP service
+    * callers. This field is lazily initialized since
+    * {@link #setDescriptor(Descriptor)} is called from the superclass
+    * constructor.
+    */
+   private HTTPConnectionPool _connectionPool;
+
    /**
     * Constructs a new <code>XINSServiceCaller</code> with the specified
     * descriptor and call configuration.
@@ -237,6 +248,9 @@ public class XINSServiceCaller extends ServiceCaller {
       if (_serviceCallers == null) {
          _serviceCallers = new HashMap();
       }
+      if (_connectionPool == null) {
+         _connectionPool = new HTTPConnectionPool();
+      }
       if (descriptor != null) {
          Iterator targets = descriptor.iterateTargets();
          while (targets.hasNext()) {
@@ -244,6 +258,7 @@ public class XINSServiceCaller extends ServiceCaller {
             String protocol = nextTarget.getProtocol();
             if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
                HTTPServiceCaller serviceCaller = new HTTPServiceCaller(nextTarget);
+               serviceCaller.setConnectionPool(_connectionPool);
                _serviceCallers.put(nextTarget, serviceCaller);
             } else if ("file".equalsIgnoreCase(protocol)) {
                FileServiceCaller serviceCaller = new FileServiceCaller(nextTarget);
@@ -255,6 +270,20 @@ public class XINSServiceCaller extends ServiceCaller {
       }
    }
 
+   /**
+    * Returns the pool of persistent HTTP connections used by this service
+    * caller. The pool can be used to configure the connections and to
+    * retrieve the connection statistics.
+    *
+    * @return
+    *    the connection pool, never <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public HTTPConnectionPool getConnectionPool() {
+      return _connectionPool;
+   }
+
    /**
     * Sets the associated <code>CAPI</code> instance.
     *
@@ -458,6 +487,52 @@ public class XINSServiceCaller extends ServiceCaller {
       return call(request, null);
    }
 
+   /**
+    * Executes the specified request asynchronously. The call is executed on
+    * a thread of a shared pool; the returned object can be used to wait for
+    * the result.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the handle to the result of the call, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public XINSCallFuture callAsync(XINSCallRequest request)
+   throws IllegalArgumentException {
+      return callAsync(request, null);
+   }
+
+   /**
+    * Executes the specified request asynchronously, using the specified call
+    * configuration.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @param callConfig
+    *    the call configuration, or <code>null</code> if the one of the
+    *    request or the default one should be used.
+    *
+    * @return
+    *    the handle to the result of the call, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public XINSCallFuture callAsync(XINSCallRequest request,
+                                   XINSCallConfig  callConfig)
+   throws IllegalArgumentException {
+      return new XINSCallFuture(this, request, callConfig);
+   }
+
    /**
     * Executes the specified request on the given target. If the call
     * succeeds, then a {@link XINSCallResult} object is returned, otherwise a
@@ -531,7 +606,7 @@ public class XINSServiceCaller extends ServiceCaller {
       Log.log_2100(url, function, params);
 
       // Get the contained HTTP request from the XINS request
-      HTTPCallRequest httpRequest = xinsRequest.getHTTPCallRequest();
+      HTTPCallRequest httpRequest = xinsRequest.getHTTPCallRequest(xinsConfig.getBinaryConvention());
 
       // Convert XINSCallConfig to HTTPCallConfig
       HTTPCallConfig httpConfig = xinsConfig.getHTTPCallConfig();
@@ -7,8 +7,6 @@
 package org.xins.client.async;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import org.xins.client.AbstractCAPI;
 import org.xins.client.AbstractCAPICallRequest;
@@ -61,67 +59,9 @@ public class AsynchronousCall {
     *    the input parameters for this call.
     */
    public void call(AbstractCAPI capi, AbstractCAPICallRequest request) {
-      CallNotifyThread thread = new CallNotifyThread(capi, request, _listeners);
-      thread.start();
-   }
-
-   /**
-    * Thread that executes the call to the function.
-    *
-    * @version $Revision$ $Date$
-    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
-    */
-   private static class CallNotifyThread extends CallCAPIThread {
-
-      /**
-       * The listeners to notify.
-       */
-      private final List _listeners;
-
-      /**
-       * Calls a CAPI function on a separate thread and notifies the listeners
-       * of the result.
-       *
-       * @param capi
-       *    the CAPI to use to call the function.
-       *
-       * @param request
-       *    the input parameters for this call.
-       *
-       * @param listeners
-       *    the listeners to notify of the result of the call.
-       */
-      CallNotifyThread(AbstractCAPI capi, AbstractCAPICallRequest request, List listeners) {
-         super(capi, request);
-
-         // Notify the listeners registered at the moment of the call and not
-         // when the result is received.
-         _listeners = Collections.unmodifiableList(listeners);
-      }
-
-      public void run() {
-
-         // Call the API
-         super.run();
 
-         // Get the result and notify the listeners
-         if (getException() == null) {
-            CallSucceededEvent event = new CallSucceededEvent(getCAPI(),
-                  getRequest(), getDuration(), getResult());
-            Iterator itListeners = _listeners.iterator();
-            while (itListeners.hasNext()) {
-               CallListener listener = (CallListener) itListeners.next();
-               listener.callSucceeded(event);
-            }
-         } else {
-            CallFailedEvent event = new CallFailedEvent(getCAPI(),
-                  getRequest(), getDuration(), getException());
-            Iterator itListeners = _listeners.iterator();
-            while (itListeners.hasNext()) {
-               CallListener listener = (CallListener) itListeners.next();
-               listener.callFailed(event);
-            }
-         }
-      }
+      // Notify the listeners registered at the moment of the call and not
+      // when the result is received.
+      new CAPICallFuture(capi, request, new ArrayList(_listeners));
    }
 }
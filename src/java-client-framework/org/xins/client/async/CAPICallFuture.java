@@ -0,0 +1,217 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.client.async;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xins.client.AbstractCAPI;
+import org.xins.client.AbstractCAPICallRequest;
+import org.xins.client.AbstractCAPICallResult;
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Handle to the result of a CAPI call that is executed asynchronously.
+ *
+ * <p>The call is started as soon as the object is constructed. The
+ * {@link CallListener}s added with {@link #addCallListener(CallListener)}
+ * are notified when the call finishes.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class CAPICallFuture extends CallFuture {
+
+   /**
+    * The CAPI to call. Never <code>null</code>.
+    */
+   private final AbstractCAPI _capi;
+
+   /**
+    * The request to execute. Never <code>null</code>.
+    */
+   private final AbstractCAPICallRequest _request;
+
+   /**
+    * The listeners to notify when the call is finished. Never
+    * <code>null</code>. All accesses should be synchronized on this object.
+    */
+   private final List _listeners = new ArrayList();
+
+   /**
+    * Flag that indicates whether the listeners have been notified.
+    */
+   private boolean _notified;
+
+   /**
+    * Constructs a new <code>CAPICallFuture</code> and starts the call.
+    *
+    * @param capi
+    *    the CAPI to call, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the request to execute, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>capi == null || request == null</code>.
+    */
+   public CAPICallFuture(AbstractCAPI capi, AbstractCAPICallRequest request)
+   throws IllegalArgumentException {
+      this(capi, request, null);
+   }
+
+   /**
+    * Constructs a new <code>CAPICallFuture</code> with initial listeners and
+    * starts the call.
+    *
+    * @param capi
+    *    the CAPI to call, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the request to execute, cannot be <code>null</code>.
+    *
+    * @param listeners
+    *    the {@link CallListener}s to notify when the call has finished, or
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>capi == null || request == null</code>.
+    */
+   CAPICallFuture(AbstractCAPI capi, AbstractCAPICallRequest request, List listeners)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("capi", capi, "request", request);
+
+      _capi    = capi;
+      _request = request;
+      if (listeners != null) {
+         _listeners.addAll(listeners);
+      }
+      start();
+   }
+
+   /**
+    * Executes the call using the <code>call</code><em>FunctionName</em>
+    * method of the CAPI.
+    *
+    * @return
+    *    the {@link AbstractCAPICallResult}, never <code>null</code>.
+    *
+    * @throws Exception
+    *    if the call failed.
+    */
+   protected Object execute() throws Exception {
+      String functionName = "call" + _request.functionName();
+      Class[] callArgumentsClass = {_request.getClass()};
+      Object[] callArguments = {_request};
+      Method callMethod = _capi.getClass().getMethod(functionName, callArgumentsClass);
+      try {
+         return callMethod.invoke(_capi, callArguments);
+      } catch (InvocationTargetException itex) {
+         Throwable target = itex.getTargetException();
+         if (target instanceof Exception) {
+            throw (Exception) target;
+         } else {
+            throw (Error) target;
+         }
+      }
+   }
+
+   /**
+    * Notifies the listeners that the call has finished.
+    */
+   protected void callFinished() {
+      Object[] listeners;
+      synchronized (_listeners) {
+         _notified = true;
+         listeners = _listeners.toArray();
+         _listeners.clear();
+      }
+      for (int i = 0; i < listeners.length; i++) {
+         notifyListener((CallListener) listeners[i]);
+      }
+   }
+
+   /**
+    * Notifies the specified listener of the result of the call.
+    *
+    * @param listener
+    *    the listener to notify, cannot be <code>null</code>.
+    */
+   private void notifyListener(CallListener listener) {
+      if (getException() == null) {
+         CallSucceededEvent event = new CallSucceededEvent(_capi,
+               _request, getDuration(), getCAPIResult());
+         listener.callSucceeded(event);
+      } else {
+         CallFailedEvent event = new CallFailedEvent(_capi,
+               _request, getDuration(), getException());
+         listener.callFailed(event);
+      }
+   }
+
+   /**
+    * Adds a listener that is notified when the call has finished. If the
+    * call has already finished, the listener is notified immediately, on the
+    * current thread.
+    *
+    * @param listener
+    *    the listener to add, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>listener == null</code>.
+    */
+   public void addCallListener(CallListener listener)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("listener", listener);
+
+      synchronized (_listeners) {
+         if (! _notified && ! isDone()) {
+            _listeners.add(listener);
+            return;
+         }
+      }
+      notifyListener(listener);
+   }
+
+   /**
+    * Returns the CAPI that is called.
+    *
+    * @return
+    *    the CAPI, never <code>null</code>.
+    */
+   public AbstractCAPI getCAPI() {
+      return _capi;
+   }
+
+   /**
+    * Returns the request that is executed.
+    *
+    * @return
+    *    the request, never <code>null</code>.
+    */
+   public AbstractCAPICallRequest getRequest() {
+      return _request;
+   }
+
+   /**
+    * Returns the result of the call.
+    *
+    * @return
+    *    the result of the call, or <code>null</code> if the call has not
+    *    finished or failed.
+    */
+   public AbstractCAPICallResult getCAPIResult() {
+      return (AbstractCAPICallResult) getResult();
+   }
+}
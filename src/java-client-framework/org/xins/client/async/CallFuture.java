@@ -0,0 +1,397 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.client.async;
+
+import org.apache.log4j.NDC;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.WorkerPool;
+import org.xins.common.service.CallException;
+
+/**
+ * Handle to the result of a call that is executed asynchronously.
+ *
+ * <p>The call is executed by a thread of a bounded pool of worker threads
+ * that is shared by all asynchronous calls, so that calling many back-ends
+ * at the same time does not require a new thread per call. The maximum
+ * number of threads and the maximum number of queued calls can be set with
+ * the system properties {@link #POOL_SIZE_PROPERTY} and
+ * {@link #QUEUE_SIZE_PROPERTY}. If the pool cannot accept more calls, the
+ * call fails at once with an {@link IllegalStateException}, which is counted
+ * as a rejected task in the statistics of the pool.
+ *
+ * <p>Several calls can be started at once and then be waited for using
+ * {@link #waitForAll(CallFuture[],long)}. For example:
+ *
+ * <blockquote><pre>CAPICallFuture future1 = capi1.callAsync(request1);
+CAPICallFuture future2 = capi2.callAsync(request2);
+if (CallFuture.waitForAll(new CallFuture[] { future1, future2 }, 5000L)) {
+   MyResult result1 = (MyResult) future1.getCAPIResult();
+   ...
+}</pre></blockquote>
+ *
+ * <p>The <em>Nested Diagnostic Context identifier</em> (NDC) of the thread
+ * that starts the call is also used while the call is executed.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public abstract class CallFuture {
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * threads executing asynchronous calls.
+    */
+   public static final String POOL_SIZE_PROPERTY = "org.xins.client.async.poolSize";
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * asynchronous calls waiting for a thread.
+    */
+   public static final String QUEUE_SIZE_PROPERTY = "org.xins.client.async.queueSize";
+
+   /**
+    * The pool executing the asynchronous calls. Lazily initialized.
+    */
+   private static WorkerPool POOL;
+
+   /**
+    * The <em>Nested Diagnostic Context identifier</em> (NDC) of the thread
+    * that started the call, or <code>null</code>.
+    */
+   private final String _context;
+
+   /**
+    * The thread executing the call, or <code>null</code> if the call is not
+    * being executed.
+    */
+   private Thread _thread;
+
+   /**
+    * Flag that indicates whether the call has finished.
+    */
+   private boolean _done;
+
+   /**
+    * Flag that indicates whether the call has been cancelled.
+    */
+   private boolean _cancelled;
+
+   /**
+    * The result of the call, or <code>null</code>.
+    */
+   private Object _result;
+
+   /**
+    * The exception thrown by the call, or <code>null</code>.
+    */
+   private Exception _exception;
+
+   /**
+    * The duration of the call in milliseconds, or <code>-1L</code> if
+    * unknown.
+    */
+   private long _duration = -1L;
+
+   /**
+    * Constructs a new <code>CallFuture</code>. The call is started by
+    * calling {@link #start()}.
+    */
+   protected CallFuture() {
+      _context = NDC.peek();
+   }
+
+   /**
+    * Returns the pool executing the asynchronous calls.
+    *
+    * @return
+    *    the pool, never <code>null</code>.
+    */
+   private static synchronized WorkerPool getPool() {
+      if (POOL == null) {
+         POOL = WorkerPool.create("XINS asynchronous call", POOL_SIZE_PROPERTY, QUEUE_SIZE_PROPERTY);
+      }
+      return POOL;
+   }
+
+   /**
+    * Returns the pool executing the asynchronous calls, for example to
+    * retrieve its statistics.
+    *
+    * @return
+    *    the pool, never <code>null</code>.
+    */
+   public static WorkerPool getWorkerPool() {
+      return getPool();
+   }
+
+   /**
+    * Starts the call. This method should be called only once, by the
+    * constructor of the subclass.
+    */
+   protected final void start() {
+      Runnable task = new Runnable() {
+         public void run() {
+            executeCall();
+         }
+      };
+      if (! getPool().execute(task)) {
+         String detail = "The asynchronous call is rejected, the pool is saturated: " + getPool();
+         finish(null, new IllegalStateException(detail), 0L);
+      }
+   }
+
+   /**
+    * Executes the call on the current thread and stores the result.
+    */
+   private void executeCall() {
+      synchronized (this) {
+         if (_cancelled) {
+            return;
+         }
+         _thread = Thread.currentThread();
+      }
+      if (_context != null) {
+         NDC.push(_context);
+      }
+
+      Object    result    = null;
+      Exception exception = null;
+      long      duration;
+      long      start     = System.currentTimeMillis();
+      try {
+         result   = execute();
+         duration = System.currentTimeMillis() - start;
+      } catch (Throwable ex) {
+
+         // An Error is reported as a programming error, so that the call
+         // still finishes and the waiting threads are woken up
+         if (ex instanceof Exception) {
+            exception = (Exception) ex;
+         } else {
+            exception = Utils.logProgrammingError(ex);
+         }
+         if (ex instanceof CallException) {
+            duration = ((CallException) ex).getDuration();
+         } else {
+            duration = System.currentTimeMillis() - start;
+         }
+      } finally {
+         if (_context != null) {
+            NDC.pop();
+         }
+      }
+
+      finish(result, exception, duration);
+   }
+
+   /**
+    * Stores the outcome of the call, wakes up the threads waiting for it and
+    * calls {@link #callFinished()}.
+    *
+    * @param result
+    *    the result of the call, can be <code>null</code>.
+    *
+    * @param exception
+    *    the exception thrown by the call, or <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    */
+   private void finish(Object result, Exception exception, long duration) {
+      synchronized (this) {
+         _thread    = null;
+         _result    = result;
+         _exception = exception;
+         _duration  = duration;
+         _done      = true;
+         notifyAll();
+      }
+      callFinished();
+   }
+
+   /**
+    * Executes the call. This method is called on a worker thread.
+    *
+    * @return
+    *    the result of the call, can be <code>null</code>.
+    *
+    * @throws Exception
+    *    if the call failed.
+    */
+   protected abstract Object execute() throws Exception;
+
+   /**
+    * Callback method invoked when the call has finished, on the thread that
+    * executed the call. The implementation of this method in class
+    * <code>CallFuture</code> does nothing.
+    */
+   protected void callFinished() {
+      // empty
+   }
+
+   /**
+    * Cancels the call. If the call is being executed, the executing thread
+    * is interrupted. If the call has not started yet, it will not be
+    * executed.
+    *
+    * @return
+    *    <code>true</code> if the call was cancelled, <code>false</code> if it
+    *    had already finished.
+    */
+   public synchronized boolean cancel() {
+      if (_done) {
+         return false;
+      }
+      _cancelled = true;
+      if (_thread != null) {
+         _thread.interrupt();
+      }
+      return true;
+   }
+
+   /**
+    * Indicates whether the call has been cancelled.
+    *
+    * @return
+    *    <code>true</code> if {@link #cancel()} has been called before the
+    *    call finished.
+    */
+   public synchronized boolean isCancelled() {
+      return _cancelled;
+   }
+
+   /**
+    * Indicates whether the call has finished, successfully or not.
+    *
+    * @return
+    *    <code>true</code> if the call has finished.
+    */
+   public synchronized boolean isDone() {
+      return _done;
+   }
+
+   /**
+    * Waits for the call to finish.
+    *
+    * @param timeOut
+    *    the maximum time to wait in milliseconds, or <code>0L</code> to wait
+    *    without time limit.
+    *
+    * @return
+    *    <code>true</code> if the call has finished, <code>false</code> if the
+    *    time-out period elapsed, the call was cancelled or the current
+    *    thread was interrupted.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>timeOut &lt; 0L</code>.
+    */
+   public synchronized boolean waitFor(long timeOut)
+   throws IllegalArgumentException {
+      if (timeOut < 0L) {
+         throw new IllegalArgumentException("timeOut (" + timeOut + ") < 0");
+      }
+
+      long deadline = System.currentTimeMillis() + timeOut;
+      while (! _done && ! _cancelled) {
+         long remaining = deadline - System.currentTimeMillis();
+         if (timeOut > 0L && remaining <= 0L) {
+            break;
+         }
+         try {
+            wait(timeOut == 0L ? 0L : remaining);
+         } catch (InterruptedException exception) {
+            break;
+         }
+      }
+      return _done;
+   }
+
+   /**
+    * Waits for all the specified calls to finish.
+    *
+    * @param futures
+    *    the calls to wait for, cannot be <code>null</code>.
+    *
+    * @param timeOut
+    *    the maximum time to wait in milliseconds for all calls together, or
+    *    <code>0L</code> to wait without time limit.
+    *
+    * @return
+    *    <code>true</code> if all calls have finished, <code>false</code>
+    *    otherwise.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>futures == null || timeOut &lt; 0L</code> or if one of the
+    *    elements of <code>futures</code> is <code>null</code>.
+    */
+   public static boolean waitForAll(CallFuture[] futures, long timeOut)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("futures", futures);
+      if (timeOut < 0L) {
+         throw new IllegalArgumentException("timeOut (" + timeOut + ") < 0");
+      }
+
+      long deadline = System.currentTimeMillis() + timeOut;
+      for (int i = 0; i < futures.length; i++) {
+         MandatoryArgumentChecker.check("futures[" + i + "]", futures[i]);
+         long remaining = 0L;
+         if (timeOut > 0L) {
+            remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+               return false;
+            }
+         }
+         if (! futures[i].waitFor(remaining)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the result of the call.
+    *
+    * @return
+    *    the result of the call, or <code>null</code> if the call has not
+    *    finished or failed.
+    */
+   public synchronized Object getResult() {
+      return _result;
+   }
+
+   /**
+    * Returns the exception thrown by the call.
+    *
+    * @return
+    *    the exception, or <code>null</code> if the call has not finished or
+    *    succeeded.
+    */
+   public synchronized Exception getException() {
+      return _exception;
+   }
+
+   /**
+    * Returns the duration of the call.
+    *
+    * @return
+    *    the duration of the call in milliseconds, or <code>-1L</code> if the
+    *    call has not finished.
+    */
+   public synchronized long getDuration() {
+      return _duration;
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.client.async;
+
+import org.xins.client.XINSCallConfig;
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSCallResult;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Handle to the result of a XINS call that is executed asynchronously with a
+ * {@link XINSServiceCaller}.
+ *
+ * <p>The call is started as soon as the object is constructed.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class XINSCallFuture extends CallFuture {
+
+   /**
+    * The service caller. Never <code>null</code>.
+    */
+   private final XINSServiceCaller _caller;
+
+   /**
+    * The request to execute. Never <code>null</code>.
+    */
+   private final XINSCallRequest _request;
+
+   /**
+    * The call configuration, or <code>null</code>.
+    */
+   private final XINSCallConfig _callConfig;
+
+   /**
+    * Constructs a new <code>XINSCallFuture</code> and starts the call.
+    *
+    * @param caller
+    *    the service caller to use, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the request to execute, cannot be <code>null</code>.
+    *
+    * @param callConfig
+    *    the call configuration, or <code>null</code> if the one of the
+    *    request or of the service caller should be used.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>caller == null || request == null</code>.
+    */
+   public XINSCallFuture(XINSServiceCaller caller,
+                         XINSCallRequest   request,
+                         XINSCallConfig    callConfig)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("caller", caller, "request", request);
+
+      _caller     = caller;
+      _request    = request;
+      _callConfig = callConfig;
+      start();
+   }
+
+   /**
+    * Executes the call using the service caller.
+    *
+    * @return
+    *    the {@link XINSCallResult}, never <code>null</code>.
+    *
+    * @throws Exception
+    *    if the call failed.
+    */
+   protected Object execute() throws Exception {
+      return _caller.call(_request, _callConfig);
+   }
+
+   /**
+    * Returns the request that is executed.
+    *
+    * @return
+    *    the request, never <code>null</code>.
+    */
+   public XINSCallRequest getRequest() {
+      return _request;
+   }
+
+   /**
+    * Returns the result of the call.
+    *
+    * @return
+    *    the result of the call, or <code>null</code> if the call has not
+    *    finished or failed.
+    */
+   public XINSCallResult getXINSCallResult() {
+      return (XINSCallResult) getResult();
+   }
+}
@@ -29,11 +29,17 @@ public final class TimeOutController {
     * executing that task is interrupted using the {@link Thread#interrupt()}
     * method and a {@link TimeOutException} is thrown.
     *
-    * <p>Note that the specified task could be run either in the current
-    * thread or in a new thread. In the latter case, no initialization is
-    * performed. For example, the <em>Nested Diagnostic Context
-    * identifier</em> (NDC) is not copied from the current thread to the new
-    * one.
+    * <p>The task is executed on a thread of the shared {@link WorkerPool},
+    * while the current thread waits for it to finish. If the pool cannot
+    * accept the task within the time-out period, the task is not executed
+    * and a {@link TimeOutException} is thrown. Note that no
+    * initialization is performed on the thread that executes the task. For
+    * example, the <em>Nested Diagnostic Context identifier</em> (NDC) is not
+    * copied from the current thread to the executing one.
+    *
+    * <p><em>Since XINS 2.4, a task that is a {@link Thread} is no longer
+    * started, but its <code>run()</code> method is executed by the worker
+    * thread.</em>
     *
     * @param task
     *    the task to run, cannot be <code>null</code>.
@@ -55,7 +61,7 @@ public final class TimeOutController {
     *
     * @throws TimeOutException
     *    if the thread did not finish within the total time-out period and was
-    *    interrupted.
+    *    interrupted, or if the task could not be started within that period.
     */
    public static void execute(Runnable task, int timeOut)
    throws IllegalArgumentException,
@@ -68,35 +74,126 @@ public final class TimeOutController {
       if (timeOut <= 0) {
          throw new IllegalArgumentException("timeOut (" + timeOut + ") <= 0");
       }
-
-      // We need a Thread instance. If the argument is already a Thread
-      // instance, then use it, otherwise construct a new Thread instance.
-      Thread thread;
-      if (task instanceof Thread) {
-         thread = (Thread) task;
-      } else {
-         // XXX: To improve performance and manageability, we could use a
-         //      thread pool like the one that is available in J2SE 5.0.
-         thread = new Thread(task);
+      if (task instanceof Thread && ((Thread) task).isAlive()) {
+         throw new IllegalThreadStateException("Thread " + ((Thread) task).getName() + " is already started.");
       }
 
-      // Start the thread. This may throw an IllegalThreadStateException.
-      thread.start();
-
-      // Wait for the thread to finish, within limits
-      try {
-         thread.join(timeOut);
-      } catch (InterruptedException exception) {
-         Utils.logIgnoredException(exception);
+      // Execute the task on a worker thread. If the pool is saturated, wait
+      // for it within the time-out period.
+      long deadline = System.currentTimeMillis() + timeOut;
+      ControlledTask controlled = new ControlledTask(task);
+      if (! WorkerPool.getSharedInstance().execute(controlled, timeOut)) {
+         throw new TimeOutException();
       }
 
-      // If the thread is still running at this point, it should stop
-      if (thread.isAlive()) {
+      // Wait for the task to finish, within limits
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0L || ! controlled.waitFor((int) remaining)) {
 
          // Interrupt the thread. This may throw a SecurityException
-         thread.interrupt();
+         controlled.cancel();
 
          throw new TimeOutException();
       }
    }
+
+   /**
+    * Wrapper around a task that keeps track of the thread executing it and
+    * of whether it has finished.
+    *
+    * @version $Revision$ $Date$
+    */
+   private static final class ControlledTask implements Runnable {
+
+      /**
+       * Constructs a new <code>ControlledTask</code>.
+       *
+       * @param task
+       *    the task to execute, should not be <code>null</code>.
+       */
+      ControlledTask(Runnable task) {
+         _task = task;
+      }
+
+      /**
+       * The task to execute. Never <code>null</code>.
+       */
+      private final Runnable _task;
+
+      /**
+       * The thread currently executing the task, or <code>null</code> if the
+       * task is not being executed.
+       */
+      private Thread _thread;
+
+      /**
+       * Flag that indicates whether the task has finished.
+       */
+      private boolean _done;
+
+      /**
+       * Flag that indicates whether the task has been cancelled.
+       */
+      private boolean _cancelled;
+
+      /**
+       * Executes the task, unless it has been cancelled already.
+       */
+      public void run() {
+         synchronized (this) {
+            if (_cancelled) {
+               return;
+            }
+            _thread = Thread.currentThread();
+         }
+         try {
+            _task.run();
+         } finally {
+            synchronized (this) {
+               _thread = null;
+               _done   = true;
+               notifyAll();
+            }
+         }
+      }
+
+      /**
+       * Waits until the task has finished, within limits.
+       *
+       * @param timeOut
+       *    the maximum time to wait in milliseconds, must be &gt; 0.
+       *
+       * @return
+       *    <code>true</code> if the task has finished, <code>false</code> if
+       *    the time-out period has elapsed.
+       */
+      synchronized boolean waitFor(int timeOut) {
+         long deadline = System.currentTimeMillis() + timeOut;
+         long remaining = timeOut;
+         while (! _done && remaining > 0) {
+            try {
+               wait(remaining);
+            } catch (InterruptedException exception) {
+               Utils.logIgnoredException(exception);
+               break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+         }
+         return _done;
+      }
+
+      /**
+       * Cancels the task. If the task is being executed, the executing
+       * thread is interrupted.
+       *
+       * @throws SecurityException
+       *    if the interruption of the thread was disallowed.
+       */
+      synchronized void cancel() throws SecurityException {
+         _cancelled = true;
+         if (_thread != null) {
+            _thread.interrupt();
+         }
+      }
+   }
 }
@@ -0,0 +1,562 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common;
+
+import java.util.LinkedList;
+
+import org.apache.log4j.NDC;
+
+/**
+ * Bounded pool of worker threads. Tasks are executed by a limited number of
+ * reusable threads. If all threads are busy, tasks are queued, up to a
+ * maximum queue size. If the queue is full as well, the task is rejected,
+ * or the caller waits for room in the queue, within a time-out.
+ *
+ * <p>Worker threads are created on demand and terminate after they have been
+ * idle for {@link #KEEP_ALIVE_TIME} milliseconds. All worker threads are
+ * daemon threads.
+ *
+ * <p>A JVM-wide pool is returned by {@link #getSharedInstance()}. Its maximum
+ * number of threads and maximum queue size can be set with the system
+ * properties {@link #SIZE_PROPERTY} and {@link #QUEUE_SIZE_PROPERTY}.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class WorkerPool {
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * threads of the shared pool.
+    */
+   public static final String SIZE_PROPERTY = "org.xins.common.workerPool.size";
+
+   /**
+    * The name of the system property that specifies the maximum queue size
+    * of the shared pool.
+    */
+   public static final String QUEUE_SIZE_PROPERTY = "org.xins.common.workerPool.queueSize";
+
+   /**
+    * The default maximum number of threads of the shared pool.
+    */
+   public static final int DEFAULT_SIZE = 256;
+
+   /**
+    * The default maximum queue size of the shared pool.
+    */
+   public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+   /**
+    * The time in milliseconds after which an idle worker thread terminates.
+    */
+   public static final int KEEP_ALIVE_TIME = 60000;
+
+   /**
+    * Fully-qualified name of this class.
+    */
+   private static final String CLASSNAME = WorkerPool.class.getName();
+
+   /**
+    * The shared pool. Lazily initialized.
+    */
+   private static WorkerPool SHARED;
+
+   /**
+    * The name of this pool, used for the names of the threads. Never
+    * <code>null</code>.
+    */
+   private final String _name;
+
+   /**
+    * The maximum number of threads.
+    */
+   private final int _maxThreads;
+
+   /**
+    * The maximum number of queued tasks.
+    */
+   private final int _maxQueueSize;
+
+   /**
+    * The queued tasks. All accesses should be synchronized on this object,
+    * which is also used to signal the worker threads.
+    */
+   private final LinkedList _queue = new LinkedList();
+
+   /**
+    * The number of worker threads.
+    */
+   private int _threadCount;
+
+   /**
+    * The number of worker threads waiting for a task.
+    */
+   private int _idleCount;
+
+   /**
+    * The number of worker threads executing a task.
+    */
+   private int _activeCount;
+
+   /**
+    * The number of threads waiting until a task can be accepted.
+    */
+   private int _waitingCount;
+
+   /**
+    * The highest number of worker threads reached.
+    */
+   private int _largestThreadCount;
+
+   /**
+    * The number of worker threads created.
+    */
+   private long _createdCount;
+
+   /**
+    * The number of tasks executed.
+    */
+   private long _completedCount;
+
+   /**
+    * The number of tasks rejected.
+    */
+   private long _rejectedCount;
+
+   /**
+    * Constructs a new <code>WorkerPool</code>.
+    *
+    * @param name
+    *    the name of the pool, used for the names of the worker threads,
+    *    cannot be <code>null</code>.
+    *
+    * @param maxThreads
+    *    the maximum number of worker threads, must be &gt; 0.
+    *
+    * @param maxQueueSize
+    *    the maximum number of tasks waiting for a worker thread, must be
+    *    &gt;= 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || maxThreads &lt;= 0 || maxQueueSize &lt; 0</code>.
+    */
+   public WorkerPool(String name, int maxThreads, int maxQueueSize)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("name", name);
+      if (maxThreads <= 0) {
+         throw new IllegalArgumentException("maxThreads (" + maxThreads + ") <= 0");
+      } else if (maxQueueSize < 0) {
+         throw new IllegalArgumentException("maxQueueSize (" + maxQueueSize + ") < 0");
+      }
+
+      _name         = name;
+      _maxThreads   = maxThreads;
+      _maxQueueSize = maxQueueSize;
+   }
+
+   /**
+    * Returns the JVM-wide pool. This pool is created the first time this
+    * method is called.
+    *
+    * @return
+    *    the shared pool, never <code>null</code>.
+    */
+   public static synchronized WorkerPool getSharedInstance() {
+      if (SHARED == null) {
+         SHARED = create("XINS worker", SIZE_PROPERTY, QUEUE_SIZE_PROPERTY);
+      }
+      return SHARED;
+   }
+
+   /**
+    * Creates a new <code>WorkerPool</code> with the maximum number of
+    * threads and maximum queue size specified by system properties. If a
+    * property is not set or is invalid, the default value is used.
+    *
+    * @param name
+    *    the name of the pool, used for the names of the worker threads,
+    *    cannot be <code>null</code>.
+    *
+    * @param sizeProperty
+    *    the name of the system property that specifies the maximum number
+    *    of threads, cannot be <code>null</code>.
+    *
+    * @param queueSizeProperty
+    *    the name of the system property that specifies the maximum queue
+    *    size, cannot be <code>null</code>.
+    *
+    * @return
+    *    the new pool, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || sizeProperty == null || queueSizeProperty == null</code>.
+    */
+   public static WorkerPool create(String name, String sizeProperty, String queueSizeProperty)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("name",              name,
+                                     "sizeProperty",      sizeProperty,
+                                     "queueSizeProperty", queueSizeProperty);
+
+      int size      = getIntProperty(sizeProperty,      DEFAULT_SIZE,       1);
+      int queueSize = getIntProperty(queueSizeProperty, DEFAULT_QUEUE_SIZE, 0);
+      return new WorkerPool(name, size, queueSize);
+   }
+
+   /**
+    * Returns the value of the specified system property as an integer.
+    *
+    * @param name
+    *    the name of the system property, should not be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value to return if the property is not set or is invalid.
+    *
+    * @param minimum
+    *    the minimum acceptable value.
+    *
+    * @return
+    *    the value of the property.
+    */
+   private static int getIntProperty(String name, int defaultValue, int minimum) {
+      String value = System.getProperty(name);
+      if (value == null || value.trim().length() < 1) {
+         return defaultValue;
+      }
+      try {
+         int intValue = Integer.parseInt(value.trim());
+         return intValue < minimum ? defaultValue : intValue;
+      } catch (NumberFormatException exception) {
+         Utils.logIgnoredException(exception);
+         return defaultValue;
+      }
+   }
+
+   /**
+    * Executes the specified task on one of the worker threads. If no thread
+    * is available and no thread can be created, the task is queued. If the
+    * queue is full, the task is rejected and <code>false</code> is returned.
+    *
+    * @param task
+    *    the task to execute, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the task will be executed, <code>false</code> if
+    *    it has been rejected.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>task == null</code>.
+    */
+   public boolean execute(Runnable task) throws IllegalArgumentException {
+      return execute(task, 0L);
+   }
+
+   /**
+    * Executes the specified task on one of the worker threads. If no thread
+    * is available and no thread can be created, the task is queued. If the
+    * queue is full, the current thread waits until the task can be accepted,
+    * within the specified time-out. If the time-out elapses or the current
+    * thread is interrupted, the task is rejected and <code>false</code> is
+    * returned.
+    *
+    * @param task
+    *    the task to execute, cannot be <code>null</code>.
+    *
+    * @param timeOut
+    *    the maximum time to wait in milliseconds, must be &gt;= 0.
+    *
+    * @return
+    *    <code>true</code> if the task will be executed, <code>false</code> if
+    *    it has been rejected.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>task == null || timeOut &lt; 0L</code>.
+    */
+   public boolean execute(Runnable task, long timeOut)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("task", task);
+      if (timeOut < 0L) {
+         throw new IllegalArgumentException("timeOut (" + timeOut + ") < 0");
+      }
+
+      long deadline = System.currentTimeMillis() + timeOut;
+      synchronized (_queue) {
+         while (! offer(task)) {
+
+            // Reject the task
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+               _rejectedCount++;
+               return false;
+            }
+
+            // Wait until a worker thread takes a task or becomes idle
+            _waitingCount++;
+            try {
+               _queue.wait(remaining);
+            } catch (InterruptedException exception) {
+               Thread.currentThread().interrupt();
+               _rejectedCount++;
+               return false;
+            } finally {
+               _waitingCount--;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Accepts the specified task if a worker thread can execute it or if it
+    * can be queued. This method should be called while synchronized on
+    * <code>_queue</code>.
+    *
+    * @param task
+    *    the task to execute, should not be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the task will be executed, <code>false</code> if
+    *    it cannot be accepted now.
+    */
+   private boolean offer(Runnable task) {
+
+      // An idle thread will pick up the task. Threads waiting to submit a
+      // task also wait on the queue, so then all threads are woken up.
+      if (_idleCount > _queue.size()) {
+         _queue.addLast(task);
+         if (_waitingCount > 0) {
+            _queue.notifyAll();
+         } else {
+            _queue.notify();
+         }
+
+      // Create a new thread that will pick up the task
+      } else if (_threadCount < _maxThreads) {
+         _queue.addLast(task);
+         _threadCount++;
+         _createdCount++;
+         if (_threadCount > _largestThreadCount) {
+            _largestThreadCount = _threadCount;
+         }
+         Worker worker = new Worker(_name + " #" + _createdCount);
+         worker.start();
+
+      // Queue the task until a thread is available
+      } else if (_queue.size() < _maxQueueSize) {
+         _queue.addLast(task);
+
+      // The task cannot be accepted now
+      } else {
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Wakes up the threads waiting until a task can be accepted, if any. This
+    * method should be called while synchronized on <code>_queue</code>.
+    */
+   private void signalWaiting() {
+      if (_waitingCount > 0) {
+         _queue.notifyAll();
+      }
+   }
+
+   /**
+    * Returns the maximum number of worker threads.
+    *
+    * @return
+    *    the maximum number of threads, always &gt; 0.
+    */
+   public int getMaxThreads() {
+      return _maxThreads;
+   }
+
+   /**
+    * Returns the maximum number of tasks waiting for a worker thread.
+    *
+    * @return
+    *    the maximum queue size, always &gt;= 0.
+    */
+   public int getMaxQueueSize() {
+      return _maxQueueSize;
+   }
+
+   /**
+    * Returns the current number of worker threads.
+    *
+    * @return
+    *    the number of threads, always &gt;= 0.
+    */
+   public int getThreadCount() {
+      synchronized (_queue) {
+         return _threadCount;
+      }
+   }
+
+   /**
+    * Returns the highest number of worker threads reached.
+    *
+    * @return
+    *    the largest number of threads, always &gt;= 0.
+    */
+   public int getLargestThreadCount() {
+      synchronized (_queue) {
+         return _largestThreadCount;
+      }
+   }
+
+   /**
+    * Returns the number of worker threads currently executing a task.
+    *
+    * @return
+    *    the number of active threads, always &gt;= 0.
+    */
+   public int getActiveCount() {
+      synchronized (_queue) {
+         return _activeCount;
+      }
+   }
+
+   /**
+    * Returns the number of tasks waiting for a worker thread.
+    *
+    * @return
+    *    the queue size, always &gt;= 0.
+    */
+   public int getQueueSize() {
+      synchronized (_queue) {
+         return _queue.size();
+      }
+   }
+
+   /**
+    * Returns the number of tasks executed.
+    *
+    * @return
+    *    the number of completed tasks, always &gt;= 0.
+    */
+   public long getCompletedCount() {
+      synchronized (_queue) {
+         return _completedCount;
+      }
+   }
+
+   /**
+    * Returns the number of tasks rejected because the queue was full and
+    * remained full during the time-out, if any.
+    *
+    * @return
+    *    the number of rejected tasks, always &gt;= 0.
+    */
+   public long getRejectedCount() {
+      synchronized (_queue) {
+         return _rejectedCount;
+      }
+   }
+
+   /**
+    * Returns a textual description of this pool and its statistics.
+    *
+    * @return
+    *    the description of this pool, never <code>null</code>.
+    */
+   public String toString() {
+      synchronized (_queue) {
+         return "WorkerPool(name=" + _name
+              + "; threads=" + _threadCount
+              + "; active=" + _activeCount
+              + "; queued=" + _queue.size()
+              + "; completed=" + _completedCount
+              + "; rejected=" + _rejectedCount
+              + "; maxThreads=" + _maxThreads
+              + "; maxQueueSize=" + _maxQueueSize + ')';
+      }
+   }
+
+   /**
+    * Worker thread. It executes the queued tasks until it has been idle for
+    * {@link #KEEP_ALIVE_TIME} milliseconds.
+    *
+    * @version $Revision$ $Date$
+    */
+   private final class Worker extends Thread {
+
+      /**
+       * Constructs a new <code>Worker</code>.
+       *
+       * @param name
+       *    the name of the thread, should not be <code>null</code>.
+       */
+      Worker(String name) {
+         super(name);
+         setDaemon(true);
+      }
+
+      /**
+       * Executes the queued tasks.
+       */
+      public void run() {
+         while (true) {
+
+            // Wait for a task
+            Runnable task;
+            synchronized (_queue) {
+               _idleCount++;
+               signalWaiting();
+               long idleSince = System.currentTimeMillis();
+               while (_queue.isEmpty()) {
+                  long idle = System.currentTimeMillis() - idleSince;
+                  if (idle >= KEEP_ALIVE_TIME) {
+                     _idleCount--;
+                     _threadCount--;
+                     signalWaiting();
+                     return;
+                  }
+                  try {
+                     _queue.wait(KEEP_ALIVE_TIME - idle);
+                  } catch (InterruptedException exception) {
+                     // ignore
+                  }
+               }
+               _idleCount--;
+               _activeCount++;
+               task = (Runnable) _queue.removeFirst();
+               signalWaiting();
+            }
+
+            // Execute the task
+            try {
+               task.run();
+            } catch (Throwable exception) {
+               Log.log_1052(exception, CLASSNAME, "Worker.run()", task.getClass().getName(), "run()", null);
+            } finally {
+               synchronized (_queue) {
+                  _activeCount--;
+                  _completedCount++;
+               }
+
+               // Do not let the task affect the next one
+               Thread.interrupted();
+               NDC.remove();
+            }
+         }
+      }
+   }
+}
@@ -6,11 +6,14 @@
  */
 package org.xins.common.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +25,10 @@ import java.util.Set;
  * If an entry already exists, the key/pair entry will be put at the same
  * position as the old one.
  *
+ * <p>The position of each key is kept in a hash index, so that
+ * {@link #get(Object)}, {@link #containsKey(Object)} and
+ * {@link #put(Object,Object)} do not need to scan all the entries.
+ *
  * @version $Revision$ $Date$
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  *
@@ -29,6 +36,11 @@ import java.util.Set;
  */
 public class ChainedMap extends AbstractMap implements Cloneable, Serializable {
 
+   /**
+    * The serial version UID, the one of the versions without hash index.
+    */
+   private static final long serialVersionUID = -1355079419330635052L;
+
    /**
     * The keys of the Map.
     */
@@ -39,6 +51,14 @@ public class ChainedMap extends AbstractMap implements Cloneable, Serializable {
     */
    private List _entries = new ArrayList();
 
+   /**
+    * The position of each key in <code>_keys</code> and
+    * <code>_entries</code>, as an {@link Integer}. This index is not
+    * serialized, it is rebuilt when the map is deserialized. Never
+    * <code>null</code>.
+    */
+   private transient HashMap _index = new HashMap();
+
    /**
     * Creates a new instance of <code>ChainedMap</code>.
     */
@@ -51,7 +71,7 @@ public class ChainedMap extends AbstractMap implements Cloneable, Serializable {
    }
 
    public Collection values() {
-      List values = new ArrayList();
+      List values = new ArrayList(_entries.size());
       Iterator itEntries = _entries.iterator();
       while (itEntries.hasNext()) {
          EntryMap entry = (EntryMap) itEntries.next();
@@ -60,22 +80,71 @@ public class ChainedMap extends AbstractMap implements Cloneable, Serializable {
       return values;
    }
 
+   public int size() {
+      return _entries.size();
+   }
+
+   public boolean containsKey(Object key) {
+      return _index.containsKey(key);
+   }
+
+   public Object get(Object key) {
+      Integer position = (Integer) _index.get(key);
+      if (position == null) {
+         return null;
+      }
+      return ((Map.Entry) _entries.get(position.intValue())).getValue();
+   }
+
    public Object put(Object key, Object value) {
-      int oldKeyPos = _keys.indexOf(key);
-      if (oldKeyPos == -1) {
+      Integer oldKeyPos = (Integer) _index.get(key);
+      if (oldKeyPos == null) {
+         _index.put(key, new Integer(_keys.size()));
          _keys.add(key);
          _entries.add(new EntryMap(key, value));
          return null;
       } else {
-         Object oldValue = ((Map.Entry) _entries.get(oldKeyPos)).getValue();
-         _entries.set(oldKeyPos, new EntryMap(key, value));
+         int position = oldKeyPos.intValue();
+         Object oldValue = ((Map.Entry) _entries.get(position)).getValue();
+         _entries.set(position, new EntryMap(key, value));
          return oldValue;
       }
    }
 
+   public Object remove(Object key) {
+      Integer oldKeyPos = (Integer) _index.remove(key);
+      if (oldKeyPos == null) {
+         return null;
+      }
+      int position = oldKeyPos.intValue();
+      _keys.remove(position);
+      Object oldValue = ((Map.Entry) _entries.remove(position)).getValue();
+
+      // The following entries moved one position
+      for (int i = position; i < _keys.size(); i++) {
+         _index.put(_keys.get(i), new Integer(i));
+      }
+      return oldValue;
+   }
+
+   public void clear() {
+      _keys.clear();
+      _entries.clear();
+      _index.clear();
+   }
+
    public Object clone() {
       try {
-         return super.clone();
+         ChainedMap clone = (ChainedMap) super.clone();
+         clone._keys    = new ArrayList(_keys);
+         clone._entries = new ArrayList(_entries.size());
+         Iterator itEntries = _entries.iterator();
+         while (itEntries.hasNext()) {
+            EntryMap entry = (EntryMap) itEntries.next();
+            clone._entries.add(new EntryMap(entry.getKey(), entry.getValue()));
+         }
+         clone._index = (HashMap) _index.clone();
+         return clone;
       } catch (CloneNotSupportedException cnse) {
          ChainedMap clone = new ChainedMap();
          clone.putAll(this);
@@ -83,6 +152,27 @@ public class ChainedMap extends AbstractMap implements Cloneable, Serializable {
       }
    }
 
+   /**
+    * Reads this map from a stream and rebuilds the hash index.
+    *
+    * @param in
+    *    the stream to read from, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the map cannot be read.
+    *
+    * @throws ClassNotFoundException
+    *    if the class of a key or a value cannot be found.
+    */
+   private void readObject(ObjectInputStream in)
+   throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      _index = new HashMap();
+      for (int i = 0; i < _keys.size(); i++) {
+         _index.put(_keys.get(i), new Integer(i));
+      }
+   }
+
    /**
     * The <code>Map.Entry</code> for this <code>ChainedMap</code>.
     *
@@ -45,10 +45,10 @@ public final class ExpiryFolder {
    private static final String CLASSNAME = ExpiryFolder.class.getName();
 
    /**
-    * The initial size for the queue of threads waiting to obtain read or
-    * write access to a resource.
+    * The number of stripes. Each stripe has its own lock, so that threads
+    * accessing different keys do not block each other.
     */
-   private static final int INITIAL_QUEUE_SIZE = 89;
+   private static final int STRIPE_COUNT = 16;
 
    /**
     * The number of instances of this class.
@@ -60,11 +60,6 @@ public final class ExpiryFolder {
     */
    private static final Object INSTANCE_COUNT_LOCK = new Object();
 
-   /**
-    * Lock object.
-    */
-   private final Object _lock;
-
    /**
     * The instance number of this instance.
     */
@@ -92,31 +87,16 @@ public final class ExpiryFolder {
    private final String _asString;
 
    /**
-    * The most recently accessed entries. This field cannot be
-    * <code>null</code>. The entries in this map will expire after
-    * {@link ExpiryStrategy#getTimeOut()} milliseconds, plus at maximum
-    * {@link ExpiryStrategy#getPrecision()} milliseconds.
-    */
-   private HashMap _recentlyAccessed;
-
-   /**
-    * Number of active slots. Always equals
-    * {@link #_slots}<code>.length</code>.
+    * Number of slots, as defined by the strategy. An entry that has not been
+    * accessed for this number of ticks, plus one, is expired.
     */
    private final int _slotCount;
 
    /**
-    * The index of the last slot. This is always
-    * {@link #_slotCount}<code> - 1</code>.
+    * The stripes that contain the entries. A key is always stored in the
+    * same stripe. This field cannot be <code>null</code>.
     */
-   private final int _lastSlot;
-
-   /**
-    * Slots to contain the maps with entries that are not the most recently
-    * accessed. The further back in the array, the sooner the entries will
-    * expire.
-    */
-   private HashMap[] _slots;
+   private final Stripe[] _stripes;
 
    /**
     * The set of listeners. May be empty, but never is <code>null</code>.
@@ -160,20 +140,17 @@ public final class ExpiryFolder {
       MandatoryArgumentChecker.check("name", name, "strategy", strategy);
 
       // Initialize fields
-      _lock             = new Object();
       _name             = name;
       _strategy         = strategy;
       _strategyStopped  = false;
       _asString         = CLASSNAME + ' ' + constructorDetail;
-      _recentlyAccessed = new HashMap(INITIAL_QUEUE_SIZE);
       _slotCount        = strategy.getSlotCount();
-      _slots            = new HashMap[_slotCount];
-      _lastSlot         = _slotCount - 1;
+      _stripes          = new Stripe[STRIPE_COUNT];
       _listeners        = new ArrayList(5);
 
-      // Initialize all slots to a new HashMap
-      for (int i = 0; i < _slotCount; i++) {
-         _slots[i] = new HashMap(INITIAL_QUEUE_SIZE);
+      // Initialize all stripes
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         _stripes[i] = new Stripe(_slotCount + 1);
       }
 
       // Notify the strategy that we listen to it. If the strategy has already
@@ -204,13 +181,48 @@ public final class ExpiryFolder {
     * it was stopped.
     */
    void strategyStopped() {
-      synchronized (_lock) {
-         _strategyStopped = true;
-         _strategy         = null;
-         _recentlyAccessed = null;
-         _slots            = null;
-         _listeners        = null;
+      _strategyStopped = true;
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = _stripes[i];
+         synchronized (stripe) {
+            stripe.clear();
+         }
       }
+      _strategy  = null;
+      _listeners = null;
+   }
+
+   /**
+    * Returns the stripe in which the specified key is stored.
+    *
+    * @param key
+    *    the key, cannot be <code>null</code>.
+    *
+    * @return
+    *    the stripe for the key, never <code>null</code>.
+    */
+   private Stripe stripeFor(final Object key) {
+      int hash = key.hashCode();
+      hash ^= (hash >>> 16);
+      return _stripes[(hash & 0x7fffffff) % STRIPE_COUNT];
+   }
+
+   /**
+    * Returns a snapshot of all entries in this folder, including the expired
+    * ones that have not been removed yet.
+    *
+    * @return
+    *    a new map from key to {@link Entry}, never <code>null</code>.
+    */
+   private HashMap entries() {
+      HashMap entries = new HashMap();
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = _stripes[i];
+         synchronized (stripe) {
+            entries.putAll(stripe._entries);
+         }
+      }
+      return entries;
    }
 
    /**
@@ -231,25 +243,9 @@ public final class ExpiryFolder {
 
       if (obj instanceof ExpiryFolder) {
          ExpiryFolder that = (ExpiryFolder) obj;
-
-         // Avoid a potential deadlock by always locking on the instance with
-         // the lowest instance number first
-         Object firstLock  = (_instanceNum < that._instanceNum) ? _lock : that._lock;
-         Object secondLock = (_instanceNum < that._instanceNum) ? that._lock : _lock;
-         synchronized (firstLock) {
-            synchronized (secondLock) {
-               if (_strategy.equals(that._strategy)) {
-                  if (_name.equals(that._name)) {
-                     if (_recentlyAccessed.equals(that._recentlyAccessed)) {
-                        equal = true;
-                        for (int i = 0; i < _slotCount && equal; i++) {
-                           if (! _slots[i].equals(that._slots[i])) {
-                              equal = false;
-                           }
-                        }
-                     }
-                  }
-               }
+         if (_strategy.equals(that._strategy)) {
+            if (_name.equals(that._name)) {
+               equal = entries().equals(that.entries());
             }
          }
       }
@@ -297,81 +293,26 @@ public final class ExpiryFolder {
     * Notifies this map that the precision time frame has passed since the
     * last tick.
     *
-    * <p>Entries that are expirable may be removed from this folder.
+    * <p>Entries that are expirable may be removed from this folder. The
+    * stripes are processed one at a time, so threads accessing the other
+    * stripes are not blocked.
+    *
+    * @return
+    *    the number of entries expired, always &gt;= 0.
     *
     * @throws IllegalStateException
     *    if the associated {@link ExpiryStrategy} has stopped already.
     */
-   void tick() throws IllegalStateException {
+   int tick() throws IllegalStateException {
 
       // Check state
       assertStrategyNotStopped();
 
-      HashMap toBeExpired;
+      // Collect the expired entries of all stripes
       HashMap refMap = null;
-      synchronized (_lock) {
-
-         // Shift the slots
-         toBeExpired = _slots[_lastSlot];
-         for (int i = _lastSlot; i > 0; i--) {
-            _slots[i] = _slots[i - 1];
-         }
-         _slots[0] = _recentlyAccessed;
-
-         // Removed the entries expired in the last slot
-         if (!_slots[_lastSlot].isEmpty()) {
-            Iterator iterator = _slots[_lastSlot].entrySet().iterator();
-            while (iterator.hasNext()) {
-
-               // Get the next Map.Entry from the iterator
-               Map.Entry me = (Map.Entry) iterator.next();
-
-               // Determine key and entry object
-               Object key   = me.getKey();
-               Entry  entry = (Entry) me.getValue();
-               if (entry.isExpired()) {
-                  iterator.remove();
-                  if (refMap == null) {
-                     refMap = new HashMap();
-                  }
-                  refMap.put(key, entry.getReference());
-               }
-            }
-         }
-
-         // Copy all references from the wrapping Entry objects
-         if (!toBeExpired.isEmpty()) {
-            Iterator iterator = toBeExpired.entrySet().iterator();
-            while (iterator.hasNext()) {
-
-               // Get the next Map.Entry from the iterator
-               Map.Entry me = (Map.Entry) iterator.next();
-
-               // Get the key and the entry
-               Object key   = me.getKey();
-               Entry  entry = (Entry) me.getValue();
-
-               if (entry.isExpired()) {
-
-                  // Create a map for the object references, if necessary
-                  if (refMap == null) {
-                     refMap = new HashMap();
-                  }
-
-                  // Store the entry that needs expiring in the refMap
-                  refMap.put(key, entry.getReference());
-               } else {
-                  String detail = "Entry marked for expiry should "
-                        + "have expired. Key as string is \""
-                        + entry.getReference().toString() + "\".";
-                  Utils.logProgrammingError(detail);
-               }
-            }
-         }
-
-         // Recycle the old HashMap
-         toBeExpired.clear();
-         _recentlyAccessed = toBeExpired;
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         refMap = _stripes[i].tick(now, refMap);
       }
 
       // Determine how may objects are to be sent to the listeners
@@ -384,7 +325,7 @@ public final class ExpiryFolder {
 
       // If set of objects for listeners is empty, then short-circuit
       if (refMapSize < 1 || _listeners.size() < 1) {
-         return;
+         return refMapSize;
       }
 
       // XXX: Should we do this in separate thread(s) ?
@@ -402,6 +343,8 @@ public final class ExpiryFolder {
             }
          }
       }
+
+      return refMapSize;
    }
 
    /**
@@ -458,44 +401,6 @@ public final class ExpiryFolder {
       }
    }
 
-   /**
-    * Determines the number of non-expired entries in the specified
-    * <code>HashMap</code>. If any entries are expired, they will be removed.
-    *
-    * @param map
-    *    the map in which the non-expired entries are counted.
-    *
-    * @return
-    *    the size of the specified map, always &gt;= 0.
-    *
-    * @throws IllegalStateException
-    *    if the associated {@link ExpiryStrategy} has stopped already.
-    */
-   private int sizeOf(final Map map) throws IllegalStateException {
-
-      // Check state
-      assertStrategyNotStopped();
-
-      int size = 0;
-
-      synchronized (_lock) {
-         Iterator iterator = map.entrySet().iterator();
-         while (iterator.hasNext()) {
-
-            // Get the next Map.Entry from the iterator
-            Map.Entry me = (Map.Entry) iterator.next();
-
-            // Get the entry
-            Entry  entry = (Entry) me.getValue();
-            if (!entry.isExpired()) {
-               size++;
-            }
-         }
-      }
-
-      return size;
-   }
-
    /**
     * Gets the number of entries.
     *
@@ -511,24 +416,18 @@ public final class ExpiryFolder {
       // Check state
       assertStrategyNotStopped();
 
-      synchronized (_lock) {
-
-         int size = sizeOf(_recentlyAccessed);
-         for (int i = 0; i < _slotCount; i++) {
-            size += sizeOf(_slots[i]);
-         }
-
-         return size;
+      int size = 0;
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         size += _stripes[i].size(now);
       }
+      return size;
    }
 
    /**
     * Gets the value associated with a key and extends the lifetime of the
     * matching entry, if there was a match.
     *
-    * <p>The more recently the specified entry was accessed, the faster the
-    * lookup.
-    *
     * @param key
     *    the key to lookup, cannot be <code>null</code>.
     *
@@ -552,51 +451,19 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      // Search in the recently accessed map first
-      Entry entry;
-      synchronized (_lock) {
-         entry = (Entry) _recentlyAccessed.get(key);
-
-         // Entry found in recently accessed
-         if (entry != null) {
-
-            // Entry is already expired
-            if (entry.isExpired()) {
-               return null;
-
-            // Entry is not expired, touch it and return the reference
-            } else {
-               entry.touch();
-               return entry.getReference();
-            }
-
-         // Not found in recently accessed, look in slots
-         } else {
-
-            // Go through all slots
-            for (int i = 0; i < _slotCount; i++) {
-               entry = (Entry) _slots[i].remove(key);
-
-               if (entry != null) {
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         Entry entry = (Entry) stripe._entries.get(key);
 
-                  // Entry is already expired, update the map and size and
-                  // return null
-                  if (entry.isExpired()) {
-                     return null;
-
-                  // Entry is not expired, touch it, store in the recently
-                  // accessed and return the reference
-                  } else {
-                     entry.touch();
-                     _recentlyAccessed.put(key, entry);
-                     return entry.getReference();
-                  }
-               }
-            }
-
-            // Nothing found in any of the slots
+         // Not found or already expired
+         if (entry == null || entry.isExpired()) {
             return null;
          }
+
+         // Touch the entry and move it to the most recent slot
+         entry.touch();
+         stripe.moveToCurrent(key, entry);
+         return entry.getReference();
       }
    }
 
@@ -604,9 +471,6 @@ public final class ExpiryFolder {
     * Finds the value associated with a key. The lifetime of the matching
     * entry is not extended.
     *
-    * <p>The more recently the specified entry was accessed, the faster the
-    * lookup.
-    *
     * @param key
     *    the key to lookup, cannot be <code>null</code>.
     *
@@ -630,26 +494,13 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      Object value;
-
-      // Search in the recently accessed map first
-      synchronized (_lock) {
-         value = _recentlyAccessed.get(key);
-
-         // If not found, then look in the slots
-         if (value == null) {
-            for (int i = 0; i < _slotCount && value == null; i++) {
-               value = _slots[i].get(key);
-            }
-         }
-      }
-
-      if (value == null) {
-         return null;
+      Entry entry;
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         entry = (Entry) stripe._entries.get(key);
       }
 
-      Entry entry = (Entry) value;
-      if (entry.isExpired()) {
+      if (entry == null || entry.isExpired()) {
          return null;
       } else {
          return entry.getReference();
@@ -680,10 +531,11 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key, "value", value);
 
-      // Store the association in the set of recently accessed entries
-      synchronized (_lock) {
-         Entry entry = new Entry(value);
-         _recentlyAccessed.put(key, entry);
+      // Store the association in the most recent slot
+      Entry entry = new Entry(value);
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         stripe.put(key, entry);
       }
    }
 
@@ -713,28 +565,13 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      Object value;
-
-      // Remove the key in the set of recently accessed entries
-      synchronized (_recentlyAccessed) {
-         value = _recentlyAccessed.remove(key);
-      }
-
-      // If not found, then look in the slots
-      if (value == null) {
-         synchronized (_slots) {
-            for (int i = 0; i < _slotCount && value == null; i++) {
-               value = _slots[i].remove(key);
-            }
-         }
-      }
-
-      if (value == null) {
-         return null;
+      Entry entry;
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         entry = stripe.remove(key);
       }
 
-      Entry entry = (Entry) value;
-      if (entry.isExpired()) {
+      if (entry == null || entry.isExpired()) {
          return null;
       } else {
          return entry.getReference();
@@ -774,20 +611,23 @@ public final class ExpiryFolder {
          throw new IllegalArgumentException(detail);
       }
 
-      // Avoid a potential deadlock by always locking on the instance with the
-      // lowest instance number first
-      Object firstLock  = (_instanceNum < newFolder._instanceNum) ? _lock : newFolder._lock;
-      Object secondLock = (_instanceNum < newFolder._instanceNum) ? newFolder._lock : _lock;
-      synchronized (firstLock) {
-         synchronized (secondLock) {
-
-            // Copy the recentlyAccessed
-            newFolder._recentlyAccessed = new HashMap(_recentlyAccessed);
-
-            // Copy the slots
-            for (int i = 0; i < _slotCount && i < newFolder._slotCount; i++) {
-               newFolder._slots[i] = new HashMap(_slots[i]);
-            }
+      // Replace the entries of the new folder
+      HashMap entries = entries();
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = newFolder._stripes[i];
+         synchronized (stripe) {
+            stripe.clear();
+         }
+      }
+      Iterator iterator = entries.entrySet().iterator();
+      while (iterator.hasNext()) {
+         Map.Entry me = (Map.Entry) iterator.next();
+         Object key = me.getKey();
+         Stripe stripe = newFolder.stripeFor(key);
+         Entry entry = newFolder.new Entry(((Entry) me.getValue())._reference);
+         entry._expiryTime = ((Entry) me.getValue())._expiryTime;
+         synchronized (stripe) {
+            stripe.put(key, entry);
          }
       }
    }
@@ -851,6 +691,11 @@ public final class ExpiryFolder {
        */
       private long _expiryTime;
 
+      /**
+       * The index of the slot in the stripe that contains this entry.
+       */
+      private int _slot;
+
       /**
        * Returns a hash code value for the object.
        *
@@ -918,4 +763,214 @@ public final class ExpiryFolder {
          _expiryTime = System.currentTimeMillis() + _strategy.getTimeOut();
       }
    }
+
+   /**
+    * Part of an expiry folder. Each key is stored in exactly one stripe,
+    * and all accesses to a stripe should be synchronized on the stripe.
+    *
+    * <p>The entries are stored in a map for lookups and in a ring of slots
+    * for expiry. Each entry knows the index of the slot it is in, so that
+    * it can be moved to the most recent slot without scanning the other
+    * slots.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class Stripe {
+
+      /**
+       * All entries in this stripe, by key. Never <code>null</code>.
+       */
+      private final HashMap _entries;
+
+      /**
+       * The ring of slots. Each slot is a map from key to {@link Entry}.
+       * Never <code>null</code>.
+       */
+      private final HashMap[] _slots;
+
+      /**
+       * The index of the slot that contains the most recently accessed
+       * entries.
+       */
+      private int _current;
+
+      /**
+       * Constructs a new <code>Stripe</code>.
+       *
+       * @param slotCount
+       *    the number of slots in the ring, must be &gt;= 2.
+       */
+      Stripe(int slotCount) {
+         _entries = new HashMap(17);
+         _slots   = new HashMap[slotCount];
+         for (int i = 0; i < slotCount; i++) {
+            _slots[i] = new HashMap(5);
+         }
+      }
+
+      /**
+       * Stores an entry in the most recent slot, replacing the existing
+       * entry for the key, if any.
+       *
+       * @param key
+       *    the key, cannot be <code>null</code>.
+       *
+       * @param entry
+       *    the entry, cannot be <code>null</code>.
+       */
+      void put(Object key, Entry entry) {
+         Entry old = (Entry) _entries.put(key, entry);
+         if (old != null) {
+            _slots[old._slot].remove(key);
+         }
+         entry._slot = _current;
+         _slots[_current].put(key, entry);
+      }
+
+      /**
+       * Moves an entry to the most recent slot.
+       *
+       * @param key
+       *    the key, cannot be <code>null</code>.
+       *
+       * @param entry
+       *    the entry currently stored for the key, cannot be
+       *    <code>null</code>.
+       */
+      void moveToCurrent(Object key, Entry entry) {
+         if (entry._slot != _current) {
+            _slots[entry._slot].remove(key);
+            entry._slot = _current;
+            _slots[_current].put(key, entry);
+         }
+      }
+
+      /**
+       * Removes the entry for a key.
+       *
+       * @param key
+       *    the key, cannot be <code>null</code>.
+       *
+       * @return
+       *    the removed entry, or <code>null</code> if there was none.
+       */
+      Entry remove(Object key) {
+         Entry entry = (Entry) _entries.remove(key);
+         if (entry != null) {
+            _slots[entry._slot].remove(key);
+         }
+         return entry;
+      }
+
+      /**
+       * Removes all entries.
+       */
+      void clear() {
+         _entries.clear();
+         for (int i = 0; i < _slots.length; i++) {
+            _slots[i].clear();
+         }
+      }
+
+      /**
+       * Counts the entries that are not expired.
+       *
+       * @param now
+       *    the current time in milliseconds.
+       *
+       * @return
+       *    the number of entries that are not expired, always &gt;= 0.
+       */
+      synchronized int size(long now) {
+         int size = 0;
+         Iterator iterator = _entries.values().iterator();
+         while (iterator.hasNext()) {
+            Entry entry = (Entry) iterator.next();
+            if (entry._expiryTime > now) {
+               size++;
+            }
+         }
+         return size;
+      }
+
+      /**
+       * Advances this stripe by one slot. The expired entries in the oldest
+       * and the next-oldest slot are removed. The oldest slot becomes the
+       * most recent one.
+       *
+       * @param now
+       *    the current time in milliseconds.
+       *
+       * @param refMap
+       *    the map to store the expired references in, or <code>null</code>.
+       *
+       * @return
+       *    the map with the expired references, or <code>null</code> if
+       *    <code>refMap == null</code> and no entries expired.
+       */
+      synchronized HashMap tick(long now, HashMap refMap) {
+         int oldest = (_current + 1) % _slots.length;
+         int next   = (oldest + 1) % _slots.length;
+
+         // Expire the entries in the oldest slot. Entries that are not
+         // expired yet, because the tick came early, move on to the next slot
+         Iterator iterator = _slots[oldest].entrySet().iterator();
+         while (iterator.hasNext()) {
+            Map.Entry me = (Map.Entry) iterator.next();
+            Object key   = me.getKey();
+            Entry  entry = (Entry) me.getValue();
+            if (entry._expiryTime <= now) {
+               _entries.remove(key);
+               refMap = expired(refMap, key, entry);
+            } else {
+               entry._slot = next;
+               _slots[next].put(key, entry);
+            }
+         }
+         _slots[oldest].clear();
+
+         // Remove the entries that expired early from the next-oldest slot
+         if (next != oldest) {
+            iterator = _slots[next].entrySet().iterator();
+            while (iterator.hasNext()) {
+               Map.Entry me = (Map.Entry) iterator.next();
+               Object key   = me.getKey();
+               Entry  entry = (Entry) me.getValue();
+               if (entry._expiryTime <= now) {
+                  iterator.remove();
+                  _entries.remove(key);
+                  refMap = expired(refMap, key, entry);
+               }
+            }
+         }
+
+         _current = oldest;
+         return refMap;
+      }
+
+      /**
+       * Adds an expired entry to the map of expired references.
+       *
+       * @param refMap
+       *    the map of expired references, or <code>null</code>.
+       *
+       * @param key
+       *    the key of the expired entry, cannot be <code>null</code>.
+       *
+       * @param entry
+       *    the expired entry, cannot be <code>null</code>.
+       *
+       * @return
+       *    the map of expired references, never <code>null</code>.
+       */
+      private static HashMap expired(HashMap refMap, Object key, Entry entry) {
+         if (refMap == null) {
+            refMap = new HashMap();
+         }
+         refMap.put(key, entry.getReference());
+         return refMap;
+      }
+   }
 }
@@ -16,10 +16,11 @@ import org.xins.common.Utils;
 /**
  * Expiry strategy. A strategy maintains a time-out and a time-out precision.
  *
- * <p>When an <code>ExpiryStrategy</code> is constructed, then an associated
- * thread is immediately constructed and started. This thread <em>must</em>
- * be stopped manually by calling {@link #stop()} as soon as the strategy is
- * no longer used.
+ * <p>When an <code>ExpiryStrategy</code> is constructed, then it is
+ * immediately scheduled on the shared {@link ExpiryTimer}, which generates
+ * the ticks of all strategies in the JVM on a single thread. The strategy
+ * <em>must</em> be stopped manually by calling {@link #stop()} as soon as it
+ * is no longer used.
  *
  * @version $Revision$ $Date$
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
@@ -76,9 +77,10 @@ public final class ExpiryStrategy {
    private final ArrayList _folders;
 
    /**
-    * The timer thread. Not <code>null</code>.
+    * The task returned by the timer when this strategy was scheduled. Not
+    * <code>null</code>.
     */
-   private final TimerThread _timerThread;
+   private final Object _timerTask;
 
    /**
     * Hash code for this object. The hash code is a constant.
@@ -92,8 +94,8 @@ public final class ExpiryStrategy {
    private boolean _stop;
 
    /**
-    * Constructs a new <code>ExpiryStrategy</code> and starts the
-    * corresponding thread.
+    * Constructs a new <code>ExpiryStrategy</code> and schedules it on the
+    * shared {@link ExpiryTimer}.
     *
     * @param timeOut
     *    the time-out, in milliseconds.
@@ -154,12 +156,9 @@ public final class ExpiryStrategy {
       // Constructed an ExpiryStrategy instance
       Log.log_1409(_instanceNum, _timeOut, _precision);
 
-      // Create and start the timer thread. If no other threads are active,
-      // then neither should this timer thread, so do not mark as a daemon
-      // thread.
-      _timerThread = new TimerThread();
-      _timerThread.setDaemon(false);
-      _timerThread.start();
+      // Schedule the ticks on the shared timer
+      _timerTask = ExpiryTimer.getSharedInstance().schedule(this);
+      Log.log_1402(_instanceNum);
    }
 
    /**
@@ -263,8 +262,7 @@ public final class ExpiryStrategy {
    }
 
    /**
-    * Stops the thread that generates ticks that are passed to the registered
-    * expiry folders.
+    * Stops the ticks that are passed to the registered expiry folders.
     *
     * @throws IllegalStateException
     *    if this strategy was already stopped.
@@ -280,8 +278,9 @@ public final class ExpiryStrategy {
       // Set the stop flag
       _stop = true;
 
-      // Notify the timer thread
-      _timerThread.interrupt();
+      // Remove this strategy from the timer
+      ExpiryTimer.getSharedInstance().cancel(_timerTask);
+      Log.log_1403(_instanceNum);
 
       // Notify all the associated ExpiryFolder instances that we are stopping
       for (int i = 0; i < _folders.size(); i++) {
@@ -296,15 +295,21 @@ public final class ExpiryStrategy {
    /**
     * Callback method indicating the next tick has taken place. This method is
     * called from (and on) the timer thread.
+    *
+    * @return
+    *    the number of entries expired in all folders, always &gt;= 0.
     */
-   private void doTick() {
+   int doTick() {
 
       // Do nothing if this strategy was already stopped
       if (_stop) {
-         return;
+         return 0;
       }
 
+      Log.log_1407(_instanceNum);
+
       int emptyRefIndex = -1;
+      int expired = 0;
 
       synchronized (_folders) {
          int count = _folders.size();
@@ -312,7 +317,7 @@ public final class ExpiryStrategy {
             WeakReference ref = (WeakReference) _folders.get(i);
             ExpiryFolder folder = (ExpiryFolder) ref.get();
             if (folder != null) {
-               folder.tick();
+               expired += folder.tick();
             } else {
                emptyRefIndex = i;
             }
@@ -323,6 +328,8 @@ public final class ExpiryStrategy {
             _folders.remove(emptyRefIndex);
          }
       }
+
+      return expired;
    }
 
    /**
@@ -334,88 +341,4 @@ public final class ExpiryStrategy {
    public String toString() {
       return _asString;
    }
-
-   /**
-    * Timer thread for an expiry strategy. It calls back the expiry strategy
-    * at each so-called 'tick'. The interval between ticks is the precision of
-    * the strategy.
-    *
-    * @version $Revision$ $Date$
-    * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
-    *
-    * @since XINS 1.0.0
-    */
-   private final class TimerThread extends Thread {
-
-      /**
-       * Constructs a new <code>TimerThread</code>.
-       */
-      public TimerThread() {
-         super(ExpiryStrategy.this.toString() + " timer thread");
-      }
-
-      /**
-       * Runs this thread. The thread keeps running until the expiry strategy
-       * is stopped.
-       */
-      public void run() {
-
-         Log.log_1402(_instanceNum);
-
-         long now  = System.currentTimeMillis();
-         long next = now + _precision;
-
-         while (! _stop) {
-            boolean interrupted;
-            long sleep = next - now;
-            if (sleep > 0) {
-               Log.log_1404(_instanceNum, sleep);
-               try {
-                  Thread.sleep(sleep);
-                  interrupted = false;
-
-               // Sleep was interrupted
-               } catch (InterruptedException exception) {
-                  interrupted = true;
-               }
-
-               // Determine how much time we spent since we started sleeping
-               long after = System.currentTimeMillis();
-               long slept = after - now;
-               now        = after;
-
-               // Perform logging
-               if (interrupted) {
-                  Log.log_1405(_instanceNum, slept);
-               } else {
-                  Log.log_1406(_instanceNum, slept);
-               }
-            }
-
-            // If we should stop, then exit the loop
-            if (_stop) {
-               break;
-            }
-
-            while (next <= now) {
-               Log.log_1407(_instanceNum);
-               doTick();
-               now = System.currentTimeMillis();
-               next += _precision;
-            }
-         }
-
-         Log.log_1403(_instanceNum);
-      }
-
-      /**
-       * Returns a textual representation of this timer thread object.
-       *
-       * @return
-       *    a textual representation of this object, never <code>null</code>.
-       */
-      public String toString() {
-         return getName();
-      }
-   }
 }
@@ -0,0 +1,476 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+import java.util.ArrayList;
+
+import org.xins.common.Utils;
+
+/**
+ * Timer that generates the ticks of all expiry strategies in the JVM. The
+ * timer is a hashed timing wheel: the strategies are stored in a ring of
+ * buckets, one bucket per resolution interval, so scheduling and cancelling
+ * a strategy take constant time whatever the number of strategies.
+ *
+ * <p>A single daemon thread is used for all strategies. The thread is
+ * started when the first strategy is scheduled and it stops when the last
+ * strategy is stopped. It only wakes up when a strategy is due: the empty
+ * buckets are skipped, so strategies with a low precision do not make the
+ * thread wake up every resolution interval. The resolution of the wheel can
+ * be set with the system property {@link #RESOLUTION_PROPERTY}.
+ *
+ * <p>The timer also keeps statistics on the ticks and on the number of
+ * entries expired per tick.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class ExpiryTimer {
+
+   /**
+    * The name of the system property that specifies the resolution of the
+    * timer in milliseconds.
+    */
+   public static final String RESOLUTION_PROPERTY = "org.xins.common.expiry.resolution";
+
+   /**
+    * The default resolution of the timer in milliseconds.
+    */
+   public static final int DEFAULT_RESOLUTION = 10;
+
+   /**
+    * The number of buckets in the wheel. Must be a power of 2.
+    */
+   private static final int WHEEL_SIZE = 512;
+
+   /**
+    * The shared timer. Never <code>null</code>.
+    */
+   private static final ExpiryTimer SHARED = new ExpiryTimer();
+
+   /**
+    * The resolution of the timer in milliseconds, always &gt; 0.
+    */
+   private final long _resolution;
+
+   /**
+    * The buckets of the wheel. Each bucket is the head of a doubly linked
+    * list of tasks, or <code>null</code> if the bucket is empty.
+    */
+   private final Task[] _wheel = new Task[WHEEL_SIZE];
+
+   /**
+    * The last tick of the wheel that has been processed. A tick is the
+    * current time divided by the resolution.
+    */
+   private long _currentTick;
+
+   /**
+    * The number of scheduled strategies.
+    */
+   private int _strategyCount;
+
+   /**
+    * The timer thread, or <code>null</code> if it is not running.
+    */
+   private Thread _thread;
+
+   /**
+    * The number of strategy ticks performed.
+    */
+   private long _tickCount;
+
+   /**
+    * The number of entries expired.
+    */
+   private long _expiredCount;
+
+   /**
+    * The highest number of entries expired in a single strategy tick.
+    */
+   private int _maxExpiredCount;
+
+   /**
+    * Constructs the <code>ExpiryTimer</code>.
+    */
+   private ExpiryTimer() {
+      int resolution = Integer.getInteger(RESOLUTION_PROPERTY, DEFAULT_RESOLUTION).intValue();
+      _resolution = resolution > 0 ? resolution : DEFAULT_RESOLUTION;
+   }
+
+   /**
+    * Returns the timer shared by all expiry strategies in the JVM.
+    *
+    * @return
+    *    the shared timer, never <code>null</code>.
+    */
+   public static ExpiryTimer getSharedInstance() {
+      return SHARED;
+   }
+
+   /**
+    * Schedules the ticks of an expiry strategy. The first tick takes place
+    * after the precision of the strategy.
+    *
+    * @param strategy
+    *    the strategy, cannot be <code>null</code>.
+    *
+    * @return
+    *    the task to pass to {@link #cancel(Object)} when the strategy is
+    *    stopped, never <code>null</code>.
+    */
+   synchronized Object schedule(ExpiryStrategy strategy) {
+      Task task = new Task(strategy);
+      task._deadline = System.currentTimeMillis() + strategy.getPrecision();
+
+      // Start the timer thread if needed; the empty wheel restarts at now
+      if (_thread == null) {
+         _currentTick = System.currentTimeMillis() / _resolution;
+         _thread = new TimerThread();
+         _thread.start();
+      }
+
+      _strategyCount++;
+      insert(task);
+      return task;
+   }
+
+   /**
+    * Cancels the ticks of an expiry strategy.
+    *
+    * @param task
+    *    the task returned by {@link #schedule(ExpiryStrategy)}, cannot be
+    *    <code>null</code>.
+    */
+   synchronized void cancel(Object task) {
+      Task t = (Task) task;
+      if (! t._cancelled) {
+         t._cancelled = true;
+         unlink(t);
+         _strategyCount--;
+         notifyAll();
+      }
+   }
+
+   /**
+    * Inserts a task in the wheel according to its deadline.
+    *
+    * @param task
+    *    the task, cannot be <code>null</code>.
+    */
+   private void insert(Task task) {
+      long tick = (task._deadline + _resolution - 1) / _resolution;
+      if (tick <= _currentTick) {
+         tick = _currentTick + 1;
+      }
+      task._tick   = tick;
+      task._bucket = (int) (tick & (WHEEL_SIZE - 1));
+
+      Task head = _wheel[task._bucket];
+      task._previous = null;
+      task._next     = head;
+      if (head != null) {
+         head._previous = task;
+      }
+      _wheel[task._bucket] = task;
+
+      // The timer thread may be waiting for a later tick
+      notifyAll();
+   }
+
+   /**
+    * Removes a task from the wheel, if it is in the wheel.
+    *
+    * @param task
+    *    the task, cannot be <code>null</code>.
+    */
+   private void unlink(Task task) {
+      if (task._bucket < 0) {
+         return;
+      }
+      if (task._previous != null) {
+         task._previous._next = task._next;
+      } else {
+         _wheel[task._bucket] = task._next;
+      }
+      if (task._next != null) {
+         task._next._previous = task._previous;
+      }
+      task._previous = null;
+      task._next     = null;
+      task._bucket   = -1;
+   }
+
+   /**
+    * Determines the first tick at which a task is due. The buckets following
+    * the current tick are searched in order, so the search usually stops at
+    * the first non-empty bucket. If no task is due within a turn of the
+    * wheel, the earliest tick of all tasks is returned.
+    *
+    * @return
+    *    the first tick at which a task is due, or {@link Long#MAX_VALUE} if
+    *    the wheel is empty.
+    */
+   private long nextDueTick() {
+      long earliest = Long.MAX_VALUE;
+      for (long tick = _currentTick + 1; tick <= _currentTick + WHEEL_SIZE; tick++) {
+         for (Task task = _wheel[(int) (tick & (WHEEL_SIZE - 1))]; task != null; task = task._next) {
+            if (task._tick == tick) {
+               return tick;
+            } else if (task._tick < earliest) {
+               earliest = task._tick;
+            }
+         }
+      }
+      return earliest;
+   }
+
+   /**
+    * Waits until a task is due and removes the tasks that are due from the
+    * wheel. If the timer is late, the tasks of all ticks up to the current
+    * time are removed.
+    *
+    * @return
+    *    the tasks that are due, or <code>null</code> if the timer thread
+    *    should stop.
+    *
+    * @throws InterruptedException
+    *    if the timer thread is interrupted while waiting.
+    */
+   private synchronized ArrayList nextTick() throws InterruptedException {
+      while (true) {
+         if (Thread.currentThread() != _thread) {
+            return null;
+         } else if (_strategyCount == 0) {
+            _thread = null;
+            return null;
+         }
+
+         // Wait until the first task is due; the thread is woken up when a
+         // task is inserted
+         long nextTick = nextDueTick();
+         long now      = System.currentTimeMillis();
+         if (nextTick == Long.MAX_VALUE) {
+            wait();
+            continue;
+         } else if (now < nextTick * _resolution) {
+            wait(nextTick * _resolution - now);
+            continue;
+         }
+
+         // Remove the tasks that are due from the buckets up to now
+         long previousTick = _currentTick;
+         _currentTick = now / _resolution;
+         long lastBucket = Math.min(_currentTick, previousTick + WHEEL_SIZE);
+         ArrayList due = new ArrayList();
+         for (long tick = previousTick + 1; tick <= lastBucket; tick++) {
+            Task task = _wheel[(int) (tick & (WHEEL_SIZE - 1))];
+            while (task != null) {
+               Task following = task._next;
+               if (task._tick <= _currentTick) {
+                  unlink(task);
+                  due.add(task);
+               }
+               task = following;
+            }
+         }
+         if (! due.isEmpty()) {
+            return due;
+         }
+      }
+   }
+
+   /**
+    * Performs the ticks of a task that is due and schedules its next tick.
+    * If the timer is late, the missed ticks are performed as well.
+    *
+    * @param task
+    *    the task, cannot be <code>null</code>.
+    */
+   private void fire(Task task) {
+      ExpiryStrategy strategy = task._strategy;
+      long now = System.currentTimeMillis();
+      while (! task._cancelled && task._deadline <= now) {
+         try {
+            int expired = strategy.doTick();
+            ticked(expired);
+         } catch (Throwable exception) {
+            Utils.logIgnoredException(exception);
+         }
+         task._deadline += strategy.getPrecision();
+      }
+
+      synchronized (this) {
+         if (! task._cancelled) {
+            insert(task);
+         }
+      }
+   }
+
+   /**
+    * Records a strategy tick.
+    *
+    * @param expired
+    *    the number of entries expired during the tick.
+    */
+   private synchronized void ticked(int expired) {
+      _tickCount++;
+      _expiredCount += expired;
+      if (expired > _maxExpiredCount) {
+         _maxExpiredCount = expired;
+      }
+   }
+
+   /**
+    * Returns the resolution of this timer.
+    *
+    * @return
+    *    the resolution in milliseconds, always &gt; 0.
+    */
+   public long getResolution() {
+      return _resolution;
+   }
+
+   /**
+    * Returns the number of expiry strategies that are scheduled.
+    *
+    * @return
+    *    the number of strategies that have not been stopped, always &gt;= 0.
+    */
+   public synchronized int getStrategyCount() {
+      return _strategyCount;
+   }
+
+   /**
+    * Returns the number of strategy ticks performed. Each tick of a strategy
+    * is passed to all folders of the strategy.
+    *
+    * @return
+    *    the number of ticks, always &gt;= 0.
+    */
+   public synchronized long getTickCount() {
+      return _tickCount;
+   }
+
+   /**
+    * Returns the number of entries expired by all ticks.
+    *
+    * @return
+    *    the number of expired entries, always &gt;= 0.
+    */
+   public synchronized long getExpiredCount() {
+      return _expiredCount;
+   }
+
+   /**
+    * Returns the highest number of entries expired by a single tick.
+    *
+    * @return
+    *    the highest number of entries expired per tick, always &gt;= 0.
+    */
+   public synchronized int getMaxExpiredCount() {
+      return _maxExpiredCount;
+   }
+
+   /**
+    * Scheduled expiry strategy. Tasks are stored in the buckets of the wheel
+    * as a doubly linked list.
+    *
+    * @version $Revision$ $Date$
+    */
+   private static final class Task {
+
+      /**
+       * The strategy. Never <code>null</code>.
+       */
+      private final ExpiryStrategy _strategy;
+
+      /**
+       * The time of the next tick of the strategy.
+       */
+      private long _deadline;
+
+      /**
+       * The tick of the wheel at which the task is due.
+       */
+      private long _tick;
+
+      /**
+       * The bucket containing this task, or <code>-1</code> if the task is
+       * not in the wheel.
+       */
+      private int _bucket = -1;
+
+      /**
+       * The previous task in the bucket, or <code>null</code>.
+       */
+      private Task _previous;
+
+      /**
+       * The next task in the bucket, or <code>null</code>.
+       */
+      private Task _next;
+
+      /**
+       * Flag that indicates whether the task has been cancelled.
+       */
+      private volatile boolean _cancelled;
+
+      /**
+       * Constructs a new <code>Task</code>.
+       *
+       * @param strategy
+       *    the strategy, cannot be <code>null</code>.
+       */
+      Task(ExpiryStrategy strategy) {
+         _strategy = strategy;
+      }
+   }
+
+   /**
+    * The thread that performs the ticks of all strategies.
+    *
+    * @version $Revision$ $Date$
+    */
+   private final class TimerThread extends Thread {
+
+      /**
+       * Constructs a new <code>TimerThread</code>.
+       */
+      TimerThread() {
+         super("XINS expiry timer");
+         setDaemon(true);
+      }
+
+      /**
+       * Runs this thread. The thread keeps running until all strategies
+       * have been stopped.
+       */
+      public void run() {
+         while (true) {
+            ArrayList due;
+            try {
+               due = nextTick();
+            } catch (InterruptedException exception) {
+               continue;
+            }
+            if (due == null) {
+               return;
+            }
+            for (int i = 0; i < due.size(); i++) {
+               fire((Task) due.get(i));
+            }
+         }
+      }
+   }
+}
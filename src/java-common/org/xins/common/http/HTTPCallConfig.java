@@ -39,6 +39,12 @@ public final class HTTPCallConfig extends CallConfig {
     */
    private boolean _followRedirect;
 
+   /**
+    * Indicates whether the body of a POST request is compressed with gzip.
+    * Default to <code>false</code>.
+    */
+   private boolean _compressRequest;
+
    /**
     * Constructs a new <code>HTTPCallConfig</code> object.
     */
@@ -105,6 +111,35 @@ public final class HTTPCallConfig extends CallConfig {
        _followRedirect = follow;
    }
 
+   /**
+    * Indicates whether the body of a POST request is compressed with gzip.
+    *
+    * @return
+    *    <code>true</code> if the body of a POST request is compressed.
+    *
+    * @since XINS 2.4
+    */
+   public boolean getCompressRequest() {
+      return _compressRequest;
+   }
+
+   /**
+    * Sets whether the body of a POST request is compressed with gzip. The
+    * body is sent with the header <code>Content-Encoding: gzip</code>, only
+    * if it is large enough to benefit from the compression. The server has
+    * to support compressed requests, as the XINS/Java Server Framework does
+    * since XINS 2.4.
+    *
+    * @param compress
+    *    <code>true</code> if the body of a POST request should be
+    *    compressed.
+    *
+    * @since XINS 2.4
+    */
+   public void setCompressRequest(boolean compress) {
+      _compressRequest = compress;
+   }
+
    /**
     * Sets the user agent associated with the HTTP call.
     *
@@ -142,7 +177,8 @@ public final class HTTPCallConfig extends CallConfig {
    public String describe() {
 
       String description = "HTTP call config [failOverAllowed=" + isFailOverAllowed() + "; method=" +
-            TextUtils.quote(_method.toString()) + "; userAgent=" + TextUtils.quote(_userAgent) + "]";
+            TextUtils.quote(_method.toString()) + "; userAgent=" + TextUtils.quote(_userAgent) +
+            "; compressRequest=" + _compressRequest + "]";
 
       return description;
    }
@@ -6,6 +6,7 @@
  */
 package org.xins.common.http;
 
+import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.collections.PropertyReader;
 import org.xins.common.collections.PropertyReaderUtils;
 import org.xins.common.service.CallRequest;
@@ -44,6 +45,18 @@ public final class HTTPCallRequest extends CallRequest {
     */
    private final HTTPStatusCodeVerifier _statusCodeVerifier;
 
+   /**
+    * The body of the request, or <code>null</code> if the body contains the
+    * parameters.
+    */
+   private byte[] _body;
+
+   /**
+    * The content type of the body, or <code>null</code> if the body contains
+    * the parameters.
+    */
+   private String _contentType;
+
    /**
     * Constructs a new <code>HTTPCallRequest</code> with the specified
     * parameters and status code verifier. Fail-over is not unconditionally
@@ -188,6 +201,14 @@ public final class HTTPCallRequest extends CallRequest {
             description.append(PropertyReaderUtils.toString(_parameters, "(null)"));
             description.append('"');
          }
+
+         // Body
+         if (_body != null) {
+            description.append("; body=");
+            description.append(_body.length);
+            description.append(" bytes of ");
+            description.append(_contentType);
+         }
          _asString = description.toString();
       }
 
@@ -264,6 +285,55 @@ public final class HTTPCallRequest extends CallRequest {
       return getHTTPCallConfig().isFailOverAllowed();
    }
 
+   /**
+    * Sets the body of the request. A request with a body is always sent with
+    * the HTTP POST method and its parameters are sent in the query string
+    * of the URL.
+    *
+    * @param body
+    *    the body of the request, cannot be <code>null</code>.
+    *
+    * @param contentType
+    *    the content type of the body, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>body == null || contentType == null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public void setBody(byte[] body, String contentType)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("body", body, "contentType", contentType);
+      _body        = body;
+      _contentType = contentType;
+      _asString    = null;
+   }
+
+   /**
+    * Returns the body of the request, if set.
+    *
+    * @return
+    *    the body, or <code>null</code> if the body contains the parameters.
+    *
+    * @since XINS 2.4
+    */
+   public byte[] getBody() {
+      return _body;
+   }
+
+   /**
+    * Returns the content type of the body, if set.
+    *
+    * @return
+    *    the content type, or <code>null</code> if the body contains the
+    *    parameters.
+    *
+    * @since XINS 2.4
+    */
+   public String getContentType() {
+      return _contentType;
+   }
+
    /**
     * Returns the HTTP status code verifier. If all HTTP status codes are
     * allowed, then <code>null</code> is returned.
@@ -0,0 +1,486 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.http;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.service.TargetDescriptor;
+
+/**
+ * Pool of persistent HTTP connections, used by {@link HTTPServiceCaller}.
+ *
+ * <p>For each {@link TargetDescriptor} a connection manager is created that
+ * keeps the connections to that target alive after a call has been
+ * performed, so that subsequent calls do not need to establish a new TCP
+ * connection. The connection time-out and socket time-out of the target
+ * descriptor are applied to the connections in the pool.
+ *
+ * <p>The maximum number of connections per host and the maximum total number
+ * of connections can be configured. The maximum total number of connections
+ * applies to all targets together: it limits the number of connections in
+ * use at the same time by all callers sharing this pool. A call that cannot
+ * get a connection within the connection time-out of its target fails with
+ * a connection time-out. Connections that have been idle for
+ * longer than the idle time-out are closed. The idle connections are checked
+ * when a connection is released, at most once every half idle time-out
+ * period, so no additional thread is needed.
+ *
+ * <p>The same <code>HTTPConnectionPool</code> can be shared by several
+ * {@link HTTPServiceCaller} instances, see
+ * {@link HTTPServiceCaller#setConnectionPool(HTTPConnectionPool)}.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class HTTPConnectionPool {
+
+   /**
+    * The default maximum number of connections per host.
+    */
+   public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+   /**
+    * The default maximum total number of connections in use, for all
+    * targets together.
+    */
+   public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+   /**
+    * The default time in milliseconds after which an idle connection is
+    * closed.
+    */
+   public static final int DEFAULT_IDLE_TIME_OUT = 60000;
+
+   /**
+    * The connection managers, per target descriptor. Never <code>null</code>.
+    * All accesses should be synchronized on this object.
+    */
+   private final HashMap _managers = new HashMap();
+
+   /**
+    * The maximum number of connections per host.
+    */
+   private int _maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+   /**
+    * The maximum total number of connections in use, for all targets
+    * together.
+    */
+   private int _maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+   /**
+    * The idle time-out in milliseconds, or <code>0</code> if idle
+    * connections should never be closed.
+    */
+   private int _idleTimeOut = DEFAULT_IDLE_TIME_OUT;
+
+   /**
+    * The time at which the idle connections were last closed.
+    */
+   private long _lastIdleCheck = System.currentTimeMillis();
+
+   /**
+    * The number of connections handed out by this pool.
+    */
+   private long _acquiredCount;
+
+   /**
+    * The number of connections currently in use, for all targets together.
+    */
+   private int _activeCount;
+
+   /**
+    * The number of times no connection became available within the
+    * connection time-out.
+    */
+   private long _timeOutCount;
+
+   /**
+    * The number of times the idle connections have been closed.
+    */
+   private long _idleCheckCount;
+
+   /**
+    * Constructs a new <code>HTTPConnectionPool</code> with the default
+    * settings.
+    */
+   public HTTPConnectionPool() {
+      // empty
+   }
+
+   /**
+    * Sets the maximum number of connections per host. This only applies to
+    * the targets that have not been called yet.
+    *
+    * @param max
+    *    the maximum number of connections per host, must be &gt; 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>max &lt;= 0</code>.
+    */
+   public synchronized void setMaxConnectionsPerHost(int max)
+   throws IllegalArgumentException {
+      if (max <= 0) {
+         throw new IllegalArgumentException("max (" + max + ") <= 0");
+      }
+      _maxConnectionsPerHost = max;
+   }
+
+   /**
+    * Returns the maximum number of connections per host.
+    *
+    * @return
+    *    the maximum number of connections per host, always &gt; 0.
+    */
+   public synchronized int getMaxConnectionsPerHost() {
+      return _maxConnectionsPerHost;
+   }
+
+   /**
+    * Sets the maximum total number of connections in use, for all targets
+    * together. This applies immediately to all targets.
+    *
+    * @param max
+    *    the maximum total number of connections, must be &gt; 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>max &lt;= 0</code>.
+    */
+   public synchronized void setMaxTotalConnections(int max)
+   throws IllegalArgumentException {
+      if (max <= 0) {
+         throw new IllegalArgumentException("max (" + max + ") <= 0");
+      }
+      _maxTotalConnections = max;
+   }
+
+   /**
+    * Returns the maximum total number of connections in use, for all targets
+    * together.
+    *
+    * @return
+    *    the maximum total number of connections, always &gt; 0.
+    */
+   public synchronized int getMaxTotalConnections() {
+      return _maxTotalConnections;
+   }
+
+   /**
+    * Sets the time after which an idle connection is closed.
+    *
+    * @param idleTimeOut
+    *    the idle time-out in milliseconds, or <code>0</code> if idle
+    *    connections should be kept open.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>idleTimeOut &lt; 0</code>.
+    */
+   public synchronized void setIdleTimeOut(int idleTimeOut)
+   throws IllegalArgumentException {
+      if (idleTimeOut < 0) {
+         throw new IllegalArgumentException("idleTimeOut (" + idleTimeOut + ") < 0");
+      }
+      _idleTimeOut = idleTimeOut;
+   }
+
+   /**
+    * Returns the time after which an idle connection is closed.
+    *
+    * @return
+    *    the idle time-out in milliseconds, or <code>0</code> if idle
+    *    connections are kept open.
+    */
+   public synchronized int getIdleTimeOut() {
+      return _idleTimeOut;
+   }
+
+   /**
+    * Returns the connection manager to use for the specified target. If
+    * there is no connection manager for the target yet, then one is created.
+    *
+    * @param target
+    *    the target to get the connection manager for, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the connection manager, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>target == null</code>.
+    */
+   HttpConnectionManager getConnectionManager(TargetDescriptor target)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("target", target);
+
+      synchronized (_managers) {
+         MultiThreadedHttpConnectionManager manager =
+            (MultiThreadedHttpConnectionManager) _managers.get(target);
+         if (manager == null) {
+            manager = new MultiThreadedHttpConnectionManager();
+            HttpConnectionManagerParams params = manager.getParams();
+            params.setConnectionTimeout(target.getConnectionTimeOut());
+            params.setSoTimeout(target.getSocketTimeOut());
+            params.setStaleCheckingEnabled(true);
+            synchronized (this) {
+               params.setDefaultMaxConnectionsPerHost(_maxConnectionsPerHost);
+               params.setMaxTotalConnections(_maxConnectionsPerHost);
+            }
+            _managers.put(target, manager);
+         }
+         return manager;
+      }
+   }
+
+   /**
+    * Reserves a connection for a call to the specified target. If the
+    * maximum total number of connections are in use, then this method waits
+    * until a connection is released, at most for the connection time-out of
+    * the target.
+    *
+    * <p>Every successful call to this method must be followed by a call to
+    * {@link #connectionReleased()}.
+    *
+    * @param target
+    *    the target to reserve a connection for, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>target == null</code>.
+    *
+    * @throws ConnectionPoolTimeoutException
+    *    if no connection became available within the connection time-out of
+    *    the target, or if the current thread was interrupted while waiting.
+    */
+   void acquireConnection(TargetDescriptor target)
+   throws IllegalArgumentException, ConnectionPoolTimeoutException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("target", target);
+
+      int  maxTotal = getMaxTotalConnections();
+      long timeOut  = target.getConnectionTimeOut();
+      long deadline = System.currentTimeMillis() + timeOut;
+      synchronized (_managers) {
+         _acquiredCount++;
+         while (_activeCount >= maxTotal) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeOut > 0L && remaining <= 0L) {
+               _timeOutCount++;
+               throw new ConnectionPoolTimeoutException("No connection available within " + timeOut + " ms, " + _activeCount + " connections in use.");
+            }
+            try {
+               _managers.wait(timeOut > 0L ? remaining : 0L);
+            } catch (InterruptedException exception) {
+               _timeOutCount++;
+               Thread.currentThread().interrupt();
+               throw new ConnectionPoolTimeoutException("Interrupted while waiting for a connection.");
+            }
+            maxTotal = getMaxTotalConnections();
+         }
+         _activeCount++;
+      }
+   }
+
+   /**
+    * Indicates that a connection reserved with
+    * {@link #acquireConnection(TargetDescriptor)} has been released to the
+    * pool. If the idle connections have not been checked for half the idle
+    * time-out period, then the idle connections are closed.
+    */
+   void connectionReleased() {
+      synchronized (_managers) {
+         _activeCount--;
+         _managers.notifyAll();
+      }
+
+      int idleTimeOut = getIdleTimeOut();
+      if (idleTimeOut < 1) {
+         return;
+      }
+
+      long now = System.currentTimeMillis();
+      synchronized (_managers) {
+         if (now - _lastIdleCheck < idleTimeOut / 2) {
+            return;
+         }
+         _lastIdleCheck = now;
+      }
+      closeIdleConnections(idleTimeOut);
+   }
+
+   /**
+    * Closes the connections that have been idle for at least the specified
+    * time.
+    *
+    * @param idleTime
+    *    the idle time in milliseconds, or <code>0</code> to close all idle
+    *    connections.
+    */
+   public void closeIdleConnections(long idleTime) {
+      Object[] managers;
+      synchronized (_managers) {
+         _idleCheckCount++;
+         managers = _managers.values().toArray();
+      }
+      for (int i = 0; i < managers.length; i++) {
+         ((HttpConnectionManager) managers[i]).closeIdleConnections(idleTime);
+      }
+   }
+
+   /**
+    * Closes all connections and removes all connection managers from this
+    * pool. The pool can still be used afterwards.
+    */
+   public void shutdown() {
+      Object[] managers;
+      synchronized (_managers) {
+         managers = _managers.values().toArray();
+         _managers.clear();
+      }
+      for (int i = 0; i < managers.length; i++) {
+         ((MultiThreadedHttpConnectionManager) managers[i]).shutdown();
+      }
+   }
+
+   /**
+    * Returns the number of targets for which a connection manager exists.
+    *
+    * @return
+    *    the number of targets in this pool, always &gt;= 0.
+    */
+   public int getTargetCount() {
+      synchronized (_managers) {
+         return _managers.size();
+      }
+   }
+
+   /**
+    * Returns the total number of connections currently kept by this pool,
+    * both in use and idle.
+    *
+    * @return
+    *    the number of connections, always &gt;= 0.
+    */
+   public int getConnectionsInPool() {
+      int count = 0;
+      synchronized (_managers) {
+         Iterator managers = _managers.values().iterator();
+         while (managers.hasNext()) {
+            count += ((MultiThreadedHttpConnectionManager) managers.next()).getConnectionsInPool();
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Returns the number of connections currently kept by this pool for the
+    * specified target, both in use and idle.
+    *
+    * @param target
+    *    the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the number of connections for the target, always &gt;= 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>target == null</code>.
+    */
+   public int getConnectionsInPool(TargetDescriptor target)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("target", target);
+
+      synchronized (_managers) {
+         MultiThreadedHttpConnectionManager manager =
+            (MultiThreadedHttpConnectionManager) _managers.get(target);
+         return manager == null ? 0 : manager.getConnectionsInPool();
+      }
+   }
+
+   /**
+    * Returns the number of times a connection was requested from this pool.
+    *
+    * @return
+    *    the number of connection requests, always &gt;= 0.
+    */
+   public long getAcquiredCount() {
+      synchronized (_managers) {
+         return _acquiredCount;
+      }
+   }
+
+   /**
+    * Returns the number of connections currently in use, for all targets
+    * together.
+    *
+    * @return
+    *    the number of connections in use, always &gt;= 0.
+    */
+   public int getActiveConnections() {
+      synchronized (_managers) {
+         return _activeCount;
+      }
+   }
+
+   /**
+    * Returns the number of times no connection became available within the
+    * connection time-out of the target.
+    *
+    * @return
+    *    the number of connection time-outs, always &gt;= 0.
+    */
+   public long getTimeOutCount() {
+      synchronized (_managers) {
+         return _timeOutCount;
+      }
+   }
+
+   /**
+    * Returns the number of times the idle connections have been closed.
+    *
+    * @return
+    *    the number of idle connection checks, always &gt;= 0.
+    */
+   public long getIdleCheckCount() {
+      synchronized (_managers) {
+         return _idleCheckCount;
+      }
+   }
+
+   /**
+    * Returns a textual description of this pool and its statistics.
+    *
+    * @return
+    *    the description of this pool, never <code>null</code>.
+    */
+   public String toString() {
+      return "HTTPConnectionPool(targets=" + getTargetCount()
+           + "; connections=" + getConnectionsInPool()
+           + "; active=" + getActiveConnections()
+           + "; acquired=" + getAcquiredCount()
+           + "; timeOuts=" + getTimeOutCount()
+           + "; idleChecks=" + getIdleCheckCount()
+           + "; maxPerHost=" + getMaxConnectionsPerHost()
+           + "; maxTotal=" + getMaxTotalConnections()
+           + "; idleTimeOut=" + getIdleTimeOut() + ')';
+   }
+}
@@ -15,12 +15,17 @@ import java.net.ConnectException;
 import java.net.NoRouteToHostException;
 import java.net.UnknownHostException;
 import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpRecoverableException;
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
@@ -157,20 +162,32 @@ public class HTTPServiceCaller extends ServiceCaller {
       HTTPServiceCaller.CallExecutor.class.getName();
 
    /**
-    * The number of constructed call executors.
+    * HTTP retry handler that does not allow any retries.
     */
-   private static int CALL_EXECUTOR_COUNT;
+   private static DefaultHttpMethodRetryHandler NO_RETRIES = new DefaultHttpMethodRetryHandler(0, false);
 
    /**
-    * Lock object for <code>CALL_EXECUTOR_COUNT</code>. Never
-    * <code>null</code>.
+    * The value of the <code>Accept-Encoding</code> header sent with each
+    * request. The compressed responses are decoded transparently.
     */
-   private static final Object CALL_EXECUTOR_COUNT_LOCK = new Object();
+   private static final String ACCEPT_ENCODING = "gzip, deflate";
 
    /**
-    * HTTP retry handler that does not allow any retries.
+    * The content type of the body of a POST request.
     */
-   private static DefaultHttpMethodRetryHandler NO_RETRIES = new DefaultHttpMethodRetryHandler(0, false);
+   private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+   /**
+    * The minimum number of bytes of a request body before it is compressed,
+    * if the compression is enabled.
+    */
+   private static final int MIN_COMPRESSED_SIZE = 1024;
+
+   /**
+    * The pool of persistent connections used by this service caller. Never
+    * <code>null</code>.
+    */
+   private HTTPConnectionPool _connectionPool = new HTTPConnectionPool();
 
    /**
     * Constructs a new <code>HTTPServiceCaller</code> object with the
@@ -219,18 +236,56 @@ public class HTTPServiceCaller extends ServiceCaller {
       this(descriptor, null);
    }
 
+   /**
+    * Sets the pool of persistent connections used by this service caller.
+    * A pool can be shared by several service callers.
+    *
+    * @param pool
+    *    the connection pool, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>pool == null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public void setConnectionPool(HTTPConnectionPool pool)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("pool", pool);
+
+      _connectionPool = pool;
+   }
+
+   /**
+    * Returns the pool of persistent connections used by this service caller.
+    * The pool can be used to configure the connections and to retrieve the
+    * connection statistics.
+    *
+    * @return
+    *    the connection pool, never <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public HTTPConnectionPool getConnectionPool() {
+      return _connectionPool;
+   }
+
    /**
     * Returns the {@link HttpClient} to use to contact the given target.
     *
     * @param target
     *    the target of the service.
     *
+    * @param pool
+    *    the pool that provides the connections to the target.
+    *
     * @return
-    *    the HttpClient shared instance.
+    *    the HttpClient instance, using the pooled connections.
     */
-   private static HttpClient getHttpClient(TargetDescriptor target) {
+   private static HttpClient getHttpClient(TargetDescriptor target, HTTPConnectionPool pool) {
 
-      HttpClient httpClient= new HttpClient();
+      HttpClient httpClient = new HttpClient(pool.getConnectionManager(target));
 
       // Add support for proxies
       int proxyPort = 80;
@@ -248,17 +303,47 @@ public class HTTPServiceCaller extends ServiceCaller {
          httpClient.getHostConfiguration().setProxy(proxyHost, proxyPort);
       }
 
-      int connectionTimeOut = target.getConnectionTimeOut();
-      int socketTimeOut     = target.getSocketTimeOut();
-
-      // Configure connection time-out and socket time-out
-      // For compatibility with HTTPClient 2.0, the deprecated methods are still used.
-      httpClient.setHttpConnectionFactoryTimeout(connectionTimeOut);
-      httpClient.setTimeout(socketTimeOut);
+      // The connection and socket time-outs are set on the pooled
+      // connections. Do not wait longer than the connection time-out for a
+      // connection from the pool either.
+      httpClient.getParams().setConnectionManagerTimeout(target.getConnectionTimeOut());
 
       return httpClient;
    }
 
+   /**
+    * Decodes the body of a response according to its
+    * <code>Content-Encoding</code> header.
+    *
+    * @param in
+    *    the body of the response as received, cannot be <code>null</code>.
+    *
+    * @param contentEncoding
+    *    the <code>Content-Encoding</code> header of the response, or
+    *    <code>null</code> if there is none.
+    *
+    * @return
+    *    the stream that returns the decoded body, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the header of the compressed body cannot be read.
+    */
+   private static InputStream decode(InputStream in, Header contentEncoding)
+   throws IOException {
+      String encoding = (contentEncoding == null) ? null : contentEncoding.getValue();
+      if (encoding == null) {
+         return in;
+      }
+      encoding = encoding.trim();
+      if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+         return new GZIPInputStream(in);
+      } else if ("deflate".equalsIgnoreCase(encoding)) {
+         return new InflaterInputStream(in);
+      } else {
+         return in;
+      }
+   }
+
    /**
     * Creates an appropriate <code>HttpMethodBase</code> object for the
     * specified URL.
@@ -284,9 +369,24 @@ public class HTTPServiceCaller extends ServiceCaller {
       HTTPMethod     method     = callConfig.getMethod();
       PropertyReader parameters = request.getParameters();
 
+      // HTTP POST request with a body, the parameters are sent in the URL
+      byte[] body = request.getBody();
+      if (body != null) {
+         String query = createQueryString(parameters);
+         if (query.length() > 0) {
+            url += ((url.indexOf('?') < 0) ? '?' : '&') + query;
+         }
+         UnicodePostMethod postMethod = new UnicodePostMethod(url);
+         postMethod.setBody(body, request.getContentType());
+         postMethod.setFollowRedirects(callConfig.getFollowRedirect());
+         if (callConfig.getCompressRequest()) {
+            postMethod.compressBody();
+         }
+         return postMethod;
+
       // HTTP POST request
-      if (method == HTTPMethod.POST) {
-         PostMethod postMethod = new UnicodePostMethod(url);
+      } else if (method == HTTPMethod.POST) {
+         UnicodePostMethod postMethod = new UnicodePostMethod(url);
 
          // Loop through the parameters
          if (parameters != null) {
@@ -310,6 +410,11 @@ public class HTTPServiceCaller extends ServiceCaller {
          }
          postMethod.setFollowRedirects(callConfig.getFollowRedirect());
 
+         // Compress the body if requested
+         if (callConfig.getCompressRequest()) {
+            postMethod.compressBody();
+         }
+
          return postMethod;
 
       // HTTP GET request
@@ -317,33 +422,9 @@ public class HTTPServiceCaller extends ServiceCaller {
          GetMethod getMethod = new GetMethod(url);
          getMethod.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, NO_RETRIES);
 
-         // Loop through the parameters
-         StringBuffer query = new StringBuffer(255);
-         Iterator keys = parameters.getNames();
-         while (keys.hasNext()) {
-
-            // Get the parameter key
-            String key = (String) keys.next();
-
-            // Get the value
-            String value = parameters.get(key);
-            if (value == null) {
-               value = "";
-            }
-
-            // Add this parameter key/value combination.
-            if (key != null) {
-
-               if (query.length() > 0) {
-                  query.append("&");
-               }
-               query.append(URLEncoding.encode(key));
-               query.append("=");
-               query.append(URLEncoding.encode(value));
-            }
-         }
+         String query = createQueryString(parameters);
          if (query.length() > 0) {
-            getMethod.setQueryString(query.toString());
+            getMethod.setQueryString(query);
          }
          getMethod.setFollowRedirects(callConfig.getFollowRedirect());
 
@@ -356,6 +437,43 @@ public class HTTPServiceCaller extends ServiceCaller {
       }
    }
 
+   /**
+    * Creates the URL-encoded query string for the specified parameters.
+    *
+    * @param parameters
+    *    the parameters, not <code>null</code>.
+    *
+    * @return
+    *    the query string, without a question mark, never <code>null</code>.
+    */
+   private static String createQueryString(PropertyReader parameters) {
+      StringBuffer query = new StringBuffer(255);
+      Iterator keys = parameters.getNames();
+      while (keys.hasNext()) {
+
+         // Get the parameter key
+         String key = (String) keys.next();
+
+         // Get the value
+         String value = parameters.get(key);
+         if (value == null) {
+            value = "";
+         }
+
+         // Add this parameter key/value combination.
+         if (key != null) {
+
+            if (query.length() > 0) {
+               query.append("&");
+            }
+            query.append(URLEncoding.encode(key));
+            query.append("=");
+            query.append(URLEncoding.encode(value));
+         }
+      }
+      return query.toString();
+   }
+
    /**
     * Checks if the specified protocol is supported (implementation method).
     * The protocol is the part in a URL before the string <code>"://"</code>).
@@ -607,7 +725,7 @@ public class HTTPServiceCaller extends ServiceCaller {
 
       // Prepare a thread for execution of the call
       // NOTE: Preconditions are checked by the CallExecutor constructor
-      CallExecutor executor = new CallExecutor(request, callConfig, target, NDC.peek());
+      CallExecutor executor = new CallExecutor(request, callConfig, target, _connectionPool, NDC.peek());
 
       // Get URL and time-out values
       String url               = target.getURL();
@@ -668,6 +786,7 @@ public class HTTPServiceCaller extends ServiceCaller {
          // XXX: We do not use instanceof because class ConnectTimeoutException
          //      is not available in HTTPClient 2.0
          } else if (exceptionName.equals("org.apache.commons.httpclient.ConnectTimeoutException")
+               || exceptionName.equals("org.apache.commons.httpclient.ConnectionPoolTimeoutException")
                || exceptionName.equals("org.apache.commons.httpclient.HttpConnection.ConnectionTimeoutException")) {
             Log.log_1104(url, params, duration, connectionTimeOut);
             executor.dispose();
@@ -865,7 +984,7 @@ public class HTTPServiceCaller extends ServiceCaller {
     * @version $Revision$ $Date$
     * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
     */
-   private static final class CallExecutor extends Thread {
+   private static final class CallExecutor implements Runnable {
 
       /**
        * Constructs a new <code>CallExecutor</code> for the specified call to
@@ -886,29 +1005,25 @@ public class HTTPServiceCaller extends ServiceCaller {
        *    the service target on which to execute the request, cannot be
        *    <code>null</code>.
        *
+       * @param pool
+       *    the pool providing the connection to the target, cannot be
+       *    <code>null</code>.
+       *
        * @param context
        *    the <em>Nested Diagnostic Context identifier</em> (NDC), or
        */
-      private CallExecutor(HTTPCallRequest  request,
-                           HTTPCallConfig   callConfig,
-                           TargetDescriptor target,
-                           String           context) {
+      private CallExecutor(HTTPCallRequest    request,
+                           HTTPCallConfig     callConfig,
+                           TargetDescriptor   target,
+                           HTTPConnectionPool pool,
+                           String             context) {
 
          // Store data for later use in the run() method
          _request    = request;
          _callConfig = callConfig;
          _target     = target;
+         _pool       = pool;
          _context    = context;
-
-         // Determine the unique ID of this instance
-         int instanceID;
-         synchronized (CALL_EXECUTOR_COUNT_LOCK) {
-            instanceID = CALL_EXECUTOR_COUNT++;
-         }
-
-         // Set the name of this thread
-         String name = EXECUTOR_CLASSNAME + " #" + instanceID;
-         setName(name);
       }
 
       /**
@@ -927,6 +1042,12 @@ public class HTTPServiceCaller extends ServiceCaller {
        */
       private TargetDescriptor _target;
 
+      /**
+       * The pool providing the connection to the target. Never
+       * <code>null</code>.
+       */
+      private HTTPConnectionPool _pool;
+
       /**
        * The <em>Nested Diagnostic Context identifier</em> (NDC). Is set to
        * <code>null</code> if it should be left unchanged.
@@ -959,7 +1080,7 @@ public class HTTPServiceCaller extends ServiceCaller {
       private HTTPCallResultData _result;
 
       /**
-       * Runs this thread (wrapper method). It will call the HTTP service. If that call was
+       * Runs this task (wrapper method). It will call the HTTP service. If that call was
        * successful, then the result is stored in this object. Otherwise
        * there is an exception, in which case that exception is stored in this
        * object instead.
@@ -975,7 +1096,7 @@ public class HTTPServiceCaller extends ServiceCaller {
          }
 
          // Get the HttpClient object
-         HttpClient client = getHttpClient(_target);
+         HttpClient client = getHttpClient(_target, _pool);
 
          // Determine URL and time-outs
          String url = _target.getURL();
@@ -989,8 +1110,18 @@ public class HTTPServiceCaller extends ServiceCaller {
             method.setRequestHeader("User-Agent", userAgent);
          }
 
+         // Accept compressed responses
+         method.setRequestHeader("Accept-Encoding", ACCEPT_ENCODING);
+
          // Perform the HTTP call
+         boolean acquired = false;
          try {
+            // Wait for a connection if the pool is at its maximum
+            _throwingClass  = _pool.getClass().getName();
+            _throwingMethod = "acquireConnection(" + _target.getClass().getName() + ')';
+            _pool.acquireConnection(_target);
+            acquired = true;
+
             // Execute call
             _throwingClass  = client.getClass().getName();
             _throwingMethod = "executeMethod(" + method.getClass().getName() + ')';
@@ -1003,6 +1134,9 @@ public class HTTPServiceCaller extends ServiceCaller {
 
             byte[] body = null;
             if (in != null) {
+               _throwingMethod = "getResponseHeader(String)";
+               in = decode(in, method.getResponseHeader("Content-Encoding"));
+
                _throwingMethod    = "getResponseContentLength()";
                int contentLength = 4096;
 
@@ -1052,17 +1186,19 @@ public class HTTPServiceCaller extends ServiceCaller {
          } catch (Throwable exception) {
             _exception = exception;
 
-         // Release the HTTP connection immediately
+         // Release the HTTP connection to the pool, so it can be reused
          } finally {
             try {
                method.releaseConnection();
-               client.getHttpConnectionManager().closeIdleConnections(0);
             } catch (Throwable exception) {
                String thisMethod = "run()";
                String subjectClass = method.getClass().getName();
                String subjectMethod = "releaseConnection()";
                Log.log_1052(exception, EXECUTOR_CLASSNAME, thisMethod, subjectClass, subjectMethod, null);
             }
+            if (acquired) {
+               _pool.connectionReleased();
+            }
          }
 
          // Remove the diagnostic context ID
@@ -1076,6 +1212,7 @@ public class HTTPServiceCaller extends ServiceCaller {
          _context = null;
          _request = null;
          _target = null;
+         _pool = null;
       }
 
       /**
@@ -1194,7 +1331,8 @@ public class HTTPServiceCaller extends ServiceCaller {
 
    /**
     * Post method that encode the Unicode characters above 255 as %uxxxx
-    * where xxxx is the hexadecimal value of the character.
+    * where xxxx is the hexadecimal value of the character. The body can be
+    * compressed with gzip, see {@link #compressBody()}.
     *
     * @version $Revision$ $Date$
     * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
@@ -1203,6 +1341,18 @@ public class HTTPServiceCaller extends ServiceCaller {
     */
    private static class UnicodePostMethod extends PostMethod {
 
+      /**
+       * The body that is not made of the parameters, or <code>null</code>
+       * if the body contains the parameters.
+       */
+      private RequestEntity _body;
+
+      /**
+       * The compressed body, or <code>null</code> if the body is not
+       * compressed.
+       */
+      private RequestEntity _compressedBody;
+
       public UnicodePostMethod(String url) {
          super(url);
 
@@ -1210,24 +1360,93 @@ public class HTTPServiceCaller extends ServiceCaller {
          getParams().setParameter(HttpMethodParams.RETRY_HANDLER, NO_RETRIES);
       }
 
-      protected RequestEntity generateRequestEntity() {
+      /**
+       * Sets the body of the request, instead of the parameters.
+       *
+       * @param body
+       *    the body, not <code>null</code>.
+       *
+       * @param contentType
+       *    the content type of the body, not <code>null</code>.
+       */
+      void setBody(byte[] body, String contentType) {
+         _body = new ByteArrayRequestEntity(body, contentType);
+
+         // Without parameters, the entity is not generated
+         setRequestEntity(_body);
+      }
+
+      /**
+       * Compresses the body with gzip, if it has at least
+       * {@link #MIN_COMPRESSED_SIZE} bytes. The parameters or the body have
+       * to be set before this method is called.
+       */
+      void compressBody() {
+         byte[] body;
+         String contentType;
+         try {
+            if (_body != null) {
+               body        = ((ByteArrayRequestEntity) _body).getContent();
+               contentType = _body.getContentType();
+            } else {
+               String formBody = getFormBody();
+               body        = (formBody == null) ? null : formBody.getBytes("US-ASCII");
+               contentType = FORM_CONTENT_TYPE + "; charset=UTF-8";
+            }
+            if (body == null || body.length < MIN_COMPRESSED_SIZE) {
+               return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(body);
+            out.close();
+            _compressedBody = new ByteArrayRequestEntity(bytes.toByteArray(), contentType);
+            setRequestHeader("Content-Encoding", "gzip");
+            if (_body != null) {
+               setRequestEntity(_compressedBody);
+            }
+         } catch (IOException exception) {
+            // Should never happen
+            throw Utils.logProgrammingError(exception);
+         }
+      }
+
+      /**
+       * Returns the URL-encoded parameters.
+       *
+       * @return
+       *    the body, or <code>null</code> if there are no parameters.
+       */
+      private String getFormBody() {
          NameValuePair[] params = getParameters();
          int paramsCount = params.length;
          if (paramsCount == 0) {
+            return null;
+         }
+         StringBuffer queryString = new StringBuffer();
+         for (int i = 0; i < paramsCount; i++) {
+            if (i > 0) {
+               queryString.append('&');
+            }
+            queryString.append(URLEncoding.encode(params[i].getName()));
+            queryString.append('=');
+            queryString.append(URLEncoding.encode(params[i].getValue()));
+         }
+         return queryString.toString();
+      }
+
+      protected RequestEntity generateRequestEntity() {
+         if (_compressedBody != null) {
+            return _compressedBody;
+         } else if (_body != null) {
+            return _body;
+         }
+         String body = getFormBody();
+         if (body == null) {
             return super.generateRequestEntity();
          } else {
-            StringBuffer queryString = new StringBuffer();
-            for (int i = 0; i < paramsCount; i++) {
-               if (i > 0) {
-                  queryString.append('&');
-               }
-               queryString.append(URLEncoding.encode(params[i].getName()));
-               queryString.append('=');
-               queryString.append(URLEncoding.encode(params[i].getValue()));
-            }
             try {
-               return new StringRequestEntity(queryString.toString(),
-                     "application/x-www-form-urlencoded", "UTF-8");
+               return new StringRequestEntity(body, FORM_CONTENT_TYPE, "UTF-8");
             } catch (UnsupportedEncodingException ueex) {
                // Should never happen
                throw Utils.logProgrammingError(ueex);
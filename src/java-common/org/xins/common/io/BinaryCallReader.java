@@ -0,0 +1,309 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.io;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.text.ParseException;
+import org.xins.common.xml.Element;
+
+/**
+ * Reader for the binary encoding of XINS calls, as written by
+ * {@link BinaryCallWriter}. The values have to be read in the order in which
+ * they were written.
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class BinaryCallReader {
+
+   /**
+    * The maximum depth of the elements.
+    */
+   private static final int MAX_DEPTH = 1000;
+
+   /**
+    * The encoded bytes. Never <code>null</code>.
+    */
+   private final byte[] _data;
+
+   /**
+    * The position of the next byte to read.
+    */
+   private int _position;
+
+   /**
+    * The names read so far, in the order of their indexes. Never
+    * <code>null</code>.
+    */
+   private final List _names;
+
+   /**
+    * Constructs a new <code>BinaryCallReader</code>.
+    *
+    * @param data
+    *    the encoded bytes, starting with the {@link BinaryCallWriter#MAGIC}
+    *    bytes, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>data == null</code>.
+    *
+    * @throws ParseException
+    *    if the data does not start with the expected bytes.
+    */
+   public BinaryCallReader(byte[] data)
+   throws IllegalArgumentException, ParseException {
+      MandatoryArgumentChecker.check("data", data);
+      if (! isBinary(data)) {
+         throw new ParseException("Failed to parse binary call: unsupported format.", null, "Unsupported format.");
+      }
+      _data     = data;
+      _position = BinaryCallWriter.MAGIC.length;
+      _names    = new ArrayList();
+   }
+
+   /**
+    * Determines whether the specified data is in the binary encoding
+    * supported by this class.
+    *
+    * @param data
+    *    the data to check, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the data starts with the
+    *    {@link BinaryCallWriter#MAGIC} bytes, <code>false</code> otherwise.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>data == null</code>.
+    */
+   public static boolean isBinary(byte[] data) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("data", data);
+      byte[] magic = BinaryCallWriter.MAGIC;
+      if (data.length < magic.length) {
+         return false;
+      }
+      for (int i = 0; i < magic.length; i++) {
+         if (data[i] != magic[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Creates the exception for invalid data.
+    *
+    * @param detail
+    *    the description of the problem, cannot be <code>null</code>.
+    *
+    * @return
+    *    the exception, never <code>null</code>.
+    */
+   private ParseException parseException(String detail) {
+      detail += " Position: " + _position + '.';
+      return new ParseException("Failed to parse binary call: " + detail, null, detail);
+   }
+
+   /**
+    * Reads a byte.
+    *
+    * @return
+    *    the byte, between 0 and 255.
+    *
+    * @throws ParseException
+    *    if the end of the data is reached.
+    */
+   private int readByte() throws ParseException {
+      if (_position >= _data.length) {
+         throw parseException("Unexpected end of the data.");
+      }
+      return _data[_position++] & 0xFF;
+   }
+
+   /**
+    * Reads a number.
+    *
+    * @return
+    *    the number, always &gt;= 0.
+    *
+    * @throws ParseException
+    *    if the number is not correctly encoded.
+    */
+   private int readNumber() throws ParseException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+         int b = readByte();
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0) {
+            if (value < 0) {
+               break;
+            }
+            return value;
+         }
+      }
+      throw parseException("Invalid number.");
+   }
+
+   /**
+    * Reads a string.
+    *
+    * @return
+    *    the string, can be <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the string is not correctly encoded.
+    */
+   public String readString() throws ParseException {
+      int length = readNumber();
+      if (length == 0) {
+         return null;
+      }
+      length--;
+      if (length > _data.length - _position) {
+         throw parseException("Unexpected end of the data.");
+      }
+      try {
+         String value = new String(_data, _position, length, "UTF-8");
+         _position += length;
+         return value;
+      } catch (UnsupportedEncodingException exception) {
+         throw Utils.logProgrammingError(exception);
+      }
+   }
+
+   /**
+    * Reads a name.
+    *
+    * @return
+    *    the name, can be <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the name is not correctly encoded.
+    */
+   private String readName() throws ParseException {
+      int code = readNumber();
+      if (code == 0) {
+         return null;
+      } else if (code == 1) {
+         String name = readString();
+         if (name == null) {
+            throw parseException("Missing name.");
+         }
+         _names.add(name);
+         return name;
+      } else if (code - 2 < _names.size()) {
+         return (String) _names.get(code - 2);
+      } else {
+         throw parseException("Unknown name index " + (code - 2) + '.');
+      }
+   }
+
+   /**
+    * Reads parameters.
+    *
+    * @return
+    *    the parameters, never <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the parameters are not correctly encoded.
+    */
+   public BasicPropertyReader readParameters() throws ParseException {
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      int count = readNumber();
+      for (int i = 0; i < count; i++) {
+         String name = readName();
+         if (name == null) {
+            throw parseException("Missing parameter name.");
+         }
+         parameters.set(name, readString());
+      }
+      return parameters;
+   }
+
+   /**
+    * Reads an element, with its attributes, text and child elements.
+    *
+    * @return
+    *    the element, can be <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the element is not correctly encoded.
+    */
+   public Element readElement() throws ParseException {
+      int present = readByte();
+      if (present == 0) {
+         return null;
+      } else if (present != 1) {
+         throw parseException("Invalid element marker.");
+      }
+      return readElementContent(0);
+   }
+
+   /**
+    * Reads an element that is not <code>null</code>.
+    *
+    * @param depth
+    *    the number of parent elements.
+    *
+    * @return
+    *    the element, never <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the element is not correctly encoded.
+    */
+   private Element readElementContent(int depth) throws ParseException {
+      if (depth > MAX_DEPTH) {
+         throw parseException("Too many nested elements.");
+      }
+      String prefix       = readName();
+      String namespaceURI = readName();
+      String localName    = readName();
+      if (localName == null) {
+         throw parseException("Missing element name.");
+      }
+      Element element = new Element(prefix, namespaceURI, localName);
+
+      int attributeCount = readNumber();
+      for (int i = 0; i < attributeCount; i++) {
+         String attributePrefix       = readName();
+         String attributeNamespaceURI = readName();
+         String attributeLocalName    = readName();
+         if (attributeLocalName == null) {
+            throw parseException("Missing attribute name.");
+         }
+         element.setAttribute(attributePrefix, attributeNamespaceURI, attributeLocalName, readString());
+      }
+
+      element.setText(readString());
+
+      int childCount = readNumber();
+      for (int i = 0; i < childCount; i++) {
+         element.addChild(readElementContent(depth + 1));
+      }
+      return element;
+   }
+
+   /**
+    * Checks that all the data has been read.
+    *
+    * @throws ParseException
+    *    if there is data left.
+    */
+   public void end() throws ParseException {
+      if (_position != _data.length) {
+         throw parseException("Unexpected data after the end.");
+      }
+   }
+}
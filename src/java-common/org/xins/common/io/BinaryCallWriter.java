@@ -0,0 +1,276 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.xml.Element;
+
+/**
+ * Writer for the binary encoding of XINS calls. This encoding is used by the
+ * <code>_xins-bin</code> calling convention, for calls from one XINS API to
+ * another. It is read with {@link BinaryCallReader}.
+ *
+ * <p>The encoding starts with the {@link #MAGIC} bytes, followed by the
+ * values written with the methods of this class. Numbers are written as
+ * unsigned variable-length integers, 7 bits per byte. A string is written as
+ * its number of UTF-8 bytes plus one, followed by the bytes, or as
+ * <code>0</code> if it is <code>null</code>. Parameter names and the names
+ * of the elements and attributes are written only once: when a name is
+ * repeated, only its index in the table of written names is used.
+ *
+ * <p>A request contains the function name, the parameters and the data
+ * section. A result contains the error code, the parameters and the data
+ * section.
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class BinaryCallWriter {
+
+   /**
+    * The content type of the binary requests and results.
+    */
+   public static final String CONTENT_TYPE = "application/x-xins-binary";
+
+   /**
+    * The bytes that start the binary encoding. The last byte is the version
+    * of the encoding.
+    */
+   static final byte[] MAGIC = { 'X', 'B', 1 };
+
+   /**
+    * The encoded bytes. Never <code>null</code>.
+    */
+   private final ByteArrayOutputStream _out;
+
+   /**
+    * The names written so far. The keys are the names and the values are
+    * their indexes, as <code>Integer</code> objects. Never
+    * <code>null</code>.
+    */
+   private final Map _names;
+
+   /**
+    * Constructs a new <code>BinaryCallWriter</code>. The {@link #MAGIC}
+    * bytes are written first.
+    */
+   public BinaryCallWriter() {
+      _out   = new ByteArrayOutputStream(512);
+      _names = new HashMap();
+      _out.write(MAGIC, 0, MAGIC.length);
+   }
+
+   /**
+    * Writes a number.
+    *
+    * @param value
+    *    the number to write, must be &gt;= 0.
+    */
+   private void writeNumber(int value) {
+      while ((value & ~0x7F) != 0) {
+         _out.write((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      _out.write(value);
+   }
+
+   /**
+    * Writes a string.
+    *
+    * @param value
+    *    the string to write, can be <code>null</code>.
+    */
+   public void writeString(String value) {
+      if (value == null) {
+         writeNumber(0);
+         return;
+      }
+      byte[] bytes;
+      try {
+         bytes = value.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException exception) {
+         throw Utils.logProgrammingError(exception);
+      }
+      writeNumber(bytes.length + 1);
+      _out.write(bytes, 0, bytes.length);
+   }
+
+   /**
+    * Writes a name. A name that was written before is written as
+    * <code>index + 2</code>, a new name as <code>1</code> followed by the
+    * string and <code>null</code> as <code>0</code>.
+    *
+    * @param name
+    *    the name to write, can be <code>null</code>.
+    */
+   private void writeName(String name) {
+      if (name == null) {
+         writeNumber(0);
+         return;
+      }
+      Integer index = (Integer) _names.get(name);
+      if (index == null) {
+         _names.put(name, new Integer(_names.size()));
+         writeNumber(1);
+         writeString(name);
+      } else {
+         writeNumber(index.intValue() + 2);
+      }
+   }
+
+   /**
+    * Writes parameters. Parameters with an empty name or value are not
+    * written.
+    *
+    * @param parameters
+    *    the parameters to write, can be <code>null</code>.
+    */
+   public void writeParameters(PropertyReader parameters) {
+      List names = new ArrayList();
+      if (parameters != null) {
+         Iterator it = parameters.getNames();
+         while (it.hasNext()) {
+            String name  = (String) it.next();
+            String value = parameters.get(name);
+            if (name != null && name.length() > 0 && value != null && value.length() > 0) {
+               names.add(name);
+            }
+         }
+      }
+      writeNumber(names.size());
+      for (int i = 0; i < names.size(); i++) {
+         String name = (String) names.get(i);
+         writeName(name);
+         writeString(parameters.get(name));
+      }
+   }
+
+   /**
+    * Writes an element, with its attributes, text and child elements.
+    *
+    * @param element
+    *    the element to write, can be <code>null</code>.
+    */
+   public void writeElement(Element element) {
+      if (element == null) {
+         _out.write(0);
+         return;
+      }
+      _out.write(1);
+      writeElementContent(element);
+   }
+
+   /**
+    * Writes an element that is not <code>null</code>.
+    *
+    * @param element
+    *    the element to write, cannot be <code>null</code>.
+    */
+   private void writeElementContent(Element element) {
+      writeName(element.getNamespacePrefix());
+      writeName(element.getNamespaceURI());
+      writeName(element.getLocalName());
+
+      Map attributes = element.getAttributeMap();
+      writeNumber(attributes.size());
+      Iterator entries = attributes.entrySet().iterator();
+      while (entries.hasNext()) {
+         Map.Entry entry = (Map.Entry) entries.next();
+         Element.QualifiedName name = (Element.QualifiedName) entry.getKey();
+         writeName(name.getNamespacePrefix());
+         writeName(name.getNamespaceURI());
+         writeName(name.getLocalName());
+         writeString((String) entry.getValue());
+      }
+
+      writeString(element.getText());
+
+      List children = element.getChildElements();
+      writeNumber(children.size());
+      for (int i = 0; i < children.size(); i++) {
+         writeElementContent((Element) children.get(i));
+      }
+   }
+
+   /**
+    * Writes a request.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param parameters
+    *    the parameters, can be <code>null</code>.
+    *
+    * @param dataSection
+    *    the data section, can be <code>null</code>.
+    *
+    * @return
+    *    the encoded request, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>functionName == null</code>.
+    */
+   public static byte[] writeRequest(String         functionName,
+                                     PropertyReader parameters,
+                                     Element        dataSection)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("functionName", functionName);
+      BinaryCallWriter writer = new BinaryCallWriter();
+      writer.writeString(functionName);
+      writer.writeParameters(parameters);
+      writer.writeElement(dataSection);
+      return writer.toByteArray();
+   }
+
+   /**
+    * Writes a result.
+    *
+    * @param errorCode
+    *    the error code, or <code>null</code> if the call was successful.
+    *
+    * @param parameters
+    *    the parameters, can be <code>null</code>.
+    *
+    * @param dataSection
+    *    the data section, can be <code>null</code>.
+    *
+    * @return
+    *    the encoded result, never <code>null</code>.
+    */
+   public static byte[] writeResult(String         errorCode,
+                                    PropertyReader parameters,
+                                    Element        dataSection) {
+      BinaryCallWriter writer = new BinaryCallWriter();
+      writer.writeString(errorCode);
+      writer.writeParameters(parameters);
+      writer.writeElement(dataSection);
+      return writer.toByteArray();
+   }
+
+   /**
+    * Returns the bytes written so far.
+    *
+    * @return
+    *    the encoded bytes, never <code>null</code>.
+    */
+   public byte[] toByteArray() {
+      return _out.toByteArray();
+   }
+}
@@ -77,12 +77,13 @@ public abstract class Manageable {
    public static final State DEINITIALIZING = new State(1, "DEINITIALIZING");
 
    /**
-    * The state of this manageable object.
+    * The state of this manageable object. The state is changed while
+    * holding the lock, but it can be read without it.
     */
-   private State _state;
+   private volatile State _state;
 
    /**
-    * The lock for the state object.
+    * The lock for the state object, used for the state transitions.
     */
    private Object _stateLock;
 
@@ -423,11 +424,7 @@ public abstract class Manageable {
     * @since XINS 1.5.0
     */
    public final boolean isBootstrapped() {
-      State state;
-      synchronized (_stateLock) {
-         state = _state;
-      }
-      return state.getLevel() >= BOOTSTRAPPED.getLevel();
+      return _state.getLevel() >= BOOTSTRAPPED.getLevel();
    }
 
    /**
@@ -438,11 +435,7 @@ public abstract class Manageable {
     *    <code>false</code> if it is not.
     */
    public final boolean isUsable() {
-      State state;
-      synchronized (_stateLock) {
-         state = _state;
-      }
-      return state == USABLE;
+      return _state == USABLE;
    }
 
    /**
@@ -455,11 +448,7 @@ public abstract class Manageable {
    protected final void assertUsable()
    throws IllegalStateException {
 
-      // Minimize the time the lock is held
-      State state;
-      synchronized (_stateLock) {
-         state = _state;
-      }
+      State state = _state;
 
       // Construct and throw an exception, if appropriate
       if (state != USABLE) {
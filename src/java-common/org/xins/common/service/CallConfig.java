@@ -14,9 +14,11 @@ import java.io.Serializable;
  * service caller, a <code>CallConfig</code> object could specify what HTTP
  * method (GET, POST, etc.) to use.
  *
- * <p>This base class only specifies the property <em>failOverAllowed</em>,
+ * <p>This base class only specifies the properties <em>failOverAllowed</em>,
  * which indicates whether fail-over is unconditionally allowed, even if the
- * request was already received or even processed by the other end.
+ * request was already received or even processed by the other end, and
+ * <em>hedgeDelay</em>, which indicates whether the targets of a
+ * {@link GroupDescriptor} are called in parallel.
  *
  * <p>This class is not thread safe</p>
  *
@@ -31,11 +33,34 @@ import java.io.Serializable;
  */
 public class CallConfig implements Serializable {
 
+   /**
+    * The name of the system property that specifies the maximum number of
+    * threads executing the parallel call attempts.
+    *
+    * @since XINS 2.4
+    */
+   public static final String HEDGE_POOL_SIZE_PROPERTY = "org.xins.common.service.hedge.poolSize";
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * parallel call attempts waiting for a thread.
+    *
+    * @since XINS 2.4
+    */
+   public static final String HEDGE_QUEUE_SIZE_PROPERTY = "org.xins.common.service.hedge.queueSize";
+
    /**
     * Flag that indicates whether fail-over is unconditionally allowed.
     */
    private boolean _failOverAllowed;
 
+   /**
+    * The delay in milliseconds after which the next target is called if
+    * no result has been received yet, or <code>-1</code> if the targets are
+    * called one after the other.
+    */
+   private int _hedgeDelay = -1;
+
    /**
     * Describes this configuration.
     *
@@ -93,4 +118,52 @@ public class CallConfig implements Serializable {
    public final void setFailOverAllowed(boolean allowed) {
      _failOverAllowed = allowed;
    }
+
+   /**
+    * Returns the delay after which the next target is called in parallel if
+    * no result has been received yet.
+    *
+    * @return
+    *    the delay in milliseconds, <code>0</code> if all targets are called
+    *    at once, or <code>-1</code> if the targets are called one after the
+    *    other (the default).
+    *
+    * @since XINS 2.4
+    */
+   public final int getHedgeDelay() {
+      return _hedgeDelay;
+   }
+
+   /**
+    * Configures whether the targets of a descriptor with more than one
+    * target are called in parallel. If enabled, the next target is called
+    * when no result has been received within the specified delay, or
+    * immediately when a call attempt fails and fail-over is allowed. The
+    * first successful result is returned and the other attempts are
+    * cancelled.
+    *
+    * <p>Since the same request may be processed by several targets, this
+    * should only be enabled for requests that can safely be executed more
+    * than once.
+    *
+    * <p>The call attempts are executed by a pool of threads of their own,
+    * limited with the system properties {@link #HEDGE_POOL_SIZE_PROPERTY}
+    * and {@link #HEDGE_QUEUE_SIZE_PROPERTY}.
+    *
+    * @param delay
+    *    the delay in milliseconds, <code>0</code> to call all targets at
+    *    once, or <code>-1</code> to call the targets one after the other.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>delay &lt; -1</code>.
+    *
+    * @since XINS 2.4
+    */
+   public final void setHedgeDelay(int delay)
+   throws IllegalArgumentException {
+      if (delay < -1) {
+         throw new IllegalArgumentException("delay (" + delay + ") < -1");
+      }
+      _hedgeDelay = delay;
+   }
 }
@@ -67,6 +67,17 @@ import org.xins.logdoc.ExceptionUtils;
  * <br>ldap.host1b=service, ldap://host1b/, 8000
  * <br>ldap.host2a=service, ldap://host2a/, 8000</code></blockquote>
  *
+ * <p>Since XINS 2.4, the group types <code>least-outstanding</code>,
+ * <code>latency</code> and <code>weighted</code> are also supported, see
+ * {@link GroupDescriptor}. The members of a <code>weighted</code> group can
+ * have a weight, separated from the member name by a colon. In the next
+ * example, <code>host1</code> receives 3 times as many calls as
+ * <code>host2</code>:
+ *
+ * <blockquote><code>s2=group, weighted, host1:3, host2
+ * <br>s2.host1=service, http://host1/, 8000
+ * <br>s2.host2=service, http://host2/, 8000</code></blockquote>
+ *
  * @version $Revision$ $Date$
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
@@ -421,10 +432,33 @@ public final class DescriptorBuilder {
             throw new InvalidPropertyValueException(propertyName, value, "Group descriptor member count is " + memberCount + ", while minimum is 2.");
          }
          Descriptor[] members = new Descriptor[memberCount];
+         int[] weights = null;
+         if (groupType == GroupDescriptor.WEIGHTED_TYPE) {
+            weights = new int[memberCount];
+         }
          for (int i = 0; i < memberCount; i++) {
-            members[i] = build(caller, properties, baseProperty, tokens[i + 2]);
+            String member = tokens[i + 2];
+
+            // Members of a weighted group can have a weight, e.g. "target1:3"
+            if (weights != null) {
+               weights[i] = 1;
+               int colon = member.lastIndexOf(':');
+               if (colon > 0) {
+                  String weight = member.substring(colon + 1).trim();
+                  try {
+                     weights[i] = Integer.parseInt(weight);
+                  } catch (NumberFormatException nfe) {
+                     throw new InvalidPropertyValueException(propertyName, value, "Weight \"" + weight + "\" is not a valid number.");
+                  }
+                  if (weights[i] < 1) {
+                     throw new InvalidPropertyValueException(propertyName, value, "Weight " + weights[i] + " is not positive.");
+                  }
+                  member = member.substring(0, colon).trim();
+               }
+            }
+            members[i] = build(caller, properties, baseProperty, member);
          }
-         return new GroupDescriptor(groupType, members);
+         return new GroupDescriptor(groupType, members, weights);
 
       // Unrecognized descriptor type
       } else {
@@ -39,6 +39,27 @@ public final class GroupDescriptor extends Descriptor {
     */
    public static final String ORDERED_TYPE_ID = "ordered";
 
+   /**
+    * The identifier of the <em>least-outstanding</em> group type.
+    *
+    * @since XINS 2.4
+    */
+   public static final String LEAST_OUTSTANDING_TYPE_ID = "least-outstanding";
+
+   /**
+    * The identifier of the <em>latency</em> group type.
+    *
+    * @since XINS 2.4
+    */
+   public static final String LATENCY_TYPE_ID = "latency";
+
+   /**
+    * The identifier of the <em>weighted</em> group type.
+    *
+    * @since XINS 2.4
+    */
+   public static final String WEIGHTED_TYPE_ID = "weighted";
+
    /**
     * The <em>random</em> group type.
     */
@@ -49,6 +70,33 @@ public final class GroupDescriptor extends Descriptor {
     */
    public static final Type ORDERED_TYPE = new Type(ORDERED_TYPE_ID);
 
+   /**
+    * The <em>least-outstanding</em> group type. The member with the lowest
+    * number of calls in progress is called first.
+    *
+    * @since XINS 2.4
+    */
+   public static final Type LEAST_OUTSTANDING_TYPE = new Type(LEAST_OUTSTANDING_TYPE_ID);
+
+   /**
+    * The <em>latency</em> group type. Two members are picked randomly and
+    * the one with the lowest average call duration, multiplied by the number
+    * of calls in progress plus one, is called first. Members without
+    * statistics are preferred.
+    *
+    * @since XINS 2.4
+    */
+   public static final Type LATENCY_TYPE = new Type(LATENCY_TYPE_ID);
+
+   /**
+    * The <em>weighted</em> group type. The member to call first is chosen in
+    * a smooth weighted round-robin fashion, using the weights passed to
+    * {@link #GroupDescriptor(Type,Descriptor[],int[])}.
+    *
+    * @since XINS 2.4
+    */
+   public static final Type WEIGHTED_TYPE = new Type(WEIGHTED_TYPE_ID);
+
    /**
     * Pseudo-random number generator.
     */
@@ -76,6 +124,36 @@ public final class GroupDescriptor extends Descriptor {
     *    (where <code>0 &lt;= <em>n</em> &lt; members.length</code>).
     */
    public GroupDescriptor(Type type, Descriptor[] members)
+   throws IllegalArgumentException {
+      this(type, members, null);
+   }
+
+   /**
+    * Constructs a new <code>GroupDescriptor</code> with weighted members.
+    * The weights are only used by the {@link #WEIGHTED_TYPE} group type.
+    *
+    * @param type
+    *    the type of group, cannot be <code>null</code>.
+    *
+    * @param members
+    *    list of members of the group, cannot be <code>null</code>.
+    *
+    * @param weights
+    *    the weights of the members, or <code>null</code> if all members
+    *    have weight 1.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>type == null
+    *          || members == null
+    *          || members.length &lt; 2
+    *          || members[<em>n</em>] == null
+    *          || (weights != null &amp;&amp; weights.length != members.length)
+    *          || weights[<em>n</em>] &lt; 1</code>
+    *    (where <code>0 &lt;= <em>n</em> &lt; members.length</code>).
+    *
+    * @since XINS 2.4
+    */
+   public GroupDescriptor(Type type, Descriptor[] members, int[] weights)
    throws IllegalArgumentException {
 
       // Check preconditions
@@ -90,15 +168,39 @@ public final class GroupDescriptor extends Descriptor {
             throw new IllegalArgumentException("members[" + i + "] == null");
          }
       }
+      if (weights != null) {
+         if (weights.length != size) {
+            throw new IllegalArgumentException("weights.length (" + weights.length + ") != members.length (" + size + ')');
+         }
+         for (int i = 0; i < size; i++) {
+            if (weights[i] < 1) {
+               throw new IllegalArgumentException("weights[" + i + "] (" + weights[i] + ") < 1");
+            }
+         }
+      }
 
       // Store information
       _type    = type;
       _members = new Descriptor[size];
       System.arraycopy(members, 0, _members, 0, size);
+      _weights        = new int[size];
+      _currentWeights = new int[size];
+      for (int i = 0; i < size; i++) {
+         _weights[i]   = (weights == null) ? 1 : weights[i];
+         _totalWeight += _weights[i];
+      }
 
       // Recursively add all TargetDescriptor instances to the Map
       _targetsByCRC = new HashMap();
       addTargetsByCRC(members);
+
+      // Determine the targets of each member, for the load balancing types
+      _memberTargets = new TargetDescriptor[size][];
+      for (int i = 0; i < size; i++) {
+         List targets = new ArrayList();
+         addTargets(_members[i], targets);
+         _memberTargets[i] = (TargetDescriptor[]) targets.toArray(new TargetDescriptor[targets.size()]);
+      }
    }
 
    /**
@@ -125,6 +227,12 @@ public final class GroupDescriptor extends Descriptor {
          return RANDOM_TYPE;
       } else if (ORDERED_TYPE_ID.equals(identifier)) {
          return ORDERED_TYPE;
+      } else if (LEAST_OUTSTANDING_TYPE_ID.equals(identifier)) {
+         return LEAST_OUTSTANDING_TYPE;
+      } else if (LATENCY_TYPE_ID.equals(identifier)) {
+         return LATENCY_TYPE;
+      } else if (WEIGHTED_TYPE_ID.equals(identifier)) {
+         return WEIGHTED_TYPE;
       } else {
          return null;
       }
@@ -164,6 +272,27 @@ public final class GroupDescriptor extends Descriptor {
       }
    }
 
+   /**
+    * Recursively adds all <code>TargetDescriptor</code> instances found in
+    * the specified descriptor to the specified list.
+    *
+    * @param descriptor
+    *    the descriptor, cannot be <code>null</code>.
+    *
+    * @param targets
+    *    the list to add the targets to, cannot be <code>null</code>.
+    */
+   private static void addTargets(Descriptor descriptor, List targets) {
+      if (descriptor instanceof TargetDescriptor) {
+         targets.add(descriptor);
+      } else {
+         Descriptor[] members = ((GroupDescriptor) descriptor)._members;
+         for (int i = 0; i < members.length; i++) {
+            addTargets(members[i], targets);
+         }
+      }
+   }
+
    /**
     * The type of this group. Cannot be <code>null</code>.
     */
@@ -174,6 +303,28 @@ public final class GroupDescriptor extends Descriptor {
     */
    private final Descriptor[] _members;
 
+   /**
+    * The targets of each member. Cannot be <code>null</code>.
+    */
+   private final TargetDescriptor[][] _memberTargets;
+
+   /**
+    * The weights of the members. Cannot be <code>null</code>.
+    */
+   private final int[] _weights;
+
+   /**
+    * The sum of the weights of the members.
+    */
+   private int _totalWeight;
+
+   /**
+    * The current weights of the members, used for the smooth weighted
+    * round-robin selection. Cannot be <code>null</code>. All accesses should
+    * be synchronized on this object.
+    */
+   private final int[] _currentWeights;
+
    /**
     * All contained <code>TargetDescriptor</code> instances, by CRC-32. This
     * {@link Map} is used by {@link #getTargetByCRC(int)} to lookup a
@@ -221,6 +372,8 @@ public final class GroupDescriptor extends Descriptor {
          return new RandomIterator();
       } else if (_type == ORDERED_TYPE) {
          return new OrderedIterator();
+      } else if (_type == LEAST_OUTSTANDING_TYPE || _type == LATENCY_TYPE || _type == WEIGHTED_TYPE) {
+         return new BalancedIterator();
       } else {
          throw Utils.logProgrammingError("Unknown type: " + _type + '.');
       }
@@ -259,6 +412,167 @@ public final class GroupDescriptor extends Descriptor {
       return array;
    }
 
+   /**
+    * Returns the weights of the members of this group.
+    *
+    * @return
+    *    the weights of the members as a new array, not <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public int[] getWeights() {
+      int size = _weights.length;
+      int[] array = new int[size];
+      System.arraycopy(_weights, 0, array, 0, size);
+      return array;
+   }
+
+   /**
+    * Selects the member to call next, according to the type of this group.
+    *
+    * @param remaining
+    *    the indexes of the members that have not been selected yet, as
+    *    {@link Integer} objects, cannot be <code>null</code> or empty.
+    *
+    * @param lastIndex
+    *    the index of the member selected last, or <code>-1</code> if no
+    *    member has been selected yet.
+    *
+    * @return
+    *    the position of the selected member in <code>remaining</code>.
+    */
+   private int selectMember(List remaining, int lastIndex) {
+      int size = remaining.size();
+      if (size == 1) {
+         return 0;
+      }
+
+      // Select the member with the lowest number of outstanding calls,
+      // starting at a random position to spread the calls over equal members
+      if (_type == LEAST_OUTSTANDING_TYPE) {
+         int offset = RANDOM.nextInt(size);
+         int selected = offset;
+         int lowest = Integer.MAX_VALUE;
+         for (int i = 0; i < size; i++) {
+            int position = (offset + i) % size;
+            int count = getOutstandingCount(memberIndex(remaining, position));
+            if (count < lowest) {
+               selected = position;
+               lowest   = count;
+            }
+         }
+         return selected;
+
+      // Select the best of two random members
+      } else if (_type == LATENCY_TYPE) {
+         int first  = RANDOM.nextInt(size);
+         int second = RANDOM.nextInt(size - 1);
+         if (second >= first) {
+            second++;
+         }
+         double firstCost  = getLatencyCost(memberIndex(remaining, first));
+         double secondCost = getLatencyCost(memberIndex(remaining, second));
+         return (firstCost <= secondCost) ? first : second;
+
+      // Select the first member by weight, then the next ones in order
+      } else {
+         int index;
+         if (lastIndex < 0) {
+            index = nextWeightedMember();
+         } else {
+            index = lastIndex + 1;
+         }
+         for (int i = 0; i < _members.length; i++) {
+            int position = remaining.indexOf(new Integer((index + i) % _members.length));
+            if (position >= 0) {
+               return position;
+            }
+         }
+         throw Utils.logProgrammingError("No remaining member found.");
+      }
+   }
+
+   /**
+    * Returns the member index at the specified position in the list of
+    * remaining members.
+    *
+    * @param remaining
+    *    the indexes of the remaining members, cannot be <code>null</code>.
+    *
+    * @param position
+    *    the position in the list.
+    *
+    * @return
+    *    the index of the member.
+    */
+   private static int memberIndex(List remaining, int position) {
+      return ((Integer) remaining.get(position)).intValue();
+   }
+
+   /**
+    * Returns the number of outstanding calls to the targets of the
+    * specified member.
+    *
+    * @param index
+    *    the index of the member.
+    *
+    * @return
+    *    the total number of outstanding calls.
+    */
+   private int getOutstandingCount(int index) {
+      TargetDescriptor[] targets = _memberTargets[index];
+      int count = 0;
+      for (int i = 0; i < targets.length; i++) {
+         count += TargetStatistics.get(targets[i]).getOutstandingCount();
+      }
+      return count;
+   }
+
+   /**
+    * Returns the expected cost of calling the specified member, based on
+    * the average call duration and the number of outstanding calls of its
+    * targets.
+    *
+    * @param index
+    *    the index of the member.
+    *
+    * @return
+    *    the average cost of the targets of the member, <code>0.0</code> for
+    *    targets that have not been called yet.
+    */
+   private double getLatencyCost(int index) {
+      TargetDescriptor[] targets = _memberTargets[index];
+      double cost = 0.0;
+      for (int i = 0; i < targets.length; i++) {
+         TargetStatistics statistics = TargetStatistics.get(targets[i]);
+         double duration = statistics.getAverageDuration();
+         if (duration > 0.0) {
+            cost += duration * (statistics.getOutstandingCount() + 1);
+         }
+      }
+      return cost / targets.length;
+   }
+
+   /**
+    * Selects a member using the smooth weighted round-robin algorithm.
+    *
+    * @return
+    *    the index of the selected member.
+    */
+   private int nextWeightedMember() {
+      synchronized (_currentWeights) {
+         int selected = 0;
+         for (int i = 0; i < _weights.length; i++) {
+            _currentWeights[i] += _weights[i];
+            if (_currentWeights[i] > _currentWeights[selected]) {
+               selected = i;
+            }
+         }
+         _currentWeights[selected] -= _totalWeight;
+         return selected;
+      }
+   }
+
    /**
     * Returns the <code>TargetDescriptor</code> that matches the specified
     * CRC-32 checksum.
@@ -337,7 +651,7 @@ public final class GroupDescriptor extends Descriptor {
          }
 
          // Pick a member randomly
-         int index = Math.abs(RANDOM.nextInt() % size);
+         int index = RANDOM.nextInt(size);
          Descriptor member = (Descriptor) _remaining.remove(index);
 
          // Initialize the current iterator to link to that member's services
@@ -402,7 +716,7 @@ public final class GroupDescriptor extends Descriptor {
             } else {
                // Pick one of the remaining members
                int size = _remaining.size();
-               int index = (size == 1) ? 0 : Math.abs(RANDOM.nextInt() % size);
+               int index = (size == 1) ? 0 : RANDOM.nextInt(size);
                Descriptor member = (Descriptor) _remaining.remove(index);
                _currentIterator = member.iterateTargets();
 
@@ -429,6 +743,114 @@ public final class GroupDescriptor extends Descriptor {
       }
    }
 
+   /**
+    * Iterator over the leaf target descriptors contained in this group
+    * descriptor that selects the members based on the
+    * {@link TargetStatistics} or the weights of the members. Needed for the
+    * implementation of {@link #iterateTargets()} for the
+    * {@link #LEAST_OUTSTANDING_TYPE}, {@link #LATENCY_TYPE} and
+    * {@link #WEIGHTED_TYPE} group types.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private final class BalancedIterator implements Iterator, Serializable {
+
+      /**
+       * The indexes of the members that have not been selected yet, as
+       * {@link Integer} objects. Never <code>null</code>.
+       */
+      private final List _remaining;
+
+      /**
+       * The index of the member selected last, or <code>-1</code>.
+       */
+      private int _lastIndex = -1;
+
+      /**
+       * Current iterator of one of the members.
+       *
+       * <p>This field will be set to <code>null</code> as soon as there are
+       * no more remaining services to be iterated over.
+       */
+      private Iterator _currentIterator;
+
+      /**
+       * Constructs a new <code>BalancedIterator</code>.
+       */
+      BalancedIterator() {
+         int size = _members.length;
+         _remaining = new ArrayList(size);
+         for (int i = 0; i < size; i++) {
+            _remaining.add(new Integer(i));
+         }
+         nextMember();
+      }
+
+      /**
+       * Selects the next member and iterates over its targets.
+       */
+      private void nextMember() {
+         int position = selectMember(_remaining, _lastIndex);
+         _lastIndex = ((Integer) _remaining.remove(position)).intValue();
+         _currentIterator = _members[_lastIndex].iterateTargets();
+      }
+
+      /**
+       * Checks if there is a next element.
+       *
+       * @return
+       *    <code>true</code> if there is a next element, <code>false</code>
+       *    if there is not.
+       */
+      public boolean hasNext() {
+         return _currentIterator != null;
+      }
+
+      /**
+       * Returns the next element.
+       *
+       * @return
+       *    the next element, never <code>null</code>.
+       *
+       * @throws NoSuchElementException
+       *    if there is no new element.
+       */
+      public Object next() throws NoSuchElementException {
+
+         // Check preconditions
+         if (_currentIterator == null) {
+            throw new NoSuchElementException();
+         }
+
+         // Get the next service
+         Object o = _currentIterator.next();
+
+         // Check if this member/iterator has any more
+         if (! _currentIterator.hasNext()) {
+            if (_remaining.isEmpty()) {
+               _currentIterator = null;
+            } else {
+               nextMember();
+            }
+         }
+
+         return o;
+      }
+
+      /**
+       * Removes the element last returned by <code>next()</code> (unsupported
+       * operation).
+       *
+       * @throws UnsupportedOperationException
+       *    always thrown, since this operation is unsupported.
+       */
+      public void remove() throws UnsupportedOperationException {
+         throw new UnsupportedOperationException();
+      }
+   }
+
    /**
     * Ordered iterator over the leaf target descriptors contained in this
     * group descriptor. Needed for the implementation of
@@ -0,0 +1,405 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.NDC;
+
+import org.xins.common.Log;
+import org.xins.common.WorkerPool;
+
+/**
+ * Call that is executed on several targets in parallel. This class is used
+ * by {@link ServiceCaller#doCall(CallRequest,CallConfig)} if a hedge delay
+ * is set in the call configuration, see
+ * {@link CallConfig#setHedgeDelay(int)}.
+ *
+ * <p>The first target is called immediately. The next target is called when
+ * no result has been received within the hedge delay, or as soon as a call
+ * attempt fails and fail-over is allowed. The first successful result is
+ * returned and the other call attempts are cancelled.
+ *
+ * <p>The call attempts are executed on a {@link WorkerPool} of their own.
+ * The shared pool is not used, since each attempt may itself wait for a
+ * task on the shared pool, see {@link org.xins.common.TimeOutController}.
+ * If all the threads of the shared pool were executing call attempts, these
+ * tasks would never be executed.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class HedgedCall {
+
+   /**
+    * The pool executing the call attempts. Lazily initialized.
+    */
+   private static WorkerPool POOL;
+
+   /**
+    * The service caller that executes the call attempts. Never
+    * <code>null</code>.
+    */
+   private final ServiceCaller _caller;
+
+   /**
+    * The call request. Never <code>null</code>.
+    */
+   private final CallRequest _request;
+
+   /**
+    * The call configuration. Never <code>null</code>.
+    */
+   private final CallConfig _callConfig;
+
+   /**
+    * The <em>Nested Diagnostic Context identifier</em> (NDC) of the calling
+    * thread, or <code>null</code>.
+    */
+   private final String _context;
+
+   /**
+    * The call attempts that have been started. Never <code>null</code>.
+    */
+   private final List _attempts = new ArrayList();
+
+   /**
+    * The call attempts that have finished but that have not been processed
+    * yet. Never <code>null</code>. All accesses should be synchronized on
+    * this object.
+    */
+   private final LinkedList _finished = new LinkedList();
+
+   /**
+    * Constructs a new <code>HedgedCall</code>.
+    *
+    * @param caller
+    *    the service caller, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @param callConfig
+    *    the call configuration, cannot be <code>null</code>.
+    */
+   HedgedCall(ServiceCaller caller, CallRequest request, CallConfig callConfig) {
+      _caller     = caller;
+      _request    = request;
+      _callConfig = callConfig;
+      _context    = NDC.peek();
+   }
+
+   /**
+    * Returns the pool executing the call attempts.
+    *
+    * @return
+    *    the pool, never <code>null</code>.
+    */
+   private static synchronized WorkerPool getPool() {
+      if (POOL == null) {
+         POOL = WorkerPool.create("XINS hedged call",
+               CallConfig.HEDGE_POOL_SIZE_PROPERTY, CallConfig.HEDGE_QUEUE_SIZE_PROPERTY);
+      }
+      return POOL;
+   }
+
+   /**
+    * Executes the call on the specified targets.
+    *
+    * @param iterator
+    *    iterator over the {@link TargetDescriptor}s to call, in the order in
+    *    which they should be called, cannot be <code>null</code> and must
+    *    have at least one element.
+    *
+    * @return
+    *    the result of the first successful call attempt, never
+    *    <code>null</code>.
+    *
+    * @throws CallException
+    *    if all call attempts failed.
+    */
+   CallResult call(Iterator iterator) throws CallException {
+
+      int hedgeDelay = _callConfig.getHedgeDelay();
+
+      CallException lastException = null;
+      CallExceptionList exceptions = null;
+      boolean canStartNext = true;
+      boolean interrupted = false;
+      int running = 0;
+
+      // Call the first target
+      start((TargetDescriptor) iterator.next());
+      running++;
+
+      try {
+         while (true) {
+
+            // Call all other targets at once if there is no delay
+            while (hedgeDelay == 0 && canStartNext && iterator.hasNext()) {
+               start((TargetDescriptor) iterator.next());
+               running++;
+            }
+
+            // No more running attempts, the call failed completely
+            if (running == 0) {
+               Log.log_1303();
+               throw exceptions.get(0);
+            }
+
+            // Wait for an attempt to finish, or for the hedge delay to elapse
+            boolean hedge = hedgeDelay > 0 && canStartNext && iterator.hasNext();
+            Attempt attempt;
+            try {
+               attempt = waitForAttempt(hedge ? hedgeDelay : 0L);
+            } catch (InterruptedException exception) {
+               interrupted  = true;
+               canStartNext = false;
+               cancelAll();
+               continue;
+            }
+
+            // No attempt finished within the hedge delay, call the next target
+            if (attempt == null) {
+               start((TargetDescriptor) iterator.next());
+               running++;
+               continue;
+            }
+            running--;
+
+            // The first successful attempt wins
+            if (attempt._exception == null) {
+               cancelAll();
+               return _caller.createCallResult(_request, attempt._target,
+                     attempt._duration, exceptions, attempt._result);
+            }
+
+            // Link the previous exception (if there is one) to this one
+            CallException currentException = attempt._exception;
+            if (lastException != null) {
+               lastException.setNext(currentException);
+            }
+            lastException = currentException;
+            if (exceptions == null) {
+               exceptions = new CallExceptionList();
+            }
+            exceptions.add(currentException);
+
+            // Determine whether another target should be called right away
+            if (canStartNext && iterator.hasNext()) {
+               if (_caller.shouldFailOver(_request, _callConfig, exceptions)) {
+                  Log.log_1307();
+                  start((TargetDescriptor) iterator.next());
+                  running++;
+               } else {
+                  Log.log_1306();
+                  canStartNext = false;
+               }
+            }
+         }
+      } finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Starts a call attempt on the specified target.
+    *
+    * @param target
+    *    the target to call, cannot be <code>null</code>.
+    */
+   private void start(TargetDescriptor target) {
+      Attempt attempt = new Attempt(target);
+      _attempts.add(attempt);
+      if (! getPool().execute(attempt)) {
+         Thread thread = new Thread(attempt, "XINS hedged call");
+         thread.setDaemon(true);
+         thread.start();
+      }
+   }
+
+   /**
+    * Waits for a call attempt to finish.
+    *
+    * @param timeOut
+    *    the maximum time to wait in milliseconds, or <code>0L</code> to
+    *    wait until an attempt finishes.
+    *
+    * @return
+    *    the finished attempt, or <code>null</code> if no attempt finished
+    *    within the time-out.
+    *
+    * @throws InterruptedException
+    *    if the current thread was interrupted while waiting.
+    */
+   private Attempt waitForAttempt(long timeOut) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeOut;
+      synchronized (_finished) {
+         while (_finished.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeOut > 0L && remaining <= 0L) {
+               return null;
+            }
+            _finished.wait(timeOut == 0L ? 0L : remaining);
+         }
+         return (Attempt) _finished.removeFirst();
+      }
+   }
+
+   /**
+    * Cancels all call attempts that are still running.
+    */
+   private void cancelAll() {
+      for (int i = 0; i < _attempts.size(); i++) {
+         ((Attempt) _attempts.get(i)).cancel();
+      }
+   }
+
+   /**
+    * Call attempt on a single target.
+    *
+    * @version $Revision$ $Date$
+    */
+   private final class Attempt implements Runnable {
+
+      /**
+       * The target to call. Never <code>null</code>.
+       */
+      private final TargetDescriptor _target;
+
+      /**
+       * The thread executing the attempt, or <code>null</code>. All accesses
+       * should be synchronized on this object.
+       */
+      private Thread _thread;
+
+      /**
+       * Flag that indicates whether the attempt has finished or has been
+       * cancelled. All accesses should be synchronized on this object.
+       */
+      private boolean _done;
+
+      /**
+       * The result of the call attempt, or <code>null</code>.
+       */
+      private Object _result;
+
+      /**
+       * The exception thrown by the call attempt, or <code>null</code>.
+       */
+      private CallException _exception;
+
+      /**
+       * The duration of the call attempt in milliseconds.
+       */
+      private long _duration;
+
+      /**
+       * Constructs a new <code>Attempt</code>.
+       *
+       * @param target
+       *    the target to call, cannot be <code>null</code>.
+       */
+      Attempt(TargetDescriptor target) {
+         _target = target;
+      }
+
+      /**
+       * Executes the call attempt.
+       */
+      public void run() {
+         synchronized (this) {
+            if (_done) {
+               return;
+            }
+            _thread = Thread.currentThread();
+         }
+         if (_context != null) {
+            NDC.push(_context);
+         }
+
+         Log.log_1309(_target.getURL());
+         TargetStatistics statistics = TargetStatistics.get(_target);
+         statistics.callStarted();
+         long start = System.currentTimeMillis();
+         try {
+            _result = _caller.doCallImpl(_request, _callConfig, _target);
+            statistics.callSucceeded(System.currentTimeMillis() - start);
+            Log.log_1301(_target.getURL());
+         } catch (Throwable exception) {
+            Log.log_1302(_target.getURL());
+            if (exception instanceof CallException) {
+               _exception = (CallException) exception;
+            } else {
+               long duration = System.currentTimeMillis() - start;
+               _exception = new UnexpectedExceptionCallException(_request, _target, duration, null, exception);
+            }
+
+            // A cancelled attempt lost to another one, it is not a failure
+            // of the target
+            boolean cancelled;
+            synchronized (this) {
+               cancelled = _done;
+            }
+            if (cancelled) {
+               statistics.callCancelled();
+            } else {
+               statistics.callFailed(System.currentTimeMillis() - start, _exception);
+            }
+         } finally {
+            _duration = System.currentTimeMillis() - start;
+            if (_context != null) {
+               NDC.pop();
+            }
+         }
+
+         synchronized (this) {
+            _thread = null;
+            _done   = true;
+         }
+         finished();
+      }
+
+      /**
+       * Adds this attempt to the finished attempts and notifies the calling
+       * thread.
+       */
+      private void finished() {
+         synchronized (_finished) {
+            _finished.addLast(this);
+            _finished.notifyAll();
+         }
+      }
+
+      /**
+       * Cancels this call attempt. If it is running, the executing thread
+       * is interrupted. If it has not started yet, it will not be executed
+       * and it is reported as failed.
+       */
+      void cancel() {
+         synchronized (this) {
+            if (_done) {
+               return;
+            }
+            _done = true;
+            if (_thread != null) {
+               _thread.interrupt();
+               return;
+            }
+         }
+         String message = "Call attempt cancelled before it was started.";
+         _exception = new UnexpectedExceptionCallException(_request, _target, 0L, message, new InterruptedException());
+         finished();
+      }
+   }
+}
@@ -6,7 +6,9 @@
  */
 package org.xins.common.service;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.xins.common.Log;
 import org.xins.common.MandatoryArgumentChecker;
@@ -463,6 +465,16 @@ public abstract class ServiceCaller {
     * none succeeds or if fail-over should not be done, then a
     * {@link CallException} is thrown.
     *
+    * <p>If the call configuration specifies a hedge delay (see
+    * {@link CallConfig#setHedgeDelay(int)}) and the descriptor has more than
+    * one target, then the targets are called in parallel: the next target is
+    * called when no result has been received within the hedge delay, and
+    * the first successful result is returned.
+    *
+    * <p>The duration and outcome of each call attempt is recorded in the
+    * {@link TargetStatistics} of the target. Targets that are unavailable
+    * according to these statistics are called last.
+    *
     * <p>Subclasses that want to use this method <em>must</em> implement
     * {@link #doCallImpl(CallRequest,CallConfig,TargetDescriptor)}. That
     * method is called for each call attempt to a specific service target
@@ -518,6 +530,19 @@ public abstract class ServiceCaller {
          }
       }
 
+      // Iterate over all targets
+      Iterator iterator = iterateTargets(descriptor);
+
+      // There should be at least one target
+      if (! iterator.hasNext()) {
+         throw Utils.logProgrammingError("Descriptor returns no target descriptors.");
+      }
+
+      // Call the targets in parallel if a hedge delay is set
+      if (callConfig.getHedgeDelay() >= 0 && descriptor.getTargetCount() > 1) {
+         return new HedgedCall(this, request, callConfig).call(iterator);
+      }
+
       // Keep a reference to the most recent CallException since
       // setNext(CallException) needs to be called on it to make it link to
       // the next one (if there is one)
@@ -532,14 +557,6 @@ public abstract class ServiceCaller {
       // performance- and memory-optimized for the successful case
       CallExceptionList exceptions = null;
 
-      // Iterate over all targets
-      Iterator iterator = descriptor.iterateTargets();
-
-      // There should be at least one target
-      if (! iterator.hasNext()) {
-         throw Utils.logProgrammingError("Descriptor returns no target descriptors.");
-      }
-
       // Loop over all TargetDescriptors
       boolean shouldContinue = true;
       while (shouldContinue) {
@@ -549,6 +566,8 @@ public abstract class ServiceCaller {
 
          // Call using this target
          Log.log_1309(target.getURL());
+         TargetStatistics statistics = TargetStatistics.get(target);
+         statistics.callStarted();
          Object result = null;
          boolean succeeded = false;
          long start = System.currentTimeMillis();
@@ -557,6 +576,7 @@ public abstract class ServiceCaller {
             // Attempt the call
             result = doCallImpl(request, callConfig, target);
             succeeded = true;
+            statistics.callSucceeded(System.currentTimeMillis() - start);
             Log.log_1301(target.getURL());
 
          // If the call to the target fails, store the exception and try the next
@@ -574,6 +594,7 @@ public abstract class ServiceCaller {
             } else {
                currentException = new UnexpectedExceptionCallException(request, target, duration, null, exception);
             }
+            statistics.callFailed(duration, currentException);
 
             // Link the previous exception (if there is one) to this one
             if (lastException != null) {
@@ -637,6 +658,44 @@ public abstract class ServiceCaller {
       throw first;
    }
 
+   /**
+    * Returns the targets of the specified descriptor in the order in which
+    * they should be called. The targets that are unavailable according to
+    * their {@link TargetStatistics} are moved to the end.
+    *
+    * @param descriptor
+    *    the descriptor, cannot be <code>null</code>.
+    *
+    * @return
+    *    iterator over the {@link TargetDescriptor}s, never
+    *    <code>null</code>.
+    */
+   private static Iterator iterateTargets(Descriptor descriptor) {
+      Iterator iterator = descriptor.iterateTargets();
+      int count = descriptor.getTargetCount();
+      if (count < 2) {
+         return iterator;
+      }
+
+      List targets = new ArrayList(count);
+      List unavailable = null;
+      while (iterator.hasNext()) {
+         TargetDescriptor target = (TargetDescriptor) iterator.next();
+         if (TargetStatistics.get(target).isAvailable()) {
+            targets.add(target);
+         } else {
+            if (unavailable == null) {
+               unavailable = new ArrayList(count);
+            }
+            unavailable.add(target);
+         }
+      }
+      if (unavailable != null) {
+         targets.addAll(unavailable);
+      }
+      return targets.iterator();
+   }
+
    /**
     * Calls the specified target using the specified subject. This method must
     * be implemented by subclasses. It is called as soon as a target is
@@ -727,6 +786,10 @@ public abstract class ServiceCaller {
     * {@link Thread#interrupt()} method and a {@link TimeOutException} is
     * thrown.
     *
+    * <p>If there is a total time-out, the task is executed by a thread of the
+    * shared {@link org.xins.common.WorkerPool}, see
+    * {@link TimeOutController#execute(Runnable,int)}.
+    *
     * @param task
     *    the task to run, cannot be <code>null</code>.
     *
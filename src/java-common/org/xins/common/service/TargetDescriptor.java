@@ -6,6 +6,8 @@
  */
 package org.xins.common.service;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.util.NoSuchElementException;
@@ -136,6 +138,11 @@ public final class TargetDescriptor extends Descriptor {
     */
    private final int _crc;
 
+   /**
+    * The call statistics for this target. Never <code>null</code>.
+    */
+   private transient TargetStatistics _statistics;
+
    /**
     * Constructs a new <code>TargetDescriptor</code> for the specified URL.
     *
@@ -288,10 +295,40 @@ public final class TargetDescriptor extends Descriptor {
       _connectionTimeOut = connectionTimeOut;
       _socketTimeOut     = socketTimeOut;
       _crc               = computeCRC32(url);
+      _statistics        = new TargetStatistics(url);
 
       // NOTE: _asString is lazily initialized
    }
 
+   /**
+    * Restores this descriptor after deserialization. The call statistics
+    * are not serialized, a deserialized descriptor starts with new ones.
+    *
+    * @param in
+    *    the stream to read the descriptor from, not <code>null</code>.
+    *
+    * @throws IOException
+    *    if the descriptor cannot be read.
+    *
+    * @throws ClassNotFoundException
+    *    if the class of a serialized field cannot be found.
+    */
+   private void readObject(ObjectInputStream in)
+   throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      _statistics = new TargetStatistics(_url);
+   }
+
+   /**
+    * Returns the call statistics for this target.
+    *
+    * @return
+    *    the statistics, never <code>null</code>.
+    */
+   TargetStatistics getStatistics() {
+      return _statistics;
+   }
+
    /**
     * Checks if this descriptor denotes a group of descriptors.
     *
@@ -0,0 +1,317 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Call statistics for a single target. The statistics are recorded by
+ * {@link ServiceCaller#doCall(CallRequest,CallConfig)} and are used by the
+ * load balancing group types of {@link GroupDescriptor}.
+ *
+ * <p>Each {@link TargetDescriptor} instance has its own statistics, created
+ * with the descriptor. When the descriptors are reloaded, the new
+ * descriptors start with new statistics and the old ones are garbage
+ * collected with the old descriptors.
+ *
+ * <p>The statistics also implement a circuit breaker: after a number of
+ * consecutive connection failures or time-outs, the target is considered
+ * unavailable for some time. Unavailable targets are only called after all
+ * available targets have been tried. When the period has elapsed, the
+ * target is called again; if that call fails as well, the target is
+ * unavailable for another period. The number of failures and the period can
+ * be set with the system properties {@link #THRESHOLD_PROPERTY} and
+ * {@link #OPEN_TIME_PROPERTY}.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class TargetStatistics {
+
+   /**
+    * The name of the system property that specifies the number of
+    * consecutive failures after which a target is considered unavailable.
+    */
+   public static final String THRESHOLD_PROPERTY = "org.xins.common.service.circuitBreaker.threshold";
+
+   /**
+    * The name of the system property that specifies the time in
+    * milliseconds during which a failing target is considered unavailable.
+    */
+   public static final String OPEN_TIME_PROPERTY = "org.xins.common.service.circuitBreaker.openTime";
+
+   /**
+    * The default number of consecutive failures after which a target is
+    * considered unavailable.
+    */
+   public static final int DEFAULT_THRESHOLD = 5;
+
+   /**
+    * The default time in milliseconds during which a failing target is
+    * considered unavailable.
+    */
+   public static final int DEFAULT_OPEN_TIME = 30000;
+
+   /**
+    * The weight of the last call duration in the average call duration.
+    */
+   private static final double AVERAGE_WEIGHT = 0.3;
+
+   /**
+    * The number of consecutive failures after which a target is considered
+    * unavailable, or <code>0</code> if the circuit breaker is disabled.
+    */
+   private static final int THRESHOLD = Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD).intValue();
+
+   /**
+    * The time in milliseconds during which a failing target is considered
+    * unavailable.
+    */
+   private static final int OPEN_TIME = Integer.getInteger(OPEN_TIME_PROPERTY, DEFAULT_OPEN_TIME).intValue();
+
+   /**
+    * The URL of the target. Never <code>null</code>.
+    */
+   private final String _url;
+
+   /**
+    * The number of calls currently in progress.
+    */
+   private int _outstandingCount;
+
+   /**
+    * The number of successful calls.
+    */
+   private long _successCount;
+
+   /**
+    * The number of failed calls.
+    */
+   private long _failureCount;
+
+   /**
+    * The exponentially weighted moving average of the call duration, in
+    * milliseconds, or <code>-1</code> if no call has finished yet.
+    */
+   private double _averageDuration = -1.0;
+
+   /**
+    * The number of consecutive connection failures and time-outs.
+    */
+   private int _consecutiveFailures;
+
+   /**
+    * The time until which the target is considered unavailable.
+    */
+   private long _unavailableUntil;
+
+   /**
+    * The number of times the target has been made unavailable.
+    */
+   private long _tripCount;
+
+   /**
+    * Constructs a new <code>TargetStatistics</code>.
+    *
+    * @param url
+    *    the URL of the target, should not be <code>null</code>.
+    */
+   TargetStatistics(String url) {
+      _url = url;
+   }
+
+   /**
+    * Returns the statistics for the specified target.
+    *
+    * @param target
+    *    the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the statistics for the target, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>target == null</code>.
+    */
+   public static TargetStatistics get(TargetDescriptor target)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("target", target);
+
+      return target.getStatistics();
+   }
+
+   /**
+    * Records that a call to the target has started.
+    */
+   synchronized void callStarted() {
+      _outstandingCount++;
+   }
+
+   /**
+    * Records that a call to the target has succeeded.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    */
+   synchronized void callSucceeded(long duration) {
+      _outstandingCount--;
+      _successCount++;
+      _consecutiveFailures = 0;
+      _unavailableUntil    = 0L;
+      updateAverageDuration(duration);
+   }
+
+   /**
+    * Records that a call to the target has failed.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    *
+    * @param exception
+    *    the exception thrown by the call, should not be <code>null</code>.
+    */
+   synchronized void callFailed(long duration, CallException exception) {
+      _outstandingCount--;
+      _failureCount++;
+      updateAverageDuration(duration);
+
+      if (exception instanceof ConnectionRefusedCallException
+            || exception instanceof ConnectionTimeOutCallException
+            || exception instanceof SocketTimeOutCallException
+            || exception instanceof TotalTimeOutCallException) {
+         _consecutiveFailures++;
+         if (THRESHOLD > 0 && _consecutiveFailures >= THRESHOLD) {
+            if (_unavailableUntil == 0L) {
+               _tripCount++;
+            }
+            _unavailableUntil = System.currentTimeMillis() + OPEN_TIME;
+         }
+      }
+   }
+
+   /**
+    * Records that a call to the target has been cancelled because another
+    * call returned first. The call is neither counted as successful nor as
+    * failed.
+    */
+   synchronized void callCancelled() {
+      _outstandingCount--;
+   }
+
+   /**
+    * Updates the average call duration.
+    *
+    * @param duration
+    *    the duration of the last call in milliseconds.
+    */
+   private void updateAverageDuration(long duration) {
+      if (_averageDuration < 0.0) {
+         _averageDuration = duration;
+      } else {
+         _averageDuration += (duration - _averageDuration) * AVERAGE_WEIGHT;
+      }
+   }
+
+   /**
+    * Indicates whether the target is available. A target is unavailable
+    * for some time after a number of consecutive connection failures or
+    * time-outs.
+    *
+    * @return
+    *    <code>true</code> if the target is available, <code>false</code> if
+    *    it should only be called if no other target is available.
+    */
+   public synchronized boolean isAvailable() {
+      return _unavailableUntil == 0L || System.currentTimeMillis() >= _unavailableUntil;
+   }
+
+   /**
+    * Returns the number of calls to the target currently in progress.
+    *
+    * @return
+    *    the number of outstanding calls, always &gt;= 0.
+    */
+   public synchronized int getOutstandingCount() {
+      return _outstandingCount;
+   }
+
+   /**
+    * Returns the number of successful calls to the target.
+    *
+    * @return
+    *    the number of successful calls, always &gt;= 0.
+    */
+   public synchronized long getSuccessCount() {
+      return _successCount;
+   }
+
+   /**
+    * Returns the number of failed calls to the target.
+    *
+    * @return
+    *    the number of failed calls, always &gt;= 0.
+    */
+   public synchronized long getFailureCount() {
+      return _failureCount;
+   }
+
+   /**
+    * Returns the exponentially weighted moving average of the call
+    * duration.
+    *
+    * @return
+    *    the average call duration in milliseconds, or <code>-1.0</code> if
+    *    no call has finished yet.
+    */
+   public synchronized double getAverageDuration() {
+      return _averageDuration;
+   }
+
+   /**
+    * Returns the number of consecutive connection failures and time-outs.
+    *
+    * @return
+    *    the number of consecutive failures, always &gt;= 0.
+    */
+   public synchronized int getConsecutiveFailures() {
+      return _consecutiveFailures;
+   }
+
+   /**
+    * Returns the number of times the target has been made unavailable by
+    * the circuit breaker.
+    *
+    * @return
+    *    the number of times the circuit breaker opened, always &gt;= 0.
+    */
+   public synchronized long getTripCount() {
+      return _tripCount;
+   }
+
+   /**
+    * Returns a textual description of these statistics.
+    *
+    * @return
+    *    the description of these statistics, never <code>null</code>.
+    */
+   public synchronized String toString() {
+      return "TargetStatistics(url=" + _url
+           + "; outstanding=" + _outstandingCount
+           + "; succeeded=" + _successCount
+           + "; failed=" + _failureCount
+           + "; averageDuration=" + (long) _averageDuration
+           + "; consecutiveFailures=" + _consecutiveFailures
+           + "; available=" + isAvailable() + ')';
+   }
+}
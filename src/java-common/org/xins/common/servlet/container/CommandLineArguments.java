@@ -52,8 +52,9 @@ class CommandLineArguments {
       port = HTTPServletStarter.DEFAULT_PORT_NUMBER;
       showGUI = false;
       if (args.length == 1 && args[0].equals("-help")) {
-         System.out.println("Usage: java [-Dorg.xins.server.config=<xins properties>] -jar <api name>.war [-port:<port number>] [-gui] [-war:<war file>] [-loader:<classloader mode>]");
+         System.out.println("Usage: java [-Dorg.xins.server.config=<xins properties>] -jar <api name>.war [-port:<port number>] [-gui] [-war:<war file>] [-loader:<classloader mode>] [-selector] [-backlog:<backlog>]");
          System.out.println("  if port number = -1, the Servlet is not started.");
+         System.out.println("  -selector uses a single thread for the connections and a pool of threads for the requests.");
          System.exit(0);
       }
       for (int i = 0; i < args.length; i++) {
@@ -76,6 +77,10 @@ class CommandLineArguments {
             }
          } else if (arg.equalsIgnoreCase("-gui")) {
             showGUI = true;
+         } else if (arg.equalsIgnoreCase("-selector")) {
+            System.setProperty(HTTPServletHandler.SELECTOR_PROPERTY, "true");
+         } else if (arg.startsWith("-backlog:") || arg.startsWith("-backlog=")) {
+            System.setProperty(HTTPServletHandler.BACKLOG_PROPERTY, arg.substring(9));
 
          // for backward compatibility
          } else if (arg.endsWith(".war") && warFile == null) {
@@ -0,0 +1,745 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.servlet.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+
+import org.xins.common.Log;
+import org.xins.common.Utils;
+import org.xins.common.text.ParseException;
+
+/**
+ * Connection with an HTTP client in the selector-based mode of the servlet
+ * container. The requests are read without blocking by the
+ * {@link HTTPSelectorHandler} thread and are executed one at a time by a
+ * worker thread.
+ *
+ * <p>Several requests can be sent on the same connection (keep-alive),
+ * also without waiting for the previous response (pipelining). The
+ * responses are sent in the order of the requests. The body of a request is
+ * sent with a <code>Content-Length</code> header or with the chunked
+ * transfer coding and is not limited in size.
+ *
+ * <p>Except for {@link #run()}, the methods of this class are only called
+ * by the {@link HTTPSelectorHandler} thread.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class HTTPConnection implements Runnable {
+
+   /**
+    * The encoding of the request.
+    */
+   private static final String REQUEST_ENCODING = "ISO-8859-1";
+
+   /**
+    * The maximum size of the request line and the headers.
+    */
+   private static final int MAX_HEADER_SIZE = 65536;
+
+   /**
+    * The maximum size of a line with the size of a chunk or of a trailer
+    * line.
+    */
+   private static final int MAX_LINE_SIZE = 8192;
+
+   /**
+    * The initial size of the input buffer.
+    */
+   private static final int BUFFER_SIZE = 8192;
+
+   /**
+    * The interim response sent to a client that waits before sending the
+    * body.
+    */
+   private static final String CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n";
+
+   /**
+    * State in which the request line and the headers are read.
+    */
+   private static final int READING_HEADERS = 0;
+
+   /**
+    * State in which a body with a <code>Content-Length</code> is read.
+    */
+   private static final int READING_BODY = 1;
+
+   /**
+    * State in which the size of the next chunk is read.
+    */
+   private static final int READING_CHUNK_SIZE = 2;
+
+   /**
+    * State in which the data of a chunk is read.
+    */
+   private static final int READING_CHUNK = 3;
+
+   /**
+    * State in which the line separator after the data of a chunk is read.
+    */
+   private static final int READING_CHUNK_END = 4;
+
+   /**
+    * State in which the trailer after the last chunk is read.
+    */
+   private static final int READING_TRAILER = 5;
+
+   /**
+    * State in which the request is executed or the response is sent.
+    */
+   private static final int PROCESSING = 6;
+
+   /**
+    * The selector thread that handles this connection. Never
+    * <code>null</code>.
+    */
+   private final HTTPSelectorHandler _handler;
+
+   /**
+    * The connection with the client. Never <code>null</code>.
+    */
+   private final SocketChannel _channel;
+
+   /**
+    * The key of the channel with the selector.
+    */
+   private SelectionKey _key;
+
+   /**
+    * The data received and not yet handled. Never <code>null</code>.
+    */
+   private byte[] _in;
+
+   /**
+    * The position of the first byte in {@link #_in} that has not been
+    * handled.
+    */
+   private int _inStart;
+
+   /**
+    * The position after the last byte received in {@link #_in}.
+    */
+   private int _inEnd;
+
+   /**
+    * The current state, for example {@link #READING_HEADERS}.
+    */
+   private int _state;
+
+   /**
+    * The number of bytes left to read of the body or of the current chunk.
+    */
+   private long _remaining;
+
+   /**
+    * The method of the current request.
+    */
+   private String _method;
+
+   /**
+    * The URL of the current request.
+    */
+   private String _url;
+
+   /**
+    * The headers of the current request, with the names in upper case.
+    */
+   private HashMap _headers;
+
+   /**
+    * The body of the current request, or <code>null</code> if the request
+    * has no body.
+    */
+   private ByteArrayOutputStream _body;
+
+   /**
+    * The value of the <code>Connection</code> header of the response, or
+    * <code>null</code> if the header should not be sent.
+    */
+   private String _connection;
+
+   /**
+    * Flag indicating whether the connection should be kept open after the
+    * current response.
+    */
+   private boolean _keepAlive;
+
+   /**
+    * Flag indicating whether the client has closed its side of the
+    * connection.
+    */
+   private boolean _inputClosed;
+
+   /**
+    * Flag indicating whether this connection is closed.
+    */
+   private boolean _closed;
+
+   /**
+    * The response created by the worker thread, or <code>null</code> if
+    * the request failed.
+    */
+   private byte[] _response;
+
+   /**
+    * The data that remains to be sent, or <code>null</code> if there is
+    * nothing to send.
+    */
+   private ByteBuffer _out;
+
+   /**
+    * The time of the last data received or sent.
+    */
+   private long _lastActivity;
+
+   /**
+    * Creates a new <code>HTTPConnection</code>.
+    *
+    * @param handler
+    *    the selector thread that handles this connection, cannot be
+    *    <code>null</code>.
+    *
+    * @param channel
+    *    the connection with the client, in non-blocking mode, cannot be
+    *    <code>null</code>.
+    */
+   HTTPConnection(HTTPSelectorHandler handler, SocketChannel channel) {
+      _handler      = handler;
+      _channel      = channel;
+      _in           = new byte[BUFFER_SIZE];
+      _state        = READING_HEADERS;
+      _lastActivity = System.currentTimeMillis();
+   }
+
+   /**
+    * Sets the key of the channel with the selector.
+    *
+    * @param key
+    *    the selection key, cannot be <code>null</code>.
+    */
+   void setKey(SelectionKey key) {
+      _key = key;
+   }
+
+   /**
+    * Reads the data available from the client and handles the requests that
+    * have been received completely.
+    *
+    * @throws IOException
+    *    if the data cannot be read.
+    */
+   void read() throws IOException {
+
+      // Make room in the buffer
+      if (_inStart == _inEnd) {
+         _inStart = 0;
+         _inEnd   = 0;
+      } else if (_inEnd == _in.length) {
+         int length = _inEnd - _inStart;
+         if (_inStart == 0) {
+            byte[] buffer = new byte[_in.length * 2];
+            System.arraycopy(_in, 0, buffer, 0, length);
+            _in = buffer;
+         } else {
+            System.arraycopy(_in, _inStart, _in, 0, length);
+            _inStart = 0;
+            _inEnd   = length;
+         }
+      }
+
+      int count = _channel.read(ByteBuffer.wrap(_in, _inEnd, _in.length - _inEnd));
+      if (count < 0) {
+         _inputClosed = true;
+         if (_state != PROCESSING) {
+            close();
+         }
+         return;
+      }
+      _inEnd += count;
+      _lastActivity = System.currentTimeMillis();
+
+      parse();
+      updateInterest();
+   }
+
+   /**
+    * Handles the data received until a request is complete or more data is
+    * needed.
+    *
+    * @throws IOException
+    *    if a response cannot be sent.
+    */
+   private void parse() throws IOException {
+      boolean progress = true;
+      while (progress && _state != PROCESSING) {
+         if (_state == READING_HEADERS) {
+            progress = parseHeaders();
+         } else if (_state == READING_BODY || _state == READING_CHUNK) {
+            progress = readBody();
+         } else if (_state == READING_CHUNK_SIZE) {
+            progress = parseChunkSize();
+         } else if (_state == READING_CHUNK_END) {
+            progress = parseChunkEnd();
+         } else {
+            progress = parseTrailer();
+         }
+      }
+   }
+
+   /**
+    * Finds the next line separator in the data received.
+    *
+    * @param headersEnd
+    *    <code>true</code> to find the empty line that ends the headers,
+    *    <code>false</code> to find the end of the current line.
+    *
+    * @return
+    *    the position of the line separator, or <code>-1</code> if it has not
+    *    been received yet.
+    */
+   private int findLineEnd(boolean headersEnd) {
+      int length = headersEnd ? 4 : 2;
+      for (int i = _inStart; i <= _inEnd - length; i++) {
+         if (_in[i] == '\r' && _in[i + 1] == '\n'
+               && (!headersEnd || (_in[i + 2] == '\r' && _in[i + 3] == '\n'))) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Reads the request line and the headers of a request.
+    *
+    * @return
+    *    <code>true</code> if the headers have been read, <code>false</code>
+    *    if more data is needed.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private boolean parseHeaders() throws IOException {
+
+      // Ignore the empty lines before a request
+      while (_inEnd - _inStart >= 2 && _in[_inStart] == '\r' && _in[_inStart + 1] == '\n') {
+         _inStart += 2;
+      }
+
+      int headersEnd = findLineEnd(true);
+      if (headersEnd < 0) {
+         if (_inEnd - _inStart > MAX_HEADER_SIZE) {
+            sendError("400 Bad Request");
+         }
+         return false;
+      }
+      String head = new String(_in, _inStart, headersEnd - _inStart, REQUEST_ENCODING);
+      _inStart = headersEnd + 4;
+
+      // The request line contains the method, the URL and the version
+      int eolIndex = head.indexOf("\r\n");
+      String line = (eolIndex < 0) ? head : head.substring(0, eolIndex);
+      int firstSpace = line.indexOf(' ');
+      int lastSpace  = line.lastIndexOf(' ');
+      if (firstSpace < 1 || lastSpace <= firstSpace + 1) {
+         sendError("400 Bad Request");
+         return false;
+      }
+      String version = line.substring(lastSpace + 1);
+      if (! "HTTP/1.1".equals(version) && ! "HTTP/1.0".equals(version)) {
+         sendError("400 Bad Request");
+         return false;
+      }
+      _method = line.substring(0, firstSpace);
+      _url    = line.substring(firstSpace + 1, lastSpace);
+
+      // Read the headers
+      _headers = new HashMap();
+      int lineStart = (eolIndex < 0) ? head.length() : eolIndex + 2;
+      while (lineStart < head.length()) {
+         int lineEnd = head.indexOf("\r\n", lineStart);
+         if (lineEnd < 0) {
+            lineEnd = head.length();
+         }
+         try {
+            HTTPQueryHandler.parseHeader(_headers, head.substring(lineStart, lineEnd));
+         } catch (ParseException exception) {
+            sendError("400 Bad Request");
+            return false;
+         }
+         lineStart = lineEnd + 2;
+      }
+
+      // HTTP/1.1 connections are kept open unless the client closes them,
+      // HTTP/1.0 connections only if the client asks for it
+      String connection = HTTPQueryHandler.getHeader(_headers, "Connection");
+      connection = (connection == null) ? "" : connection.toLowerCase();
+      if ("HTTP/1.1".equals(version)) {
+         _keepAlive  = connection.indexOf("close") < 0;
+         _connection = _keepAlive ? null : "close";
+      } else {
+         _keepAlive  = connection.indexOf("keep-alive") >= 0;
+         _connection = _keepAlive ? "keep-alive" : "close";
+      }
+
+      // Determine how the body is sent
+      _body = null;
+      String transferEncoding = HTTPQueryHandler.getHeader(_headers, "Transfer-Encoding");
+      String contentLength    = HTTPQueryHandler.getHeader(_headers, "Content-Length");
+      if (transferEncoding != null && ! "identity".equalsIgnoreCase(transferEncoding)) {
+         if (! transferEncoding.toLowerCase().endsWith("chunked")) {
+            sendError("501 Not Implemented");
+            return false;
+         }
+         _body  = new ByteArrayOutputStream(BUFFER_SIZE);
+         _state = READING_CHUNK_SIZE;
+      } else if (contentLength != null) {
+         long length;
+         try {
+            length = Long.parseLong(contentLength);
+         } catch (NumberFormatException exception) {
+            length = -1L;
+         }
+         if (length < 0) {
+            sendError("400 Bad Request");
+            return false;
+         } else if (length > Integer.MAX_VALUE) {
+            sendError("413 Request Entity Too Large");
+            return false;
+         } else if (length == 0) {
+            complete();
+            return true;
+         }
+         _body      = new ByteArrayOutputStream((int) Math.min(length, MAX_HEADER_SIZE));
+         _remaining = length;
+         _state     = READING_BODY;
+      } else {
+         complete();
+         return true;
+      }
+
+      // The client may wait for an interim response before sending the body
+      String expect = HTTPQueryHandler.getHeader(_headers, "Expect");
+      if ("HTTP/1.1".equals(version) && "100-continue".equalsIgnoreCase(expect)) {
+         send(CONTINUE_RESPONSE.getBytes(REQUEST_ENCODING));
+      }
+      return true;
+   }
+
+   /**
+    * Reads the body of a request or the data of a chunk.
+    *
+    * @return
+    *    <code>true</code> if the body or the chunk has been read,
+    *    <code>false</code> if more data is needed.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private boolean readBody() throws IOException {
+      int count = (int) Math.min(_inEnd - _inStart, _remaining);
+      _body.write(_in, _inStart, count);
+      _inStart   += count;
+      _remaining -= count;
+      if (_remaining > 0) {
+         return false;
+      } else if (_state == READING_CHUNK) {
+         _state = READING_CHUNK_END;
+      } else {
+         complete();
+      }
+      return true;
+   }
+
+   /**
+    * Reads the size of the next chunk.
+    *
+    * @return
+    *    <code>true</code> if the size has been read, <code>false</code> if
+    *    more data is needed.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private boolean parseChunkSize() throws IOException {
+      int lineEnd = findLineEnd(false);
+      if (lineEnd < 0) {
+         if (_inEnd - _inStart > MAX_LINE_SIZE) {
+            sendError("400 Bad Request");
+         }
+         return false;
+      }
+      String line = new String(_in, _inStart, lineEnd - _inStart, REQUEST_ENCODING);
+      _inStart = lineEnd + 2;
+
+      // Ignore the chunk extensions
+      int semicolon = line.indexOf(';');
+      if (semicolon >= 0) {
+         line = line.substring(0, semicolon);
+      }
+      long size;
+      try {
+         size = Long.parseLong(line.trim(), 16);
+      } catch (NumberFormatException exception) {
+         size = -1L;
+      }
+      if (size < 0) {
+         sendError("400 Bad Request");
+         return false;
+      } else if (size > Integer.MAX_VALUE - _body.size()) {
+         sendError("413 Request Entity Too Large");
+         return false;
+      } else if (size == 0) {
+         _state = READING_TRAILER;
+      } else {
+         _remaining = size;
+         _state     = READING_CHUNK;
+      }
+      return true;
+   }
+
+   /**
+    * Reads the line separator after the data of a chunk.
+    *
+    * @return
+    *    <code>true</code> if the line separator has been read,
+    *    <code>false</code> if more data is needed.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private boolean parseChunkEnd() throws IOException {
+      if (_inEnd - _inStart < 2) {
+         return false;
+      } else if (_in[_inStart] != '\r' || _in[_inStart + 1] != '\n') {
+         sendError("400 Bad Request");
+         return false;
+      }
+      _inStart += 2;
+      _state = READING_CHUNK_SIZE;
+      return true;
+   }
+
+   /**
+    * Reads a line of the trailer after the last chunk. The trailer headers
+    * are ignored.
+    *
+    * @return
+    *    <code>true</code> if a line has been read, <code>false</code> if
+    *    more data is needed.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private boolean parseTrailer() throws IOException {
+      int lineEnd = findLineEnd(false);
+      if (lineEnd < 0) {
+         if (_inEnd - _inStart > MAX_LINE_SIZE) {
+            sendError("400 Bad Request");
+         }
+         return false;
+      }
+      boolean last = lineEnd == _inStart;
+      _inStart = lineEnd + 2;
+      if (last) {
+
+         // The servlet gets the decoded body
+         _headers.remove("TRANSFER-ENCODING");
+         _headers.put("CONTENT-LENGTH", String.valueOf(_body.size()));
+         complete();
+      }
+      return true;
+   }
+
+   /**
+    * Passes the request that has been read completely to a worker thread.
+    *
+    * @throws IOException
+    *    if an error response cannot be sent.
+    */
+   private void complete() throws IOException {
+      _state = PROCESSING;
+      if (! _handler.execute(this)) {
+         Log.log_1515(_channel.socket().getInetAddress().getHostAddress());
+         sendError("503 Service Unavailable");
+      }
+   }
+
+   /**
+    * Executes the request with the servlet. This method is called by a worker
+    * thread.
+    */
+   public void run() {
+      byte[] response = null;
+      try {
+         String body = (_body == null) ? null : _body.toString(REQUEST_ENCODING);
+         _body = null;
+         response = HTTPQueryHandler.createResponse(_handler.getServlets(), _method, _url, _headers, body, _connection);
+      } catch (Throwable exception) {
+
+         // If anything goes wrong still continue accepting requests
+         Utils.logIgnoredException(exception);
+      }
+      _response = response;
+      _handler.responseReady(this);
+   }
+
+   /**
+    * Sends the response created by the worker thread.
+    *
+    * @throws IOException
+    *    if the response cannot be sent.
+    */
+   void sendResponse() throws IOException {
+      if (_closed) {
+         return;
+      }
+      byte[] response = _response;
+      _response = null;
+      if (response == null) {
+         sendError("500 Internal Server Error");
+      } else {
+         send(response);
+      }
+      updateInterest();
+   }
+
+   /**
+    * Sends an error response and closes the connection once it has been sent.
+    *
+    * @param status
+    *    the HTTP status, for example <code>"400 Bad Request"</code>, cannot
+    *    be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the response cannot be sent.
+    */
+   private void sendError(String status) throws IOException {
+      _state     = PROCESSING;
+      _keepAlive = false;
+      send(HTTPQueryHandler.createErrorResponse(status, "close"));
+   }
+
+   /**
+    * Sends data to the client. The data that cannot be sent immediately is
+    * sent when the client is ready to receive it.
+    *
+    * @param bytes
+    *    the data to send, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the data cannot be sent.
+    */
+   private void send(byte[] bytes) throws IOException {
+      if (_out != null) {
+         byte[] pending = new byte[_out.remaining() + bytes.length];
+         int length = _out.remaining();
+         _out.get(pending, 0, length);
+         System.arraycopy(bytes, 0, pending, length, bytes.length);
+         bytes = pending;
+      }
+      _out = ByteBuffer.wrap(bytes);
+      write();
+   }
+
+   /**
+    * Sends the data waiting to be sent. Once a response has been sent, the
+    * next request is handled or the connection is closed.
+    *
+    * @throws IOException
+    *    if the data cannot be sent.
+    */
+   void write() throws IOException {
+      if (_out == null) {
+         return;
+      }
+      _channel.write(_out);
+      _lastActivity = System.currentTimeMillis();
+      if (_out.hasRemaining()) {
+         updateInterest();
+         return;
+      }
+      _out = null;
+
+      // An interim response has been sent, continue reading the request
+      if (_state != PROCESSING) {
+         updateInterest();
+         return;
+      }
+
+      if (! _keepAlive || _inputClosed) {
+         close();
+         return;
+      }
+
+      // Handle the next request, which may have been received already
+      _state   = READING_HEADERS;
+      _method  = null;
+      _url     = null;
+      _headers = null;
+      parse();
+      updateInterest();
+   }
+
+   /**
+    * Updates the operations the selector waits for on this connection.
+    */
+   private void updateInterest() {
+      if (_closed || ! _key.isValid()) {
+         return;
+      }
+      if (_out != null) {
+         _key.interestOps(SelectionKey.OP_WRITE);
+      } else if (_state == PROCESSING) {
+         _key.interestOps(0);
+      } else {
+         _key.interestOps(SelectionKey.OP_READ);
+      }
+   }
+
+   /**
+    * Checks whether this connection has been inactive for too long. A
+    * connection is never considered idle while its request is executed.
+    *
+    * @param now
+    *    the current time.
+    *
+    * @param timeOut
+    *    the maximum inactivity time in milliseconds.
+    *
+    * @return
+    *    <code>true</code> if the connection should be closed,
+    *    <code>false</code> otherwise.
+    */
+   boolean isIdle(long now, long timeOut) {
+      return (_state != PROCESSING || _out != null) && now - _lastActivity >= timeOut;
+   }
+
+   /**
+    * Closes this connection.
+    */
+   void close() {
+      if (_closed) {
+         return;
+      }
+      _closed = true;
+      if (_key != null) {
+         _key.cancel();
+      }
+      try {
+         _channel.close();
+      } catch (IOException exception) {
+         Utils.logIgnoredException(exception);
+      }
+   }
+}
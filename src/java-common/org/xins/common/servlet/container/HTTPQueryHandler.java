@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.FileNameMap;
 import java.net.Socket;
 import java.net.URLConnection;
@@ -183,7 +184,7 @@ class HTTPQueryHandler extends Thread {
          sendBadRequest(out);
          return;
       }
-      String request = new String(buffer, 0, lengthRead);
+      String request = readRest(inReader, buffer, lengthRead);
       //byte[] requestBytes = IOReader.readFullyAsBytes(in);
       //String request = new String(requestBytes, 0, requestBytes.length, REQUEST_ENCODING);
 
@@ -220,13 +221,6 @@ class HTTPQueryHandler extends Thread {
       if ("".equals(url)) {
          sendBadRequest(out);
          return;
-      } else if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)) {
-         url = url.replace(',', '&');
-      }
-
-      // Normalize the query string
-      if ("GET".equals(method) && url.endsWith("/") && getClass().getResource(url + "index.html") != null) {
-         url += "index.html";
       }
 
       // Read the headers
@@ -252,91 +246,252 @@ class HTTPQueryHandler extends Thread {
                   ? ""
                   : request.substring(2);
 
+      // Write the headers and the body at once
+      byte[] bytes = createResponse(_servlets, method, url, inHeaders, body, "close");
+      out.write(bytes, 0, bytes.length);
+      out.flush();
+   }
 
-      // Response encoding defaults to request encoding
-      String responseEncoding = REQUEST_ENCODING;
+   /**
+    * Handles a request that has been read completely and creates the HTTP
+    * response. This method is used by both the thread-per-connection and the
+    * selector-based modes of the servlet container.
+    *
+    * @param servlets
+    *    the mapping between the path and the servlets, cannot be
+    *    <code>null</code>.
+    *
+    * @param method
+    *    the HTTP method, cannot be <code>null</code>.
+    *
+    * @param url
+    *    the requested URL, including the query string, cannot be
+    *    <code>null</code>.
+    *
+    * @param inHeaders
+    *    the request headers, with the names in upper case, cannot be
+    *    <code>null</code>.
+    *
+    * @param body
+    *    the body of the request, as ISO-8859-1 characters, can be
+    *    <code>null</code>.
+    *
+    * @param connection
+    *    the value of the <code>Connection</code> header of the response, or
+    *    <code>null</code> if the header should not be sent.
+    *
+    * @return
+    *    the complete HTTP response, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the query is not handled correctly.
+    *
+    * @since XINS 2.4
+    */
+   static byte[] createResponse(Map    servlets,
+                                String method,
+                                String url,
+                                Map    inHeaders,
+                                String body,
+                                String connection)
+   throws IOException {
+
+      if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)) {
+         url = url.replace(',', '&');
+      }
+
+      // Normalize the query string
+      if ("GET".equals(method) && url.endsWith("/") && HTTPQueryHandler.class.getResource(url + "index.html") != null) {
+         url += "index.html";
+      }
 
       // Handle the case that a web page is requested
       boolean getMethod = method.equals("GET") || method.equals("HEAD");
-      String httpResult;
       if (getMethod && url.indexOf('?') == -1 && !url.endsWith("/") && !"*".equals(url)) {
-         httpResult = readWebPage(url);
+         return readWebPage(url, method.equals("HEAD"), connection);
+      }
 
-      // No web page requested
-      } else {
+      // Determine the content type
+      String inContentType = getHeader(inHeaders, "Content-Type");
 
-         // Determine the content type
-         String inContentType = getHeader(inHeaders, "Content-Type");
+      // If www-form encoded, then append the body to the query string,
+      // unless the body is compressed
+      if ((inContentType == null || inContentType.startsWith("application/x-www-form-urlencoded")) &&
+            body != null && body.length() > 0 && getHeader(inHeaders, "Content-Encoding") == null) {
+         url += (url.indexOf('?') < 0 ? '?' : '&') + body;
+         body = null;
+      }
 
-         // If www-form encoded, then append the body to the query string
-         if ((inContentType == null || inContentType.startsWith("application/x-www-form-urlencoded")) &&
-               body.length() > 0) {
-            // XXX: What if the URL already contains a question mark?
-            url += '?' + body;
-            body = null;
-         }
+      // Locate the path of the URL
+      String virtualPath = url;
+      if (virtualPath.indexOf('?') != -1) {
+         virtualPath = virtualPath.substring(0, url.indexOf('?'));
+      }
+      if (virtualPath.endsWith("/") && virtualPath.length() > 1) {
+         virtualPath = virtualPath.substring(0, virtualPath.length() - 1);
+      }
 
-         // Locate the path of the URL
-         String virtualPath = url;
-         if (virtualPath.indexOf('?') != -1) {
-            virtualPath = virtualPath.substring(0, url.indexOf('?'));
-         }
-         if (virtualPath.endsWith("/") && virtualPath.length() > 1) {
-            virtualPath = virtualPath.substring(0, virtualPath.length() - 1);
+      // Get the Servlet according to the path
+      LocalServletHandler servlet = findServlet(servlets, virtualPath);
+
+      // If no servlet is found return 404
+      if (servlet == null) {
+         return createErrorResponse("404 Not Found", connection);
+      }
+
+      // Query the Servlet
+      XINSServletResponse response = servlet.query(method, url, body, inHeaders);
+
+      // Create the HTTP answer
+      StringBuffer sbHttpResult = new StringBuffer();
+      sbHttpResult.append("HTTP/1.1 " + response.getStatus() + " " +
+            HttpStatus.getStatusText(response.getStatus()) + CRLF);
+      PropertyReader outHeaders = response.getHeaders();
+      Iterator itHeaderNames = outHeaders.getNames();
+      while (itHeaderNames.hasNext()) {
+         String nextHeader = (String) itHeaderNames.next();
+         String headerValue = outHeaders.get(nextHeader);
+         if (headerValue != null && !"Content-Length".equalsIgnoreCase(nextHeader)
+               && !"Connection".equalsIgnoreCase(nextHeader)) {
+            sbHttpResult.append(nextHeader + ": " + headerValue + CRLF);
          }
+      }
 
-         // Get the Servlet according to the path
-         LocalServletHandler servlet = findServlet(virtualPath);
+      // The body is written as bytes, since it may be compressed
+      byte[] resultBytes = response.getResultBytes();
+      int length = response.getContentLength();
+      if (length < 0) {
+         length = (resultBytes == null) ? 0 : resultBytes.length;
+      }
+      return createResponse(sbHttpResult, length, connection, resultBytes);
+   }
 
-         // If no servlet is found return 404
-         if (servlet == null) {
-            sendError(out, "404 Not Found");
-            return;
-         } else {
+   /**
+    * Completes an HTTP response.
+    *
+    * @param headers
+    *    the status line and the headers, each followed by a line separator,
+    *    cannot be <code>null</code>.
+    *
+    * @param length
+    *    the value of the <code>Content-Length</code> header.
+    *
+    * @param connection
+    *    the value of the <code>Connection</code> header, or
+    *    <code>null</code> if the header should not be sent.
+    *
+    * @param body
+    *    the body of the response, can be <code>null</code>.
+    *
+    * @return
+    *    the complete HTTP response, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the headers cannot be encoded.
+    */
+   private static byte[] createResponse(StringBuffer headers, int length, String connection, byte[] body)
+   throws IOException {
+      headers.append("Content-Length: " + length + CRLF);
+      if (connection != null) {
+         headers.append("Connection: " + connection + CRLF);
+      }
+      headers.append(CRLF);
+      byte[] bytes = headers.toString().getBytes(REQUEST_ENCODING);
+      if (body != null && body.length > 0) {
+         byte[] headerBytes = bytes;
+         bytes = new byte[headerBytes.length + body.length];
+         System.arraycopy(headerBytes, 0, bytes, 0, headerBytes.length);
+         System.arraycopy(body, 0, bytes, headerBytes.length, body.length);
+      }
+      return bytes;
+   }
 
-            // Query the Servlet
-            XINSServletResponse response = servlet.query(method, url, body, inHeaders);
-
-            // Create the HTTP answer
-            StringBuffer sbHttpResult = new StringBuffer();
-            sbHttpResult.append("HTTP/1.1 " + response.getStatus() + " " +
-                  HttpStatus.getStatusText(response.getStatus()) + CRLF);
-            PropertyReader outHeaders = response.getHeaders();
-            Iterator itHeaderNames = outHeaders.getNames();
-            while (itHeaderNames.hasNext()) {
-               String nextHeader = (String) itHeaderNames.next();
-               String headerValue = outHeaders.get(nextHeader);
-               if (headerValue != null) {
-                  sbHttpResult.append(nextHeader + ": " + headerValue + "\r\n");
-               }
-            }
+   /**
+    * Creates an HTTP response without a body.
+    *
+    * @param status
+    *    the HTTP status, for example <code>"404 Not Found"</code>, cannot
+    *    be <code>null</code>.
+    *
+    * @param connection
+    *    the value of the <code>Connection</code> header, or
+    *    <code>null</code> if the header should not be sent.
+    *
+    * @return
+    *    the complete HTTP response, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the response cannot be encoded.
+    *
+    * @since XINS 2.4
+    */
+   static byte[] createErrorResponse(String status, String connection)
+   throws IOException {
+      return createResponse(new StringBuffer("HTTP/1.1 " + status + CRLF), 0, connection, null);
+   }
 
-            String result = response.getResult();
-            if (result != null) {
-               responseEncoding = response.getCharacterEncoding();
-               int length = response.getContentLength();
-               if (length < 0) {
-                  length = result.getBytes(responseEncoding).length;
+   /**
+    * Reads the rest of a request that was not received with the first read:
+    * until the end of the headers and the number of characters given by the
+    * <code>Content-Length</code> header. At most the size of the buffer is
+    * read.
+    *
+    * @param in
+    *    the reader of the request, cannot be <code>null</code>.
+    *
+    * @param buffer
+    *    the buffer, containing the characters read so far, cannot be
+    *    <code>null</code>.
+    *
+    * @param length
+    *    the number of characters read so far.
+    *
+    * @return
+    *    the request, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the request cannot be read.
+    */
+   private static String readRest(Reader in, char[] buffer, int length)
+   throws IOException {
+      int expected = -1;
+      while (length < buffer.length) {
+         String request = new String(buffer, 0, length);
+         int headersEnd = request.indexOf(CRLF + CRLF);
+         if (headersEnd >= 0 && expected < 0) {
+            expected = headersEnd + 4;
+            String headers = request.substring(0, headersEnd).toUpperCase();
+            int index = headers.indexOf(CRLF + "CONTENT-LENGTH:");
+            if (index >= 0) {
+               int end = headers.indexOf(CRLF, index + 2);
+               String value = headers.substring(index + 17, (end < 0) ? headers.length() : end).trim();
+               try {
+                  expected += Integer.parseInt(value);
+               } catch (NumberFormatException exception) {
+                  // Read what was received
                }
-               sbHttpResult.append("Content-Length: " + length + "\r\n");
-               sbHttpResult.append("Connection: close\r\n");
-               sbHttpResult.append("\r\n");
-               sbHttpResult.append(result);
             }
-            httpResult = sbHttpResult.toString();
          }
+         if (expected >= 0 && length >= expected) {
+            return request;
+         }
+         int count = in.read(buffer, length, buffer.length - length);
+         if (count < 0) {
+            return request;
+         }
+         length += count;
       }
-
-      byte[] bytes = httpResult.getBytes(responseEncoding);
-      out.write(bytes, 0, bytes.length);
-      out.flush();
+      return new String(buffer, 0, length);
    }
 
-
    /**
     * Finds the servlet that should handle a request at the specified virtual
     * path.
     *
+    * @param servlets
+    *    the mapping between the path and the servlets, cannot be
+    *    <code>null</code>.
+    *
     * @param path
     *    the virtual path, cannot be <code>null</code>.
     *
@@ -346,7 +501,7 @@ class HTTPQueryHandler extends Thread {
     * @throws NullPointerException
     *    if <code>path == null</code>.
     */
-   private LocalServletHandler findServlet(String path)
+   private static LocalServletHandler findServlet(Map servlets, String path)
    throws NullPointerException {
 
       // Special case is path "*"
@@ -364,7 +519,7 @@ class HTTPQueryHandler extends Thread {
       do {
 
          // Find a servlet at this path
-         servlet = (LocalServletHandler) _servlets.get(path);
+         servlet = (LocalServletHandler) servlets.get(path);
 
          // If not found, then strip off the last part of the path
          // E.g. "/objects/boats/Cherry"  becomes "/objects/boats/"
@@ -403,8 +558,7 @@ class HTTPQueryHandler extends Thread {
     */
    private void sendError(OutputStream out, String status)
    throws IOException {
-      String httpResult = "HTTP/1.1 " + status + CRLF + CRLF;
-      byte[] bytes = httpResult.getBytes(REQUEST_ENCODING);
+      byte[] bytes = createErrorResponse(status, "close");
       out.write(bytes, 0, bytes.length);
       out.flush();
    }
@@ -435,7 +589,7 @@ class HTTPQueryHandler extends Thread {
     * @throws ParseException
     *    if the header is incorrect
     */
-   private static void parseHeader(HashMap headers, String header)
+   static void parseHeader(Map headers, String header)
    throws ParseException{
       int index = header.indexOf(':');
       if (index < 1) {
@@ -474,7 +628,7 @@ class HTTPQueryHandler extends Thread {
     *    the header value for the specified key or <code>null</code> if the
     *    key is not in the haeders.
     */
-   String getHeader(HashMap headers, String key) {
+   static String getHeader(Map headers, String key) {
       return (String) headers.get(key.toUpperCase());
    }
 
@@ -484,37 +638,41 @@ class HTTPQueryHandler extends Thread {
     * @param url
     *    the location of the content, cannot be <code>null</code>.
     *
+    * @param head
+    *    <code>true</code> if only the headers should be returned, as for a
+    *    <code>HEAD</code> request.
+    *
+    * @param connection
+    *    the value of the <code>Connection</code> header, or
+    *    <code>null</code> if the header should not be sent.
+    *
     * @return
     *    the HTTP response to return, never <code>null</code>.
     *
     * @throws IOException
     *    if an error occcurs when reading the URL.
     */
-   private String readWebPage(String url) throws IOException {
-      String httpResult;
-      if (getClass().getResource(url) != null) {
-         InputStream urlInputStream = getClass().getResourceAsStream(url);
-         ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+   private static byte[] readWebPage(String url, boolean head, String connection)
+   throws IOException {
+      InputStream urlInputStream = HTTPQueryHandler.class.getResourceAsStream(url);
+      if (urlInputStream == null) {
+         return createErrorResponse("404 Not Found", connection);
+      }
+      ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+      try {
          byte[] buf = new byte[8192];
          int len;
          while ((len = urlInputStream.read(buf)) > 0) {
             contentOutputStream.write(buf, 0, len);
          }
-         contentOutputStream.close();
+      } finally {
          urlInputStream.close();
-         String content = contentOutputStream.toString("ISO-8859-1");
-
-         httpResult = "HTTP/1.1 200 OK\r\n";
-         String fileName = url.substring(url.lastIndexOf('/') + 1);
-         httpResult += "Content-Type: " + MIME_TYPES_MAP.getContentTypeFor(fileName) + "\r\n";
-         int length = content.getBytes("ISO-8859-1").length;
-         httpResult += "Content-Length: " + length + "\r\n";
-         httpResult += "Connection: close\r\n";
-         httpResult += "\r\n";
-         httpResult += content;
-      } else {
-         httpResult = "HTTP/1.1 404 Not Found\r\n";
       }
-      return httpResult;
+      byte[] content = contentOutputStream.toByteArray();
+
+      StringBuffer httpResult = new StringBuffer("HTTP/1.1 200 OK" + CRLF);
+      String fileName = url.substring(url.lastIndexOf('/') + 1);
+      httpResult.append("Content-Type: " + MIME_TYPES_MAP.getContentTypeFor(fileName) + CRLF);
+      return createResponse(httpResult, content.length, connection, head ? null : content);
    }
 }
@@ -0,0 +1,310 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.servlet.container;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.Library;
+import org.xins.common.Log;
+import org.xins.common.Utils;
+import org.xins.common.WorkerPool;
+
+/**
+ * Thread that accepts the connections and reads and writes the data of all
+ * the connections with a single selector. The requests are executed by the
+ * threads of a bounded {@link WorkerPool}, so that the number of threads
+ * does not depend on the number of connections.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class HTTPSelectorHandler extends Thread {
+
+   /**
+    * The time in milliseconds after which an inactive connection is closed.
+    */
+   static final int IDLE_TIME_OUT = 30000;
+
+   /**
+    * The interval in milliseconds between the checks for inactive
+    * connections.
+    */
+   private static final int IDLE_CHECK_INTERVAL = 1000;
+
+   /**
+    * The channel that accepts the connections. Never <code>null</code>.
+    */
+   private final ServerSocketChannel _serverChannel;
+
+   /**
+    * The selector for all the channels. Never <code>null</code>.
+    */
+   private final Selector _selector;
+
+   /**
+    * Mapping between the path and the servlet. Never <code>null</code>.
+    */
+   private final Map _servlets;
+
+   /**
+    * The threads that execute the requests. Never <code>null</code>.
+    */
+   private final WorkerPool _workerPool;
+
+   /**
+    * The connections of which the response has been created by a worker
+    * thread. All accesses should be synchronized on this object.
+    */
+   private final List _responses = new ArrayList();
+
+   /**
+    * Flag indicating if the server should wait for other connections or stop.
+    */
+   private volatile boolean _running;
+
+   /**
+    * Creates a new <code>HTTPSelectorHandler</code> and binds it to the
+    * specified port.
+    *
+    * @param port
+    *    the port of the servlet server.
+    *
+    * @param backlog
+    *    the maximum number of connections waiting to be accepted.
+    *
+    * @param servlets
+    *    the mapping between the path and the servlets, cannot be
+    *    <code>null</code>.
+    *
+    * @param workerPool
+    *    the threads that execute the requests, cannot be <code>null</code>.
+    *
+    * @param daemon
+    *    <code>true</code> if the thread should be a daemon thread,
+    *    <code>false</code> otherwise.
+    *
+    * @throws IOException
+    *    if the server cannot be started.
+    */
+   HTTPSelectorHandler(int port, int backlog, Map servlets, WorkerPool workerPool, boolean daemon)
+   throws IOException {
+      _servlets   = servlets;
+      _workerPool = workerPool;
+
+      _serverChannel = ServerSocketChannel.open();
+      try {
+         _serverChannel.socket().bind(new InetSocketAddress(port), backlog);
+         _serverChannel.configureBlocking(false);
+         _selector = Selector.open();
+         _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException exception) {
+         _serverChannel.close();
+         throw exception;
+      }
+      _running = true;
+
+      setDaemon(daemon);
+      setName("XINS " + Library.getVersion() + " Servlet container.");
+   }
+
+   /**
+    * Returns the socket that accepts the connections.
+    *
+    * @return
+    *    the server socket, never <code>null</code>.
+    */
+   ServerSocket getServerSocket() {
+      return _serverChannel.socket();
+   }
+
+   /**
+    * Returns the mapping between the path and the servlets.
+    *
+    * @return
+    *    the servlets, never <code>null</code>.
+    */
+   Map getServlets() {
+      return _servlets;
+   }
+
+   /**
+    * Executes a request on a worker thread.
+    *
+    * @param connection
+    *    the connection with the request to execute, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the request will be executed, <code>false</code>
+    *    if all the worker threads are busy.
+    */
+   boolean execute(HTTPConnection connection) {
+      return _workerPool.execute(connection);
+   }
+
+   /**
+    * Indicates that the response of a connection has been created. The
+    * response will be sent by this thread.
+    *
+    * @param connection
+    *    the connection with the response, cannot be <code>null</code>.
+    */
+   void responseReady(HTTPConnection connection) {
+      synchronized (_responses) {
+         _responses.add(connection);
+      }
+      _selector.wakeup();
+   }
+
+   /**
+    * Executes the thread.
+    */
+   public void run() {
+      Log.log_1500(_serverChannel.socket().getLocalPort());
+      long lastIdleCheck = System.currentTimeMillis();
+      try {
+         while (_running) {
+            _selector.select(IDLE_CHECK_INTERVAL);
+
+            // Send the responses created by the worker threads
+            HTTPConnection[] responses;
+            synchronized (_responses) {
+               responses = (HTTPConnection[]) _responses.toArray(new HTTPConnection[_responses.size()]);
+               _responses.clear();
+            }
+            for (int i = 0; i < responses.length; i++) {
+               try {
+                  responses[i].sendResponse();
+               } catch (IOException exception) {
+                  Utils.logIgnoredException(exception);
+                  responses[i].close();
+               }
+            }
+
+            // Handle the new connections and the data
+            Iterator keys = _selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+               SelectionKey key = (SelectionKey) keys.next();
+               keys.remove();
+               if (! key.isValid()) {
+                  continue;
+               } else if (key.isAcceptable()) {
+                  accept();
+               } else {
+                  HTTPConnection connection = (HTTPConnection) key.attachment();
+                  try {
+                     if (key.isReadable()) {
+                        connection.read();
+                     }
+                     if (key.isValid() && key.isWritable()) {
+                        connection.write();
+                     }
+                  } catch (IOException exception) {
+                     Utils.logIgnoredException(exception);
+                     connection.close();
+                  }
+               }
+            }
+
+            // Close the inactive connections
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+               lastIdleCheck = now;
+               Iterator allKeys = _selector.keys().iterator();
+               while (allKeys.hasNext()) {
+                  Object attachment = ((SelectionKey) allKeys.next()).attachment();
+                  if (attachment instanceof HTTPConnection && ((HTTPConnection) attachment).isIdle(now, IDLE_TIME_OUT)) {
+                     ((HTTPConnection) attachment).close();
+                  }
+               }
+            }
+         }
+      } catch (ClosedSelectorException exception) {
+         // fall through
+      } catch (IOException ioe) {
+         Log.log_1501(ioe);
+      } finally {
+         closeAll();
+      }
+   }
+
+   /**
+    * Accepts the waiting connections.
+    *
+    * @throws IOException
+    *    if the server socket fails.
+    */
+   private void accept() throws IOException {
+      for (SocketChannel channel = _serverChannel.accept(); channel != null; channel = _serverChannel.accept()) {
+         try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            HTTPConnection connection = new HTTPConnection(this, channel);
+            connection.setKey(channel.register(_selector, SelectionKey.OP_READ, connection));
+         } catch (IOException exception) {
+            Utils.logIgnoredException(exception);
+            channel.close();
+         }
+      }
+   }
+
+   /**
+    * Closes all the connections and the selector.
+    */
+   private void closeAll() {
+      try {
+         Iterator keys = _selector.keys().iterator();
+         while (keys.hasNext()) {
+            Object attachment = ((SelectionKey) keys.next()).attachment();
+            if (attachment instanceof HTTPConnection) {
+               ((HTTPConnection) attachment).close();
+            }
+         }
+      } catch (ClosedSelectorException exception) {
+         // fall through
+      }
+      try {
+         _serverChannel.close();
+         _selector.close();
+      } catch (IOException exception) {
+         Utils.logIgnoredException(exception);
+      }
+   }
+
+   /**
+    * Stops accepting connections and closes all the connections. This method
+    * waits until the server socket is released by this thread.
+    */
+   void close() {
+      _running = false;
+      try {
+         _serverChannel.close();
+      } catch (IOException ioe) {
+         Log.log_1502(ioe);
+      }
+      _selector.wakeup();
+      if (Thread.currentThread() != this) {
+         try {
+            join(IDLE_CHECK_INTERVAL * 5);
+         } catch (InterruptedException exception) {
+            // ignore
+         }
+      }
+   }
+}
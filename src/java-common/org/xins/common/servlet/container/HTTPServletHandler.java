@@ -25,10 +25,23 @@ import org.apache.log4j.helpers.NullEnumeration;
 
 import org.xins.common.Library;
 import org.xins.common.Log;
+import org.xins.common.Utils;
+import org.xins.common.WorkerPool;
 
 /**
  * HTTP server used to invoke the XINS servlet.
  *
+ * <p>By default, a thread is started for each connection and the connection
+ * is closed after the response. In the selector-based mode, all the
+ * connections are handled by a single thread with a selector and the
+ * requests are executed by a bounded pool of worker threads. In this mode,
+ * the connections are kept open between requests (HTTP/1.1 keep-alive),
+ * the requests can be pipelined and the body of a request can be sent with
+ * the chunked transfer coding. The selector-based mode is used if the
+ * system property {@link #SELECTOR_PROPERTY} is set to <code>true</code> or
+ * if a worker pool is passed to
+ * {@link #startServer(int, boolean, int, WorkerPool)}.
+ *
  * @version $Revision$ $Date$
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
@@ -40,6 +53,45 @@ public class HTTPServletHandler {
     */
    public static final int DEFAULT_PORT_NUMBER = 8080;
 
+   /**
+    * The name of the system property that indicates whether the
+    * selector-based mode should be used.
+    *
+    * @since XINS 2.4
+    */
+   public static final String SELECTOR_PROPERTY = "org.xins.common.servlet.container.selector";
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * connections waiting to be accepted.
+    *
+    * @since XINS 2.4
+    */
+   public static final String BACKLOG_PROPERTY = "org.xins.common.servlet.container.backlog";
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * worker threads in the selector-based mode.
+    *
+    * @since XINS 2.4
+    */
+   public static final String WORKERS_PROPERTY = "org.xins.common.servlet.container.workers";
+
+   /**
+    * The name of the system property that specifies the maximum number of
+    * requests waiting for a worker thread in the selector-based mode.
+    *
+    * @since XINS 2.4
+    */
+   public static final String QUEUE_SIZE_PROPERTY = "org.xins.common.servlet.container.queueSize";
+
+   /**
+    * The default maximum number of connections waiting to be accepted.
+    *
+    * @since XINS 2.4
+    */
+   public static final int DEFAULT_BACKLOG = 5;
+
    /**
     * The web server.
     */
@@ -50,6 +102,12 @@ public class HTTPServletHandler {
     */
    private SocketAcceptor _acceptor;
 
+   /**
+    * The thread that handles the connections in the selector-based mode, or
+    * <code>null</code> if this mode is not used.
+    */
+   private HTTPSelectorHandler _selectorHandler;
+
    /**
     * Flag indicating if the server should wait for other connections or stop.
     */
@@ -75,6 +133,35 @@ public class HTTPServletHandler {
     *    if the servlet container cannot be started.
     */
    public HTTPServletHandler(int port, boolean daemon) throws IOException {
+      this(port, daemon, getBacklog(), createWorkerPool());
+   }
+
+   /**
+    * Creates a new HTTPSevletHandler with no Servlet, with the specified
+    * backlog and optionally in the selector-based mode. Use the addServlet
+    * methods to add the WAR files or the Servlets.
+    *
+    * @param port
+    *    The port of the servlet server.
+    *
+    * @param daemon
+    *    <code>true</code> if the thread listening to connection should be a
+    *    daemon thread, <code>false</code> otherwise.
+    *
+    * @param backlog
+    *    the maximum number of connections waiting to be accepted.
+    *
+    * @param workerPool
+    *    the threads that execute the requests in the selector-based mode, or
+    *    <code>null</code> to start a thread for each connection.
+    *
+    * @throws IOException
+    *    if the servlet container cannot be started.
+    *
+    * @since XINS 2.4
+    */
+   public HTTPServletHandler(int port, boolean daemon, int backlog, WorkerPool workerPool)
+   throws IOException {
 
       // Configure log4j if not already done.
       Enumeration appenders = LogManager.getLoggerRepository().getRootLogger().getAllAppenders();
@@ -83,7 +170,7 @@ public class HTTPServletHandler {
       }
 
       // Start the HTTP server.
-      startServer(port, daemon);
+      startServer(port, daemon, backlog, workerPool);
    }
 
    /**
@@ -195,6 +282,45 @@ public class HTTPServletHandler {
       PropertyConfigurator.configure(settings);
    }
 
+   /**
+    * Returns the backlog specified by the system property
+    * {@link #BACKLOG_PROPERTY}.
+    *
+    * @return
+    *    the maximum number of connections waiting to be accepted, or
+    *    {@link #DEFAULT_BACKLOG} if the property is not set or is invalid.
+    */
+   private static int getBacklog() {
+      String value = System.getProperty(BACKLOG_PROPERTY);
+      if (value == null || value.trim().length() < 1) {
+         return DEFAULT_BACKLOG;
+      }
+      try {
+         int backlog = Integer.parseInt(value.trim());
+         return backlog < 1 ? DEFAULT_BACKLOG : backlog;
+      } catch (NumberFormatException exception) {
+         Utils.logIgnoredException(exception);
+         return DEFAULT_BACKLOG;
+      }
+   }
+
+   /**
+    * Creates the worker pool for the selector-based mode, if this mode is
+    * enabled with the system property {@link #SELECTOR_PROPERTY}. The size
+    * of the pool is specified by the system properties
+    * {@link #WORKERS_PROPERTY} and {@link #QUEUE_SIZE_PROPERTY}.
+    *
+    * @return
+    *    the worker pool, or <code>null</code> if the selector-based mode is
+    *    not enabled.
+    */
+   private static WorkerPool createWorkerPool() {
+      if (! "true".equalsIgnoreCase(System.getProperty(SELECTOR_PROPERTY))) {
+         return null;
+      }
+      return WorkerPool.create("XINS Servlet container worker", WORKERS_PROPERTY, QUEUE_SIZE_PROPERTY);
+   }
+
    /**
     * Adds a WAR file to the server.
     * The servlet with the virtual path "/" will be the default one.
@@ -268,12 +394,47 @@ public class HTTPServletHandler {
     *    if the web server cannot be started.
     */
    public void startServer(int port, boolean daemon) throws IOException {
-      // Create the server socket
-      _serverSocket = new ServerSocket(port, 5);
+      startServer(port, daemon, getBacklog(), createWorkerPool());
+   }
+
+   /**
+    * Starts the web server with the specified backlog and optionally in the
+    * selector-based mode.
+    *
+    * @param port
+    *    the port of the servlet server.
+    *
+    * @param daemon
+    *    <code>true</code> if the thread listening to connection should be a
+    *    daemon thread, <code>false</code> otherwise.
+    *
+    * @param backlog
+    *    the maximum number of connections waiting to be accepted.
+    *
+    * @param workerPool
+    *    the threads that execute the requests in the selector-based mode, or
+    *    <code>null</code> to start a thread for each connection.
+    *
+    * @throws IOException
+    *    if the web server cannot be started.
+    *
+    * @since XINS 2.4
+    */
+   public void startServer(int port, boolean daemon, int backlog, WorkerPool workerPool)
+   throws IOException {
       _running = true;
 
-      _acceptor = new SocketAcceptor(daemon);
-      _acceptor.start();
+      if (workerPool != null) {
+         _selectorHandler = new HTTPSelectorHandler(port, backlog, _servlets, workerPool, daemon);
+         _serverSocket = _selectorHandler.getServerSocket();
+         _selectorHandler.start();
+      } else {
+
+         // Create the server socket
+         _serverSocket = new ServerSocket(port, backlog);
+         _acceptor = new SocketAcceptor(daemon);
+         _acceptor.start();
+      }
    }
 
    /**
@@ -313,6 +474,10 @@ public class HTTPServletHandler {
          LocalServletHandler servlet = (LocalServletHandler) itServlets.next();
          servlet.close();
       }
+      if (_selectorHandler != null) {
+         _selectorHandler.close();
+         return;
+      }
       try {
          _serverSocket.close();
       } catch (IOException ioe) {
@@ -6,8 +6,10 @@
  */
 package org.xins.common.servlet.container;
 
+import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -52,6 +54,11 @@ public class XINSServletResponse implements HttpServletResponse {
     */
    private StringWriter _writer;
 
+   /**
+    * The stream where to write the result as bytes.
+    */
+   private ByteArrayOutputStream _bytes;
+
    /**
     * The headers.
     */
@@ -205,7 +212,16 @@ public class XINSServletResponse implements HttpServletResponse {
    }
 
    public ServletOutputStream getOutputStream() {
-      throw new UnsupportedOperationException();
+      _bytes = new ByteArrayOutputStream();
+      return new ServletOutputStream() {
+         public void write(int b) {
+            _bytes.write(b);
+         }
+
+         public void write(byte[] b, int off, int len) {
+            _bytes.write(b, off, len);
+         }
+      };
    }
 
    public PrintWriter getWriter() {
@@ -232,12 +248,40 @@ public class XINSServletResponse implements HttpServletResponse {
     *    the returned message or <code>null</code> if no message is returned.
     */
    public String getResult() {
-      if (_writer == null) {
+      if (_bytes != null) {
+         try {
+            return _bytes.toString(_encoding);
+         } catch (UnsupportedEncodingException exception) {
+            return _bytes.toString();
+         }
+      } else if (_writer == null) {
          return null;
       }
       return _writer.toString();
    }
 
+   /**
+    * Gets the returned message from the servlet as bytes. If the servlet
+    * wrote characters, they are encoded with the character encoding of the
+    * response.
+    *
+    * @return
+    *    the returned message or <code>null</code> if no message is returned.
+    *
+    * @throws UnsupportedEncodingException
+    *    if the character encoding of the response is not supported.
+    *
+    * @since XINS 2.4
+    */
+   byte[] getResultBytes() throws UnsupportedEncodingException {
+      if (_bytes != null) {
+         return _bytes.toByteArray();
+      } else if (_writer == null) {
+         return null;
+      }
+      return _writer.toString().getBytes(_encoding);
+   }
+
    /**
     * Gets the status of the returned message.
     *
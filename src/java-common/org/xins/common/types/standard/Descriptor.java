@@ -128,6 +128,10 @@ public class Descriptor extends Type {
          for (int i = 0; i < targets.length; i++) {
             buffer.append(prefix);
             buffer.append(i + 1);
+            if (group.getType() == GroupDescriptor.WEIGHTED_TYPE) {
+               buffer.append(':');
+               buffer.append(group.getWeights()[i]);
+            }
             if (i < targets.length - 1) {
                buffer.append(", ");
             }
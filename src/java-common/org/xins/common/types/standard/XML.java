@@ -107,7 +107,7 @@ public class XML extends Type {
 
       Element element;
       try {
-         element = new ElementParser().parse(value);
+         element = ElementParser.getThreadInstance().parse(value);
       } catch (Throwable exception) {
          element = null;
       }
@@ -119,7 +119,7 @@ public class XML extends Type {
    throws TypeValueException {
 
       try {
-         return new ElementParser().parse(string);
+         return ElementParser.getThreadInstance().parse(string);
       } catch (ParseException cause) {
          TypeValueException exception = new TypeValueException(this, string, "Not a valid XML fragment.");
          exception.initCause(cause);
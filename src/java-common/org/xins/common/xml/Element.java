@@ -321,6 +321,23 @@ public class Element implements Cloneable {
       // Construct a QualifiedName object. This will check the preconditions.
       QualifiedName qn = new QualifiedName(namespacePrefix, namespaceURI, localName);
 
+      setAttribute(qn, value);
+   }
+
+   /**
+    * Sets the specified attribute, identified by its qualified name. The
+    * qualified name can be shared by several elements.
+    *
+    * @param qn
+    *    the qualified name of the attribute, cannot be <code>null</code>.
+    *
+    * @param value
+    *    the value for the attribute, can be <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   void setAttribute(QualifiedName qn, String value) {
+
       if (_attributes == null) {
          if (value == null) {
             return;
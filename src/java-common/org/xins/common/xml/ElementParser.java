@@ -13,7 +13,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -31,6 +32,17 @@ import org.xins.common.text.TextUtils;
  * <p>Note: This parser is
  * <a href="http://www.w3.org/TR/REC-xml-names/">XML Namespaces</a>-aware.
  *
+ * <p>The parser reuses its SAX event handler, including the element stack,
+ * the character buffer and the attribute names, from one document to the
+ * next. {@link #getThreadInstance()} returns a parser that is reused by all
+ * the parsing done in the current thread. A parser can still be shared by
+ * several threads; a thread that finds the handler in use creates its own.
+ *
+ * <p>If the system property {@link #BACKEND_PROPERTY} is set to
+ * <code>"stax"</code>, the XML is parsed with {@link StAXElementParser}
+ * instead of SAX. This requires Java 6 or a StAX implementation in the
+ * class path.
+ *
  * @version $Revision$ $Date$
  *
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
@@ -57,6 +69,47 @@ public class ElementParser {
     */
    private static final State FINISHED = new State("FINISHED");
 
+   /**
+    * The name of the system property that selects the XML parser used:
+    * <code>"sax"</code> (the default) or <code>"stax"</code>.
+    *
+    * @since XINS 2.4
+    */
+   public static final String BACKEND_PROPERTY = "org.xins.common.xml.parser";
+
+   /**
+    * Indicates whether the XML is parsed with {@link StAXElementParser}.
+    */
+   private static final boolean USE_STAX = "stax".equals(System.getProperty(BACKEND_PROPERTY));
+
+   /**
+    * The maximum capacity of the character buffer kept between documents.
+    * A larger buffer, needed for a large text, is dropped after the parsing.
+    */
+   private static final int MAX_KEPT_CHARACTERS = 16384;
+
+   /**
+    * The maximum depth of the element stack kept between documents.
+    */
+   private static final int MAX_KEPT_DEPTH = 64;
+
+   /**
+    * The maximum number of attribute names kept between documents.
+    */
+   private static final int MAX_KEPT_NAMES = 256;
+
+   /**
+    * The parsers of the threads, one per thread. This field is never
+    * <code>null</code>.
+    */
+   private static final ThreadLocal THREAD_INSTANCES = new ThreadLocal();
+
+   /**
+    * The SAX event handler that can be reused, or <code>null</code> if it is
+    * in use.
+    */
+   private Handler _handler;
+
    /**
     * Constructs a new <code>ElementParser</code>.
     */
@@ -65,6 +118,38 @@ public class ElementParser {
       // empty
    }
 
+   /**
+    * Returns the parser of the current thread. The parser is created the
+    * first time this method is called by a thread.
+    *
+    * @return
+    *    the parser of the current thread, never <code>null</code>.
+    *
+    * @since XINS 2.4
+    */
+   public static ElementParser getThreadInstance() {
+      ElementParser parser = (ElementParser) THREAD_INSTANCES.get();
+      if (parser == null) {
+         parser = new ElementParser();
+         THREAD_INSTANCES.set(parser);
+      }
+      return parser;
+   }
+
+   /**
+    * Indicates whether the XML is parsed with StAX instead of SAX, as set
+    * with the system property {@link #BACKEND_PROPERTY}.
+    *
+    * @return
+    *    <code>true</code> if {@link StAXElementParser} is used,
+    *    <code>false</code> if SAX is used.
+    *
+    * @since XINS 2.4
+    */
+   public static boolean isStAXEnabled() {
+      return USE_STAX;
+   }
+
    /**
     * Parses the specified String to create an XML <code>Element</code> object.
     *
@@ -235,12 +320,29 @@ public class ElementParser {
 
       // TODO: Consider using an XMLReader instead of a SAXParser
 
-      // Initialize our SAX event handler
-      Handler handler = new Handler();
+      if (USE_STAX) {
+         if (source.getCharacterStream() != null) {
+            return StAXElementParser.parse(source.getCharacterStream());
+         } else {
+            return StAXElementParser.parse(source.getByteStream());
+         }
+      }
+
+      // Take the SAX event handler, unless it is already in use
+      Handler handler;
+      synchronized (this) {
+         handler = _handler;
+         _handler = null;
+      }
+      if (handler == null) {
+         handler = new Handler();
+      }
 
+      Element element;
       try {
          // Let SAX parse the XML, using our handler
          SAXParserProvider.get().parse(source, handler);
+         element = handler.getElement();
 
       } catch (SAXException exception) {
 
@@ -257,9 +359,14 @@ public class ElementParser {
 
          // Throw exception with message, and register cause exception
          throw new ParseException(message, exception, exMessage);
-      }
 
-      Element element = handler.getElement();
+      // Give the handler back for the next document
+      } finally {
+         handler.reset();
+         synchronized (this) {
+            _handler = handler;
+         }
+      }
 
       return element;
    }
@@ -293,7 +400,19 @@ public class ElementParser {
        * The stack of child elements within the data section. The top element
        * is always <code>&lt;data/&gt;</code>.
        */
-      private Stack _dataElementStack;
+      private ArrayList _dataElementStack;
+
+      /**
+       * The highest size of the element stack for the current document.
+       */
+      private int _maxDepth;
+
+      /**
+       * The qualified names of the attributes found so far, by local name.
+       * The values are {@link Element.QualifiedName} instances, shared by
+       * the elements that have an attribute with the same name.
+       */
+      private HashMap _attributeNames;
 
       /**
        * The level for the element pointer within the XML document. Initially
@@ -311,7 +430,33 @@ public class ElementParser {
          _state            = PARSING;
          _level            = -1;
          _characters       = new StringBuffer(145);
-         _dataElementStack = new Stack();
+         _dataElementStack = new ArrayList();
+         _attributeNames   = new HashMap();
+      }
+
+      /**
+       * Prepares this handler for the next document. The references to the
+       * parsed elements are cleared and the buffers that have grown too
+       * large are replaced.
+       */
+      void reset() {
+         _state   = PARSING;
+         _level   = -1;
+         _element = null;
+         if (_characters.capacity() > MAX_KEPT_CHARACTERS) {
+            _characters = new StringBuffer(145);
+         } else {
+            _characters.setLength(0);
+         }
+         if (_maxDepth > MAX_KEPT_DEPTH) {
+            _dataElementStack = new ArrayList();
+         } else {
+            _dataElementStack.clear();
+         }
+         _maxDepth = 0;
+         if (_attributeNames.size() > MAX_KEPT_NAMES) {
+            _attributeNames.clear();
+         }
       }
 
       /**
@@ -387,14 +532,15 @@ public class ElementParser {
                   attrPrefix = attrQName.substring(0, attrQName.indexOf(':'));
                }
 
-               element.setAttribute(attrPrefix, attrNamespaceURI, attrLocalName, attrValue);
+               element.setAttribute(getAttributeName(attrPrefix, attrNamespaceURI, attrLocalName), attrValue);
             }
 
             // Push the element on the stack
-            _dataElementStack.push(element);
+            _dataElementStack.add(element);
+            _maxDepth = Math.max(_maxDepth, _dataElementStack.size());
 
-            // Reserve buffer for PCDATA
-            _characters = new StringBuffer(145);
+            // Clear the buffer for PCDATA
+            _characters.setLength(0);
 
             // Reset the state from ERROR back to PARSING
             _state = PARSING;
@@ -438,7 +584,7 @@ public class ElementParser {
          } else {
 
             // Get the Element for which we process the end tag
-            Element child = (Element) _dataElementStack.pop();
+            Element child = (Element) _dataElementStack.remove(_dataElementStack.size() - 1);
 
             // Set the PCDATA content on the element
             if (_characters.length() > 0) {
@@ -447,7 +593,7 @@ public class ElementParser {
 
             // Add the child to the parent
             if (_dataElementStack.size() > 0) {
-               Element parent = (Element) _dataElementStack.peek();
+               Element parent = (Element) _dataElementStack.get(_dataElementStack.size() - 1);
                parent.addChild(child);
 
                // Reset the state back from ERROR to PARSING
@@ -460,7 +606,54 @@ public class ElementParser {
          }
 
          _level--;
-         _characters = new StringBuffer(145);
+         _characters.setLength(0);
+      }
+
+      /**
+       * Returns the qualified name of an attribute. The qualified name of
+       * the previous attribute with the same local name is returned if it
+       * has the same namespace prefix and URI.
+       *
+       * @param prefix
+       *    the namespace prefix, can be <code>null</code>.
+       *
+       * @param namespaceURI
+       *    the namespace URI, can be <code>null</code>.
+       *
+       * @param localName
+       *    the local name, cannot be <code>null</code>.
+       *
+       * @return
+       *    the qualified name, never <code>null</code>.
+       */
+      private Element.QualifiedName getAttributeName(String prefix, String namespaceURI, String localName) {
+         if ("".equals(namespaceURI)) {
+            namespaceURI = null;
+         }
+         Element.QualifiedName name = (Element.QualifiedName) _attributeNames.get(localName);
+         if (name == null
+               || ! equals(prefix,       name.getNamespacePrefix())
+               || ! equals(namespaceURI, name.getNamespaceURI())) {
+            name = new Element.QualifiedName(prefix, namespaceURI, localName);
+            _attributeNames.put(localName, name);
+         }
+         return name;
+      }
+
+      /**
+       * Compares two strings that can be <code>null</code>.
+       *
+       * @param s1
+       *    the first string, can be <code>null</code>.
+       *
+       * @param s2
+       *    the second string, can be <code>null</code>.
+       *
+       * @return
+       *    <code>true</code> if both strings are <code>null</code> or equal.
+       */
+      private static boolean equals(String s1, String s2) {
+         return (s1 == null) ? s2 == null : s1.equals(s2);
       }
 
       /**
@@ -0,0 +1,370 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.text.ParseException;
+import org.xins.common.text.TextUtils;
+
+/**
+ * XML element parser based on the StAX pull parser. The elements are built
+ * directly from an {@link XMLStreamReader}, with the same result as
+ * {@link ElementParser}. This class requires Java 6 or a StAX
+ * implementation in the class path.
+ *
+ * <p>{@link ElementParser} uses this parser if the system property
+ * {@link ElementParser#BACKEND_PROPERTY} is set to <code>"stax"</code>.
+ * {@link #readElement(XMLStreamReader)} can also be used to read a single
+ * element from a document that is read with StAX.
+ *
+ * <p>Unlike {@link ElementParser}, this parser does not read DTDs. As with
+ * {@link ElementParser}, external entities are never resolved.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>This class can safely be used from multiple threads at the same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class StAXElementParser {
+
+   /**
+    * The factory for the stream readers. This field is never
+    * <code>null</code>.
+    */
+   private static final XMLInputFactory FACTORY;
+
+   /**
+    * Initializes this class.
+    */
+   static {
+      FACTORY = XMLInputFactory.newInstance();
+      FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,               Boolean.TRUE);
+      FACTORY.setProperty(XMLInputFactory.IS_COALESCING,                    Boolean.TRUE);
+      FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,  Boolean.FALSE);
+      FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD,                      Boolean.FALSE);
+   }
+
+   /**
+    * Constructs a new <code>StAXElementParser</code>.
+    */
+   private StAXElementParser() {
+      // empty
+   }
+
+   /**
+    * Parses the specified String to create an XML <code>Element</code>
+    * object.
+    *
+    * @param text
+    *    the XML text to be parsed, cannot be <code>null</code>.
+    *
+    * @return
+    *    the parsed result, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>text == null</code>.
+    *
+    * @throws ParseException
+    *    if the text is not considered to be valid XML.
+    */
+   public static Element parse(String text)
+   throws IllegalArgumentException, ParseException {
+      MandatoryArgumentChecker.check("text", text);
+      return parse(new StringReader(text));
+   }
+
+   /**
+    * Parses the content of a byte stream to create an XML
+    * <code>Element</code> object. The encoding is detected from the XML
+    * declaration.
+    *
+    * @param in
+    *    the byte stream that is supposed to contain XML to be parsed,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    the parsed result, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>in == null</code>.
+    *
+    * @throws ParseException
+    *    if the stream cannot be read or if its content is not considered to
+    *    be valid XML.
+    */
+   public static Element parse(InputStream in)
+   throws IllegalArgumentException, ParseException {
+      MandatoryArgumentChecker.check("in", in);
+      return parse(createReader(in));
+   }
+
+   /**
+    * Parses the content of a character stream to create an XML
+    * <code>Element</code> object.
+    *
+    * @param in
+    *    the character stream that is supposed to contain XML to be parsed,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    the parsed result, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>in == null</code>.
+    *
+    * @throws ParseException
+    *    if the stream cannot be read or if its content is not considered to
+    *    be valid XML.
+    */
+   public static Element parse(Reader in)
+   throws IllegalArgumentException, ParseException {
+      MandatoryArgumentChecker.check("in", in);
+      XMLStreamReader reader;
+      try {
+         reader = FACTORY.createXMLStreamReader(in);
+      } catch (XMLStreamException exception) {
+         throw parseException(exception);
+      }
+      return parse(reader);
+   }
+
+   /**
+    * Creates a stream reader for the specified byte stream, with the
+    * settings used by this parser.
+    *
+    * @param in
+    *    the byte stream that is supposed to contain XML to be parsed,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    the stream reader, before the start of the document, never
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>in == null</code>.
+    *
+    * @throws ParseException
+    *    if the stream reader cannot be created, for example if the encoding
+    *    is not supported.
+    */
+   public static XMLStreamReader createReader(InputStream in)
+   throws IllegalArgumentException, ParseException {
+      MandatoryArgumentChecker.check("in", in);
+      try {
+         return FACTORY.createXMLStreamReader(in);
+      } catch (XMLStreamException exception) {
+         throw parseException(exception);
+      }
+   }
+
+   /**
+    * Reads a whole document.
+    *
+    * @param reader
+    *    the stream reader, before the start of the document, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the root element, never <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the content is not considered to be valid XML.
+    */
+   private static Element parse(XMLStreamReader reader) throws ParseException {
+      try {
+         try {
+            nextElement(reader);
+            Element element = readElement(reader);
+
+            // Check the rest of the document
+            while (reader.hasNext()) {
+               reader.next();
+            }
+            return element;
+         } finally {
+            reader.close();
+         }
+      } catch (XMLStreamException exception) {
+         throw parseException(exception);
+      }
+   }
+
+   /**
+    * Moves a stream reader to the next start tag.
+    *
+    * @param reader
+    *    the stream reader, cannot be <code>null</code>.
+    *
+    * @throws XMLStreamException
+    *    if the content is not considered to be valid XML or if there is no
+    *    next start tag.
+    */
+   public static void nextElement(XMLStreamReader reader) throws XMLStreamException {
+      while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+         if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+            throw new XMLStreamException("No element found.");
+         }
+      }
+   }
+
+   /**
+    * Reads an element and its content. As with {@link ElementParser}, the
+    * text of an element is the character content after its last child
+    * element.
+    *
+    * @param reader
+    *    the stream reader, on the start tag of the element, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the element, never <code>null</code>. The reader is left on the end
+    *    tag of the element.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>reader == null</code>.
+    *
+    * @throws XMLStreamException
+    *    if the reader is not on a start tag or if the content is not
+    *    considered to be valid XML.
+    */
+   public static Element readElement(XMLStreamReader reader)
+   throws IllegalArgumentException, XMLStreamException {
+
+      MandatoryArgumentChecker.check("reader", reader);
+      reader.require(XMLStreamConstants.START_ELEMENT, null, null);
+
+      ArrayList stack = new ArrayList();
+      StringBuffer characters = new StringBuffer(145);
+      HashMap attributeNames = new HashMap();
+      Element element = startElement(reader, attributeNames);
+      while (true) {
+         switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+               stack.add(element);
+               element = startElement(reader, attributeNames);
+               characters.setLength(0);
+               break;
+
+            case XMLStreamConstants.END_ELEMENT:
+               if (characters.length() > 0) {
+                  element.setText(characters.toString());
+                  characters.setLength(0);
+               }
+               if (stack.isEmpty()) {
+                  return element;
+               }
+               Element parent = (Element) stack.remove(stack.size() - 1);
+               parent.addChild(element);
+               element = parent;
+               break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+               characters.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+               break;
+
+            case XMLStreamConstants.END_DOCUMENT:
+               throw new XMLStreamException("Unexpected end of the document.");
+
+            default:
+               // Comments and processing instructions are ignored
+         }
+      }
+   }
+
+   /**
+    * Creates an element for the start tag the stream reader is on.
+    *
+    * @param reader
+    *    the stream reader, on a start tag, cannot be <code>null</code>.
+    *
+    * @param attributeNames
+    *    the qualified names of the attributes found so far, by local name,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    the element with its attributes, never <code>null</code>.
+    */
+   private static Element startElement(XMLStreamReader reader, HashMap attributeNames) {
+      Element element = new Element(reader.getPrefix(), reader.getNamespaceURI(), reader.getLocalName());
+      int count = reader.getAttributeCount();
+      for (int i = 0; i < count; i++) {
+         String prefix       = reader.getAttributePrefix(i);
+         String namespaceURI = reader.getAttributeNamespace(i);
+         String localName    = reader.getAttributeLocalName(i);
+         if ("".equals(prefix)) {
+            prefix = null;
+         }
+         if ("".equals(namespaceURI)) {
+            namespaceURI = null;
+         }
+
+         // Share the qualified name with the previous attributes of the same name
+         Element.QualifiedName name = (Element.QualifiedName) attributeNames.get(localName);
+         if (name == null
+               || ! equals(prefix,       name.getNamespacePrefix())
+               || ! equals(namespaceURI, name.getNamespaceURI())) {
+            name = new Element.QualifiedName(prefix, namespaceURI, localName);
+            attributeNames.put(localName, name);
+         }
+         element.setAttribute(name, reader.getAttributeValue(i));
+      }
+      return element;
+   }
+
+   /**
+    * Compares two strings that can be <code>null</code>.
+    *
+    * @param s1
+    *    the first string, can be <code>null</code>.
+    *
+    * @param s2
+    *    the second string, can be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if both strings are <code>null</code> or equal.
+    */
+   private static boolean equals(String s1, String s2) {
+      return (s1 == null) ? s2 == null : s1.equals(s2);
+   }
+
+   /**
+    * Converts a StAX exception to a <code>ParseException</code>, with the
+    * same message as the ones thrown by {@link ElementParser}.
+    *
+    * @param exception
+    *    the StAX exception, cannot be <code>null</code>.
+    *
+    * @return
+    *    the <code>ParseException</code>, never <code>null</code>.
+    */
+   static ParseException parseException(XMLStreamException exception) {
+      String exMessage = exception.getMessage();
+      String message = "Failed to parse XML";
+      if (TextUtils.isEmpty(exMessage)) {
+         message += '.';
+      } else {
+         message += ": " + exMessage;
+      }
+      return new ParseException(message, exception, exMessage);
+   }
+}
@@ -21,10 +21,12 @@ import java.util.TimeZone;
 import org.xins.common.FormattedParameters;
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
+import org.xins.common.WorkerPool;
 import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.collections.InvalidPropertyValueException;
 import org.xins.common.collections.MissingRequiredPropertyException;
 import org.xins.common.collections.PropertyReader;
+import org.xins.common.collections.expiry.ExpiryTimer;
 import org.xins.common.manageable.BootstrapException;
 import org.xins.common.manageable.DeinitializationException;
 import org.xins.common.manageable.InitializationException;
@@ -91,6 +93,11 @@ public abstract class API extends Manageable {
     */
    private Engine _engine;
 
+   /**
+    * The transaction log of this API. Never <code>null</code>.
+    */
+   private final TransactionLog _transactionLog = new TransactionLog();
+
    /**
     * The name of this API. Cannot be <code>null</code> and cannot be an empty
     * string.
@@ -174,14 +181,10 @@ public abstract class API extends Manageable {
    private String _apiVersion;
 
    /**
-    * The API specific access rule list.
-    */
-   private AccessRuleList _apiAccessRuleList;
-
-   /**
-    * The general access rule list.
+    * The access rule lists. Replaced as a whole when the API is
+    * re-initialized. Initially <code>null</code>.
     */
-   private AccessRuleList _accessRuleList;
+   private volatile AccessRules _accessRules;
 
    /**
     * The API specification.
@@ -549,6 +552,17 @@ public abstract class API extends Manageable {
       _engine = engine;
    }
 
+   /**
+    * Returns the transaction log of this API. Each API has its own
+    * transaction log, configured with its own runtime properties.
+    *
+    * @return
+    *    the transaction log, never <code>null</code>.
+    */
+   TransactionLog getTransactionLog() {
+      return _transactionLog;
+   }
+
    /**
     * Triggers re-initialization of this API. This method is meant to be
     * called by API function implementations when it is anticipated that the
@@ -606,19 +620,24 @@ public abstract class API extends Manageable {
          }
       }
 
-      // Initialize ACL subsystem
-
-      // First with the API specific access rule list
-      if (_apiAccessRuleList != null) {
-         _apiAccessRuleList.dispose();
+      // Initialize ACL subsystem, first with the API specific access rule
+      // list, then with the generic access rule list
+      AccessRuleList apiAccessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY + '.' + _name, interval);
+      AccessRuleList accessRuleList;
+      try {
+         accessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY, interval);
+      } catch (InvalidPropertyValueException exception) {
+         apiAccessRuleList.dispose();
+         throw exception;
       }
-      _apiAccessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY + '.' + _name, interval);
 
-      // Then read the generic access rule list
-      if (_accessRuleList != null) {
-         _accessRuleList.dispose();
+      // Replace both lists at once, then release the previous ones
+      AccessRules previousRules = _accessRules;
+      _accessRules = new AccessRules(apiAccessRuleList, accessRuleList);
+      if (previousRules != null) {
+         previousRules._apiAccessRuleList.dispose();
+         previousRules._accessRuleList.dispose();
       }
-      _accessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY, interval);
 
       // Initialize the RuntimeProperties object.
       getProperties().init(runtimeSettings);
@@ -936,9 +955,12 @@ public abstract class API extends Manageable {
    public boolean allow(String ip, String functionName, String conventionName)
    throws IllegalArgumentException {
 
+      // Use the same lists for the whole check, even if they are replaced
+      AccessRules rules = _accessRules;
+
       // If no property is defined only localhost is allowed
-      if (_apiAccessRuleList == AccessRuleList.EMPTY &&
-          _accessRuleList == AccessRuleList.EMPTY &&
+      if (rules._apiAccessRuleList == AccessRuleList.EMPTY &&
+          rules._accessRuleList == AccessRuleList.EMPTY &&
           (ip.equals("127.0.0.1") || ip.equals("::1") ||
            ip.startsWith("0:0:0:0:0:0:0:1%") || ip.equals(_localIPAddress))) {
          return true;
@@ -949,9 +971,9 @@ public abstract class API extends Manageable {
       try {
 
          // First check with the API specific one, then use the generic one.
-         allowed = _apiAccessRuleList.isAllowed(ip, functionName, conventionName);
+         allowed = rules._apiAccessRuleList.isAllowed(ip, functionName, conventionName);
          if (allowed == null) {
-            allowed = _accessRuleList.isAllowed(ip, functionName, conventionName);
+            allowed = rules._accessRuleList.isAllowed(ip, functionName, conventionName);
          }
 
       // If the IP address cannot be parsed there is a programming error
@@ -1050,7 +1072,7 @@ public abstract class API extends Manageable {
 
          // Log this transaction
          long duration = System.currentTimeMillis() - start;
-         Engine.logTransaction(functionRequest, result, ip, start, duration);
+         _transactionLog.log(functionRequest, result, ip, start, duration);
 
       // Handle normal functions
       } else {
@@ -1324,6 +1346,55 @@ public abstract class API extends Manageable {
       }
       builder.add(heap.createElement());
 
+      // Statistics of the worker threads used for the outgoing calls
+      WorkerPool pool = WorkerPool.getSharedInstance();
+      ElementBuilder workerPool = new ElementBuilder("workerPool");
+      workerPool.setAttribute("threads",      String.valueOf(pool.getThreadCount()));
+      workerPool.setAttribute("active",       String.valueOf(pool.getActiveCount()));
+      workerPool.setAttribute("largest",      String.valueOf(pool.getLargestThreadCount()));
+      workerPool.setAttribute("maxThreads",   String.valueOf(pool.getMaxThreads()));
+      workerPool.setAttribute("queued",       String.valueOf(pool.getQueueSize()));
+      workerPool.setAttribute("maxQueueSize", String.valueOf(pool.getMaxQueueSize()));
+      workerPool.setAttribute("completed",    String.valueOf(pool.getCompletedCount()));
+      workerPool.setAttribute("rejected",     String.valueOf(pool.getRejectedCount()));
+      builder.add(workerPool.createElement());
+
+      // Statistics of the timer that expires the cached entries
+      ExpiryTimer timer = ExpiryTimer.getSharedInstance();
+      ElementBuilder expiryTimer = new ElementBuilder("expiryTimer");
+      expiryTimer.setAttribute("resolution",        String.valueOf(timer.getResolution()));
+      expiryTimer.setAttribute("strategies",        String.valueOf(timer.getStrategyCount()));
+      expiryTimer.setAttribute("ticks",             String.valueOf(timer.getTickCount()));
+      expiryTimer.setAttribute("expired",           String.valueOf(timer.getExpiredCount()));
+      expiryTimer.setAttribute("maxExpiredPerTick", String.valueOf(timer.getMaxExpiredCount()));
+      builder.add(expiryTimer.createElement());
+
+      // Statistics of the queue of the transaction log
+      TransactionLog log = _transactionLog;
+      ElementBuilder transactionLog = new ElementBuilder("transactionLog");
+      transactionLog.setAttribute("queueSize", String.valueOf(log.getQueueSize()));
+      transactionLog.setAttribute("overflow",  log.isDropping() ? "drop" : "block");
+      transactionLog.setAttribute("queued",    String.valueOf(log.getQueuedCount()));
+      transactionLog.setAttribute("maxQueued", String.valueOf(log.getMaxQueuedCount()));
+      transactionLog.setAttribute("logged",    String.valueOf(log.getLoggedCount()));
+      transactionLog.setAttribute("batches",   String.valueOf(log.getBatchCount()));
+      transactionLog.setAttribute("dropped",   String.valueOf(log.getDroppedCount()));
+      transactionLog.setAttribute("blocked",   String.valueOf(log.getBlockedCount()));
+      builder.add(transactionLog.createElement());
+
+      // Statistics of the calling conventions, such as the XSLT templates
+      if (_engine != null) {
+         Iterator conventions = _engine.getCallingConventions().iterator();
+         while (conventions.hasNext()) {
+            CallingConvention cc = (CallingConvention) conventions.next();
+            Element ccStatistics = cc.getStatisticsElement();
+            if (ccStatistics != null) {
+               ccStatistics.setAttribute("convention", cc.getConventionName());
+               builder.add(ccStatistics);
+            }
+         }
+      }
+
       // Function-specific statistics
       int count = _functionList.size();
       for (int i = 0; i < count; i++) {
@@ -1574,4 +1645,39 @@ public abstract class API extends Manageable {
          return _value++;
       }
    }
+
+   /**
+    * The access rule lists of the API. Instances are immutable, so the lists
+    * used to check a request cannot change during the check.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class AccessRules {
+
+      /**
+       * The API specific access rule list. Never <code>null</code>.
+       */
+      private final AccessRuleList _apiAccessRuleList;
+
+      /**
+       * The general access rule list. Never <code>null</code>.
+       */
+      private final AccessRuleList _accessRuleList;
+
+      /**
+       * Constructs a new <code>AccessRules</code> object.
+       *
+       * @param apiAccessRuleList
+       *    the API specific access rule list, cannot be <code>null</code>.
+       *
+       * @param accessRuleList
+       *    the general access rule list, cannot be <code>null</code>.
+       */
+      private AccessRules(AccessRuleList apiAccessRuleList, AccessRuleList accessRuleList) {
+         _apiAccessRuleList = apiAccessRuleList;
+         _accessRuleList    = accessRuleList;
+      }
+   }
 }
@@ -347,20 +347,42 @@ public final class AccessRule implements AccessRuleContainer {
       // Check arguments
       MandatoryArgumentChecker.check("ip", ip, "functionName", functionName);
 
-      // First check if the IP filter matches
-      Perl5Matcher patternMatcher = new Perl5Matcher();
+      // First check if the IP filter matches, then the names
       if (_ipFilter.match(ip)) {
-
-         // Then check if the function name matches
-         if (patternMatcher.matches(functionName, _functionNameRegex) &&
-               (conventionName == null || patternMatcher.matches(conventionName, _conventionNameRegex))) {
-            return _allow ? Boolean.TRUE : Boolean.FALSE;
-         }
+         return matchNames(functionName, conventionName);
       }
 
       return null;
    }
 
+   /**
+    * Determines if the specified function and calling convention match this
+    * rule, without checking the IP address. This method is used by
+    * {@link AccessRuleIndex}, which has already matched the IP address
+    * against the filter of this rule.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param conventionName
+    *    the name of the calling convention to match, can be <code>null</code>.
+    *
+    * @return
+    *    {@link Boolean#TRUE} if this is an <em>allow</em> rule that matches,
+    *    {@link Boolean#FALSE} if this is a <em>deny</em> rule that matches,
+    *    or <code>null</code> if the names do not match.
+    *
+    * @since XINS 2.4
+    */
+   Boolean matchNames(String functionName, String conventionName) {
+      Perl5Matcher patternMatcher = new Perl5Matcher();
+      if (patternMatcher.matches(functionName, _functionNameRegex) &&
+            (conventionName == null || patternMatcher.matches(conventionName, _conventionNameRegex))) {
+         return _allow ? Boolean.TRUE : Boolean.FALSE;
+      }
+      return null;
+   }
+
    /**
     * Disposes this access rule. All claimed resources are freed as much as
     * possible.
@@ -64,9 +64,23 @@ public class AccessRuleFile implements AccessRuleContainer {
    private FileWatcher _fileWatcher;
 
    /**
-    * The list of rules. Cannot be <code>null</code>.
+    * The access rule file that includes this file, or <code>null</code> if
+    * this file is not included by another file.
     */
-   private AccessRuleContainer[] _rules;
+   private final AccessRuleFile _parent;
+
+   /**
+    * The number of times this file, or a file it includes, has been
+    * reloaded. Used to invalidate the decisions cached by
+    * {@link AccessRuleList}.
+    */
+   private volatile int _reloadCount;
+
+   /**
+    * The compiled list of rules. It is replaced when the file is reloaded.
+    * Cannot be <code>null</code> after construction.
+    */
+   private volatile AccessRuleIndex _rules;
 
    /**
     * String representation of this object. Cannot be <code>null</code>.
@@ -100,6 +114,32 @@ public class AccessRuleFile implements AccessRuleContainer {
     *    if <code>descriptor == null || interval &lt; 0</code>.
     */
    public AccessRuleFile(String descriptor, int interval)
+   throws IllegalArgumentException, ParseException {
+      this(descriptor, interval, null);
+   }
+
+   /**
+    * Constructs a new <code>AccessRuleFile</code> based on a descriptor, a
+    * file watch interval and the file that includes it.
+    *
+    * @param descriptor
+    *    the access rule file descriptor, the character string to parse,
+    *    cannot be <code>null</code>.
+    *
+    * @param interval
+    *    the interval to check the ACL file for modifications, in seconds,
+    *    must be &gt;= 0.
+    *
+    * @param parent
+    *    the access rule file that includes this file, or <code>null</code>.
+    *
+    * @throws ParseException
+    *    If the token is incorrectly formatted.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>descriptor == null || interval &lt; 0</code>.
+    */
+   private AccessRuleFile(String descriptor, int interval, AccessRuleFile parent)
    throws IllegalArgumentException, ParseException {
 
       // Check preconditions
@@ -110,6 +150,8 @@ public class AccessRuleFile implements AccessRuleContainer {
                                           + ") < 0");
       }
 
+      _parent = parent;
+
       // First token must be 'file'
       StringTokenizer tokenizer = new StringTokenizer(descriptor, " \t\n\r");
       String token = nextToken(descriptor, tokenizer);
@@ -236,13 +278,47 @@ public class AccessRuleFile implements AccessRuleContainer {
                                      "functionName", functionName);
 
       // Find a matching rule and see if the call is allowed
-      int count = _rules == null ? 0 : _rules.length;
-      Boolean allowed = null;
-      for (int i = 0; i < count && allowed == null; i++) {
-         allowed = _rules[i].isAllowed(ip, functionName, conventionName);
+      AccessRuleIndex rules = _rules;
+      AccessRuleIndex.Match match = rules == null
+                                  ? null
+                                  : rules.match(ip, functionName, conventionName);
+
+      return match == null ? null : match._allowed;
+   }
+
+   /**
+    * Returns the number of times this file, or a file it includes, has been
+    * reloaded. When this number changes, the decisions based on the rules of
+    * this file should no longer be used.
+    *
+    * @return
+    *    the number of reloads.
+    *
+    * @since XINS 2.4
+    */
+   int getReloadCount() {
+      return _reloadCount;
+   }
+
+   /**
+    * Reloads the ACL file now, instead of waiting for the file watcher to
+    * detect a modification.
+    *
+    * @throws IllegalStateException
+    *    if this object is disposed.
+    *
+    * @since XINS 2.4
+    */
+   void reload() throws IllegalStateException {
+
+      // Check state
+      if (_disposed) {
+         String detail = "This AccessRuleFile is disposed.";
+         Utils.logProgrammingError(detail);
+         throw new IllegalStateException(detail);
       }
 
-      return allowed;
+      reinit();
    }
 
    /**
@@ -266,18 +342,10 @@ public class AccessRuleFile implements AccessRuleContainer {
       }
 
       // Dispose all children
-      int count = _rules == null ? 0 : _rules.length;
-      for (int i = 0; i < count; i++) {
-         AccessRuleContainer rule = _rules[i];
-         if (rule != null) {
-            try {
-               rule.dispose();
-            } catch (Throwable exception) {
-               Utils.logIgnoredException(exception);
-            }
-         }
+      if (_rules != null) {
+         _rules.dispose();
+         _rules = null;
       }
-      _rules = null;
 
       // Stop the file watcher
       if (_fileWatcher != null) {
@@ -406,7 +474,7 @@ public class AccessRuleFile implements AccessRuleContainer {
                              + "\" includes itself.";
                throw new ParseException(detail);
             }
-            rules.add(new AccessRuleFile(nextLine, interval));
+            rules.add(new AccessRuleFile(nextLine, interval, this));
 
          // Otherwise: Incorrect line
          } else {
@@ -423,32 +491,48 @@ public class AccessRuleFile implements AccessRuleContainer {
          }
       }
 
-      // Copy to the instance field
-      _rules = (AccessRuleContainer[]) rules.toArray(new AccessRuleContainer[rules.size()]);
+      // Compile the rules and replace the current ones
+      _rules = new AccessRuleIndex((AccessRuleContainer[]) rules.toArray(new AccessRuleContainer[rules.size()]));
    }
 
    /**
-    * Re-initializes the ACL rules for this file.
+    * Re-initializes the ACL rules for this file. The current rules are
+    * used until the new ones are parsed, and are disposed afterwards.
     */
    private void reinit() {
 
-      // Dispose the current rules
-      int count = _rules == null ? 0 : _rules.length;
-      for (int i = 0; i < count; i++) {
-         _rules[i].dispose();
-      }
-      _rules = null;
-
       // Parse the file and apply the rules
+      AccessRuleIndex oldRules = _rules;
       try {
          parseAndApply(_file, _interval);
 
       // If the parsing fails, then log the exception
       } catch (Throwable exception) {
          Utils.logIgnoredException(exception);
-         _rules = new AccessRuleContainer[0];
+         _rules = new AccessRuleIndex(new AccessRuleContainer[0]);
          // TODO: The framework re-initialization should fail
       }
+
+      // Invalidate the cached decisions
+      reloaded();
+
+      // Dispose the previous rules
+      if (oldRules != null) {
+         oldRules.dispose();
+      }
+   }
+
+   /**
+    * Increments the reload count of this file and of the files that include
+    * it.
+    */
+   private void reloaded() {
+      synchronized (this) {
+         _reloadCount++;
+      }
+      if (_parent != null) {
+         _parent.reloaded();
+      }
    }
 
    public String toString() {
@@ -0,0 +1,349 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.Arrays;
+
+import org.xins.common.Utils;
+import org.xins.common.text.ParseException;
+
+/**
+ * Compiled list of access rules. The IP address filters of the rules are
+ * stored in a prefix trie, one for IPv4 and one for IPv6 addresses, so that
+ * only the rules whose filter matches the IP address are evaluated, instead
+ * of all the rules.
+ *
+ * <p>The first matching rule in the list wins, as in
+ * {@link AccessRuleList}. Rules that are not {@link AccessRule} instances,
+ * such as {@link AccessRuleFile} instances, are evaluated for all IP
+ * addresses.
+ *
+ * <p>Instances of this class are immutable and can safely be used from
+ * multiple threads at the same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class AccessRuleIndex {
+
+   /**
+    * The rules, in the order of evaluation. Never <code>null</code>.
+    */
+   private final AccessRuleContainer[] _rules;
+
+   /**
+    * For each rule, indicates whether the rule should be asked with
+    * {@link AccessRuleContainer#isAllowed(String,String,String)} instead of
+    * only matching the names. Never <code>null</code>.
+    */
+   private final boolean[] _fullCheck;
+
+   /**
+    * The root of the prefix trie for the IPv4 addresses. Never
+    * <code>null</code>.
+    */
+   private final Node _ipv4Root;
+
+   /**
+    * The root of the prefix trie for the IPv6 addresses. Never
+    * <code>null</code>.
+    */
+   private final Node _ipv6Root;
+
+   /**
+    * Indicates whether the IP address should be parsed, which is the case if
+    * at least one rule is an {@link AccessRule}.
+    */
+   private final boolean _hasIPFilters;
+
+   /**
+    * Constructs a new <code>AccessRuleIndex</code>.
+    *
+    * @param rules
+    *    the rules, in the order of evaluation, cannot be <code>null</code>.
+    *    The array should not be modified afterwards.
+    */
+   AccessRuleIndex(AccessRuleContainer[] rules) {
+      _rules     = rules;
+      _fullCheck = new boolean[rules.length];
+      _ipv4Root  = new Node();
+      _ipv6Root  = new Node();
+
+      boolean hasIPFilters = false;
+      for (int i = 0; i < rules.length; i++) {
+         if (rules[i] instanceof AccessRule) {
+            hasIPFilters = true;
+            IPFilter filter = ((AccessRule) rules[i]).getIPFilter();
+            Node root = filter.isIPv6Filter() ? _ipv6Root : _ipv4Root;
+            int maxMask = filter.isIPv6Filter() ? 128 : 32;
+            byte[] base;
+            try {
+               base = IPFilter.toAddress(filter.getBaseIP());
+            } catch (ParseException exception) {
+
+               // Cannot happen, the filter has been parsed already
+               base = null;
+            }
+            if (base != null && filter.getMask() <= maxMask) {
+               insert(root, base, filter.getMask(), i);
+            } else {
+
+               // Let the rule check the IP address itself
+               _fullCheck[i] = true;
+               root.add(i);
+            }
+         } else {
+            _fullCheck[i] = true;
+            _ipv4Root.add(i);
+            _ipv6Root.add(i);
+         }
+      }
+      _hasIPFilters = hasIPFilters;
+   }
+
+   /**
+    * Adds a rule to the trie.
+    *
+    * @param root
+    *    the root of the trie, cannot be <code>null</code>.
+    *
+    * @param base
+    *    the base IP address of the filter, cannot be <code>null</code>.
+    *
+    * @param mask
+    *    the number of bits of the base IP address to match.
+    *
+    * @param rule
+    *    the index of the rule.
+    */
+   private static void insert(Node root, byte[] base, int mask, int rule) {
+      Node node = root;
+      for (int bit = 0; bit < mask; bit++) {
+         if (isSet(base, bit)) {
+            if (node._one == null) {
+               node._one = new Node();
+            }
+            node = node._one;
+         } else {
+            if (node._zero == null) {
+               node._zero = new Node();
+            }
+            node = node._zero;
+         }
+      }
+      node.add(rule);
+   }
+
+   /**
+    * Determines whether a bit of an address is set.
+    *
+    * @param address
+    *    the address, most significant byte first, cannot be
+    *    <code>null</code>.
+    *
+    * @param bit
+    *    the index of the bit, <code>0</code> being the most significant bit.
+    *
+    * @return
+    *    <code>true</code> if the bit is set.
+    */
+   private static boolean isSet(byte[] address, int bit) {
+      return (address[bit >> 3] & (0x80 >>> (bit & 7))) != 0;
+   }
+
+   /**
+    * Returns the number of rules.
+    *
+    * @return
+    *    the number of rules, always &gt;= 0.
+    */
+   int getRuleCount() {
+      return _rules.length;
+   }
+
+   /**
+    * Finds the first rule that matches the specified IP address, function and
+    * calling convention.
+    *
+    * @param ip
+    *    the IP address, cannot be <code>null</code>.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param conventionName
+    *    the name of the calling convention to match, can be <code>null</code>.
+    *
+    * @return
+    *    the match, or <code>null</code> if no rule matches.
+    *
+    * @throws ParseException
+    *    if the specified IP address is malformed.
+    */
+   Match match(String ip, String functionName, String conventionName)
+   throws ParseException {
+
+      if (_rules.length == 0) {
+         return null;
+      }
+
+      // Collect the rules whose IP filter matches
+      boolean ipv6 = ip.indexOf(':') != -1;
+      Node node = ipv6 ? _ipv6Root : _ipv4Root;
+      int[] candidates = new int[_rules.length];
+      int count = node.copyTo(candidates, 0);
+      if (_hasIPFilters) {
+         byte[] address = IPFilter.toAddress(ip);
+         int bitCount = ipv6 ? 128 : 32;
+         for (int bit = 0; bit < bitCount; bit++) {
+            node = isSet(address, bit) ? node._one : node._zero;
+            if (node == null) {
+               break;
+            }
+            count = node.copyTo(candidates, count);
+         }
+      }
+
+      // Evaluate the candidates in the order of the list
+      Arrays.sort(candidates, 0, count);
+      for (int i = 0; i < count; i++) {
+         int index = candidates[i];
+         Boolean allowed;
+         if (_fullCheck[index]) {
+            allowed = _rules[index].isAllowed(ip, functionName, conventionName);
+         } else {
+            allowed = ((AccessRule) _rules[index]).matchNames(functionName, conventionName);
+         }
+         if (allowed != null) {
+            return new Match(index, _rules[index], allowed);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Disposes all the rules.
+    */
+   void dispose() {
+      for (int i = 0; i < _rules.length; i++) {
+         try {
+            _rules[i].dispose();
+         } catch (Throwable exception) {
+            Utils.logIgnoredException(exception);
+         }
+      }
+   }
+
+   /**
+    * Node of the prefix trie.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class Node {
+
+      /**
+       * Constructs a new empty <code>Node</code>.
+       */
+      Node() {
+         _rules = new int[0];
+      }
+
+      /**
+       * The child for the next bit set to <code>0</code>, or
+       * <code>null</code>.
+       */
+      Node _zero;
+
+      /**
+       * The child for the next bit set to <code>1</code>, or
+       * <code>null</code>.
+       */
+      Node _one;
+
+      /**
+       * The indexes of the rules whose filter ends at this node. Never
+       * <code>null</code>.
+       */
+      int[] _rules;
+
+      /**
+       * Adds a rule to this node.
+       *
+       * @param rule
+       *    the index of the rule.
+       */
+      void add(int rule) {
+         int[] rules = new int[_rules.length + 1];
+         System.arraycopy(_rules, 0, rules, 0, _rules.length);
+         rules[_rules.length] = rule;
+         _rules = rules;
+      }
+
+      /**
+       * Copies the indexes of the rules of this node to an array.
+       *
+       * @param target
+       *    the array to copy to, cannot be <code>null</code>.
+       *
+       * @param offset
+       *    the index in the array to copy to.
+       *
+       * @return
+       *    the index in the array after the copied rules.
+       */
+      int copyTo(int[] target, int offset) {
+         System.arraycopy(_rules, 0, target, offset, _rules.length);
+         return offset + _rules.length;
+      }
+   }
+
+   /**
+    * Rule that matches a request.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   static final class Match {
+
+      /**
+       * Constructs a new <code>Match</code>.
+       *
+       * @param index
+       *    the index of the rule in the list.
+       *
+       * @param rule
+       *    the rule, cannot be <code>null</code>.
+       *
+       * @param allowed
+       *    the decision of the rule, cannot be <code>null</code>.
+       */
+      Match(int index, AccessRuleContainer rule, Boolean allowed) {
+         _index   = index;
+         _rule    = rule;
+         _allowed = allowed;
+      }
+
+      /**
+       * The index of the rule in the list.
+       */
+      final int _index;
+
+      /**
+       * The rule. Never <code>null</code>.
+       */
+      final AccessRuleContainer _rule;
+
+      /**
+       * The decision of the rule. Never <code>null</code>.
+       */
+      final Boolean _allowed;
+   }
+}
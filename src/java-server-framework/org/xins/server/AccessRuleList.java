@@ -6,6 +6,9 @@
  */
 package org.xins.server;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.xins.common.MandatoryArgumentChecker;
@@ -44,6 +47,14 @@ import org.xins.common.text.ParseException;
  * applies the rules in the <code>/var/conf/file1.acl</code> file and finally
  * all other IP addresses are denied access to any of the functions.
  *
+ * <h3>Performance</h3>
+ *
+ * <p>The rules are compiled in an {@link AccessRuleIndex}, so that only the
+ * rules whose IP filter matches are evaluated. The decisions are cached per
+ * IP address, function and calling convention, in a cache of at most
+ * {@link #CACHE_SIZE} entries. The cache is invalidated when a file
+ * referenced by this list is reloaded.
+ *
  * @version $Revision$ $Date$
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
@@ -56,11 +67,42 @@ public final class AccessRuleList implements AccessRuleContainer {
     */
    static final AccessRuleList EMPTY = new AccessRuleList(new AccessRuleContainer[0]);
 
+   /**
+    * The maximum number of decisions cached per access rule list.
+    */
+   static final int CACHE_SIZE = 4096;
+
+   /**
+    * The number of stripes of the decision cache.
+    */
+   private static final int CACHE_STRIPES = 8;
+
+   /**
+    * Cached value indicating that no rule matches.
+    */
+   private static final Object NO_MATCH = new Object();
+
    /**
     * The list of rules. Cannot be <code>null</code>.
     */
    private AccessRuleContainer[] _rules;
 
+   /**
+    * The compiled rules. Cannot be <code>null</code>.
+    */
+   private final AccessRuleIndex _index;
+
+   /**
+    * The access rule files in the list of rules. Cannot be <code>null</code>.
+    */
+   private final AccessRuleFile[] _files;
+
+   /**
+    * The cached decisions, divided in stripes that are locked separately.
+    * Never <code>null</code>.
+    */
+   private final CacheStripe[] _cache;
+
    /**
     * The string representation of this instance. Cannot be <code>null</code>.
     */
@@ -108,8 +150,20 @@ public final class AccessRuleList implements AccessRuleContainer {
       }
       _asString = buffer.toString();
 
-      // Store the rules
+      // Store and compile the rules
       _rules = rules;
+      _index = new AccessRuleIndex(rules);
+      List files = new ArrayList();
+      for (int i = 0; i < ruleCount; i++) {
+         if (rules[i] instanceof AccessRuleFile) {
+            files.add(rules[i]);
+         }
+      }
+      _files = (AccessRuleFile[]) files.toArray(new AccessRuleFile[files.size()]);
+      _cache = new CacheStripe[CACHE_STRIPES];
+      for (int i = 0; i < CACHE_STRIPES; i++) {
+         _cache[i] = new CacheStripe();
+      }
    }
 
    /**
@@ -241,30 +295,82 @@ public final class AccessRuleList implements AccessRuleContainer {
       // Check preconditions
       MandatoryArgumentChecker.check("ip", ip, "functionName", functionName);
 
-      int ruleCount = _rules.length;
-      for (int i = 0; i < ruleCount; i++) {
-         AccessRuleContainer rule = _rules[i];
+      if (_rules.length == 0) {
+         return null;
+      }
 
-         String ruleString = rule.toString();
+      // Look in the cache first. The reload count is read before the rules
+      // are evaluated, so that a decision based on rules that are replaced
+      // in the mean time is not kept.
+      String key = conventionName == null
+                 ? ip + ' ' + functionName
+                 : ip + ' ' + functionName + ' ' + conventionName;
+      int reloadCount = getReloadCount();
+      CacheStripe stripe = _cache[(key.hashCode() & 0x7fffffff) % CACHE_STRIPES];
+      Object cached = stripe.get(key, reloadCount);
+      AccessRuleIndex.Match match;
+      if (cached == NO_MATCH) {
+         match = null;
+      } else if (cached != null) {
+         match = (AccessRuleIndex.Match) cached;
+      } else {
+         match = _index.match(ip, functionName, conventionName);
+         stripe.put(key, match == null ? NO_MATCH : match, reloadCount);
+      }
 
-         Boolean allowed = rule.isAllowed(ip, functionName, conventionName);
-         if (allowed != null) {
+      if (match == null) {
+         return null;
+      }
 
-            // Choose between 'allow' and 'deny'
-            boolean allow = allowed.booleanValue();
+      // Log this match
+      // XXX: Should this logging really be done in this class?
+      String ruleString = match._rule.toString();
+      if (match._allowed.booleanValue()) {
+         Log.log_3550(ip, functionName, conventionName, match._index, ruleString);
+      } else {
+         Log.log_3551(ip, functionName, conventionName, match._index, ruleString);
+      }
 
-            // Log this match
-            // XXX: Should this logging really be done in this class?
-            if (allow) {
-               Log.log_3550(ip, functionName, conventionName, i, ruleString);
-            } else {
-               Log.log_3551(ip, functionName, conventionName, i, ruleString);
-            }
+      return match._allowed;
+   }
 
-            return allowed;
-         }
+   /**
+    * Returns the number of times the access rule files in this list have
+    * been reloaded. Since the files of this list never change and their
+    * reload counts only increase, the sum changes on every reload.
+    *
+    * @return
+    *    the number of reloads of the files in this list.
+    */
+   private int getReloadCount() {
+      int reloadCount = 0;
+      for (int i = 0; i < _files.length; i++) {
+         reloadCount += _files[i].getReloadCount();
+      }
+      return reloadCount;
+   }
+
+   /**
+    * Reloads the access rule files referenced by this list now, instead of
+    * waiting for their file watchers to detect a modification.
+    *
+    * @throws IllegalStateException
+    *    if this object is disposed.
+    *
+    * @since XINS 2.4
+    */
+   public void reload() throws IllegalStateException {
+
+      // Check state
+      if (_disposed) {
+         String detail = "This AccessRuleList is disposed.";
+         Utils.logProgrammingError(detail);
+         throw new IllegalStateException(detail);
+      }
+
+      for (int i = 0; i < _files.length; i++) {
+         _files[i].reload();
       }
-      return null;
    }
 
    /**
@@ -323,4 +429,79 @@ public final class AccessRuleList implements AccessRuleContainer {
    public String toString() {
       return _asString;
    }
+
+   /**
+    * Part of the decision cache. When the stripe is full, it is cleared.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class CacheStripe {
+
+      /**
+       * Constructs a new empty <code>CacheStripe</code>.
+       */
+      CacheStripe() {
+         _decisions = new HashMap();
+      }
+
+      /**
+       * The cached decisions. The key is the request, the value is the
+       * {@link AccessRuleIndex.Match} or {@link #NO_MATCH}. All accesses
+       * should be synchronized on this stripe.
+       */
+      private final HashMap _decisions;
+
+      /**
+       * The reload count of the access rule files of the list when the
+       * decisions were cached.
+       */
+      private int _reloadCount;
+
+      /**
+       * Gets a cached decision.
+       *
+       * @param key
+       *    the request, cannot be <code>null</code>.
+       *
+       * @param reloadCount
+       *    the current reload count of the access rule files.
+       *
+       * @return
+       *    the cached decision, or <code>null</code> if none is cached.
+       */
+      synchronized Object get(String key, int reloadCount) {
+         if (reloadCount != _reloadCount) {
+            _decisions.clear();
+            _reloadCount = reloadCount;
+            return null;
+         }
+         return _decisions.get(key);
+      }
+
+      /**
+       * Caches a decision, unless the access rule files have been reloaded
+       * since the decision was evaluated.
+       *
+       * @param key
+       *    the request, cannot be <code>null</code>.
+       *
+       * @param decision
+       *    the decision, cannot be <code>null</code>.
+       *
+       * @param reloadCount
+       *    the reload count of the access rule files before the decision was
+       *    evaluated.
+       */
+      synchronized void put(String key, Object decision, int reloadCount) {
+         if (reloadCount != _reloadCount) {
+            return;
+         }
+         if (_decisions.size() >= CACHE_SIZE / CACHE_STRIPES) {
+            _decisions.clear();
+         }
+         _decisions.put(key, decision);
+      }
+   }
 }
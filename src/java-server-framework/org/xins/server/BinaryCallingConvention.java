@@ -0,0 +1,189 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.io.BinaryCallReader;
+import org.xins.common.io.BinaryCallWriter;
+import org.xins.common.text.ParseException;
+import org.xins.common.text.TextUtils;
+import org.xins.common.xml.Element;
+
+/**
+ * Binary calling convention. The request and the result are encoded with
+ * {@link BinaryCallWriter}, so no text escaping and no XML parsing is
+ * needed. This calling convention is meant for calls from one XINS API to
+ * another, using the XINS service caller.
+ *
+ * <p>The request is sent with the HTTP POST method and the content type
+ * <code>application/x-xins-binary</code>.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public class BinaryCallingConvention extends CallingConvention {
+
+   /**
+    * The maximum number of bytes of a request.
+    */
+   private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+   protected String[] getSupportedMethods() {
+      return new String[] { "POST" };
+   }
+
+   /**
+    * Checks if the specified request can be handled by this calling
+    * convention.
+    *
+    * <p>This method will not throw any exception.
+    *
+    * @param httpRequest
+    *    the HTTP request to investigate, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if this calling convention is <em>possibly</em>
+    *    able to handle this request, or <code>false</code> if it
+    *    <em>definitely</em> not able to handle this request.
+    */
+   protected boolean matches(HttpServletRequest httpRequest) {
+      String contentType = httpRequest.getContentType();
+      return contentType != null
+          && contentType.toLowerCase().startsWith(BinaryCallWriter.CONTENT_TYPE);
+   }
+
+   /**
+    * Converts an HTTP request to a XINS request (implementation method). This
+    * method should only be called from class CallingConvention. Only
+    * then it is guaranteed that the <code>httpRequest</code> argument is not
+    * <code>null</code>.
+    *
+    * @param httpRequest
+    *    the HTTP request, will not be <code>null</code>.
+    *
+    * @return
+    *    the XINS request object, never <code>null</code>.
+    *
+    * @throws InvalidRequestException
+    *    if the request is considerd to be invalid.
+    *
+    * @throws FunctionNotSpecifiedException
+    *    if the request does not indicate the name of the function to execute.
+    */
+   protected FunctionRequest convertRequestImpl(HttpServletRequest httpRequest)
+   throws InvalidRequestException,
+          FunctionNotSpecifiedException {
+
+      if (! matches(httpRequest)) {
+         throw new InvalidRequestException("Invalid content type \""
+               + httpRequest.getContentType() + "\". Expected \""
+               + BinaryCallWriter.CONTENT_TYPE + "\".");
+      }
+
+      // Read the request
+      byte[] data;
+      try {
+         data = readRequest(httpRequest);
+      } catch (IOException exception) {
+         throw new InvalidRequestException("Failed to read binary request.", exception);
+      }
+
+      // Decode the function name, the parameters and the data section
+      String functionName;
+      BasicPropertyReader functionParams;
+      Element dataElement;
+      try {
+         BinaryCallReader reader = new BinaryCallReader(data);
+         functionName   = reader.readString();
+         functionParams = reader.readParameters();
+         dataElement    = reader.readElement();
+         reader.end();
+      } catch (ParseException exception) {
+         throw new InvalidRequestException("Failed to parse binary request.", exception);
+      }
+
+      // Check if function is specified
+      if (TextUtils.isEmpty(functionName)) {
+         throw new FunctionNotSpecifiedException();
+      }
+
+      // Remove all invalid parameters
+      cleanUpParameters(functionParams);
+
+      return new FunctionRequest(functionName, functionParams, dataElement);
+   }
+
+   /**
+    * Reads the body of the request.
+    *
+    * @param httpRequest
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the body, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the body cannot be read or if it is too large.
+    */
+   private static byte[] readRequest(HttpServletRequest httpRequest)
+   throws IOException {
+      int length = httpRequest.getContentLength();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : 4096);
+      byte[] buffer = new byte[4096];
+      InputStream in = httpRequest.getInputStream();
+      for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+         out.write(buffer, 0, count);
+         if (out.size() > MAX_REQUEST_SIZE) {
+            throw new IOException("The request exceeds " + MAX_REQUEST_SIZE + " bytes.");
+         }
+      }
+      return out.toByteArray();
+   }
+
+   /**
+    * Converts a XINS result to an HTTP response (implementation method).
+    *
+    * @param xinsResult
+    *    the XINS result object that should be converted to an HTTP response,
+    *    will not be <code>null</code>.
+    *
+    * @param httpResponse
+    *    the HTTP response object to configure, will not be <code>null</code>.
+    *
+    * @param httpRequest
+    *    the HTTP request, will not be <code>null</code>.
+    *
+    * @throws IOException
+    *    if calling any of the methods in <code>httpResponse</code> causes an
+    *    I/O error.
+    */
+   protected void convertResultImpl(FunctionResult      xinsResult,
+                                    HttpServletResponse httpResponse,
+                                    HttpServletRequest  httpRequest)
+   throws IOException {
+
+      byte[] data = BinaryCallWriter.writeResult(xinsResult.getErrorCode(),
+                                                 xinsResult.getParameters(),
+                                                 xinsResult.getDataElement());
+
+      httpResponse.setContentType(BinaryCallWriter.CONTENT_TYPE);
+      httpResponse.setStatus(HttpServletResponse.SC_OK);
+      httpResponse.setContentLength(data.length);
+      OutputStream out = httpResponse.getOutputStream();
+      out.write(data);
+      out.close();
+   }
+}
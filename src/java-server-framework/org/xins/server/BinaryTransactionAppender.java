@@ -0,0 +1,435 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.text.ParseException;
+import org.xins.common.xml.Element;
+
+/**
+ * Log4J appender that writes the transaction log in a compact binary format.
+ * The appender has to be attached to the logger
+ * {@link TransactionLog#BINARY_LOGGER_NAME}, for example:
+ *
+ * <blockquote><pre>log4j.logger.org.xins.server.runtime.tx.binary=INFO, binary
+ *log4j.additivity.org.xins.server.runtime.tx.binary=false
+ *log4j.appender.binary=org.xins.server.BinaryTransactionAppender
+ *log4j.appender.binary.File=/var/log/myapi/transactions.bin</pre></blockquote>
+ *
+ * <p>The options are <code>File</code>, the file to write to,
+ * <code>Append</code>, <code>true</code> (the default) to add to an existing
+ * file, and <code>ImmediateFlush</code>, <code>true</code> (the default) to
+ * flush the file after each record. The text entries 3540 and 3541 can be
+ * disabled in the Log4J configuration if they are not needed anymore.
+ *
+ * <p>The file can be read with {@link TransactionLogReader}, which converts
+ * the records back to the text of the log entry 3540.
+ *
+ * <h2>Format</h2>
+ *
+ * <p>All numbers are written most significant byte first. Strings marked as
+ * <em>UTF</em> are written as with {@link DataOutputStream#writeUTF(String)};
+ * the other strings are written as a 32-bit length in bytes, or
+ * <code>-1</code> for <code>null</code>, followed by the UTF-8 bytes.
+ *
+ * <p>The file starts with the header <code>"XTXL"</code> followed by the
+ * version byte <code>1</code>. The header is written again each time the
+ * file is opened; it resets the function table. Then come the records,
+ * starting with a type byte:
+ *
+ * <dl>
+ * <dt><code>'F'</code>
+ * <dd>adds a function to the table: 16-bit function identifier and
+ *     <em>UTF</em> function name.
+ * <dt><code>'T'</code>
+ * <dd>a transaction: 32-bit length of the rest of the record, start time
+ *     (64 bits), duration in milliseconds (64 bits), IP address, 16-bit
+ *     function identifier, <em>UTF</em> error code (<code>"0"</code> if the
+ *     call succeeded), diagnostic context identifier, input parameters,
+ *     input data section, output parameters and output data section.
+ * </dl>
+ *
+ * <p>The IP address is a byte <code>4</code> or <code>16</code> followed by
+ * that number of bytes, or a byte <code>0</code> followed by the address as
+ * <em>UTF</em> string. The parameters are a 32-bit number of parameters
+ * followed by the name and the value of each parameter. The data sections
+ * are written as XML, or <code>null</code> if there is none.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public class BinaryTransactionAppender extends AppenderSkeleton {
+
+   /**
+    * The bytes at the start of a binary transaction log.
+    */
+   static final byte[] MAGIC = { 'X', 'T', 'X', 'L' };
+
+   /**
+    * The version of the format.
+    */
+   static final int VERSION = 1;
+
+   /**
+    * The type of the record that adds a function to the function table.
+    */
+   static final int FUNCTION_RECORD = 'F';
+
+   /**
+    * The type of the record of a transaction.
+    */
+   static final int TRANSACTION_RECORD = 'T';
+
+   /**
+    * The maximum number of functions in the function table.
+    */
+   private static final int MAX_FUNCTIONS = 0xFFFF;
+
+   /**
+    * The name of the file to write to, can be <code>null</code>.
+    */
+   private String _fileName;
+
+   /**
+    * Indicates whether the records are added to an existing file.
+    */
+   private boolean _append = true;
+
+   /**
+    * Indicates whether the file is flushed after each record.
+    */
+   private boolean _immediateFlush = true;
+
+   /**
+    * The output stream, or <code>null</code> if the file is not open.
+    */
+   private DataOutputStream _out;
+
+   /**
+    * The identifiers of the functions written to the file. The keys are the
+    * function names and the values are <code>Integer</code> objects.
+    */
+   private final Map _functions = new HashMap();
+
+   /**
+    * The buffer for the body of a transaction record. Never
+    * <code>null</code>.
+    */
+   private final ByteArrayOutputStream _bodyBytes = new ByteArrayOutputStream(512);
+
+   /**
+    * The stream used to write the body of a transaction record. Never
+    * <code>null</code>.
+    */
+   private final DataOutputStream _body = new DataOutputStream(_bodyBytes);
+
+   /**
+    * Constructs a new <code>BinaryTransactionAppender</code>. The file has
+    * to be set and {@link #activateOptions()} has to be called before the
+    * appender can be used.
+    */
+   public BinaryTransactionAppender() {
+      // empty
+   }
+
+   /**
+    * Constructs a new <code>BinaryTransactionAppender</code> that writes to
+    * the specified stream. The header is written immediately.
+    *
+    * @param out
+    *    the stream to write to, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the header cannot be written.
+    */
+   public BinaryTransactionAppender(OutputStream out) throws IOException {
+      _out = new DataOutputStream(out);
+      writeHeader();
+   }
+
+   /**
+    * Sets the file to write to.
+    *
+    * @param fileName
+    *    the name of the file.
+    */
+   public void setFile(String fileName) {
+      _fileName = (fileName == null) ? null : fileName.trim();
+   }
+
+   /**
+    * Returns the file to write to.
+    *
+    * @return
+    *    the name of the file, or <code>null</code> if it is not set.
+    */
+   public String getFile() {
+      return _fileName;
+   }
+
+   /**
+    * Sets whether the records are added to an existing file.
+    *
+    * @param append
+    *    <code>true</code> to add to the existing file, <code>false</code>
+    *    to overwrite it.
+    */
+   public void setAppend(boolean append) {
+      _append = append;
+   }
+
+   /**
+    * Indicates whether the records are added to an existing file.
+    *
+    * @return
+    *    <code>true</code> if the records are added to the existing file.
+    */
+   public boolean getAppend() {
+      return _append;
+   }
+
+   /**
+    * Sets whether the file is flushed after each record.
+    *
+    * @param immediateFlush
+    *    <code>true</code> to flush after each record.
+    */
+   public void setImmediateFlush(boolean immediateFlush) {
+      _immediateFlush = immediateFlush;
+   }
+
+   /**
+    * Indicates whether the file is flushed after each record.
+    *
+    * @return
+    *    <code>true</code> if the file is flushed after each record.
+    */
+   public boolean getImmediateFlush() {
+      return _immediateFlush;
+   }
+
+   /**
+    * Opens the file.
+    */
+   public synchronized void activateOptions() {
+      if (_fileName == null) {
+         return;
+      }
+      closeFile();
+      try {
+         _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_fileName, _append), 8192));
+         writeHeader();
+      } catch (IOException exception) {
+         errorHandler.error("Cannot open the binary transaction log \"" + _fileName + "\".", exception, ErrorCode.FILE_OPEN_FAILURE);
+         closeFile();
+      }
+   }
+
+   protected void append(LoggingEvent event) {
+      Object message = event.getMessage();
+      if (_out == null || ! (message instanceof TransactionRecord)) {
+         return;
+      }
+      try {
+         write((TransactionRecord) message);
+         if (_immediateFlush) {
+            _out.flush();
+         }
+      } catch (IOException exception) {
+         errorHandler.error("Cannot write to the binary transaction log.", exception, ErrorCode.WRITE_FAILURE);
+      }
+   }
+
+   /**
+    * Writes the header and resets the function table.
+    *
+    * @throws IOException
+    *    if the header cannot be written.
+    */
+   private void writeHeader() throws IOException {
+      _out.write(MAGIC);
+      _out.writeByte(VERSION);
+      _functions.clear();
+   }
+
+   /**
+    * Writes a transaction record, preceded by a function record if the
+    * function is not in the function table yet.
+    *
+    * @param record
+    *    the record, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the record cannot be written.
+    */
+   private void write(TransactionRecord record) throws IOException {
+
+      // Add the function to the table if needed
+      Integer id = (Integer) _functions.get(record._functionName);
+      if (id == null) {
+         if (_functions.size() >= MAX_FUNCTIONS) {
+            writeHeader();
+         }
+         id = new Integer(_functions.size());
+         _functions.put(record._functionName, id);
+         _out.writeByte(FUNCTION_RECORD);
+         _out.writeShort(id.intValue());
+         _out.writeUTF(record._functionName);
+      }
+
+      // The body is buffered so that its length can be written first
+      _bodyBytes.reset();
+      _body.writeLong(record._start);
+      _body.writeLong(record._duration);
+      writeIP(record._ip);
+      _body.writeShort(id.intValue());
+      _body.writeUTF(record._code);
+      writeString(_body, record._contextID);
+      writeParameters(record._inParams);
+      writeData(record._inData);
+      writeParameters(record._outParams);
+      writeData(record._outData);
+      _body.flush();
+
+      _out.writeByte(TRANSACTION_RECORD);
+      _out.writeInt(_bodyBytes.size());
+      _bodyBytes.writeTo(_out);
+   }
+
+   /**
+    * Writes an IP address to the body, as bytes if it is a valid IP address
+    * that can be written back the same way.
+    *
+    * @param ip
+    *    the IP address, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the address cannot be written.
+    */
+   private void writeIP(String ip) throws IOException {
+      byte[] address = null;
+      try {
+         address = IPFilter.toAddress(ip);
+         if (! InetAddress.getByAddress(address).getHostAddress().equals(ip)) {
+            address = null;
+         }
+      } catch (ParseException exception) {
+         // Written as text
+      }
+
+      if (address == null) {
+         _body.writeByte(0);
+         _body.writeUTF(ip);
+      } else {
+         _body.writeByte(address.length);
+         _body.write(address);
+      }
+   }
+
+   /**
+    * Writes parameters to the body.
+    *
+    * @param parameters
+    *    the parameters, can be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the parameters cannot be written.
+    */
+   private void writeParameters(PropertyReader parameters) throws IOException {
+      if (parameters == null) {
+         _body.writeInt(0);
+         return;
+      }
+      _body.writeInt(parameters.size());
+      Iterator names = parameters.getNames();
+      while (names.hasNext()) {
+         String name = (String) names.next();
+         writeString(_body, name);
+         writeString(_body, parameters.get(name));
+      }
+   }
+
+   /**
+    * Writes a data section to the body.
+    *
+    * @param data
+    *    the data section, can be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the data section cannot be written.
+    */
+   private void writeData(Element data) throws IOException {
+      writeString(_body, (data == null) ? null : data.toString());
+   }
+
+   /**
+    * Writes a string as its length in bytes followed by the UTF-8 bytes.
+    *
+    * @param out
+    *    the stream to write to, cannot be <code>null</code>.
+    *
+    * @param s
+    *    the string, can be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the string cannot be written.
+    */
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+         out.writeInt(-1);
+      } else {
+         byte[] bytes = s.getBytes("UTF-8");
+         out.writeInt(bytes.length);
+         out.write(bytes);
+      }
+   }
+
+   /**
+    * Flushes and closes the file.
+    */
+   public synchronized void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      closeFile();
+   }
+
+   /**
+    * Flushes and closes the output stream, if it is open.
+    */
+   private void closeFile() {
+      if (_out != null) {
+         try {
+            _out.close();
+         } catch (IOException exception) {
+            errorHandler.error("Cannot close the binary transaction log.", exception, ErrorCode.CLOSE_FAILURE);
+         }
+         _out = null;
+      }
+   }
+
+   public boolean requiresLayout() {
+      return false;
+   }
+}
@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.StringTokenizer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.xins.common.Utils;
+import org.xins.common.text.HexConverter;
+
+/**
+ * HTTP response for the successful result of a cacheable function. The body
+ * written by the calling convention is buffered and an entity tag is
+ * computed over it. The tag is sent in the <code>ETag</code> header. If the
+ * tag matches the <code>If-None-Match</code> header of the request, only
+ * the HTTP status code 304 (Not Modified) is sent, without the body.
+ *
+ * <p>If the function specifies a maximum age, the
+ * <code>Cache-Control</code> header is set as well, so that the client does
+ * not need to check the result during that time.
+ *
+ * <p>If the calling convention sets another HTTP status code than 200 (OK)
+ * or sends an error, the response is not cached: no <code>ETag</code> or
+ * <code>Cache-Control</code> header is set.
+ *
+ * <p>The entity tag is computed over the uncompressed body. If the body is
+ * compressed, the content coding is appended to the tag, since the
+ * compressed and the uncompressed body are different representations.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class CacheableResponse extends HttpServletResponseWrapper {
+
+   /**
+    * The HTTP request, never <code>null</code>.
+    */
+   private final HttpServletRequest _request;
+
+   /**
+    * The number of seconds a client can cache the result without checking
+    * it, or <code>-1</code> if no <code>Cache-Control</code> header is sent.
+    */
+   private final int _maxAge;
+
+   /**
+    * The response that compresses the body, or <code>null</code> if the
+    * body is not compressed.
+    */
+   private final ResponseCompression.CompressingResponse _compressingResponse;
+
+   /**
+    * The buffered body, never <code>null</code>.
+    */
+   private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream(1024);
+
+   /**
+    * The HTTP status code set by the calling convention.
+    */
+   private int _status = HttpServletResponse.SC_OK;
+
+   /**
+    * Flag that indicates whether an error was sent to the wrapped response.
+    * In that case the buffered body is not sent.
+    */
+   private boolean _errorSent;
+
+   /**
+    * The stream of the body, or <code>null</code> if it is not created yet.
+    */
+   private ServletOutputStream _stream;
+
+   /**
+    * The writer of the body, or <code>null</code> if it is not created yet.
+    */
+   private PrintWriter _writer;
+
+   /**
+    * Constructs a new <code>CacheableResponse</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the wrapped response, cannot be <code>null</code>.
+    *
+    * @param maxAge
+    *    the number of seconds a client can cache the result, or
+    *    <code>-1</code>.
+    *
+    * @param compressingResponse
+    *    the response that compresses the body, or <code>null</code>.
+    */
+   private CacheableResponse(HttpServletRequest                      request,
+                             HttpServletResponse                     response,
+                             int                                     maxAge,
+                             ResponseCompression.CompressingResponse compressingResponse) {
+      super(response);
+      _request             = request;
+      _maxAge              = maxAge;
+      _compressingResponse = compressingResponse;
+   }
+
+   /**
+    * Wraps the response to the specified request, if the result can be
+    * cached. Only the successful results of a cacheable function, requested
+    * with the HTTP method <em>GET</em>, are cached. The calling conventions
+    * do not write the body of the response to a <em>HEAD</em> request, so
+    * no entity tag can be computed for it.
+    *
+    * @param function
+    *    the function that returned the result, or <code>null</code> for a
+    *    meta function.
+    *
+    * @param xinsResult
+    *    the result of the function, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @param compressingResponse
+    *    the response that compresses the body, or <code>null</code> if the
+    *    body is not compressed.
+    *
+    * @return
+    *    the response that computes the entity tag, or <code>null</code> if
+    *    the result cannot be cached.
+    */
+   static CacheableResponse wrap(Function                                function,
+                                 FunctionResult                          xinsResult,
+                                 HttpServletRequest                      request,
+                                 HttpServletResponse                     response,
+                                 ResponseCompression.CompressingResponse compressingResponse) {
+      if (function == null || ! function.isCacheable() || xinsResult.getErrorCode() != null) {
+         return null;
+      }
+      if (! "GET".equals(request.getMethod())) {
+         return null;
+      }
+      return new CacheableResponse(request, response, function.getCacheMaxAge(), compressingResponse);
+   }
+
+   /**
+    * Computes the entity tag of a body.
+    *
+    * @param body
+    *    the uncompressed body, cannot be <code>null</code>.
+    *
+    * @param encoding
+    *    the content coding of the sent body, or <code>null</code> if it is
+    *    not compressed.
+    *
+    * @return
+    *    the quoted entity tag, never <code>null</code>.
+    */
+   static String computeETag(byte[] body, String encoding) {
+      String hash;
+      try {
+         hash = HexConverter.toHexString(MessageDigest.getInstance("MD5").digest(body));
+      } catch (NoSuchAlgorithmException exception) {
+         throw Utils.logProgrammingError(exception);
+      }
+      if (encoding == null) {
+         return '"' + hash + '"';
+      } else {
+         return '"' + hash + '-' + encoding + '"';
+      }
+   }
+
+   /**
+    * Checks if an entity tag matches the value of an
+    * <code>If-None-Match</code> header. The weak comparison is used, as
+    * required for this header.
+    *
+    * @param ifNoneMatch
+    *    the value of the header, can be <code>null</code>.
+    *
+    * @param eTag
+    *    the quoted entity tag, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the header matches the tag, <code>false</code>
+    *    otherwise.
+    */
+   static boolean matches(String ifNoneMatch, String eTag) {
+      if (ifNoneMatch == null) {
+         return false;
+      }
+      StringTokenizer tags = new StringTokenizer(ifNoneMatch, ",");
+      while (tags.hasMoreTokens()) {
+         String tag = tags.nextToken().trim();
+         if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+         }
+         if (tag.equals("*") || tag.equals(eTag)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   public void setStatus(int status) {
+      _status = status;
+      super.setStatus(status);
+   }
+
+   /**
+    * @deprecated
+    *    Deprecated in the Servlet API, use {@link #setStatus(int)} or
+    *    {@link #sendError(int,String)} instead.
+    */
+   public void setStatus(int status, String message) {
+      _status = status;
+      super.setStatus(status, message);
+   }
+
+   public void sendError(int status) throws IOException {
+      _status    = status;
+      _errorSent = true;
+      super.sendError(status);
+   }
+
+   public void sendError(int status, String message) throws IOException {
+      _status    = status;
+      _errorSent = true;
+      super.sendError(status, message);
+   }
+
+   /**
+    * Ignores the length set by the calling convention, since the body may
+    * not be sent.
+    *
+    * @param length
+    *    the length of the body.
+    */
+   public void setContentLength(int length) {
+      // ignore
+   }
+
+   public ServletOutputStream getOutputStream() {
+      if (_stream == null) {
+         _stream = new ServletOutputStream() {
+            public void write(int b) {
+               _buffer.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+               _buffer.write(b, off, len);
+            }
+         };
+      }
+      return _stream;
+   }
+
+   public PrintWriter getWriter() throws IOException {
+      if (_writer == null) {
+         _writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return _writer;
+   }
+
+   /**
+    * Does not send anything, since the entity tag can only be computed once
+    * the body is complete.
+    */
+   public void flushBuffer() {
+      if (_writer != null) {
+         _writer.flush();
+      }
+   }
+
+   /**
+    * Sets the <code>ETag</code> header and sends either the body or the HTTP
+    * status code 304 (Not Modified) to the wrapped response. Nothing is sent
+    * if an error was already sent.
+    *
+    * @throws IOException
+    *    if the body cannot be written.
+    */
+   void finish() throws IOException {
+      if (_writer != null) {
+         _writer.flush();
+      }
+      if (_errorSent) {
+         return;
+      }
+      byte[] body = _buffer.toByteArray();
+
+      // Only a complete successful response can be cached
+      if (_status == HttpServletResponse.SC_OK) {
+         String encoding = null;
+         if (_compressingResponse != null && _compressingResponse.compresses(body.length)) {
+            encoding = _compressingResponse.getEncoding();
+         }
+         String eTag = computeETag(body, encoding);
+         setHeader("ETag", eTag);
+         if (_maxAge >= 0) {
+            setHeader("Cache-Control", "max-age=" + _maxAge);
+         }
+         if (matches(_request.getHeader("If-None-Match"), eTag)) {
+            super.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+         }
+      }
+
+      getResponse().setContentLength(body.length);
+      OutputStream out = getResponse().getOutputStream();
+      out.write(body);
+      out.close();
+   }
+}
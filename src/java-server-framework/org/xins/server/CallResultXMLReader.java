@@ -0,0 +1,337 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.xml.Element;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * SAX reader that generates the events for the XML of a function result,
+ * as returned by the standard calling convention. The events are generated
+ * directly from the {@link FunctionResult}, so the result does not need to
+ * be serialized and parsed again. The input source passed to the
+ * <code>parse</code> methods is ignored.
+ *
+ * <p>The produced XML is the same as the output of
+ * {@link CallResultOutputter#output(java.io.Writer,FunctionResult)}.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class CallResultXMLReader implements XMLReader {
+
+   /**
+    * The name of the SAX feature that indicates whether namespaces are
+    * processed.
+    */
+   private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+
+   /**
+    * The name of the SAX feature that indicates whether namespace
+    * declarations are reported as attributes.
+    */
+   private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+
+   /**
+    * The attribute type for all attributes.
+    */
+   private static final String CDATA = "CDATA";
+
+   /**
+    * The function result. Never <code>null</code>.
+    */
+   private final FunctionResult _result;
+
+   /**
+    * The content handler, or <code>null</code>.
+    */
+   private ContentHandler _contentHandler;
+
+   /**
+    * The DTD handler, or <code>null</code>.
+    */
+   private DTDHandler _dtdHandler;
+
+   /**
+    * The entity resolver, or <code>null</code>.
+    */
+   private EntityResolver _entityResolver;
+
+   /**
+    * The error handler, or <code>null</code>.
+    */
+   private ErrorHandler _errorHandler;
+
+   /**
+    * Constructs a new <code>CallResultXMLReader</code>.
+    *
+    * @param result
+    *    the function result to generate the events for, cannot be
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>result == null</code>.
+    */
+   CallResultXMLReader(FunctionResult result)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("result", result);
+      _result = result;
+   }
+
+   public boolean getFeature(String name)
+   throws SAXNotRecognizedException, SAXNotSupportedException {
+      if (NAMESPACES_FEATURE.equals(name)) {
+         return true;
+      } else if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+         return false;
+      }
+      throw new SAXNotRecognizedException(name);
+   }
+
+   public void setFeature(String name, boolean value)
+   throws SAXNotRecognizedException, SAXNotSupportedException {
+      if (getFeature(name) != value) {
+         throw new SAXNotSupportedException(name);
+      }
+   }
+
+   public Object getProperty(String name)
+   throws SAXNotRecognizedException, SAXNotSupportedException {
+      throw new SAXNotRecognizedException(name);
+   }
+
+   public void setProperty(String name, Object value)
+   throws SAXNotRecognizedException, SAXNotSupportedException {
+      throw new SAXNotRecognizedException(name);
+   }
+
+   public void setEntityResolver(EntityResolver resolver) {
+      _entityResolver = resolver;
+   }
+
+   public EntityResolver getEntityResolver() {
+      return _entityResolver;
+   }
+
+   public void setDTDHandler(DTDHandler handler) {
+      _dtdHandler = handler;
+   }
+
+   public DTDHandler getDTDHandler() {
+      return _dtdHandler;
+   }
+
+   public void setContentHandler(ContentHandler handler) {
+      _contentHandler = handler;
+   }
+
+   public ContentHandler getContentHandler() {
+      return _contentHandler;
+   }
+
+   public void setErrorHandler(ErrorHandler handler) {
+      _errorHandler = handler;
+   }
+
+   public ErrorHandler getErrorHandler() {
+      return _errorHandler;
+   }
+
+   public void parse(String systemId) throws IOException, SAXException {
+      parse((InputSource) null);
+   }
+
+   public void parse(InputSource input) throws IOException, SAXException {
+
+      ContentHandler out = _contentHandler;
+      if (out == null) {
+         throw new SAXException("No content handler set.");
+      }
+
+      out.startDocument();
+
+      // Output the start of the <result> element
+      AttributesImpl attributes = new AttributesImpl();
+      String code = _result.getErrorCode();
+      if (code != null) {
+         attributes.addAttribute("", "errorcode", "errorcode", CDATA, code);
+      }
+      out.startElement("", "result", "result", attributes);
+
+      // Write the output parameters, if any
+      PropertyReader params = _result.getParameters();
+      if (params != null) {
+         Iterator names = params.getNames();
+         while (names.hasNext()) {
+            String n = (String) names.next();
+            if (n != null && n.length() > 0) {
+               String v = params.get(n);
+               if (v != null && v.length() > 0) {
+                  attributes.clear();
+                  attributes.addAttribute("", "name", "name", CDATA, n);
+                  out.startElement("", "param", "param", attributes);
+                  characters(out, v);
+                  out.endElement("", "param", "param");
+               }
+            }
+         }
+      }
+
+      // Write the data element, if any
+      Element dataElement = _result.getDataElement();
+      if (dataElement != null) {
+         element(out, dataElement);
+      }
+
+      out.endElement("", "result", "result");
+      out.endDocument();
+   }
+
+   /**
+    * Generates the events for an element and its content.
+    *
+    * @param out
+    *    the content handler, cannot be <code>null</code>.
+    *
+    * @param element
+    *    the element, cannot be <code>null</code>.
+    *
+    * @throws SAXException
+    *    if the content handler throws an exception.
+    */
+   private void element(ContentHandler out, Element element)
+   throws SAXException {
+
+      String namespacePrefix = element.getNamespacePrefix();
+      String namespaceURI    = element.getNamespaceURI();
+      String localName       = element.getLocalName();
+      String qName           = namespacePrefix == null ? localName : namespacePrefix + ':' + localName;
+
+      // The prefixes declared by this element
+      List prefixes = new ArrayList(2);
+      if (namespaceURI != null) {
+         declare(out, prefixes, namespacePrefix == null ? "" : namespacePrefix, namespaceURI);
+      }
+
+      // Loop through all attributes
+      AttributesImpl attributes = new AttributesImpl();
+      Iterator entries = element.getAttributeMap().entrySet().iterator();
+      while (entries.hasNext()) {
+         Map.Entry entry = (Map.Entry) entries.next();
+         Element.QualifiedName qn   = (Element.QualifiedName) entry.getKey();
+         String attrNamespacePrefix = qn.getNamespacePrefix();
+         String attrNamespaceURI    = qn.getNamespaceURI();
+         String attrLocalName       = qn.getLocalName();
+         String attrValue           = (String) entry.getValue();
+         if (attrValue == null) {
+            continue;
+         }
+
+         // Namespace declarations are reported as prefix mappings
+         if ("xmlns".equals(attrNamespacePrefix)) {
+            declare(out, prefixes, attrLocalName, attrValue);
+         } else if (attrNamespacePrefix == null && "xmlns".equals(attrLocalName)) {
+            declare(out, prefixes, "", attrValue);
+
+         } else if (attrNamespacePrefix != null) {
+            if (attrNamespaceURI != null) {
+               declare(out, prefixes, attrNamespacePrefix, attrNamespaceURI);
+            }
+            attributes.addAttribute(attrNamespaceURI == null ? "" : attrNamespaceURI,
+                  attrLocalName, attrNamespacePrefix + ':' + attrLocalName, CDATA, attrValue);
+         } else {
+            attributes.addAttribute(attrNamespaceURI == null ? "" : attrNamespaceURI,
+                  attrLocalName, attrLocalName, CDATA, attrValue);
+         }
+      }
+
+      out.startElement(namespaceURI == null ? "" : namespaceURI, localName, qName, attributes);
+
+      // Process all contained elements
+      List content = element.getChildElements();
+      int count = content.size();
+      for (int i = 0; i < count; i++) {
+         element(out, (Element) content.get(i));
+      }
+
+      // Output contained PCDATA
+      if (element.getText() != null) {
+         characters(out, element.getText());
+      }
+
+      out.endElement(namespaceURI == null ? "" : namespaceURI, localName, qName);
+
+      for (int i = prefixes.size() - 1; i >= 0; i--) {
+         out.endPrefixMapping((String) prefixes.get(i));
+      }
+   }
+
+   /**
+    * Declares a namespace prefix for the current element, unless it has
+    * already been declared for this element.
+    *
+    * @param out
+    *    the content handler, cannot be <code>null</code>.
+    *
+    * @param prefixes
+    *    the prefixes declared for the current element, cannot be
+    *    <code>null</code>.
+    *
+    * @param prefix
+    *    the prefix, or <code>""</code> for the default namespace.
+    *
+    * @param uri
+    *    the namespace URI, cannot be <code>null</code>.
+    *
+    * @throws SAXException
+    *    if the content handler throws an exception.
+    */
+   private void declare(ContentHandler out, List prefixes, String prefix, String uri)
+   throws SAXException {
+      if (! prefixes.contains(prefix)) {
+         prefixes.add(prefix);
+         out.startPrefixMapping(prefix, uri);
+      }
+   }
+
+   /**
+    * Generates the event for character data.
+    *
+    * @param out
+    *    the content handler, cannot be <code>null</code>.
+    *
+    * @param text
+    *    the character data, cannot be <code>null</code>.
+    *
+    * @throws SAXException
+    *    if the content handler throws an exception.
+    */
+   private void characters(ContentHandler out, String text)
+   throws SAXException {
+      char[] chars = text.toCharArray();
+      out.characters(chars, 0, chars.length);
+   }
+}
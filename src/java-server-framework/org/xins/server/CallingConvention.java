@@ -76,6 +76,12 @@ abstract class CallingConvention extends Manageable {
     */
    private String _conventionName;
 
+   /**
+    * The compression of the responses, or <code>null</code> if the responses
+    * are not compressed.
+    */
+   private ResponseCompression _compression;
+
    /**
     * Constructs a new <code>CallingConvention</code>. A
     * <code>CallingConvention</code> instance can only be generated by the
@@ -106,6 +112,17 @@ abstract class CallingConvention extends Manageable {
       _api = api;
    }
 
+   /**
+    * Sets the compression of the responses.
+    *
+    * @param compression
+    *    the compression of the responses, or <code>null</code> if the
+    *    responses should not be compressed.
+    */
+   final void setCompression(ResponseCompression compression) {
+      _compression = compression;
+   }
+
    /**
     * Gets the name of the convention associated with this CC.
     *
@@ -130,6 +147,23 @@ abstract class CallingConvention extends Manageable {
       _conventionName = conventionName;
    }
 
+   /**
+    * Returns the statistics of this calling convention. The element is
+    * added to the result of the <code>_GetStatistics</code> meta-function.
+    *
+    * <p>The implementation of this method in class
+    * {@link CallingConvention} returns <code>null</code>.
+    *
+    * @return
+    *    the statistics, or <code>null</code> if this calling convention has
+    *    no statistics.
+    *
+    * @since XINS 2.4
+    */
+   protected Element getStatisticsElement() {
+      return null;
+   }
+
    /**
     * Determines which HTTP methods are supported for function invocations.
     *
@@ -379,6 +413,12 @@ abstract class CallingConvention extends Manageable {
     * checks the arguments, then calls the implementation method and then
     * checks the return value from that method.
     *
+    * <p>If the client accepts it, the body written by the implementation
+    * method is compressed with gzip or deflate, see
+    * {@link ResponseCompression}. If the function is cacheable, the
+    * successful result is sent with an <code>ETag</code> header, or is not
+    * sent at all if the client already has it, see {@link CacheableResponse}.
+    *
     * <p>Note that this method is not called if there is an error while
     * converting the request.
     *
@@ -392,6 +432,10 @@ abstract class CallingConvention extends Manageable {
     * @param httpRequest
     *    the HTTP request, cannot be <code>null</code>.
     *
+    * @param function
+    *    the function that returned the result, or <code>null</code> if it is
+    *    a meta function.
+    *
     * @throws IllegalStateException
     *    if this calling convention is currently not usable, see
     *    {@link Manageable#assertUsable()}.
@@ -408,7 +452,8 @@ abstract class CallingConvention extends Manageable {
     */
    final void convertResult(FunctionResult      xinsResult,
                             HttpServletResponse httpResponse,
-                            HttpServletRequest  httpRequest)
+                            HttpServletRequest  httpRequest,
+                            Function            function)
    throws IllegalStateException,
           IllegalArgumentException,
           IOException {
@@ -425,9 +470,32 @@ abstract class CallingConvention extends Manageable {
       // This can be overridden in the convertResultImpl() method.
       httpResponse.addHeader("Server", SERVER_HEADER);
 
+      // Compress the body if the client accepts it
+      HttpServletResponse response = httpResponse;
+      ResponseCompression.CompressingResponse compressingResponse = null;
+      if (_compression != null) {
+         compressingResponse = _compression.wrap(httpRequest, httpResponse);
+         if (compressingResponse != null) {
+            response = compressingResponse;
+         }
+      }
+
+      // Compute the entity tag of the result of a cacheable function
+      CacheableResponse cacheableResponse = CacheableResponse.wrap(function,
+            xinsResult, httpRequest, response, compressingResponse);
+      if (cacheableResponse != null) {
+         response = cacheableResponse;
+      }
+
       // Delegate to the implementation method
       try {
-         convertResultImpl(xinsResult, httpResponse, httpRequest);
+         convertResultImpl(xinsResult, response, httpRequest);
+         if (cacheableResponse != null) {
+            cacheableResponse.finish();
+         }
+         if (compressingResponse != null) {
+            compressingResponse.finish();
+         }
 
       // Filter any thrown exceptions
       } catch (Throwable exception) {
@@ -574,7 +642,7 @@ abstract class CallingConvention extends Manageable {
       }
 
       // Parse the content in the HTTP request
-      ElementParser parser = new ElementParser();
+      ElementParser parser = ElementParser.getThreadInstance();
       Element element;
       try {
          element = parser.parse(httpRequest.getReader());
@@ -9,6 +9,7 @@ package org.xins.server;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -109,6 +110,14 @@ class CallingConventionManager extends Manageable {
     */
    private static final String JSON_CALLING_CONVENTION = "_xins-json";
 
+   /**
+    * The name of the binary calling convention, for calls from one XINS API
+    * to another.
+    *
+    * @since XINS 2.4
+    */
+   private static final String BINARY_CALLING_CONVENTION = "_xins-bin";
+
    /**
     * List of the names of the calling conventions currently included in
     * XINS.
@@ -121,7 +130,8 @@ class CallingConventionManager extends Manageable {
       SOAP_MAP_CALLING_CONVENTION,
       XML_RPC_CALLING_CONVENTION,
       JSON_RPC_CALLING_CONVENTION,
-      JSON_CALLING_CONVENTION
+      JSON_CALLING_CONVENTION,
+      BINARY_CALLING_CONVENTION
    });
 
    /**
@@ -150,17 +160,22 @@ class CallingConventionManager extends Manageable {
    private String _defaultConventionName;
 
    /**
-    * The names of the possible calling conventions.
+    * The names of the possible calling conventions. The list is not
+    * modifiable, it is replaced during bootstrapping.
     */
-   private List _conventionNames;
+   private volatile List _conventionNames;
 
    /**
     * Map containing all calling conventions. The key is the name of the
     * calling convention, the value is the calling convention object, or
     * {@link #CREATION_FAILED} if the calling convention object could not be
     * constructed.
+    *
+    * <p>All the calling conventions are created during bootstrapping. The
+    * map is not modifiable, so that it can be read by the incoming requests
+    * without locking.
     */
-   private final HashMap _conventions;
+   private volatile Map _conventions;
 
    /**
     * Creates a <code>CallingConventionManager</code> for the specified API.
@@ -173,13 +188,9 @@ class CallingConventionManager extends Manageable {
       // Store the reference to the API
       _api = api;
 
-      // Fill the list of the convention names with the pre defined conventions
-      _conventionNames = new ArrayList();
-      _conventionNames.addAll(CONVENTIONS);
-
-      // Create a map to store the conventions in
-      _conventions = new HashMap(12);
-
+      // The conventions are created during bootstrapping
+      _conventionNames = CONVENTIONS;
+      _conventions     = Collections.EMPTY_MAP;
    }
 
    /**
@@ -206,22 +217,24 @@ class CallingConventionManager extends Manageable {
       _defaultConventionName = determineDefaultConvention(properties);
 
       // Append the defined calling conventions
+      List conventionNames = new ArrayList(CONVENTIONS);
       Iterator itCustomCC = properties.getNames();
       while (itCustomCC.hasNext()) {
          String nextProperty = (String) itCustomCC.next();
          if (nextProperty.startsWith(API_CALLING_CONVENTION_PROPERTY + '.') &&
              !nextProperty.equals(API_CALLING_CONVENTION_CLASS_PROPERTY)) {
             String conventionName = nextProperty.substring(32, nextProperty.length() - 6);
-            _conventionNames.add(conventionName);
+            conventionNames.add(conventionName);
          }
       }
 
       // Construct and bootstrap the default calling convention
+      HashMap conventions = new HashMap(conventionNames.size() * 2);
       CallingConvention cc = create(properties, _defaultConventionName);
 
       // If created, store the object and attempt bootstrapping
       if (cc != null) {
-         _conventions.put(_defaultConventionName, cc);
+         conventions.put(_defaultConventionName, cc);
          bootstrap(_defaultConventionName, cc, properties);
 
          if (cc.getState() != Manageable.BOOTSTRAPPED) {
@@ -232,6 +245,26 @@ class CallingConventionManager extends Manageable {
       } else {
          throw new BootstrapException("Failed to create the default calling convention.");
       }
+
+      // Construct and bootstrap the other calling conventions, so that they
+      // do not need to be created while the requests are handled
+      Iterator itNames = conventionNames.iterator();
+      while (itNames.hasNext()) {
+         String name = (String) itNames.next();
+         if (! conventions.containsKey(name)) {
+            cc = create(properties, name);
+            if (cc != null) {
+               conventions.put(name, cc);
+               bootstrap(name, cc, properties);
+            } else {
+               conventions.put(name, CREATION_FAILED);
+            }
+         }
+      }
+
+      // Publish the calling conventions
+      _conventionNames = Collections.unmodifiableList(conventionNames);
+      _conventions     = Collections.unmodifiableMap(conventions);
    }
 
    /**
@@ -372,6 +405,10 @@ class CallingConventionManager extends Manageable {
       } else if (name.equals(JSON_CALLING_CONVENTION)) {
          return "org.xins.server.JSONCallingConvention";
 
+      // Binary
+      } else if (name.equals(BINARY_CALLING_CONVENTION)) {
+         return "org.xins.server.BinaryCallingConvention";
+
       // Unrecognized
       } else {
          return null;
@@ -496,6 +533,9 @@ class CallingConventionManager extends Manageable {
           InvalidPropertyValueException,
           InitializationException {
 
+      // Determine the compression of the responses
+      ResponseCompression compression = ResponseCompression.create(properties);
+
       // Loop through all CallingConvention instances
       Iterator iterator = _conventions.entrySet().iterator();
       while (iterator.hasNext()) {
@@ -510,6 +550,7 @@ class CallingConventionManager extends Manageable {
 
             // Initialize the CallingConvention
             CallingConvention conv = (CallingConvention) cc;
+            conv.setCompression(compression);
             init(name, conv, properties);
 
             // Fail if the *default* calling convention fails to initialize
@@ -520,6 +561,29 @@ class CallingConventionManager extends Manageable {
       }
    }
 
+   /**
+    * Deinitializes this calling convention manager. All the calling
+    * conventions that were bootstrapped are deinitialized. Exceptions are
+    * logged and ignored, so that all the calling conventions are
+    * deinitialized.
+    */
+   protected void deinitImpl() {
+      Iterator iterator = _conventions.values().iterator();
+      while (iterator.hasNext()) {
+         Object cc = iterator.next();
+         if (cc instanceof CallingConvention) {
+            CallingConvention conv = (CallingConvention) cc;
+            if (conv.isBootstrapped()) {
+               try {
+                  conv.deinit();
+               } catch (Throwable exception) {
+                  Utils.logIgnoredException(exception);
+               }
+            }
+         }
+      }
+   }
+
    /**
     * Initializes the specified calling convention.
     *
@@ -627,29 +691,13 @@ class CallingConventionManager extends Manageable {
       Object o = _conventions.get(name);
 
       // Not found
-      if (o == null && !_conventionNames.contains(name)) {
-            String detail = "Calling convention \"" + name + "\" is unknown.";
-            Log.log_3507(name, detail);
-            throw new InvalidRequestException(detail);
-      } else if (o == null) {
-
-         // Create the asked calling convention and initiaze it
-         CallingConvention cc = create(_api.getBootstrapProperties(), name);
-
-         // If created, store the object and attempt bootstrapping
-         if (cc != null) {
-            o = cc;
-            _conventions.put(name, cc);
-            bootstrap(name, cc, _api.getBootstrapProperties());
-            init(name, cc, _api.getRuntimeProperties());
-         } else {
-            o = CREATION_FAILED;
-            _conventions.put(name, o);
-         }
-      }
+      if (o == null) {
+         String detail = "Calling convention \"" + name + "\" is unknown.";
+         Log.log_3507(name, detail);
+         throw new InvalidRequestException(detail);
 
       // Creation failed
-      if (o == CREATION_FAILED) {
+      } else if (o == CREATION_FAILED) {
          String detail = "Calling convention \""
                        + name
                        + "\" is known, but could not be created.";
@@ -695,6 +743,26 @@ class CallingConventionManager extends Manageable {
       }
    }
 
+   /**
+    * Gets the calling conventions that have been created and that are
+    * usable.
+    *
+    * @return
+    *    the list of {@link CallingConvention} objects, never
+    *    <code>null</code>.
+    */
+   List getCallingConventions() {
+      List conventions = new ArrayList();
+      Iterator iterator = _conventions.values().iterator();
+      while (iterator.hasNext()) {
+         Object o = iterator.next();
+         if (o instanceof CallingConvention && ((CallingConvention) o).isUsable()) {
+            conventions.add(o);
+         }
+      }
+      return conventions;
+   }
+
    /**
     * Attempts to detect which calling convention is the most appropriate for
     * an incoming request. This method is called when the calling convention
@@ -0,0 +1,242 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.xins.common.text.FormatException;
+import org.xins.common.text.URLEncoding;
+
+/**
+ * HTTP request with a body compressed with gzip or deflate, as indicated by
+ * its <code>Content-Encoding</code> header. The body is decompressed when
+ * the request is received. If the body contains form parameters, they are
+ * parsed from the decompressed body, so the compressed body is never parsed
+ * by the servlet container.
+ *
+ * <p>The XINS service caller sends compressed requests if this is enabled
+ * in its call configuration.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class CompressedRequest extends HttpServletRequestWrapper {
+
+   /**
+    * The maximum number of bytes of a decompressed body.
+    */
+   private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+   /**
+    * The content type of a body with form parameters.
+    */
+   private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+   /**
+    * The decompressed body. Never <code>null</code>.
+    */
+   private final byte[] _body;
+
+   /**
+    * The parameters from the query string and the body. The keys are the
+    * parameter names and the values are <code>String[]</code> objects.
+    * Never <code>null</code>.
+    */
+   private final Map _parameters;
+
+   /**
+    * Constructs a new <code>CompressedRequest</code>.
+    *
+    * @param request
+    *    the wrapped request, cannot be <code>null</code>.
+    *
+    * @param body
+    *    the decompressed body, cannot be <code>null</code>.
+    */
+   private CompressedRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      _body = body;
+
+      // Parse the parameters of the query string and of a form body
+      Map parameters = new LinkedHashMap();
+      parseParameters(parameters, request.getQueryString());
+      String contentType = request.getContentType();
+      if (contentType != null && contentType.startsWith(FORM_CONTENT_TYPE)) {
+         char[] chars = new char[body.length];
+         for (int i = 0; i < body.length; i++) {
+            chars[i] = (char) (body[i] & 0xFF);
+         }
+         parseParameters(parameters, new String(chars));
+      }
+
+      // Store the values as arrays
+      _parameters = new LinkedHashMap();
+      Iterator entries = parameters.entrySet().iterator();
+      while (entries.hasNext()) {
+         Map.Entry entry = (Map.Entry) entries.next();
+         List values = (List) entry.getValue();
+         _parameters.put(entry.getKey(), values.toArray(new String[values.size()]));
+      }
+   }
+
+   /**
+    * Decompresses the body of the specified request, if it has a
+    * <code>Content-Encoding</code> header.
+    *
+    * @param request
+    *    the request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the request with the decompressed body, <code>request</code> itself
+    *    if its body is not compressed, or <code>null</code> if the content
+    *    coding is not supported.
+    *
+    * @throws IOException
+    *    if the body cannot be read or decompressed.
+    */
+   static HttpServletRequest decode(HttpServletRequest request)
+   throws IOException {
+
+      String encoding = request.getHeader("Content-Encoding");
+      if (encoding == null || encoding.trim().length() < 1
+            || "identity".equalsIgnoreCase(encoding.trim())) {
+         return request;
+      }
+      encoding = encoding.trim();
+
+      InputStream in;
+      if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+         in = new GZIPInputStream(request.getInputStream());
+      } else if ("deflate".equalsIgnoreCase(encoding)) {
+         in = new InflaterInputStream(request.getInputStream());
+      } else {
+         return null;
+      }
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+      byte[] buffer = new byte[4096];
+      try {
+         for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+            body.write(buffer, 0, count);
+            if (body.size() > MAX_BODY_SIZE) {
+               throw new IOException("The decompressed request body exceeds " + MAX_BODY_SIZE + " bytes.");
+            }
+         }
+      } finally {
+         in.close();
+      }
+      return new CompressedRequest(request, body.toByteArray());
+   }
+
+   /**
+    * Parses URL-encoded parameters. Parameters that are not correctly
+    * encoded are ignored.
+    *
+    * @param parameters
+    *    the map to add the parameters to, the values are lists of strings,
+    *    cannot be <code>null</code>.
+    *
+    * @param encoded
+    *    the URL-encoded parameters, can be <code>null</code>.
+    */
+   private static void parseParameters(Map parameters, String encoded) {
+      if (encoded == null) {
+         return;
+      }
+      StringTokenizer tokens = new StringTokenizer(encoded, "&");
+      while (tokens.hasMoreTokens()) {
+         String parameter = tokens.nextToken();
+         int equals = parameter.indexOf('=');
+         String name  = (equals < 0) ? parameter : parameter.substring(0, equals);
+         String value = (equals < 0) ? ""        : parameter.substring(equals + 1);
+         try {
+            name  = URLEncoding.decode(name);
+            value = URLEncoding.decode(value);
+         } catch (FormatException exception) {
+            continue;
+         }
+         List values = (List) parameters.get(name);
+         if (values == null) {
+            values = new ArrayList(1);
+            parameters.put(name, values);
+         }
+         values.add(value);
+      }
+   }
+
+   public String getHeader(String name) {
+      if ("Content-Encoding".equalsIgnoreCase(name)) {
+         return null;
+      } else if ("Content-Length".equalsIgnoreCase(name)) {
+         return String.valueOf(_body.length);
+      }
+      return super.getHeader(name);
+   }
+
+   public int getContentLength() {
+      return _body.length;
+   }
+
+   public ServletInputStream getInputStream() {
+      final ByteArrayInputStream in = new ByteArrayInputStream(_body);
+      return new ServletInputStream() {
+         public int read() {
+            return in.read();
+         }
+
+         public int read(byte[] b, int off, int len) {
+            return in.read(b, off, len);
+         }
+      };
+   }
+
+   public BufferedReader getReader() throws IOException {
+      String encoding = getCharacterEncoding();
+      if (encoding == null) {
+         encoding = "ISO-8859-1";
+      }
+      return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+   }
+
+   public String getParameter(String name) {
+      String[] values = (String[]) _parameters.get(name);
+      return (values == null) ? null : values[0];
+   }
+
+   public String[] getParameterValues(String name) {
+      String[] values = (String[]) _parameters.get(name);
+      return (values == null) ? null : (String[]) values.clone();
+   }
+
+   public Enumeration getParameterNames() {
+      return Collections.enumeration(_parameters.keySet());
+   }
+
+   public Map getParameterMap() {
+      return Collections.unmodifiableMap(_parameters);
+   }
+}
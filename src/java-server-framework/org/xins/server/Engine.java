@@ -13,8 +13,10 @@ import java.io.InputStream;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -34,7 +36,6 @@ import org.apache.oro.text.regex.Perl5Matcher;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.xins.common.FormattedParameters;
 
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
@@ -46,7 +47,6 @@ import org.xins.common.manageable.InitializationException;
 import org.xins.common.spec.APISpec;
 import org.xins.common.spec.EntityNotFoundException;
 import org.xins.common.spec.InvalidSpecificationException;
-import org.xins.common.text.DateConverter;
 import org.xins.common.text.TextUtils;
 
 import org.xins.logdoc.ExceptionUtils;
@@ -63,11 +63,6 @@ import org.xins.logdoc.LogCentral;
  */
 final class Engine {
 
-   /**
-    * Class used to convert dates to String.
-    */
-   private static final DateConverter DATE_CONVERTER = new DateConverter(true);
-
    /**
     * Perl 5 pattern compiler.
     */
@@ -78,6 +73,25 @@ final class Engine {
     */
    private static final String JMX_PROPERTY = "org.xins.server.jmx";
 
+   /**
+    * The maximum time in milliseconds to wait for the running calls to finish
+    * before the API is re-initialized.
+    */
+   private static final long REINIT_WAIT_TIME_OUT = 30000L;
+
+   /**
+    * The maximum time in milliseconds an incoming call waits for the end of
+    * a re-initialization of the API, before HTTP status code 503 is
+    * returned.
+    */
+   private static final long CALL_WAIT_TIME_OUT = 10000L;
+
+   /**
+    * The maximum time in milliseconds to wait for the queued transaction log
+    * entries to be written when the engine is destroyed.
+    */
+   private static final long LOG_FLUSH_TIME_OUT = 5000L;
+
    /**
     * The state machine for this engine. Never <code>null</code>.
     */
@@ -98,11 +112,6 @@ final class Engine {
     */
    private final API _api;
 
-   /**
-    * Diagnostic context ID generator. Never <code>null</code>.
-    */
-   private ContextIDGenerator _contextIDGenerator;
-
    /**
     * The name of the API. Never <code>null</code>.
     */
@@ -114,18 +123,17 @@ final class Engine {
    private final ConfigManager _configManager;
 
    /**
-    * The manager for the calling conventions. This field can be and initially
-    * is <code>null</code>. This field is initialized by
+    * The bootstrap properties of the API. This field is initialized by
     * {@link #bootstrapAPI()}.
     */
-   private CallingConventionManager _conventionManager;
+   private PropertyReader _bootProps;
 
    /**
-    * Pattern which incoming diagnostic context identifiers must match. Can be
-    * <code>null</code> in case no pattern has been specified. Initially this
-    * field is indeed <code>null</code>.
+    * The current configuration of the engine. This field can be and initially
+    * is <code>null</code>. This field is initialized by
+    * {@link #bootstrapAPI()} and replaced when the API is re-initialized.
     */
-   private Pattern _contextIDPattern;
+   private volatile Snapshot _snapshot;
 
    /**
     * The SMD (Simple Method Description) of this API. This value is <code>null</code>
@@ -244,11 +252,11 @@ final class Engine {
       }
 
       // Create the calling convention manager
-      _conventionManager = new CallingConventionManager(_api);
+      CallingConventionManager conventionManager = new CallingConventionManager(_api);
 
       // Bootstrap the calling convention manager
       try {
-         _conventionManager.bootstrap(bootProps);
+         conventionManager.bootstrap(bootProps);
 
       // Missing required property
       } catch (MissingRequiredPropertyException exception) {
@@ -269,12 +277,14 @@ final class Engine {
       }
 
       // Construct a generator for diagnostic context IDs
-      _contextIDGenerator = new ContextIDGenerator(_api.getName());
+      ContextIDGenerator contextIDGenerator = new ContextIDGenerator(_api.getName());
       try {
-         _contextIDGenerator.bootstrap(bootProps);
+         contextIDGenerator.bootstrap(bootProps);
       } catch (Exception exception) {
          return false;
       }
+      _bootProps = bootProps;
+      _snapshot  = new Snapshot(conventionManager, contextIDGenerator, null);
 
       // Perform JMX initialization if asked
       String enableJmx = _configManager.getRuntimeProperties().get(JMX_PROPERTY);
@@ -293,25 +303,35 @@ final class Engine {
     * Initializes the API using the current runtime settings. This method
     * should be called whenever the runtime properties changed.
     *
+    * <p>If the engine is ready, the API is re-initialized without rejecting
+    * the incoming requests. The calling conventions and the diagnostic
+    * context ID generator are created and initialized while the current
+    * ones keep handling the requests. Then the requests are held while the
+    * API itself is initialized, after which the new configuration replaces
+    * the current one at once. If the new configuration cannot be created,
+    * the current one is kept.
+    *
     * @return
     *    <code>true</code> if the initialization succeeded, otherwise
     *    <code>false</code>.
     */
    boolean initAPI() {
 
-      _stateMachine.setState(EngineState.INITIALIZING_API);
+      // If the engine is ready, then keep handling the requests
+      boolean reinit = _stateMachine.getState() == EngineState.READY;
+      if (! reinit) {
+         _stateMachine.setState(EngineState.INITIALIZING_API);
+      }
 
       // Determine the locale for logging
       boolean localeInitialized = _configManager.determineLogLocale();
       if (!localeInitialized) {
-         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
-         return false;
+         return initFailed(reinit);
       }
 
       // Check that the runtime properties were correct
       if (!_configManager.propertiesRead()) {
-         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
-         return false;
+         return initFailed(reinit);
       }
 
       // Determine the current runtime properties
@@ -325,25 +345,31 @@ final class Engine {
           LogCentral.setStackTraceAtMessageLevel(false);
       } else if (stackTraceAtMessageLevel != null) {
          // XXX: Report this error in some way
-         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
-         return false;
+         return initFailed(reinit);
       }
 
       boolean succeeded = false;
+      Snapshot snapshot = null;
+      Snapshot replaced = null;
 
       try {
 
-         // Determine filter for incoming diagnostic context IDs
-         _contextIDPattern = determineContextIDPattern(properties);
+         // Create the new configuration while the current one is used
+         snapshot = createSnapshot(properties, reinit);
 
-         // Initialize the diagnostic context ID generator
-         _contextIDGenerator.init(properties);
+         // Wait for the running calls and hold the new ones while the API
+         // is re-initialized
+         if (reinit) {
+            _stateMachine.setState(EngineState.REINITIALIZING_API);
+            _stateMachine.waitForActiveCalls(REINIT_WAIT_TIME_OUT);
+         }
 
          // Initialize the API
          _api.init(properties);
 
-         // Initialize the default calling convention for this API
-         _conventionManager.init(properties);
+         // Use the new configuration
+         replaced  = _snapshot;
+         _snapshot = snapshot;
 
          succeeded = true;
 
@@ -370,13 +396,123 @@ final class Engine {
          if (succeeded) {
             _stateMachine.setState(EngineState.READY);
          } else {
-            _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
+            initFailed(reinit);
+         }
+      }
+
+      // Release the calling conventions that are no longer used: the new
+      // ones if the initialization failed, or the replaced ones once the
+      // calls that use them, possibly including the current call, are ended
+      if (reinit) {
+         Snapshot unused = succeeded ? replaced : snapshot;
+         if (unused != null && unused._conventionManager != _snapshot._conventionManager) {
+            unused.retire();
          }
       }
 
       return succeeded;
    }
 
+   /**
+    * Deinitializes a calling convention manager and its calling conventions.
+    * Any exception is logged and ignored.
+    *
+    * @param conventionManager
+    *    the calling convention manager that is no longer used, cannot be
+    *    <code>null</code>.
+    */
+   private static void deinit(CallingConventionManager conventionManager) {
+      if (! conventionManager.isBootstrapped()) {
+         return;
+      }
+      try {
+         conventionManager.deinit();
+      } catch (Throwable exception) {
+         Utils.logIgnoredException(exception);
+      }
+   }
+
+   /**
+    * Creates the configuration of the engine for the specified runtime
+    * properties.
+    *
+    * @param properties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @param reinit
+    *    <code>true</code> if the current configuration is used by incoming
+    *    requests, in which case new calling conventions and a new diagnostic
+    *    context ID generator are created; <code>false</code> if the ones
+    *    created during bootstrapping should be initialized.
+    *
+    * @return
+    *    the new configuration, never <code>null</code>.
+    *
+    * @throws Exception
+    *    if the configuration cannot be created.
+    */
+   private Snapshot createSnapshot(PropertyReader properties, boolean reinit)
+   throws Exception {
+
+      Snapshot current = _snapshot;
+      CallingConventionManager conventionManager;
+      ContextIDGenerator       contextIDGenerator;
+      if (reinit) {
+         conventionManager = new CallingConventionManager(_api);
+         conventionManager.bootstrap(_bootProps);
+         contextIDGenerator = new ContextIDGenerator(_api.getName());
+         contextIDGenerator.bootstrap(_bootProps);
+      } else {
+         conventionManager  = current._conventionManager;
+         contextIDGenerator = current._contextIDGenerator;
+      }
+
+      try {
+
+         // Determine filter for incoming diagnostic context IDs
+         Pattern contextIDPattern = determineContextIDPattern(properties);
+
+         // Initialize the diagnostic context ID generator
+         contextIDGenerator.init(properties);
+
+         // Initialize the calling conventions for this API
+         conventionManager.init(properties);
+
+         // Configure the queue of the transaction log
+         _api.getTransactionLog().init(properties);
+
+         return new Snapshot(conventionManager, contextIDGenerator, contextIDPattern);
+
+      // Release the new calling conventions if the configuration is invalid
+      } catch (Exception exception) {
+         if (reinit) {
+            deinit(conventionManager);
+         }
+         throw exception;
+      }
+   }
+
+   /**
+    * Handles the failure of the initialization of the API. If the API is
+    * being re-initialized and is still usable, the engine stays ready with
+    * the current configuration.
+    *
+    * @param reinit
+    *    <code>true</code> if the API was being re-initialized.
+    *
+    * @return
+    *    <code>false</code>.
+    */
+   private boolean initFailed(boolean reinit) {
+      if (reinit && _api.isUsable()) {
+         Log.log_3445();
+         _stateMachine.setState(EngineState.READY);
+      } else {
+         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
+      }
+      return false;
+   }
+
    /**
     * Determines the filter for diagnostic context identifiers.
     *
@@ -458,6 +594,21 @@ final class Engine {
          request.setCharacterEncoding("UTF-8");
       }
 
+      // Decompress the request body if it is compressed
+      HttpServletRequest decodedRequest;
+      try {
+         decodedRequest = CompressedRequest.decode(request);
+      } catch (IOException exception) {
+         Utils.logIgnoredException(exception);
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+         return;
+      }
+      if (decodedRequest == null) {
+         response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+         return;
+      }
+      request = decodedRequest;
+
       // Set the diagnostic context identifier
       applyContextID(request);
 
@@ -497,7 +648,7 @@ final class Engine {
       // Associate the current diagnostic context identifier with this thread
       String contextID = request.getParameter("_context");
       if (TextUtils.isEmpty(contextID)) {
-         contextID = _contextIDGenerator.generate();
+         contextID = _snapshot._contextIDGenerator.generate();
          NDC.push(contextID);
          Log.log_3583(contextID);
 
@@ -512,7 +663,7 @@ final class Engine {
          // Invalid context ID
          } else {
             Log.log_3582(contextID);
-            contextID = _contextIDGenerator.generate();
+            contextID = _snapshot._contextIDGenerator.generate();
             NDC.push(contextID);
             Log.log_3583(contextID);
          }
@@ -536,9 +687,10 @@ final class Engine {
    private boolean isValidContextID(String contextID) {
 
       // If a filter is specified, validate that the ID matches it
-      if (_contextIDPattern != null) {
+      Pattern contextIDPattern = _snapshot._contextIDPattern;
+      if (contextIDPattern != null) {
          Perl5Matcher matcher = new Perl5Matcher();
-         return matcher.matches(contextID, _contextIDPattern);
+         return matcher.matches(contextID, contextIDPattern);
 
       // No filter is specified, everything is allowed
       } else {
@@ -578,21 +730,59 @@ final class Engine {
       Log.log_3521(remoteIP, method, path, queryString);
 
       // If the current state is not usable, then return an error immediately
-      EngineState state = _stateMachine.getState();
+      EngineState state = _stateMachine.startCall(CALL_WAIT_TIME_OUT);
       if (! state.allowsInvocations()) {
          handleUnusableState(state, request, response);
+         return;
+      }
+
+      // The configuration is kept until the call ends, even if it is
+      // replaced in the mean time
+      Snapshot snapshot = startSnapshotCall();
+      if (snapshot == null) {
+         _stateMachine.endCall();
+         handleUnusableState(_stateMachine.getState(), request, response);
+         return;
+      }
+
+      try {
+
+         // Support the HTTP method "OPTIONS"
+         if ("OPTIONS".equals(method)) {
+            if ("*".equals(path)) {
+               handleOptions(null, request, response);
+            } else {
+               delegateToCC(start, snapshot, request, response);
+            }
 
-      // Support the HTTP method "OPTIONS"
-      } else if ("OPTIONS".equals(method)) {
-         if ("*".equals(path)) {
-            handleOptions(null, request, response);
+         // The request should be handled by a calling convention
          } else {
-            delegateToCC(start, request, response);
+            delegateToCC(start, snapshot, request, response);
          }
+      } finally {
+         snapshot.endCall();
+         _stateMachine.endCall();
+      }
+   }
 
-      // The request should be handled by a calling convention
-      } else {
-         delegateToCC(start, request, response);
+   /**
+    * Starts a call on the current configuration. If the configuration is
+    * replaced and released before the call could be started, the call is
+    * started on the new configuration.
+    *
+    * @return
+    *    the configuration to use for the call, or <code>null</code> if the
+    *    current configuration is released because the engine is destroyed.
+    *    {@link Snapshot#endCall()} must be called when the call is finished.
+    */
+   private Snapshot startSnapshotCall() {
+      while (true) {
+         Snapshot snapshot = _snapshot;
+         if (snapshot.startCall()) {
+            return snapshot;
+         } else if (snapshot == _snapshot) {
+            return null;
+         }
       }
    }
 
@@ -679,6 +869,9 @@ final class Engine {
     *    milliseconds since the
     *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
     *
+    * @param snapshot
+    *    the configuration used by the call, should not be <code>null</code>.
+    *
     * @param request
     *    the servlet request, should not be <code>null</code>.
     *
@@ -689,12 +882,13 @@ final class Engine {
     *    in case of an I/O error.
     */
    private void delegateToCC(long                start,
+                             Snapshot            snapshot,
                              HttpServletRequest  request,
                              HttpServletResponse response)
    throws IOException {
 
       // Determine the calling convention to use
-      CallingConvention cc = determineCC(request, response);
+      CallingConvention cc = determineCC(snapshot, request, response);
 
       // If it is null, then there was an error. This error will have been
       // handled completely, including logging and response output.
@@ -717,6 +911,9 @@ final class Engine {
     * request. In case of an error, an error response will be produced and
     * sent to the client.
     *
+    * @param snapshot
+    *    the configuration used by the call, cannot be <code>null</code>.
+    *
     * @param request
     *    the HTTP request for which to determine the calling convention to use
     *    cannot be <code>null</code>.
@@ -731,16 +928,18 @@ final class Engine {
     * @throws IOException
     *    in case of an I/O error.
     */
-   private final CallingConvention determineCC(HttpServletRequest  request,
+   private final CallingConvention determineCC(Snapshot            snapshot,
+                                               HttpServletRequest  request,
                                                HttpServletResponse response)
    throws IOException {
 
       // Determine the calling convention; if an existing calling convention
       // is specified in the request, then use that, otherwise use the default
       // calling convention for this engine
+      CallingConventionManager conventionManager = snapshot._conventionManager;
       CallingConvention cc = null;
       try {
-         cc = _conventionManager.getCallingConvention(request);
+         cc = conventionManager.getCallingConvention(request);
 
       // Only an InvalidRequestException is expected. If a different kind of
       // exception is received, then that is considered a programming error.
@@ -752,14 +951,14 @@ final class Engine {
             String method = request.getMethod();
             String ccName = request.getParameter(CallingConventionManager.CALLING_CONVENTION_PARAMETER);
             // Check if the method is known by at least one CC (otherwise 501)
-            if (!_conventionManager.getSupportedMethods().contains(method)) {
+            if (!conventionManager.getSupportedMethods().contains(method)) {
                statusCode = HttpServletResponse.SC_NOT_IMPLEMENTED;
                reason = "The HTTP method \"" + method + "\" is not known by any of the usable calling conventions.";
 
             // Check if the method is known for the specified CC (otherwise 405)
             } else if (ccName != null &&
-                  _conventionManager.getCallingConvention2(ccName) != null &&
-                  !Arrays.asList(_conventionManager.getCallingConvention2(ccName).getSupportedMethods(request)).contains(method)) {
+                  conventionManager.getCallingConvention2(ccName) != null &&
+                  !Arrays.asList(conventionManager.getCallingConvention2(ccName).getSupportedMethods(request)).contains(method)) {
                statusCode = HttpServletResponse.SC_METHOD_NOT_ALLOWED;
                reason = "The HTTP method \"" + method + "\" is not allowed for the calling convention \"" + ccName + "\".";
             } else {
@@ -907,7 +1106,8 @@ final class Engine {
 
       // Convert the XINS result to an HTTP response
       try {
-         cc.convertResult(result, response, request);
+         Function function = _api.getFunction(xinsRequest.getFunctionName());
+         cc.convertResult(result, response, request, function);
 
       // NOTE: If the convertResult method throws an exception, then it
       //       will have been logged within the CallingConvention class
@@ -945,7 +1145,7 @@ final class Engine {
       if (cc != null) {
          methods = cc.getSupportedMethods(request);
       } else {
-         Set supportedMethods = _conventionManager.getSupportedMethods();
+         Set supportedMethods = _snapshot._conventionManager.getSupportedMethods();
          methods = (String[]) supportedMethods.toArray(new String[supportedMethods.size()]);
       }
       String methodsList = "OPTIONS";
@@ -994,6 +1194,19 @@ final class Engine {
          }
       }
 
+      // Destroy the calling conventions, once the running calls are ended
+      Snapshot snapshot = _snapshot;
+      if (snapshot != null) {
+         snapshot.retire();
+      }
+
+      // Write the queued transaction log entries
+      try {
+         _api.getTransactionLog().flush(LOG_FLUSH_TIME_OUT);
+      } catch (Throwable exception) {
+         Utils.logIgnoredException(exception);
+      }
+
       // Set the state to DISPOSED
       _stateMachine.setState(EngineState.DISPOSED);
 
@@ -1009,6 +1222,22 @@ final class Engine {
       _configManager.reloadPropertiesIfChanged();
    }
 
+   /**
+    * Gets the calling conventions that have been created and that are
+    * usable.
+    *
+    * @return
+    *    the list of {@link CallingConvention} objects, never
+    *    <code>null</code>.
+    */
+   List getCallingConventions() {
+      Snapshot snapshot = _snapshot;
+      if (snapshot == null) {
+         return new ArrayList();
+      }
+      return snapshot._conventionManager.getCallingConventions();
+   }
+
    /**
     * Returns the <code>ServletConfig</code> object which contains the
     * build-time properties for this servlet. The returned
@@ -1090,53 +1319,6 @@ final class Engine {
       return null;
    }
 
-   /**
-    * Logs the specified transaction.
-    *
-    * @param request
-    *    the {@link FunctionRequest}, should not be <code>null</code>.
-    *
-    * @param result
-    *    the {@link FunctionResult}, should not be <code>null</code>.
-    *
-    * @param ip
-    *    the client IP address, should not be <code>null</code>.
-    *
-    * @param start
-    *    the start of the call, a timestamp as milliseconds since the Epoch.
-    *
-    * @param duration
-    *    the duration of the call, in milliseconds.
-    *
-    * @throws NullPointerException
-    *    if <code>request == null || result  == null</code>.
-    */
-   static void logTransaction(FunctionRequest request,
-                              FunctionResult  result,
-                              String          ip,
-                              long            start,
-                              long            duration)
-   throws NullPointerException {
-
-      // Determine the name of the function that was requested to be invoked
-      String functionName = request.getFunctionName();
-
-      // Determine error code, fallback is a zero character
-      String code = result.getErrorCode();
-      if (code == null || code.length() < 1) {
-         code = "0";
-      }
-
-      // Prepare for transaction logging
-      String serStart = DATE_CONVERTER.format(start);
-      Object inParams  = new FormattedParameters(request.getParameters(), request.getDataElement());
-      Object outParams = new FormattedParameters(result.getParameters(), result.getDataElement());
-
-      // Log transaction before returning the result
-      Log.log_3540(serStart, ip, functionName, duration, code, inParams, outParams);
-      Log.log_3541(serStart, ip, functionName, duration, code);
-   }
-
    /**
     * Handles the request for the _WSDL meta function.
     *
@@ -1244,4 +1426,125 @@ final class Engine {
       smdObject.put("methods", methods);
       return smdObject.toString();
    }
+
+   /**
+    * Configuration of the engine created from the runtime properties.
+    * The configuration itself is immutable; when the runtime properties are
+    * reloaded, a new instance replaces the current one. The calls that use
+    * an instance are counted, so that its calling conventions are only
+    * deinitialized once the instance is replaced and no longer used.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class Snapshot {
+
+      /**
+       * The manager for the calling conventions. Never <code>null</code>.
+       */
+      private final CallingConventionManager _conventionManager;
+
+      /**
+       * Diagnostic context ID generator. Never <code>null</code>.
+       */
+      private final ContextIDGenerator _contextIDGenerator;
+
+      /**
+       * Pattern which incoming diagnostic context identifiers must match.
+       * Can be <code>null</code> in case no pattern has been specified.
+       */
+      private final Pattern _contextIDPattern;
+
+      /**
+       * The number of calls that use this configuration. All accesses should
+       * be synchronized on this object.
+       */
+      private int _callCount;
+
+      /**
+       * Flag that indicates whether this configuration is no longer used for
+       * new calls. All accesses should be synchronized on this object.
+       */
+      private boolean _retired;
+
+      /**
+       * Flag that indicates whether the calling conventions of this
+       * configuration are deinitialized. All accesses should be synchronized
+       * on this object.
+       */
+      private boolean _released;
+
+      /**
+       * Constructs a new <code>Snapshot</code>.
+       *
+       * @param conventionManager
+       *    the manager for the calling conventions, cannot be
+       *    <code>null</code>.
+       *
+       * @param contextIDGenerator
+       *    the diagnostic context ID generator, cannot be <code>null</code>.
+       *
+       * @param contextIDPattern
+       *    the pattern for the incoming diagnostic context identifiers, can
+       *    be <code>null</code>.
+       */
+      private Snapshot(CallingConventionManager conventionManager,
+                       ContextIDGenerator       contextIDGenerator,
+                       Pattern                  contextIDPattern) {
+         _conventionManager  = conventionManager;
+         _contextIDGenerator = contextIDGenerator;
+         _contextIDPattern   = contextIDPattern;
+      }
+
+      /**
+       * Starts a call that uses this configuration.
+       *
+       * @return
+       *    <code>true</code> if the call is started, <code>false</code> if
+       *    the calling conventions of this configuration are already
+       *    deinitialized.
+       */
+      synchronized boolean startCall() {
+         if (_released) {
+            return false;
+         }
+         _callCount++;
+         return true;
+      }
+
+      /**
+       * Ends a call started with {@link #startCall()}. If this configuration
+       * is retired and this is the last call, the calling conventions are
+       * deinitialized.
+       */
+      void endCall() {
+         boolean release;
+         synchronized (this) {
+            _callCount--;
+            release = _retired && _callCount == 0 && ! _released;
+            _released |= release;
+         }
+         if (release) {
+            deinit(_conventionManager);
+         }
+      }
+
+      /**
+       * Indicates that this configuration is no longer used for new calls.
+       * The calling conventions are deinitialized now if no call uses this
+       * configuration, otherwise when the last call ends.
+       */
+      void retire() {
+         boolean release;
+         synchronized (this) {
+            _retired = true;
+            release = _callCount == 0 && ! _released;
+            _released |= release;
+         }
+         if (release) {
+            deinit(_conventionManager);
+         }
+      }
+   }
 }
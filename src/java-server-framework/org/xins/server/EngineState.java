@@ -81,6 +81,14 @@ final class EngineState {
    static final EngineState READY =
       new EngineState("READY", USABLE_STATE);
 
+   /**
+    * The <em>REINITIALIZING_API</em> state. The API is re-initialized with
+    * new runtime properties; incoming requests wait until the engine is
+    * ready again.
+    */
+   static final EngineState REINITIALIZING_API =
+      new EngineState("REINITIALIZING_API", INTERMEDIATE_STATE);
+
    /**
     * The <em>DISPOSING</em> state.
     */
@@ -6,6 +6,8 @@
  */
 package org.xins.server;
 
+import java.util.ArrayList;
+
 import org.xins.common.MandatoryArgumentChecker;
 
 /**
@@ -17,15 +19,29 @@ import org.xins.common.MandatoryArgumentChecker;
 final class EngineStateMachine {
 
    /**
-    * Lock for the <code>_state</code> field. This object must be locked on
-    * before _state may be read or changed.
+    * Lock for the state changes. The state can be read without locking, but
+    * this object must be locked on before <code>_state</code> is changed.
+    * Threads that wait for a state change or for the end of the active calls
+    * wait on this object.
     */
    private final Object _stateLock;
 
    /**
-    * The current state.
+    * The current state. Never <code>null</code>.
+    */
+   private volatile EngineState _state;
+
+   /**
+    * The call counters of the threads that have started calls. The array is
+    * never modified, it is replaced under <code>_stateLock</code> when a
+    * thread is added. Never <code>null</code>.
     */
-   private EngineState _state;
+   private volatile CallCounter[] _counters;
+
+   /**
+    * The call counter of the current thread.
+    */
+   private final ThreadLocal _counter = new ThreadLocal();
 
    /**
     * Constructs a new <code>EngineStateMachine</code> object. Initially the
@@ -34,17 +50,159 @@ final class EngineStateMachine {
    EngineStateMachine() {
       _stateLock = new Object();
       _state     = EngineState.INITIAL;
+      _counters  = new CallCounter[0];
    }
 
    /**
-    * Gets the current state.
+    * Gets the current state. This method does not lock.
     *
     * @return
     *    the current state, cannot be <code>null</code>.
     */
    EngineState getState() {
+      return _state;
+   }
+
+   /**
+    * Starts a call. If the API is being re-initialized, this method waits
+    * until the re-initialization is finished, within the specified time. If
+    * the returned state allows invocations, then {@link #endCall()} must be
+    * called when the call is finished.
+    *
+    * <p>Unless the API is being re-initialized, this method does not lock.
+    *
+    * @param timeOut
+    *    the maximum time to wait for the end of a re-initialization, in
+    *    milliseconds.
+    *
+    * @return
+    *    the current state, cannot be <code>null</code>. This is
+    *    {@link EngineState#REINITIALIZING_API} if the re-initialization did
+    *    not finish within the time-out or if the current thread was
+    *    interrupted while waiting.
+    */
+   EngineState startCall(long timeOut) {
+      long deadline = System.currentTimeMillis() + timeOut;
+      CallCounter counter = getCounter();
+      while (true) {
+
+         // The call is counted before the state is read, so that a
+         // re-initialization either sees the call or is seen by the call
+         counter._count++;
+         EngineState state = _state;
+         if (state.allowsInvocations()) {
+            return state;
+         }
+         decrement(counter);
+         if (state != EngineState.REINITIALIZING_API) {
+            return state;
+         }
+
+         // Wait until the re-initialization is finished, within limits
+         synchronized (_stateLock) {
+            while (_state == EngineState.REINITIALIZING_API) {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0L) {
+                  return EngineState.REINITIALIZING_API;
+               }
+               try {
+                  _stateLock.wait(remaining);
+               } catch (InterruptedException exception) {
+                  Thread.currentThread().interrupt();
+                  return EngineState.REINITIALIZING_API;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Ends a call started with {@link #startCall(long)}. Unless the API is
+    * being re-initialized, this method does not lock.
+    */
+   void endCall() {
+      decrement(getCounter());
+   }
+
+   /**
+    * Decrements a call counter of the current thread. If the API is being
+    * re-initialized, the thread waiting for the active calls is woken up.
+    *
+    * @param counter
+    *    the call counter of the current thread, cannot be <code>null</code>.
+    */
+   private void decrement(CallCounter counter) {
+      counter._count--;
+      if (_state == EngineState.REINITIALIZING_API) {
+         synchronized (_stateLock) {
+            _stateLock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Returns the call counter of the current thread. The first time a thread
+    * starts a call, its counter is registered and the counters of the
+    * threads that have died are removed.
+    *
+    * @return
+    *    the call counter of the current thread, never <code>null</code>.
+    */
+   private CallCounter getCounter() {
+      CallCounter counter = (CallCounter) _counter.get();
+      if (counter == null) {
+         counter = new CallCounter(Thread.currentThread());
+         synchronized (_stateLock) {
+            CallCounter[] counters = _counters;
+            ArrayList list = new ArrayList(counters.length + 1);
+            for (int i = 0; i < counters.length; i++) {
+               CallCounter c = counters[i];
+               if (c._thread.isAlive() || c._count != 0) {
+                  list.add(c);
+               }
+            }
+            list.add(counter);
+            _counters = (CallCounter[]) list.toArray(new CallCounter[list.size()]);
+         }
+         _counter.set(counter);
+      }
+      return counter;
+   }
+
+   /**
+    * Waits until the calls started before the re-initialization are
+    * finished. The call of the current thread, if any, is not waited for.
+    * If the current thread is interrupted, this method stops waiting.
+    *
+    * @param timeOut
+    *    the maximum time to wait, in milliseconds.
+    *
+    * @return
+    *    the number of calls that are still running.
+    */
+   int waitForActiveCalls(long timeOut) {
+      long deadline = System.currentTimeMillis() + timeOut;
+      CallCounter own = (CallCounter) _counter.get();
       synchronized (_stateLock) {
-         return _state;
+         while (true) {
+            int activeCalls = 0;
+            CallCounter[] counters = _counters;
+            for (int i = 0; i < counters.length; i++) {
+               if (counters[i] != own) {
+                  activeCalls += counters[i]._count;
+               }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (activeCalls <= 0 || remaining <= 0L) {
+               return activeCalls;
+            }
+            try {
+               _stateLock.wait(remaining);
+            } catch (InterruptedException exception) {
+               Thread.currentThread().interrupt();
+               return activeCalls;
+            }
+         }
       }
    }
 
@@ -153,6 +311,15 @@ final class EngineStateMachine {
          } else if (oldState == EngineState.READY
                  && newState == EngineState.INITIALIZING_API) {
 
+         // While the engine is ready, the API may be re-initialized, which
+         // may succeed or fail
+         } else if (oldState == EngineState.READY
+                 && newState == EngineState.REINITIALIZING_API) {
+         } else if (oldState == EngineState.REINITIALIZING_API
+                 && newState == EngineState.READY) {
+         } else if (oldState == EngineState.REINITIALIZING_API
+                 && newState == EngineState.API_INITIALIZATION_FAILED) {
+
          // After disposal the state changes to the final disposed state
          } else if (oldState == EngineState.DISPOSING
                  && newState == EngineState.DISPOSED) {
@@ -172,9 +339,41 @@ final class EngineStateMachine {
             throw new IllegalStateException(error);
          }
 
-         // Perform the state change
+         // Perform the state change and wake up the waiting calls
          _state = newState;
+         _stateLock.notifyAll();
          Log.log_3100(oldStateName, newStateName);
       }
    }
+
+   /**
+    * Number of active calls of a thread. Only the thread itself changes the
+    * count.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class CallCounter {
+
+      /**
+       * Constructs a new <code>CallCounter</code>.
+       *
+       * @param thread
+       *    the thread that owns this counter, cannot be <code>null</code>.
+       */
+      CallCounter(Thread thread) {
+         _thread = thread;
+      }
+
+      /**
+       * The thread that owns this counter. Never <code>null</code>.
+       */
+      final Thread _thread;
+
+      /**
+       * The number of calls started by the thread and not ended yet.
+       */
+      volatile int _count;
+   }
 }
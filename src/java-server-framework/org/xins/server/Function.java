@@ -53,6 +53,18 @@ public abstract class Function extends Manageable {
     */
    private boolean _enabled;
 
+   /**
+    * Flag that indicates if the successful results of this function can be
+    * cached by the clients.
+    */
+   private boolean _cacheable;
+
+   /**
+    * The number of seconds a client can cache a result of this function
+    * without checking it, or <code>-1</code> if not specified.
+    */
+   private int _cacheMaxAge;
+
    /**
     * Lock object for <code>_callCount</code>. This field cannot be
     * <code>null</code>.
@@ -100,6 +112,7 @@ public abstract class Function extends Manageable {
       _name         = name;
       _version      = version;
       _enabled      = true;
+      _cacheMaxAge  = -1;
 
       // Notify the API that a Function has been added
       _api.functionAdded(this);
@@ -163,6 +176,69 @@ public abstract class Function extends Manageable {
       _enabled = enabled;
    }
 
+   /**
+    * Checks if the successful results of this function can be cached by the
+    * clients. For such a function the framework sends an <code>ETag</code>
+    * header computed over the result and answers a matching
+    * <code>If-None-Match</code> header with HTTP status code 304 (Not
+    * Modified), without sending the result again.
+    *
+    * @return
+    *    <code>true</code> if the results of this function can be cached,
+    *    <code>false</code> otherwise.
+    *
+    * @see #setCacheable(boolean,int)
+    *
+    * @since XINS 2.4
+    */
+   public final boolean isCacheable() {
+      return _cacheable;
+   }
+
+   /**
+    * Returns the number of seconds a client can cache a result of this
+    * function without checking it with the server.
+    *
+    * @return
+    *    the number of seconds for the <code>Cache-Control</code> header, or
+    *    <code>-1</code> if no such header is sent.
+    *
+    * @since XINS 2.4
+    */
+   public final int getCacheMaxAge() {
+      return _cacheMaxAge;
+   }
+
+   /**
+    * Sets if the successful results of this function can be cached by the
+    * clients. Only functions that always return the same result for the same
+    * request, without side effects, should be cacheable. This method is
+    * called by the generated function class for the functions declared with
+    * the <code>cacheable</code> attribute in the specification.
+    *
+    * @param cacheable
+    *    <code>true</code> if the results of this function can be cached,
+    *    <code>false</code> if not.
+    *
+    * @param maxAge
+    *    the number of seconds a client can cache a result without checking
+    *    it, or <code>-1</code> if no <code>Cache-Control</code> header
+    *    should be sent.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>maxAge &lt; -1</code>.
+    *
+    * @since XINS 2.4
+    */
+   protected final void setCacheable(boolean cacheable, int maxAge)
+   throws IllegalArgumentException {
+      if (maxAge < -1) {
+         throw new IllegalArgumentException("maxAge (" + maxAge + ") < -1");
+      }
+      _cacheable   = cacheable;
+      _cacheMaxAge = maxAge;
+   }
+
    /**
     * Returns the call statistics for this function.
     *
@@ -316,6 +392,6 @@ public abstract class Function extends Manageable {
       // Update statistics and determine the duration of the call
       boolean isSuccess = code == null;
       long duration = _statistics.recordCall(start, isSuccess, code);
-      Engine.logTransaction(functionRequest, result, ip, start, duration);
+      _api.getTransactionLog().log(functionRequest, result, ip, start, duration);
    }
 }
@@ -6,7 +6,9 @@
  */
 package org.xins.server;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 
@@ -17,6 +19,13 @@ import org.xins.common.xml.ElementBuilder;
 /**
  * Statistics of a function.
  *
+ * <p>The calls are recorded in one of several stripes, selected by the
+ * calling thread, so that threads calling the same function do not contend
+ * on a single lock. The stripes are merged when the statistics are
+ * requested. Besides the minimum, maximum and average durations, the
+ * statistics contain the percentiles of the durations, computed from a
+ * {@link LatencyHistogram}.
+ *
  * <p>The implementation of this class is thread-safe.
  *
  * @version $Revision$ $Date$
@@ -38,30 +47,37 @@ class FunctionStatistics {
    private static final TimeZone TIME_ZONE = TimeZone.getDefault();
 
    /**
-    * Constructs a new <code>FunctionStatistics</code> instance.
+    * The number of stripes. Must be a power of 2.
     */
-   FunctionStatistics() {
-      _successful          = new Statistic();
-      _unsuccessful        = new Statistic();
-      _errorCodeStatistics = new TreeMap();
-   }
+   private static final int STRIPE_COUNT = 8;
 
    /**
-    * Statistics for the successful calls. Never <code>null</code>.
+    * Constructs a new <code>FunctionStatistics</code> instance.
     */
-   private final Statistic _successful;
+   FunctionStatistics() {
+      _stripes = new Stripe[STRIPE_COUNT];
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         _stripes[i] = new Stripe();
+      }
+   }
 
    /**
-    * Statistic over the unsuccessful calls. Never <code>null</code>.
+    * The stripes in which the calls are recorded. Never <code>null</code>.
     */
-   private final Statistic _unsuccessful;
+   private final Stripe[] _stripes;
 
    /**
-    * Statistics over the unsuccessful calls sorted by error code.
-    * The key of the map is the error code and the Statistic object
-    * corresponding to the error code. Never <code>null</code>.
+    * Returns the stripe for the current thread.
+    *
+    * @return
+    *    the stripe, never <code>null</code>.
     */
-   private final TreeMap _errorCodeStatistics;
+   private Stripe currentStripe() {
+      int hash = System.identityHashCode(Thread.currentThread());
+      hash ^= (hash >>> 16);
+      hash ^= (hash >>> 7) ^ (hash >>> 4);
+      return _stripes[hash & (STRIPE_COUNT - 1)];
+   }
 
    /**
     * Callback method that may be called after a call to this function. This
@@ -86,28 +102,32 @@ class FunctionStatistics {
     *    The duration is computed as the difference in between
     *    the start time and the time that this method has been invoked.
     */
-   final synchronized long recordCall(long    start,
-                                      boolean success,
-                                      String  errorCode) {
+   final long recordCall(long    start,
+                         boolean success,
+                         String  errorCode) {
 
       long duration = System.currentTimeMillis() - start;
 
-      // Call succeeded
-      if (success) {
+      Stripe stripe = currentStripe();
+      synchronized (stripe) {
 
-         _successful.recordCall(start, duration);
+         // Call succeeded
+         if (success) {
 
-      // Call failed
-      } else {
+            stripe._successful.recordCall(start, duration);
 
-         _unsuccessful.recordCall(start, duration);
+         // Call failed
+         } else {
+
+            stripe._unsuccessful.recordCall(start, duration);
 
-         Statistic errorCodeStat = (Statistic)_errorCodeStatistics.get(errorCode);
-         if (errorCodeStat == null) {
-            errorCodeStat = new Statistic();
+            Statistic errorCodeStat = (Statistic) stripe._errorCodeStatistics.get(errorCode);
+            if (errorCodeStat == null) {
+               errorCodeStat = new Statistic(false);
+               stripe._errorCodeStatistics.put(errorCode, errorCodeStat);
+            }
+            errorCodeStat.recordCall(start, duration);
          }
-         errorCodeStat.recordCall(start, duration);
-         _errorCodeStatistics.put(errorCode, errorCodeStat);
       }
       return duration;
    }
@@ -115,10 +135,15 @@ class FunctionStatistics {
    /**
     * Resets the statistics for this function.
     */
-   final synchronized void resetStatistics() {
-      _successful.reset();
-      _unsuccessful.reset();
-      _errorCodeStatistics.clear();
+   final void resetStatistics() {
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = _stripes[i];
+         synchronized (stripe) {
+            stripe._successful.reset();
+            stripe._unsuccessful.reset();
+            stripe._errorCodeStatistics.clear();
+         }
+      }
    }
 
    /**
@@ -127,8 +152,15 @@ class FunctionStatistics {
     * @return
     *    the successful element, cannot be <code>null</code>
     */
-   public synchronized Element getSuccessfulElement() {
-      return _successful.getElement(true, null);
+   public Element getSuccessfulElement() {
+      Statistic successful = new Statistic(true);
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = _stripes[i];
+         synchronized (stripe) {
+            successful.add(stripe._successful);
+         }
+      }
+      return successful.getElement(true, null);
    }
 
 
@@ -143,18 +175,41 @@ class FunctionStatistics {
     * @return
     *    the successful element, cannot be empty.
     */
-   public synchronized Element[] getUnsuccessfulElement(boolean detailed) {
-      if (!detailed || _errorCodeStatistics.size() == 0) {
+   public Element[] getUnsuccessfulElement(boolean detailed) {
+
+      // Merge the stripes
+      Statistic unsuccessful = new Statistic(true);
+      TreeMap errorCodeStatistics = new TreeMap();
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+         Stripe stripe = _stripes[i];
+         synchronized (stripe) {
+            unsuccessful.add(stripe._unsuccessful);
+            if (detailed) {
+               Iterator itErrorCodeStats = stripe._errorCodeStatistics.entrySet().iterator();
+               while (itErrorCodeStats.hasNext()) {
+                  Map.Entry entry = (Map.Entry) itErrorCodeStats.next();
+                  Statistic errorCodeStat = (Statistic) errorCodeStatistics.get(entry.getKey());
+                  if (errorCodeStat == null) {
+                     errorCodeStat = new Statistic(false);
+                     errorCodeStatistics.put(entry.getKey(), errorCodeStat);
+                  }
+                  errorCodeStat.add((Statistic) entry.getValue());
+               }
+            }
+         }
+      }
+
+      if (!detailed || errorCodeStatistics.size() == 0) {
          Element[] result = new Element[1];
-         result[0] = _unsuccessful.getElement(false, null);
+         result[0] = unsuccessful.getElement(false, null);
          return result;
       } else {
-         Element[] result = new Element[_errorCodeStatistics.size()];
+         Element[] result = new Element[errorCodeStatistics.size()];
          int i = 0;
-         Iterator itErrorCodeStats = _errorCodeStatistics.keySet().iterator();
+         Iterator itErrorCodeStats = errorCodeStatistics.keySet().iterator();
          while (itErrorCodeStats.hasNext()) {
             String nextErrorCode = (String) itErrorCodeStats.next();
-            Statistic nextStat = (Statistic) _errorCodeStatistics.get(nextErrorCode);
+            Statistic nextStat = (Statistic) errorCodeStatistics.get(nextErrorCode);
             result[i] = nextStat.getElement(false, nextErrorCode);
             i++;
          }
@@ -162,10 +217,39 @@ class FunctionStatistics {
       }
    }
 
+   /**
+    * Statistics recorded by the threads assigned to one stripe. All accesses
+    * should be synchronized on the stripe.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private static final class Stripe {
+
+      /**
+       * Statistics for the successful calls. Never <code>null</code>.
+       */
+      private final Statistic _successful = new Statistic(true);
+
+      /**
+       * Statistic over the unsuccessful calls. Never <code>null</code>.
+       */
+      private final Statistic _unsuccessful = new Statistic(true);
+
+      /**
+       * Statistics over the unsuccessful calls by error code. The key of the
+       * map is the error code and the value is the Statistic object
+       * corresponding to the error code. Never <code>null</code>.
+       */
+      private final HashMap _errorCodeStatistics = new HashMap();
+   }
+
    /**
     * Group of statistics data.
     *
-    * <p>The implementation of this class is thread-safe.
+    * <p>The implementation of this class is not thread-safe, the accesses are
+    * synchronized on the {@link Stripe} containing the statistic.
     *
     * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
     *
@@ -219,11 +303,22 @@ class FunctionStatistics {
        */
       private long _maxStart;
 
+      /**
+       * The histogram of the durations, or <code>null</code> if the
+       * percentiles are not computed for this statistic.
+       */
+      private final LatencyHistogram _histogram;
+
       /**
        * Constructs a new <code>Statistic</code> object.
+       *
+       * @param percentiles
+       *    <code>true</code> if the percentiles of the durations should be
+       *    computed.
        */
-      private Statistic() {
+      private Statistic(boolean percentiles) {
          _min = Long.MAX_VALUE;
+         _histogram = percentiles ? new LatencyHistogram() : null;
       }
 
       /**
@@ -237,7 +332,7 @@ class FunctionStatistics {
        *    duration of the call, in milliseconds since the
        *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
        */
-      public synchronized void recordCall(long start, long duration) {
+      public void recordCall(long start, long duration) {
          _lastStart    = start;
          _lastDuration = duration;
          _calls++;
@@ -246,6 +341,39 @@ class FunctionStatistics {
          _max      = _max < duration ? duration : _max;
          _minStart = (_min == duration) ? start : _minStart;
          _maxStart = (_max == duration) ? start : _maxStart;
+         if (_histogram != null) {
+            _histogram.record(duration);
+         }
+      }
+
+      /**
+       * Adds the calls recorded by another statistic to this statistic.
+       *
+       * @param other
+       *    the other statistic, cannot be <code>null</code>.
+       */
+      public void add(Statistic other) {
+         if (other._calls == 0) {
+            return;
+         }
+         boolean empty = _calls == 0;
+         if (empty || other._lastStart > _lastStart) {
+            _lastStart    = other._lastStart;
+            _lastDuration = other._lastDuration;
+         }
+         _calls    += other._calls;
+         _duration += other._duration;
+         if (empty || other._min < _min) {
+            _min      = other._min;
+            _minStart = other._minStart;
+         }
+         if (empty || other._max > _max) {
+            _max      = other._max;
+            _maxStart = other._maxStart;
+         }
+         if (_histogram != null && other._histogram != null) {
+            _histogram.add(other._histogram);
+         }
       }
 
       /**
@@ -260,7 +388,7 @@ class FunctionStatistics {
        * @return
        *    the statistic, cannot be <code>null</code>
        */
-      public synchronized Element getElement(boolean successful, String errorCode) {
+      public Element getElement(boolean successful, String errorCode) {
 
          String average;
          String min;
@@ -312,13 +440,36 @@ class FunctionStatistics {
          lastElem.setAttribute("start",    lastStart);
          lastElem.setAttribute("duration", lastDuration);
          element.addChild(lastElem.createElement());
+         if (_histogram != null) {
+            ElementBuilder percentilesElem = new ElementBuilder("percentiles");
+            percentilesElem.setAttribute("p50",  percentile(0.5));
+            percentilesElem.setAttribute("p90",  percentile(0.9));
+            percentilesElem.setAttribute("p99",  percentile(0.99));
+            percentilesElem.setAttribute("p999", percentile(0.999));
+            element.addChild(percentilesElem.createElement());
+         }
          return element.createElement();
       }
 
+      /**
+       * Gets a percentile of the durations as a string.
+       *
+       * @param fraction
+       *    the fraction, e.g. <code>0.99</code> for the 99th percentile.
+       *
+       * @return
+       *    the percentile in milliseconds, or {@link #NOT_AVAILABLE} if no
+       *    call has been recorded.
+       */
+      private String percentile(double fraction) {
+         long value = _histogram.getPercentile(fraction);
+         return value < 0L ? NOT_AVAILABLE : String.valueOf(value);
+      }
+
       /**
        * Resets this statistic.
        */
-      public synchronized void reset() {
+      public void reset() {
          _calls        = 0;
          _lastStart    = 0L;
          _lastDuration = 0L;
@@ -327,6 +478,9 @@ class FunctionStatistics {
          _minStart     = 0L;
          _max          = 0L;
          _maxStart     = 0L;
+         if (_histogram != null) {
+            _histogram.reset();
+         }
       }
    }
 }
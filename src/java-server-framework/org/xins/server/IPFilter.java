@@ -311,6 +311,7 @@ public final class IPFilter {
     *
     * @param ipString
     *    the String representation of the IP address, cannot be <code>null</code>
+    *
     * @return
     *    the series of bits representing the IP address, never <code>null</code>
     *
@@ -319,7 +320,28 @@ public final class IPFilter {
     */
    private static BitSet ipStringToBitSet(String ipString) throws ParseException {
       BitSet ipBits = new BitSet();
+      byte[] ipBytes = toBytes(ipString);
+      for (int i = 0; i < ipBytes.length * 8; i++) {
+         boolean isTrue = (ipBytes[ipBytes.length - i / 8 - 1] & (1 << (i % 8))) > 0;
+         ipBits.set(i, isTrue);
+      }
+      return ipBits;
+   }
 
+   /**
+    * Converts the IP address to bytes, as returned by
+    * {@link InetAddress#getAddress()}.
+    *
+    * @param ipString
+    *    the String representation of the IP address, cannot be <code>null</code>
+    *
+    * @return
+    *    the 4 or 16 bytes of the IP address, never <code>null</code>
+    *
+    * @throws ParseException
+    *    if the IP address is not a valid IP address.
+    */
+   private static byte[] toBytes(String ipString) throws ParseException {
       if (!ipString.matches(IP_4_PATTERN) && !ipString.matches(IP_6_PATTERN)) {
          throw new ParseException("The string \"" + ipString + "\" is not a valid IP address as it does not match the patterns.");
       }
@@ -332,11 +354,49 @@ public final class IPFilter {
       if (ipBytes.length != 4 && ipBytes.length != 16) {
          throw new ParseException("Incorrect transformation as " + ipBytes.length + " bytes array are created for ip " + ipString);
       }
-      for (int i = 0; i < ipBytes.length * 8; i++) {
-         boolean isTrue = (ipBytes[ipBytes.length - i / 8 - 1] & (1 << (i % 8))) > 0;
-         ipBits.set(i, isTrue);
+      return ipBytes;
+   }
+
+   /**
+    * Converts the IP address to the bits compared by the filters. IPv4
+    * addresses have 32 bits and IPv6 addresses have 128 bits. An IPv6
+    * address that is converted to an IPv4 address, such as
+    * <code>::ffff:10.0.0.1</code>, is compared as
+    * <code>::10.0.0.1</code>, as by {@link #match(String)}.
+    *
+    * @param ipString
+    *    the String representation of the IP address, cannot be <code>null</code>
+    *
+    * @return
+    *    4 bytes for IPv4 addresses and 16 bytes for IPv6 addresses, most
+    *    significant byte first, never <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the IP address is not a valid IP address.
+    *
+    * @since XINS 2.4
+    */
+   static byte[] toAddress(String ipString) throws ParseException {
+      byte[] ipBytes = toBytes(ipString);
+      if (ipString.indexOf(':') != -1 && ipBytes.length == 4) {
+         byte[] ipv6Bytes = new byte[16];
+         System.arraycopy(ipBytes, 0, ipv6Bytes, 12, 4);
+         ipBytes = ipv6Bytes;
       }
-      return ipBits;
+      return ipBytes;
+   }
+
+   /**
+    * Indicates whether this filter is for IPv6 addresses.
+    *
+    * @return
+    *    <code>true</code> if this filter only accepts IPv6 addresses,
+    *    <code>false</code> if it only accepts IPv4 addresses.
+    *
+    * @since XINS 2.4
+    */
+   boolean isIPv6Filter() {
+      return _isIPv6Filter;
    }
 
    /**
@@ -8,19 +8,16 @@ package org.xins.server;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.XML;
-
+import org.xins.common.Utils;
 import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.text.ParseException;
 import org.xins.common.text.TextUtils;
 import org.xins.common.xml.Element;
-import org.xins.common.xml.ElementParser;
 
 /**
  * The JSON calling convention.
@@ -80,13 +77,16 @@ public class JSONCallingConvention extends CallingConvention {
       String dataString = httpRequest.getParameter("_data");
       if (!TextUtils.isEmpty(dataString)) {
          try {
-            JSONObject dataSectionObject = new JSONObject(dataString);
-            String dataSectionString = XML.toString(dataSectionObject);
-            dataElement = new ElementParser().parse(dataSectionString);
-         } catch (JSONException jsonex) {
-            throw new InvalidRequestException("Invalid JSON input data section.", jsonex);
-         } catch (ParseException pex) {
-            throw new InvalidRequestException("Invalid XML created from JSON object.", pex);
+            JSONStreamReader reader = new JSONStreamReader(new StringReader(dataString));
+            dataElement = reader.readDataSection();
+
+         // I/O error, should never happen on a StringReader
+         } catch (IOException exception) {
+            throw Utils.logProgrammingError(exception);
+
+         // Parsing error
+         } catch (ParseException exception) {
+            throw new InvalidRequestException("Invalid JSON input data section.", exception);
          }
       }
 
@@ -103,22 +103,22 @@ public class JSONCallingConvention extends CallingConvention {
       PrintWriter out = httpResponse.getWriter();
       httpResponse.setStatus(HttpServletResponse.SC_OK);
 
-      try {
-         JSONObject jsonResult = JSONRPCCallingConvention.createResultObject(xinsResult);
-         if (xinsResult.getErrorCode() != null) {
-            jsonResult.put("errorCode", xinsResult.getErrorCode());
-         }
-         String callback = httpRequest.getParameter("callback");
-         if (!TextUtils.isEmpty(callback)) {
-            out.print(callback + "(");
-         }
-         String jsonString = jsonResult.toString();
-         out.print(jsonString);
-         if (!TextUtils.isEmpty(callback)) {
-            out.print(")");
-         }
-      } catch (JSONException jsonex) {
-         throw new IOException(jsonex.getMessage());
+      String callback = httpRequest.getParameter("callback");
+      if (!TextUtils.isEmpty(callback)) {
+         out.print(callback + "(");
+      }
+
+      // Write the result directly to the response
+      JSONStreamWriter writer = new JSONStreamWriter(out);
+      writer.beginObject();
+      writer.writeResult(xinsResult);
+      if (xinsResult.getErrorCode() != null) {
+         writer.name("errorCode").value(xinsResult.getErrorCode());
+      }
+      writer.endObject();
+
+      if (!TextUtils.isEmpty(callback)) {
+         out.print(")");
       }
 
       out.close();
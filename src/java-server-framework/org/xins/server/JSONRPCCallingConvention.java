@@ -8,11 +8,11 @@ package org.xins.server;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -20,13 +20,11 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.XML;
 
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.collections.PropertyReader;
-import org.xins.common.collections.PropertyReaderConverter;
 import org.xins.common.spec.APISpec;
 import org.xins.common.spec.EntityNotFoundException;
 import org.xins.common.spec.ErrorCodeSpec;
@@ -161,45 +159,37 @@ public class JSONRPCCallingConvention extends CallingConvention {
          }
       }
 
-      // Transform the XINS result to a JSON object
-      JSONObject returnObject = new JSONObject();
-      try {
-         String version = (String) httpRequest.getSession().getAttribute("version");
-         if (version != null) {
-            returnObject.put("version", version);
-         }
-         if (xinsResult.getErrorCode() != null) {
-            if (version == null) {
-               returnObject.put("result", JSONObject.NULL);
-               returnObject.put("error", xinsResult.getErrorCode());
-            } else {
-               JSONObject errorObject = new JSONObject();
-               String errorCode = xinsResult.getErrorCode();
-               errorObject.put("name", errorCode);
-               errorObject.put("code", new Integer(123));
-               errorObject.put("message", getErrorDescription(functionName, errorCode));
-               JSONObject paramsObject = createResultObject(xinsResult);
-               errorObject.put("error", paramsObject);
-               returnObject.put("error", errorObject);
-            }
+      // Write the XINS result directly to the response
+      JSONStreamWriter writer = new JSONStreamWriter(out);
+      writer.beginObject();
+      String version = (String) httpRequest.getSession().getAttribute("version");
+      if (version != null) {
+         writer.name("version").value(version);
+      }
+      String errorCode = xinsResult.getErrorCode();
+      if (errorCode != null) {
+         if (version == null) {
+            writer.name("result").value(null);
+            writer.name("error").value(errorCode);
          } else {
-            JSONObject paramsObject = createResultObject(xinsResult);
-            returnObject.put("result", paramsObject);
-            if (version == null) {
-               returnObject.put("error", JSONObject.NULL);
-            }
+            writer.name("error").beginObject();
+            writer.name("name").value(errorCode);
+            writer.name("code").value(new Integer(123));
+            writer.name("message").value(getErrorDescription(functionName, errorCode));
+            writer.name("error").beginObject().writeResult(xinsResult).endObject();
+            writer.endObject();
          }
-         Object requestId = httpRequest.getSession().getAttribute("id");
-         if (requestId != null) {
-            returnObject.put("id", requestId);
+      } else {
+         writer.name("result").beginObject().writeResult(xinsResult).endObject();
+         if (version == null) {
+            writer.name("error").value(null);
          }
-
-         // Write the result to the servlet response
-         String returnString = returnObject.toString();
-         out.print(returnString);
-      } catch (JSONException jsonex) {
-         throw new IOException(jsonex.getMessage());
       }
+      Object requestId = httpRequest.getSession().getAttribute("id");
+      if (requestId != null) {
+         writer.name("id").value(requestId);
+      }
+      writer.endObject();
 
       out.close();
    }
@@ -241,7 +231,7 @@ public class JSONRPCCallingConvention extends CallingConvention {
       // Get data section
       String dataSectionValue = httpRequest.getParameter("_data");
       if (dataSectionValue != null && dataSectionValue.length() > 0) {
-         ElementParser parser = new ElementParser();
+         ElementParser parser = ElementParser.getThreadInstance();
          try {
             dataElement = parser.parse(new StringReader(dataSectionValue));
 
@@ -276,109 +266,94 @@ public class JSONRPCCallingConvention extends CallingConvention {
     */
    private FunctionRequest parsePostRequest(HttpServletRequest httpRequest)
    throws InvalidRequestException, FunctionNotSpecifiedException {
-      String functionName;
+      String functionName = null;
       BasicPropertyReader functionParams = new BasicPropertyReader();
+      List paramValues = null;
+      boolean hasParams = false;
       Element dataElement = null;
 
-      // Read the message
-      // TODO replace with IOReader.readFully()
-      StringBuffer requestBuffer = new StringBuffer(2048);
+      // Read the members of the message as they are received
       try {
-         Reader reader = httpRequest.getReader();
-         char[] buffer = new char[2048];
-         int length;
-         while ((length = reader.read(buffer)) != -1) {
-            requestBuffer.append(buffer, 0, length);
+         JSONStreamReader reader = new JSONStreamReader(httpRequest.getReader());
+         reader.beginObject();
+         String name;
+         while ((name = reader.nextName()) != null) {
+            if ("version".equals(name)) {
+               String version = reader.nextValue().toString();
+               httpRequest.getSession(true).setAttribute("version", version);
+            } else if ("method".equals(name)) {
+               functionName = reader.nextValue().toString();
+               httpRequest.getSession(true).setAttribute("functionName", functionName);
+            } else if ("params".equals(name)) {
+               hasParams = true;
+               int type = reader.peek();
+               if (type == JSONStreamReader.ARRAY) {
+
+                  // The names of the parameters are only known with the function
+                  paramValues = new ArrayList();
+                  reader.beginArray();
+                  while (reader.hasNextItem()) {
+                     paramValues.add(reader.nextValue().toString());
+                  }
+               } else if (type == JSONStreamReader.OBJECT) {
+                  reader.beginObject();
+                  String paramName;
+                  while ((paramName = reader.nextName()) != null) {
+                     if (paramName.equals("_data")) {
+                        dataElement = reader.readDataSection();
+                     } else {
+                        functionParams.set(paramName, reader.nextValue().toString());
+                     }
+                  }
+               } else {
+                  reader.nextValue();
+               }
+            } else if ("id".equals(name)) {
+               Object id = reader.nextValue();
+               httpRequest.getSession(true).setAttribute("id", id);
+            } else {
+               reader.nextValue();
+            }
          }
       } catch (IOException ioe) {
          throw new InvalidRequestException("I/O Error while reading the request: " + ioe.getMessage());
+      } catch (ParseException parseEx) {
+         throw new InvalidRequestException(parseEx.getMessage());
       }
-      String requestString = requestBuffer.toString();
 
-      // Extract the request from the message
-      try {
-         JSONObject requestObject = new JSONObject(requestString);
-
-         Object version = requestObject.opt("version");
-         if (version != null) {
-            httpRequest.getSession(true).setAttribute("version", (String) version);
-         }
-
-         functionName = requestObject.getString("method");
-         httpRequest.getSession(true).setAttribute("functionName", functionName);
-         if (functionName.equals("system.describe")) {
-            return new FunctionRequest(functionName, null, null, true);
-         }
+      if (functionName == null) {
+         throw new InvalidRequestException("The JSON-RPC request does not contain the method.");
+      }
+      if (functionName.equals("system.describe")) {
+         return new FunctionRequest(functionName, null, null, true);
+      }
+      if (!hasParams) {
+         throw new InvalidRequestException("The JSON-RPC request does not contain the params.");
+      }
 
-         Object paramsParam = requestObject.get("params");
-         if (paramsParam instanceof JSONArray) {
-            JSONArray paramsArray = (JSONArray) paramsParam;
+      // Map the positional parameters to the input parameters of the function
+      if (paramValues != null) {
+         try {
             Iterator itInputParams = _api.getAPISpecification().getFunction(functionName).getInputParameters().keySet().iterator();
             int paramPos = 0;
-            while (itInputParams.hasNext() && paramPos < paramsArray.length()) {
+            while (itInputParams.hasNext() && paramPos < paramValues.size()) {
                String nextParamName = (String) itInputParams.next();
-               Object nextParamValue = paramsArray.get(paramPos);
-               functionParams.set(nextParamName, String.valueOf(nextParamValue));
+               functionParams.set(nextParamName, (String) paramValues.get(paramPos));
                paramPos++;
             }
-         } else if (paramsParam instanceof JSONObject) {
-            JSONObject paramsObject = (JSONObject) paramsParam;
-            JSONArray paramNames = paramsObject.names();
-            for (int i = 0; i < paramNames.length(); i++) {
-               String nextName = paramNames.getString(i);
-               if (nextName.equals("_data")) {
-                  JSONObject dataSectionObject = paramsObject.getJSONObject("_data");
-                  String dataSectionString = XML.toString(dataSectionObject);
-                  dataElement = new ElementParser().parse(dataSectionString);
-               } else {
-                  String value = paramsObject.get(nextName).toString();
-                  functionParams.set(nextName, value);
-               }
-            }
-         }
-         Object id = requestObject.opt("id");
-         if (id != null) {
-            httpRequest.getSession().setAttribute("id", id);
+         } catch (InvalidSpecificationException isex) {
+            RuntimeException exception = new RuntimeException();
+            ExceptionUtils.setCause(exception, isex);
+            throw exception;
+         } catch (EntityNotFoundException enfex) {
+            RuntimeException exception = new RuntimeException();
+            ExceptionUtils.setCause(exception, enfex);
+            throw exception;
          }
-      } catch (ParseException parseEx) {
-         throw new InvalidRequestException(parseEx.getMessage());
-      } catch (JSONException jsonex) {
-         throw new InvalidRequestException(jsonex.getMessage());
-      } catch (InvalidSpecificationException isex) {
-         RuntimeException exception = new RuntimeException();
-         ExceptionUtils.setCause(exception, isex);
-         throw exception;
-      } catch (EntityNotFoundException enfex) {
-         RuntimeException exception = new RuntimeException();
-         ExceptionUtils.setCause(exception, enfex);
-         throw exception;
       }
       return new FunctionRequest(functionName, functionParams, dataElement);
    }
 
-   /**
-    * Creates the JSON object from the result returned by the function.
-    *
-    * @param xinsResult
-    *    the result returned by the function, cannot be <code>null</code>.
-    *
-    * @return
-    *    the JSON object created from the result of the function, never <code>null</code>.
-    *
-    * @throws JSONException
-    *    if the object cannot be created for any reason.
-    */
-   static JSONObject createResultObject(FunctionResult xinsResult) throws JSONException {
-      Properties params = PropertyReaderConverter.toProperties(xinsResult.getParameters());
-      JSONObject paramsObject = new JSONObject(params);
-      if (xinsResult.getDataElement() != null) {
-         String dataSection = xinsResult.getDataElement().toString();
-         JSONObject dataSectionObject = XML.toJSONObject(dataSection);
-         paramsObject.accumulate("data", dataSectionObject);
-      }
-      return paramsObject;
-   }
-
    /**
     * Creates the JSON object containing the description of the API.
     * Specifications are available at http://json-rpc.org/wd/JSON-RPC-1-1-WD-20060807.html
@@ -0,0 +1,776 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.text.ParseException;
+import org.xins.common.xml.Element;
+
+/**
+ * Streaming reader for JSON text. The values are read one at a time from the
+ * underlying reader, without building an object tree.
+ *
+ * <p>The syntax accepted is the same as the one of the <code>org.json</code>
+ * library used by the JSON calling conventions: strings can be quoted with
+ * single quotes, keys and simple values do not need to be quoted, members
+ * can be separated by <code>';'</code> and comments are skipped.
+ *
+ * <p>A JSON object can be read directly as a data section with
+ * {@link #readDataSection()}. The mapping is the same as the one of
+ * <code>org.json.XML.toString</code>:
+ *
+ * <ul>
+ *    <li>each member of an object is a child element with the name of the
+ *        member;
+ *    <li>a member with an array value is a child element for each item of
+ *        the array;
+ *    <li>a member with a simple value is a child element with the value as
+ *        text;
+ *    <li>the <code>content</code> member is the text of the element, the
+ *        items of an array being separated by new lines.
+ * </ul>
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class JSONStreamReader {
+
+   /**
+    * Value returned by {@link #peek()} when the next value is an object.
+    */
+   public static final int OBJECT = 1;
+
+   /**
+    * Value returned by {@link #peek()} when the next value is an array.
+    */
+   public static final int ARRAY = 2;
+
+   /**
+    * Value returned by {@link #peek()} when the next value is a string, a
+    * number, a boolean or <code>null</code>.
+    */
+   public static final int SIMPLE = 3;
+
+   /**
+    * The value returned by {@link #nextValue()} for <code>null</code>.
+    */
+   public static final JSONStreamWriter.Literal NULL = new JSONStreamWriter.Literal("null");
+
+   /**
+    * The member name used for the text of an element.
+    */
+   private static final String CONTENT = "content";
+
+   /**
+    * The characters that end a value that is not quoted.
+    */
+   private static final String UNQUOTED_DELIMITERS = ",:]}/\\\"[{;=#";
+
+   /**
+    * The underlying reader. Never <code>null</code>.
+    */
+   private final Reader _in;
+
+   /**
+    * The buffer of characters read from the underlying reader.
+    */
+   private final char[] _buffer = new char[1024];
+
+   /**
+    * The position of the next character in the buffer.
+    */
+   private int _position;
+
+   /**
+    * The number of characters in the buffer.
+    */
+   private int _limit;
+
+   /**
+    * The character pushed back, or <code>-2</code> if there is none.
+    */
+   private int _pushedBack = -2;
+
+   /**
+    * Indicates for each open object or array whether no member or item has
+    * been read yet.
+    */
+   private boolean[] _first = new boolean[16];
+
+   /**
+    * The number of open objects and arrays.
+    */
+   private int _depth;
+
+   /**
+    * Constructs a new <code>JSONStreamReader</code>.
+    *
+    * @param in
+    *    the reader of the JSON text, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>in == null</code>.
+    */
+   public JSONStreamReader(Reader in) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("in", in);
+      _in = in;
+   }
+
+   /**
+    * Determines the type of the next value.
+    *
+    * @return
+    *    {@link #OBJECT}, {@link #ARRAY} or {@link #SIMPLE}.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the end of the text is reached.
+    */
+   public int peek() throws IOException, ParseException {
+      int c = nextClean();
+      back(c);
+      if (c == '{') {
+         return OBJECT;
+      } else if (c == '[') {
+         return ARRAY;
+      } else if (c == -1) {
+         throw new ParseException("Unexpected end of the JSON text.");
+      } else {
+         return SIMPLE;
+      }
+   }
+
+   /**
+    * Starts reading an object. The members are then read with
+    * {@link #nextName()} and the method reading their value.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the next value is not an object.
+    */
+   public void beginObject() throws IOException, ParseException {
+      expect('{');
+      push();
+   }
+
+   /**
+    * Reads the name of the next member of the current object. When the end
+    * of the object is reached, <code>null</code> is returned and the object
+    * is closed.
+    *
+    * @return
+    *    the name of the next member, or <code>null</code> if there are no
+    *    more members.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not a valid JSON object.
+    */
+   public String nextName() throws IOException, ParseException {
+      if (! nextItem('}')) {
+         return null;
+      }
+      String name = nextValue().toString();
+
+      // The separator is ':', '=' or '=>'
+      int c = nextClean();
+      if (c == '=') {
+         c = read();
+         if (c != '>') {
+            back(c);
+         }
+      } else if (c != ':') {
+         throw new ParseException("Expected a ':' after the key \"" + name + "\".");
+      }
+      return name;
+   }
+
+   /**
+    * Starts reading an array. The items are then read with
+    * {@link #hasNextItem()} and the method reading their value.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the next value is not an array.
+    */
+   public void beginArray() throws IOException, ParseException {
+      expect('[');
+      push();
+   }
+
+   /**
+    * Determines whether the current array has another item. When the end of
+    * the array is reached, <code>false</code> is returned and the array is
+    * closed.
+    *
+    * @return
+    *    <code>true</code> if there is another item, <code>false</code> if
+    *    there are no more items.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not a valid JSON array.
+    */
+   public boolean hasNextItem() throws IOException, ParseException {
+      return nextItem(']');
+   }
+
+   /**
+    * Reads the next value. A string is returned as a {@link String}, a
+    * number as an {@link Integer}, a {@link Long} or a {@link Double}, a
+    * boolean as a {@link Boolean} and <code>null</code> as {@link #NULL}.
+    * An object or an array is returned as a
+    * {@link JSONStreamWriter.Literal} containing its JSON text.
+    *
+    * <p>The text of the value, as used by <code>org.json</code>, is returned
+    * by the <code>toString()</code> method of the returned object.
+    *
+    * @return
+    *    the value, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not valid JSON.
+    */
+   public Object nextValue() throws IOException, ParseException {
+      int c = nextClean();
+      if (c == '"' || c == '\'') {
+         return nextString((char) c);
+      } else if (c == '{' || c == '[') {
+         back(c);
+         StringWriter json = new StringWriter();
+         copyValue(new JSONStreamWriter(json));
+         return new JSONStreamWriter.Literal(json.toString());
+      } else {
+         back(c);
+         return nextUnquoted();
+      }
+   }
+
+   /**
+    * Reads the next value and writes it to a writer.
+    *
+    * @param out
+    *    the writer, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read or written.
+    *
+    * @throws ParseException
+    *    if the text is not valid JSON.
+    */
+   public void copyValue(JSONStreamWriter out) throws IOException, ParseException {
+      int type = peek();
+      if (type == OBJECT) {
+         beginObject();
+         out.beginObject();
+         String name;
+         while ((name = nextName()) != null) {
+            out.name(name);
+            copyValue(out);
+         }
+         out.endObject();
+      } else if (type == ARRAY) {
+         beginArray();
+         out.beginArray();
+         while (hasNextItem()) {
+            copyValue(out);
+         }
+         out.endArray();
+      } else {
+         out.value(nextValue());
+      }
+   }
+
+   /**
+    * Reads the next value, which should be an object, as a data section.
+    * The object should contain exactly one root element, as in
+    * <code>{"data":{"person":{"name":"Doe"}}}</code>.
+    *
+    * @return
+    *    the root element, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not a valid JSON object or if it does not contain
+    *    exactly one root element.
+    */
+   public Element readDataSection() throws IOException, ParseException {
+      List roots = new ArrayList(1);
+      beginObject();
+      String name;
+      while ((name = nextName()) != null) {
+         if (CONTENT.equals(name)) {
+            throw new ParseException("The data section cannot contain text outside the root element.");
+         }
+         readElements(name, roots);
+      }
+      if (roots.size() != 1) {
+         throw new ParseException("The data section contains " + roots.size() + " root elements instead of 1.");
+      }
+      return (Element) roots.get(0);
+   }
+
+   /**
+    * Reads the next value as elements.
+    *
+    * @param name
+    *    the name of the elements, cannot be <code>null</code>.
+    *
+    * @param elements
+    *    the list to add the elements to, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not valid JSON or if the name is not a valid element
+    *    name.
+    */
+   private void readElements(String name, List elements)
+   throws IOException, ParseException {
+      int type = peek();
+      if (type == ARRAY) {
+         beginArray();
+         while (hasNextItem()) {
+            readElements(name, elements);
+         }
+         return;
+      }
+
+      checkElementName(name);
+      Element element = new Element(name);
+      if (type == OBJECT) {
+         beginObject();
+         String childName;
+         while ((childName = nextName()) != null) {
+            if (CONTENT.equals(childName)) {
+               element.setText(nextText());
+            } else {
+               List children = new ArrayList(1);
+               readElements(childName, children);
+               for (int i = 0; i < children.size(); i++) {
+                  element.addChild((Element) children.get(i));
+               }
+            }
+         }
+      } else {
+         String text = nextValue().toString();
+         if (text.length() > 0) {
+            element.setText(text);
+         }
+      }
+      elements.add(element);
+   }
+
+   /**
+    * Reads the next value as the text of an element. The items of an array
+    * are separated by new lines.
+    *
+    * @return
+    *    the text, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the text is not valid JSON or if the value is an object or
+    *    contains an object.
+    */
+   private String nextText() throws IOException, ParseException {
+      int type = peek();
+      if (type == SIMPLE) {
+         return nextValue().toString();
+      } else if (type == OBJECT) {
+         throw new ParseException("The content of an element cannot be an object.");
+      }
+      StringBuffer text = new StringBuffer();
+      beginArray();
+      while (hasNextItem()) {
+         if (peek() != SIMPLE) {
+            throw new ParseException("The content of an element can only contain simple values.");
+         }
+         if (text.length() > 0) {
+            text.append('\n');
+         }
+         text.append(nextValue().toString());
+      }
+      return text.toString();
+   }
+
+   /**
+    * Checks that a member name can be used as an element name.
+    *
+    * @param name
+    *    the name, cannot be <code>null</code>.
+    *
+    * @throws ParseException
+    *    if the name is not a valid element name.
+    */
+   private static void checkElementName(String name) throws ParseException {
+      int length = name.length();
+      boolean valid = length > 0;
+      for (int i = 0; i < length && valid; i++) {
+         char c = name.charAt(i);
+         valid = Character.isLetter(c) || c == '_' || c == ':' ||
+                 (i > 0 && (Character.isDigit(c) || c == '-' || c == '.'));
+      }
+      if (! valid) {
+         throw new ParseException("The name \"" + name + "\" is not a valid element name.");
+      }
+   }
+
+   /**
+    * Reads the separator before the next member or item of the current
+    * object or array, or its end.
+    *
+    * @param end
+    *    the character ending the object or array.
+    *
+    * @return
+    *    <code>true</code> if there is another member or item,
+    *    <code>false</code> if the end has been read.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if there is no separator or end.
+    */
+   private boolean nextItem(char end) throws IOException, ParseException {
+      if (_depth == 0) {
+         throw new IllegalStateException("No object or array started.");
+      }
+      int c = nextClean();
+      if (! _first[_depth - 1]) {
+         if (c == ',' || c == ';') {
+            c = nextClean();
+         } else if (c != end) {
+            throw new ParseException("Expected a ',' or '" + end + "'.");
+         }
+      }
+      if (c == end) {
+         _depth--;
+         return false;
+      }
+      back(c);
+      _first[_depth - 1] = false;
+      return true;
+   }
+
+   /**
+    * Opens an object or an array.
+    */
+   private void push() {
+      if (_depth == _first.length) {
+         boolean[] first = new boolean[_depth * 2];
+         System.arraycopy(_first, 0, first, 0, _depth);
+         _first = first;
+      }
+      _first[_depth++] = true;
+   }
+
+   /**
+    * Reads the next non-whitespace character, which should be the specified
+    * character.
+    *
+    * @param expected
+    *    the expected character.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the next character is another one.
+    */
+   private void expect(char expected) throws IOException, ParseException {
+      if (nextClean() != expected) {
+         throw new ParseException("Expected a '" + expected + "'.");
+      }
+   }
+
+   /**
+    * Reads a quoted string. The opening quote has already been read.
+    *
+    * @param quote
+    *    the quote character, <code>'"'</code> or <code>'\''</code>.
+    *
+    * @return
+    *    the string, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the string is not terminated or contains an invalid escape
+    *    sequence.
+    */
+   private String nextString(char quote) throws IOException, ParseException {
+      StringBuffer buffer = new StringBuffer();
+      while (true) {
+         int c = read();
+         if (c == -1 || c == '\n' || c == '\r') {
+            throw new ParseException("Unterminated string.");
+         } else if (c == quote) {
+            return buffer.toString();
+         } else if (c != '\\') {
+            buffer.append((char) c);
+         } else {
+            c = read();
+            switch (c) {
+               case 'b':
+                  buffer.append('\b');
+                  break;
+               case 't':
+                  buffer.append('\t');
+                  break;
+               case 'n':
+                  buffer.append('\n');
+                  break;
+               case 'f':
+                  buffer.append('\f');
+                  break;
+               case 'r':
+                  buffer.append('\r');
+                  break;
+               case 'u':
+                  buffer.append((char) nextHex(4));
+                  break;
+               case 'x':
+                  buffer.append((char) nextHex(2));
+                  break;
+               case -1:
+                  throw new ParseException("Unterminated string.");
+               default:
+                  buffer.append((char) c);
+            }
+         }
+      }
+   }
+
+   /**
+    * Reads a hexadecimal number.
+    *
+    * @param digits
+    *    the number of digits to read.
+    *
+    * @return
+    *    the number.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if one of the characters is not a hexadecimal digit.
+    */
+   private int nextHex(int digits) throws IOException, ParseException {
+      int value = 0;
+      for (int i = 0; i < digits; i++) {
+         int digit = Character.digit((char) read(), 16);
+         if (digit < 0) {
+            throw new ParseException("Invalid escape sequence.");
+         }
+         value = value * 16 + digit;
+      }
+      return value;
+   }
+
+   /**
+    * Reads a value that is not quoted.
+    *
+    * @return
+    *    the value, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if there is no value.
+    */
+   private Object nextUnquoted() throws IOException, ParseException {
+      StringBuffer buffer = new StringBuffer();
+      int c = read();
+      while (c >= ' ' && UNQUOTED_DELIMITERS.indexOf(c) < 0) {
+         buffer.append((char) c);
+         c = read();
+      }
+      back(c);
+
+      String s = buffer.toString().trim();
+      if (s.length() == 0) {
+         throw new ParseException("Missing value.");
+      } else if (s.equalsIgnoreCase("true")) {
+         return Boolean.TRUE;
+      } else if (s.equalsIgnoreCase("false")) {
+         return Boolean.FALSE;
+      } else if (s.equalsIgnoreCase("null")) {
+         return NULL;
+      }
+
+      // Numbers, in the same way as org.json
+      char first = s.charAt(0);
+      if ((first >= '0' && first <= '9') || first == '.' || first == '-' || first == '+') {
+         if (first == '0') {
+            try {
+               if (s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+                  return new Integer(Integer.parseInt(s.substring(2), 16));
+               } else {
+                  return new Integer(Integer.parseInt(s, 8));
+               }
+            } catch (NumberFormatException exception) {
+               // Try a decimal number
+            }
+         }
+         try {
+            return new Integer(s);
+         } catch (NumberFormatException exception) {
+            // Try a bigger number
+         }
+         try {
+            return new Long(s);
+         } catch (NumberFormatException exception) {
+            // Try a floating point number
+         }
+         try {
+            return new Double(s);
+         } catch (NumberFormatException exception) {
+            // Not a number
+         }
+      }
+      return s;
+   }
+
+   /**
+    * Reads the next character that is not whitespace and not part of a
+    * comment.
+    *
+    * @return
+    *    the character, or <code>-1</code> if the end of the text is reached.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if a comment is not terminated.
+    */
+   private int nextClean() throws IOException, ParseException {
+      while (true) {
+         int c = read();
+         if (c == '/') {
+            int next = read();
+            if (next == '/') {
+               skipLine();
+            } else if (next == '*') {
+               skipComment();
+            } else {
+               throw new ParseException("Unexpected '/'.");
+            }
+         } else if (c == '#') {
+            skipLine();
+         } else if (c == -1 || c > ' ') {
+            return c;
+         }
+      }
+   }
+
+   /**
+    * Skips the characters until the end of the line.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    */
+   private void skipLine() throws IOException {
+      int c;
+      do {
+         c = read();
+      } while (c != '\n' && c != '\r' && c != -1);
+   }
+
+   /**
+    * Skips the characters until the end of the comment.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    *
+    * @throws ParseException
+    *    if the comment is not terminated.
+    */
+   private void skipComment() throws IOException, ParseException {
+      int previous = 0;
+      while (true) {
+         int c = read();
+         if (c == -1) {
+            throw new ParseException("Unclosed comment.");
+         } else if (c == '/' && previous == '*') {
+            return;
+         }
+         previous = c;
+      }
+   }
+
+   /**
+    * Reads the next character.
+    *
+    * @return
+    *    the character, or <code>-1</code> if the end of the text is reached.
+    *
+    * @throws IOException
+    *    if the text cannot be read.
+    */
+   private int read() throws IOException {
+      if (_pushedBack != -2) {
+         int c = _pushedBack;
+         _pushedBack = -2;
+         return c;
+      }
+      if (_position == _limit) {
+         int count = _in.read(_buffer, 0, _buffer.length);
+         if (count <= 0) {
+            _position = _limit = 0;
+            return -1;
+         }
+         _position = 0;
+         _limit = count;
+      }
+      return _buffer[_position++];
+   }
+
+   /**
+    * Pushes back the last character read, so that it is returned by the
+    * next call to {@link #read()}.
+    *
+    * @param c
+    *    the last character read, or <code>-1</code> if the end of the text
+    *    was reached.
+    */
+   private void back(int c) {
+      _pushedBack = c;
+   }
+}
@@ -0,0 +1,554 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.xml.Element;
+
+/**
+ * Streaming writer for JSON text. The values are written directly to the
+ * underlying writer, without building an object tree.
+ *
+ * <p>A function result can be written directly with
+ * {@link #writeResult(FunctionResult)}. The mapping of the data section is
+ * the same as the one of <code>org.json.XML.toJSONObject</code>:
+ *
+ * <ul>
+ *    <li>an element without attributes and child elements is written as
+ *        its text, or as an empty object if it has no text;
+ *    <li>otherwise it is written as an object with a member for each
+ *        attribute, a member for each child element name and a
+ *        <code>content</code> member for the text;
+ *    <li>if several attributes or child elements have the same name, the
+ *        member is an array.
+ * </ul>
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class JSONStreamWriter {
+
+   /**
+    * The underlying writer. Never <code>null</code>.
+    */
+   private final Writer _out;
+
+   /**
+    * Indicates for each open object or array whether no member or item has
+    * been written yet.
+    */
+   private boolean[] _first = new boolean[16];
+
+   /**
+    * The number of open objects and arrays.
+    */
+   private int _depth;
+
+   /**
+    * Indicates whether a member name has been written and its value not yet.
+    */
+   private boolean _afterName;
+
+   /**
+    * Constructs a new <code>JSONStreamWriter</code>.
+    *
+    * @param out
+    *    the writer for the JSON text, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>out == null</code>.
+    */
+   public JSONStreamWriter(Writer out) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("out", out);
+      _out = out;
+   }
+
+   /**
+    * Starts an object.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter beginObject() throws IOException {
+      beforeValue();
+      _out.write('{');
+      push();
+      return this;
+   }
+
+   /**
+    * Ends the current object.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter endObject() throws IOException {
+      _depth--;
+      _out.write('}');
+      return this;
+   }
+
+   /**
+    * Starts an array.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter beginArray() throws IOException {
+      beforeValue();
+      _out.write('[');
+      push();
+      return this;
+   }
+
+   /**
+    * Ends the current array.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter endArray() throws IOException {
+      _depth--;
+      _out.write(']');
+      return this;
+   }
+
+   /**
+    * Writes the name of a member of the current object. The value should be
+    * written next.
+    *
+    * @param name
+    *    the name of the member, cannot be <code>null</code>.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter name(String name) throws IOException {
+      separator();
+      quote(name);
+      _out.write(':');
+      _afterName = true;
+      return this;
+   }
+
+   /**
+    * Writes a value. A {@link Number} or a {@link Boolean} is written as is,
+    * a {@link Literal} as its JSON text, <code>null</code> as
+    * <code>null</code> and any other object as a string.
+    *
+    * @param value
+    *    the value, can be <code>null</code>.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter value(Object value) throws IOException {
+      beforeValue();
+      if (value == null) {
+         _out.write("null");
+      } else if (value instanceof Literal || value instanceof Boolean) {
+         _out.write(value.toString());
+      } else if (value instanceof Number) {
+         _out.write(numberToString((Number) value));
+      } else {
+         quote(value.toString());
+      }
+      return this;
+   }
+
+   /**
+    * Writes the output parameters and the data section of a function result
+    * as members of the current object. The data section is written as the
+    * <code>data</code> member, containing an object with the
+    * <code>data</code> root element.
+    *
+    * @param result
+    *    the function result, cannot be <code>null</code>.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter writeResult(FunctionResult result) throws IOException {
+      PropertyReader parameters = result.getParameters();
+      Element dataElement = result.getDataElement();
+      Iterator names = parameters.getNames();
+      String dataParameter = null;
+      while (names.hasNext()) {
+         String name = (String) names.next();
+         String value = parameters.get(name);
+         if (dataElement != null && "data".equals(name)) {
+            dataParameter = value;
+         } else if (value != null) {
+            name(name).value(value);
+         }
+      }
+
+      if (dataElement != null) {
+         name("data");
+
+         // A parameter with the same name is put in an array, as by org.json
+         if (dataParameter != null) {
+            beginArray().value(dataParameter);
+         }
+         beginObject().name(dataElement.getLocalName());
+         writeElement(dataElement, null);
+         endObject();
+         if (dataParameter != null) {
+            endArray();
+         }
+      }
+      return this;
+   }
+
+   /**
+    * Writes an element as a value.
+    *
+    * @param element
+    *    the element, cannot be <code>null</code>.
+    *
+    * @return
+    *    this writer, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   public JSONStreamWriter writeElement(Element element) throws IOException {
+      writeElement(element, null);
+      return this;
+   }
+
+   /**
+    * Writes an element as a value.
+    *
+    * @param element
+    *    the element, cannot be <code>null</code>.
+    *
+    * @param parent
+    *    the parent element, or <code>null</code> if the element is the root
+    *    element.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   private void writeElement(Element element, Element parent) throws IOException {
+      Map attributes = element.getAttributeMap();
+      List children = element.getChildElements();
+      String text = element.getText();
+      String namespaceURI = element.getNamespaceURI();
+      boolean declareNamespace = namespaceURI != null &&
+            (parent == null || !namespaceURI.equals(parent.getNamespaceURI()));
+
+      // Element with only text
+      if (attributes.isEmpty() && children.isEmpty() && !declareNamespace) {
+         if (text == null) {
+            beginObject().endObject();
+         } else {
+            value(text.trim());
+         }
+         return;
+      }
+
+      // Group the values per member name, keeping the order of the names
+      List names = new ArrayList();
+      Map members = new HashMap();
+      if (declareNamespace) {
+         String prefix = element.getNamespacePrefix();
+         addMember(names, members, prefix == null ? "xmlns" : "xmlns:" + prefix, namespaceURI);
+      }
+      Iterator itAttributes = attributes.entrySet().iterator();
+      while (itAttributes.hasNext()) {
+         Map.Entry entry = (Map.Entry) itAttributes.next();
+         Element.QualifiedName qn = (Element.QualifiedName) entry.getKey();
+         String prefix = qn.getNamespacePrefix();
+         String name = prefix == null ? qn.getLocalName() : prefix + ':' + qn.getLocalName();
+         addMember(names, members, name, entry.getValue());
+      }
+      for (int i = 0; i < children.size(); i++) {
+         Element child = (Element) children.get(i);
+         addMember(names, members, qualifiedName(child), child);
+      }
+      if (text != null && text.trim().length() > 0) {
+         addMember(names, members, "content", text.trim());
+      }
+
+      // Write the members
+      beginObject();
+      for (int i = 0; i < names.size(); i++) {
+         String name = (String) names.get(i);
+         Object value = members.get(name);
+         name(name);
+         if (value instanceof List) {
+            List values = (List) value;
+            beginArray();
+            for (int j = 0; j < values.size(); j++) {
+               writeMemberValue(values.get(j), element);
+            }
+            endArray();
+         } else {
+            writeMemberValue(value, element);
+         }
+      }
+      endObject();
+   }
+
+   /**
+    * Adds a member value. If the member already has a value, the values are
+    * put in a list.
+    *
+    * @param names
+    *    the names of the members, in order, cannot be <code>null</code>.
+    *
+    * @param members
+    *    the values per name, cannot be <code>null</code>.
+    *
+    * @param name
+    *    the name of the member, cannot be <code>null</code>.
+    *
+    * @param value
+    *    the {@link String} or {@link Element} value, cannot be
+    *    <code>null</code>.
+    */
+   private static void addMember(List names, Map members, String name, Object value) {
+      Object current = members.get(name);
+      if (current == null) {
+         names.add(name);
+         members.put(name, value);
+      } else if (current instanceof List) {
+         ((List) current).add(value);
+      } else {
+         List values = new ArrayList(4);
+         values.add(current);
+         values.add(value);
+         members.put(name, values);
+      }
+   }
+
+   /**
+    * Writes a member value.
+    *
+    * @param value
+    *    the {@link String} or {@link Element} value, cannot be
+    *    <code>null</code>.
+    *
+    * @param parent
+    *    the element containing the member, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   private void writeMemberValue(Object value, Element parent) throws IOException {
+      if (value instanceof Element) {
+         writeElement((Element) value, parent);
+      } else {
+         value(value);
+      }
+   }
+
+   /**
+    * Returns the name of an element with its namespace prefix, if any.
+    *
+    * @param element
+    *    the element, cannot be <code>null</code>.
+    *
+    * @return
+    *    the qualified name, never <code>null</code>.
+    */
+   private static String qualifiedName(Element element) {
+      String prefix = element.getNamespacePrefix();
+      return prefix == null ? element.getLocalName() : prefix + ':' + element.getLocalName();
+   }
+
+   /**
+    * Writes the separator before a member or item, if needed.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   private void separator() throws IOException {
+      if (_depth > 0) {
+         if (_first[_depth - 1]) {
+            _first[_depth - 1] = false;
+         } else {
+            _out.write(',');
+         }
+      }
+   }
+
+   /**
+    * Writes the separator before a value, unless the value follows a member
+    * name.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   private void beforeValue() throws IOException {
+      if (_afterName) {
+         _afterName = false;
+      } else {
+         separator();
+      }
+   }
+
+   /**
+    * Opens an object or an array.
+    */
+   private void push() {
+      if (_depth == _first.length) {
+         boolean[] first = new boolean[_depth * 2];
+         System.arraycopy(_first, 0, first, 0, _depth);
+         _first = first;
+      }
+      _first[_depth++] = true;
+   }
+
+   /**
+    * Writes a quoted string, escaped in the same way as by
+    * <code>org.json</code>.
+    *
+    * @param s
+    *    the string, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the text cannot be written.
+    */
+   private void quote(String s) throws IOException {
+      _out.write('"');
+      int length = s.length();
+      int start = 0;
+      char previous = 0;
+      for (int i = 0; i < length; i++) {
+         char c = s.charAt(i);
+         String escaped;
+         if (c == '"' || c == '\\') {
+            escaped = c == '"' ? "\\\"" : "\\\\";
+         } else if (c == '/' && previous == '<') {
+            escaped = "\\/";
+         } else if (c == '\b') {
+            escaped = "\\b";
+         } else if (c == '\t') {
+            escaped = "\\t";
+         } else if (c == '\n') {
+            escaped = "\\n";
+         } else if (c == '\f') {
+            escaped = "\\f";
+         } else if (c == '\r') {
+            escaped = "\\r";
+         } else if (c < ' ') {
+            String hex = "000" + Integer.toHexString(c);
+            escaped = "\\u" + hex.substring(hex.length() - 4);
+         } else {
+            escaped = null;
+         }
+         if (escaped != null) {
+            _out.write(s, start, i - start);
+            _out.write(escaped);
+            start = i + 1;
+         }
+         previous = c;
+      }
+      _out.write(s, start, length - start);
+      _out.write('"');
+   }
+
+   /**
+    * Converts a number to its JSON text, removing the trailing zeroes of the
+    * decimals.
+    *
+    * @param number
+    *    the number, cannot be <code>null</code>.
+    *
+    * @return
+    *    the JSON text, never <code>null</code>.
+    */
+   private static String numberToString(Number number) {
+      String s = number.toString();
+      if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+         int end = s.length();
+         while (s.charAt(end - 1) == '0') {
+            end--;
+         }
+         if (s.charAt(end - 1) == '.') {
+            end--;
+         }
+         s = s.substring(0, end);
+      }
+      return s;
+   }
+
+   /**
+    * JSON text written as is. It is used for the values that are not
+    * strings, numbers or booleans.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   public static final class Literal {
+
+      /**
+       * The JSON text. Never <code>null</code>.
+       */
+      private final String _json;
+
+      /**
+       * Constructs a new <code>Literal</code>.
+       *
+       * @param json
+       *    the JSON text, cannot be <code>null</code>.
+       *
+       * @throws IllegalArgumentException
+       *    if <code>json == null</code>.
+       */
+      public Literal(String json) throws IllegalArgumentException {
+         MandatoryArgumentChecker.check("json", json);
+         _json = json;
+      }
+
+      /**
+       * Returns the JSON text.
+       *
+       * @return
+       *    the JSON text, never <code>null</code>.
+       */
+      public String toString() {
+         return _json;
+      }
+   }
+}
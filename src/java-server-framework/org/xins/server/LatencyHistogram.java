@@ -0,0 +1,196 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+/**
+ * Histogram of call durations with log-linear buckets. Durations below
+ * {@link #LINEAR_LIMIT} milliseconds have a bucket each; above that, each
+ * power of 2 is divided into {@link #SUB_BUCKETS} buckets, so the relative
+ * error of a percentile is at most 1/{@link #SUB_BUCKETS}. Recording a
+ * duration does not allocate any object.
+ *
+ * <p>The implementation of this class is not thread-safe. The accesses
+ * should be synchronized by the user.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class LatencyHistogram {
+
+   /**
+    * The duration below which each millisecond has its own bucket. Must be a
+    * power of 2 and at least twice {@link #SUB_BUCKETS}.
+    */
+   private static final int LINEAR_LIMIT = 16;
+
+   /**
+    * The number of bits of {@link #LINEAR_LIMIT}.
+    */
+   private static final int LINEAR_BITS = 4;
+
+   /**
+    * The number of buckets per power of 2 above {@link #LINEAR_LIMIT}.
+    */
+   private static final int SUB_BUCKETS = 8;
+
+   /**
+    * The number of bits of {@link #SUB_BUCKETS}.
+    */
+   private static final int SUB_BITS = 3;
+
+   /**
+    * The highest bit of the recorded durations. Longer durations are
+    * recorded in the last bucket.
+    */
+   private static final int MAX_BIT = 31;
+
+   /**
+    * The number of buckets.
+    */
+   private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_BIT - LINEAR_BITS + 1) * SUB_BUCKETS;
+
+   /**
+    * The number of durations per bucket.
+    */
+   private final int[] _buckets = new int[BUCKET_COUNT];
+
+   /**
+    * The number of recorded durations.
+    */
+   private long _count;
+
+   /**
+    * Constructs a new empty <code>LatencyHistogram</code>.
+    */
+   LatencyHistogram() {
+      // empty
+   }
+
+   /**
+    * Records a duration.
+    *
+    * @param duration
+    *    the duration in milliseconds, negative values are recorded as
+    *    <code>0</code>.
+    */
+   void record(long duration) {
+      _buckets[bucket(duration)]++;
+      _count++;
+   }
+
+   /**
+    * Adds the durations recorded by another histogram to this histogram.
+    *
+    * @param other
+    *    the other histogram, cannot be <code>null</code>.
+    */
+   void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         _buckets[i] += other._buckets[i];
+      }
+      _count += other._count;
+   }
+
+   /**
+    * Removes all recorded durations.
+    */
+   void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         _buckets[i] = 0;
+      }
+      _count = 0L;
+   }
+
+   /**
+    * Returns the number of recorded durations.
+    *
+    * @return
+    *    the number of durations, always &gt;= 0.
+    */
+   long getCount() {
+      return _count;
+   }
+
+   /**
+    * Returns the duration below which the specified fraction of the recorded
+    * durations fall. The returned value is the highest duration of the
+    * bucket containing the percentile.
+    *
+    * @param fraction
+    *    the fraction, between <code>0.0</code> and <code>1.0</code>, e.g.
+    *    <code>0.99</code> for the 99th percentile.
+    *
+    * @return
+    *    the duration in milliseconds, or <code>-1L</code> if no duration
+    *    has been recorded.
+    */
+   long getPercentile(double fraction) {
+      if (_count == 0L) {
+         return -1L;
+      }
+      long rank = (long) Math.ceil(fraction * _count);
+      if (rank < 1L) {
+         rank = 1L;
+      }
+      long seen = 0L;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         seen += _buckets[i];
+         if (seen >= rank) {
+            return upperBound(i);
+         }
+      }
+      return upperBound(BUCKET_COUNT - 1);
+   }
+
+   /**
+    * Determines the bucket of a duration.
+    *
+    * @param duration
+    *    the duration in milliseconds.
+    *
+    * @return
+    *    the index of the bucket.
+    */
+   private static int bucket(long duration) {
+      if (duration < LINEAR_LIMIT) {
+         return duration < 0L ? 0 : (int) duration;
+      }
+
+      // Find the highest bit
+      int bit = LINEAR_BITS;
+      while (bit < MAX_BIT && (duration >>> (bit + 1)) != 0L) {
+         bit++;
+      }
+      if ((duration >>> (bit + 1)) != 0L) {
+         return BUCKET_COUNT - 1;
+      }
+
+      // The bits following the highest bit select the sub-bucket
+      int sub = (int) (duration >>> (bit - SUB_BITS)) - SUB_BUCKETS;
+      return LINEAR_LIMIT + (bit - LINEAR_BITS) * SUB_BUCKETS + sub;
+   }
+
+   /**
+    * Determines the highest duration of a bucket.
+    *
+    * @param bucket
+    *    the index of the bucket.
+    *
+    * @return
+    *    the highest duration in milliseconds recorded in the bucket.
+    */
+   private static long upperBound(int bucket) {
+      if (bucket < LINEAR_LIMIT) {
+         return bucket;
+      }
+      int bit   = LINEAR_BITS + (bucket - LINEAR_LIMIT) / SUB_BUCKETS;
+      int sub   = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+      int shift = bit - SUB_BITS;
+      return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1L;
+   }
+}
@@ -0,0 +1,563 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.StringTokenizer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.collections.PropertyReader;
+
+/**
+ * Compression of the HTTP responses with gzip or deflate, negotiated with
+ * the <code>Accept-Encoding</code> header of the request. A response is only
+ * compressed if its body has at least a minimum number of bytes; smaller
+ * responses are sent unchanged.
+ *
+ * <p>The minimum size and the compression level are set per API with the
+ * runtime properties {@link #MIN_SIZE_PROPERTY} and
+ * {@link #LEVEL_PROPERTY}. A level of <code>0</code> disables the
+ * compression.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class ResponseCompression {
+
+   /**
+    * The name of the runtime property that specifies the minimum number of
+    * bytes of a response body before it is compressed.
+    */
+   static final String MIN_SIZE_PROPERTY = "org.xins.server.compression.minSize";
+
+   /**
+    * The name of the runtime property that specifies the compression level,
+    * from <code>1</code> (fastest) to <code>9</code> (smallest). The value
+    * <code>0</code> disables the compression.
+    */
+   static final String LEVEL_PROPERTY = "org.xins.server.compression.level";
+
+   /**
+    * The default minimum number of bytes of a compressed response body.
+    */
+   static final int DEFAULT_MIN_SIZE = 1024;
+
+   /**
+    * The default compression level.
+    */
+   static final int DEFAULT_LEVEL = 6;
+
+   /**
+    * The minimum number of bytes of a compressed response body.
+    */
+   private final int _minSize;
+
+   /**
+    * The compression level, <code>0</code> if the compression is disabled.
+    */
+   private final int _level;
+
+   /**
+    * Constructs a new <code>ResponseCompression</code>.
+    *
+    * @param minSize
+    *    the minimum number of bytes of a compressed response body, must be
+    *    &gt;= 0.
+    *
+    * @param level
+    *    the compression level, from <code>1</code> to <code>9</code>, or
+    *    <code>0</code> to disable the compression.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>minSize &lt; 0 || level &lt; 0 || level &gt; 9</code>.
+    */
+   ResponseCompression(int minSize, int level)
+   throws IllegalArgumentException {
+      if (minSize < 0) {
+         throw new IllegalArgumentException("minSize (" + minSize + ") < 0");
+      } else if (level < 0 || level > 9) {
+         throw new IllegalArgumentException("level (" + level + ") is not between 0 and 9");
+      }
+      _minSize = minSize;
+      _level   = level;
+   }
+
+   /**
+    * Creates a <code>ResponseCompression</code> from the runtime properties
+    * {@link #MIN_SIZE_PROPERTY} and {@link #LEVEL_PROPERTY}.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    the <code>ResponseCompression</code>, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the properties is invalid.
+    */
+   static ResponseCompression create(PropertyReader runtimeProperties)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+
+      MandatoryArgumentChecker.check("runtimeProperties", runtimeProperties);
+
+      int minSize = getInt(runtimeProperties, MIN_SIZE_PROPERTY, DEFAULT_MIN_SIZE);
+      if (minSize < 0) {
+         throw new InvalidPropertyValueException(MIN_SIZE_PROPERTY, runtimeProperties.get(MIN_SIZE_PROPERTY), "Negative value.");
+      }
+      int level = getInt(runtimeProperties, LEVEL_PROPERTY, DEFAULT_LEVEL);
+      if (level < 0 || level > 9) {
+         throw new InvalidPropertyValueException(LEVEL_PROPERTY, runtimeProperties.get(LEVEL_PROPERTY), "Expected a number between 0 and 9.");
+      }
+      return new ResponseCompression(minSize, level);
+   }
+
+   /**
+    * Gets the value of an integer property.
+    *
+    * @param properties
+    *    the properties, cannot be <code>null</code>.
+    *
+    * @param name
+    *    the name of the property, cannot be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value if the property is not set.
+    *
+    * @return
+    *    the value of the property.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value is not a 32-bit integer number.
+    */
+   private static int getInt(PropertyReader properties, String name, int defaultValue)
+   throws InvalidPropertyValueException {
+      String value = properties.get(name);
+      if (value == null || value.trim().length() < 1) {
+         return defaultValue;
+      }
+      try {
+         return Integer.parseInt(value.trim());
+      } catch (NumberFormatException exception) {
+         throw new InvalidPropertyValueException(name, value, "Not a 32-bit integer number.");
+      }
+   }
+
+   /**
+    * Returns the minimum number of bytes of a compressed response body.
+    *
+    * @return
+    *    the minimum size, always &gt;= 0.
+    */
+   int getMinSize() {
+      return _minSize;
+   }
+
+   /**
+    * Returns the compression level.
+    *
+    * @return
+    *    the compression level, from <code>1</code> to <code>9</code>, or
+    *    <code>0</code> if the compression is disabled.
+    */
+   int getLevel() {
+      return _level;
+   }
+
+   /**
+    * Determines the encoding to use for the response to the specified
+    * request. gzip is preferred to deflate if the client accepts both with
+    * the same quality value.
+    *
+    * @param acceptEncoding
+    *    the value of the <code>Accept-Encoding</code> header of the request,
+    *    can be <code>null</code>.
+    *
+    * @return
+    *    <code>"gzip"</code>, <code>"deflate"</code> or <code>null</code> if
+    *    the response should not be compressed.
+    */
+   static String negotiate(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return null;
+      }
+
+      float gzip    = -1.0F;
+      float deflate = -1.0F;
+      float any     = -1.0F;
+      StringTokenizer codings = new StringTokenizer(acceptEncoding, ",");
+      while (codings.hasMoreTokens()) {
+         String coding  = codings.nextToken().trim();
+         float  quality = 1.0F;
+         int semicolon = coding.indexOf(';');
+         if (semicolon >= 0) {
+            quality = parseQuality(coding.substring(semicolon + 1));
+            coding  = coding.substring(0, semicolon).trim();
+         }
+         coding = coding.toLowerCase();
+         if (coding.equals("gzip") || coding.equals("x-gzip")) {
+            gzip = quality;
+         } else if (coding.equals("deflate")) {
+            deflate = quality;
+         } else if (coding.equals("*")) {
+            any = quality;
+         }
+      }
+
+      // The wildcard applies to the codings that are not listed
+      if (gzip < 0.0F) {
+         gzip = any;
+      }
+      if (deflate < 0.0F) {
+         deflate = any;
+      }
+
+      if (gzip > 0.0F && gzip >= deflate) {
+         return "gzip";
+      } else if (deflate > 0.0F) {
+         return "deflate";
+      } else {
+         return null;
+      }
+   }
+
+   /**
+    * Parses the quality value in the parameters of a content coding.
+    *
+    * @param parameters
+    *    the parameters, after the first semicolon, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the quality value, <code>1</code> if there is none or
+    *    <code>0</code> if it is invalid.
+    */
+   private static float parseQuality(String parameters) {
+      StringTokenizer tokens = new StringTokenizer(parameters, ";");
+      while (tokens.hasMoreTokens()) {
+         String parameter = tokens.nextToken().trim();
+         if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+            try {
+               return Float.parseFloat(parameter.substring(2).trim());
+            } catch (NumberFormatException exception) {
+               return 0.0F;
+            }
+         }
+      }
+      return 1.0F;
+   }
+
+   /**
+    * Wraps the response to the specified request, if it can be compressed.
+    * The <code>Vary</code> header is set if the compression is enabled.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the response that compresses its body, or <code>null</code> if the
+    *    response should not be compressed.
+    */
+   CompressingResponse wrap(HttpServletRequest request, HttpServletResponse response) {
+      if (_level == 0) {
+         return null;
+      }
+      response.setHeader("Vary", "Accept-Encoding");
+
+      // The response to a HEAD request has no body
+      if ("HEAD".equals(request.getMethod())) {
+         return null;
+      }
+      String encoding = negotiate(request.getHeader("Accept-Encoding"));
+      if (encoding == null) {
+         return null;
+      }
+      return new CompressingResponse(response, encoding, _minSize, _level);
+   }
+
+   /**
+    * HTTP response that compresses its body. The body is buffered until it
+    * reaches the minimum size, then the <code>Content-Encoding</code> header
+    * is set and the rest of the body is compressed. A smaller body is sent
+    * unchanged when {@link #finish()} is called.
+    *
+    * @version $Revision$ $Date$
+    */
+   static final class CompressingResponse extends HttpServletResponseWrapper {
+
+      /**
+       * The content coding, either <code>"gzip"</code> or
+       * <code>"deflate"</code>.
+       */
+      private final String _encoding;
+
+      /**
+       * The minimum number of bytes of a compressed response body.
+       */
+      private final int _minSize;
+
+      /**
+       * The compression level, from <code>1</code> to <code>9</code>.
+       */
+      private final int _level;
+
+      /**
+       * The stream of the body, or <code>null</code> if it is not created
+       * yet.
+       */
+      private CompressingStream _stream;
+
+      /**
+       * The writer of the body, or <code>null</code> if it is not created
+       * yet.
+       */
+      private PrintWriter _writer;
+
+      /**
+       * Constructs a new <code>CompressingResponse</code>.
+       *
+       * @param response
+       *    the wrapped response, cannot be <code>null</code>.
+       *
+       * @param encoding
+       *    the content coding, <code>"gzip"</code> or
+       *    <code>"deflate"</code>.
+       *
+       * @param minSize
+       *    the minimum number of bytes of a compressed response body.
+       *
+       * @param level
+       *    the compression level, from <code>1</code> to <code>9</code>.
+       */
+      CompressingResponse(HttpServletResponse response, String encoding, int minSize, int level) {
+         super(response);
+         _encoding = encoding;
+         _minSize  = minSize;
+         _level    = level;
+      }
+
+      /**
+       * Returns the content coding used if the body is compressed.
+       *
+       * @return
+       *    <code>"gzip"</code> or <code>"deflate"</code>.
+       */
+      String getEncoding() {
+         return _encoding;
+      }
+
+      /**
+       * Checks if a body of the specified length will be compressed.
+       *
+       * @param length
+       *    the number of bytes of the uncompressed body.
+       *
+       * @return
+       *    <code>true</code> if the body will be compressed,
+       *    <code>false</code> if it will be sent unchanged.
+       */
+      boolean compresses(int length) {
+         return length > 0 && length >= _minSize;
+      }
+
+      public ServletOutputStream getOutputStream() {
+         if (_stream == null) {
+            _stream = new CompressingStream();
+         }
+         return _stream;
+      }
+
+      public PrintWriter getWriter() throws IOException {
+         if (_writer == null) {
+            _writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+         }
+         return _writer;
+      }
+
+      /**
+       * Ignores the length set by the calling convention, since it is not
+       * the length of the compressed body.
+       *
+       * @param length
+       *    the length of the uncompressed body.
+       */
+      public void setContentLength(int length) {
+         // ignore
+      }
+
+      public void flushBuffer() throws IOException {
+         if (_writer != null) {
+            _writer.flush();
+         }
+         if (_stream != null) {
+            _stream.flush();
+         }
+      }
+
+      /**
+       * Writes the rest of the body to the wrapped response. Does nothing if
+       * the body was already written completely.
+       *
+       * @throws IOException
+       *    if the body cannot be written.
+       */
+      void finish() throws IOException {
+         if (_writer != null) {
+            _writer.flush();
+         }
+         if (_stream != null) {
+            _stream.close();
+         }
+      }
+
+      /**
+       * Stream that buffers the body until it reaches the minimum size and
+       * then compresses it.
+       *
+       * @version $Revision$ $Date$
+       */
+      private final class CompressingStream extends ServletOutputStream {
+
+         /**
+          * The buffered start of the body, or <code>null</code> once the
+          * compression started.
+          */
+         private ByteArrayOutputStream _buffer = new ByteArrayOutputStream(Math.min(_minSize, 8192) + 1);
+
+         /**
+          * The compressing stream, or <code>null</code> while the body is
+          * buffered.
+          */
+         private DeflaterOutputStream _out;
+
+         /**
+          * The deflater to release after the compression, or
+          * <code>null</code> if the compressing stream releases it.
+          */
+         private Deflater _deflater;
+
+         /**
+          * Indicates whether this stream is closed.
+          */
+         private boolean _closed;
+
+         public void write(int b) throws IOException {
+            if (_out != null) {
+               _out.write(b);
+            } else {
+               _buffer.write(b);
+               startIfNeeded();
+            }
+         }
+
+         public void write(byte[] b, int off, int len) throws IOException {
+            if (_out != null) {
+               _out.write(b, off, len);
+            } else {
+               _buffer.write(b, off, len);
+               startIfNeeded();
+            }
+         }
+
+         /**
+          * Starts the compression if the buffered body reached the minimum
+          * size.
+          *
+          * @throws IOException
+          *    if the buffered body cannot be written.
+          */
+         private void startIfNeeded() throws IOException {
+            if (_closed) {
+               throw new IOException("Stream closed.");
+            } else if (! compresses(_buffer.size())) {
+               return;
+            }
+
+            setHeader("Content-Encoding", _encoding);
+            OutputStream out = getResponse().getOutputStream();
+            if ("gzip".equals(_encoding)) {
+               _out = new GZIPOutputStream(out, 4096) {
+                  {
+                     def.setLevel(_level);
+                  }
+               };
+            } else {
+               _deflater = new Deflater(_level);
+               _out = new DeflaterOutputStream(out, _deflater, 4096);
+            }
+            _buffer.writeTo(_out);
+            _buffer = null;
+         }
+
+         /**
+          * Flushes the compressed bytes written so far. Does nothing while
+          * the body is buffered.
+          *
+          * @throws IOException
+          *    if the stream cannot be flushed.
+          */
+         public void flush() throws IOException {
+            if (_out != null) {
+               _out.flush();
+            }
+         }
+
+         /**
+          * Finishes the body. A body smaller than the minimum size is
+          * written unchanged.
+          *
+          * @throws IOException
+          *    if the body cannot be written.
+          */
+         public void close() throws IOException {
+            if (_closed) {
+               return;
+            }
+            _closed = true;
+
+            if (_out != null) {
+               try {
+                  _out.close();
+               } finally {
+                  if (_deflater != null) {
+                     _deflater.end();
+                  }
+               }
+            } else if (_buffer.size() > 0) {
+               getResponse().setContentLength(_buffer.size());
+               OutputStream out = getResponse().getOutputStream();
+               _buffer.writeTo(out);
+               out.close();
+            }
+         }
+      }
+   }
+}
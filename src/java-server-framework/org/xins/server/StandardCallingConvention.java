@@ -99,7 +99,7 @@ public class StandardCallingConvention extends CallingConvention {
       String dataSectionValue = httpRequest.getParameter("_data");
       Element dataElement = null;
       if (dataSectionValue != null && dataSectionValue.length() > 0) {
-         ElementParser parser = new ElementParser();
+         ElementParser parser = ElementParser.getThreadInstance();
 
          // Parse the data section
          try {
@@ -0,0 +1,767 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.io.FileWatcher;
+import org.xins.common.io.HTTPFileWatcher;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementBuilder;
+
+/**
+ * Cache for compiled XSLT templates, used by the calling conventions that
+ * transform the result with an XSLT style sheet.
+ *
+ * <p>The templates are stored by location. The number of cached templates is
+ * limited; when the limit is reached, the least recently used templates are
+ * removed from the cache. A template is compiled only once, even if several
+ * threads request it at the same time, and threads requesting other cached
+ * templates are not blocked during the compilation. Since a
+ * <code>TransformerFactory</code> is not thread-safe, only one template is
+ * compiled at a time.
+ *
+ * <p>If a check interval is set, the modification time of a template
+ * located on the file system or on an HTTP server is checked when the
+ * template is used and the interval has elapsed. A modified template is
+ * compiled again, the other templates remain in the cache. The
+ * modification time is determined by a {@link FileWatcher} or an
+ * {@link HTTPFileWatcher}.
+ *
+ * <p>Each cached template has a {@link TransformerPool}, so that the
+ * transformers created for the template can be reused by the next requests.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class TemplatesCache {
+
+   /**
+    * The name of the runtime property that defines the maximum number of
+    * templates in the cache.
+    */
+   public static final String SIZE_PROPERTY = "templates.cache.size";
+
+   /**
+    * The name of the runtime property that defines the interval in seconds
+    * between the checks for modified templates. The value <code>0</code>
+    * disables the checks.
+    */
+   public static final String CHECK_INTERVAL_PROPERTY = "templates.cache.check";
+
+   /**
+    * The name of the runtime property that defines whether all templates
+    * should be compiled when the calling convention is initialized. Should be
+    * either <code>"true"</code> or <code>"false"</code>. By default the
+    * templates are compiled when they are used for the first time.
+    */
+   public static final String PRECOMPILE_PROPERTY = "templates.precompile";
+
+   /**
+    * The name of the runtime property that defines the maximum number of
+    * idle transformers kept per cached template. The value <code>0</code>
+    * disables the reuse of transformers.
+    */
+   public static final String POOL_SIZE_PROPERTY = "templates.cache.transformers";
+
+   /**
+    * The default maximum number of templates in the cache.
+    */
+   public static final int DEFAULT_SIZE = 256;
+
+   /**
+    * The default interval in seconds between the checks for modified
+    * templates.
+    */
+   public static final int DEFAULT_CHECK_INTERVAL = 60;
+
+   /**
+    * The default maximum number of idle transformers per cached template.
+    */
+   public static final int DEFAULT_POOL_SIZE = 16;
+
+   /**
+    * The transformer factory used to compile the templates. Never
+    * <code>null</code>.
+    */
+   private final TransformerFactory _factory;
+
+   /**
+    * The maximum number of templates in the cache, or <code>0</code> if the
+    * templates should not be cached.
+    */
+   private final int _maxSize;
+
+   /**
+    * The interval in milliseconds between the checks for modified
+    * templates, or <code>0</code> if the templates are never checked.
+    */
+   private final long _checkInterval;
+
+   /**
+    * The maximum number of idle transformers kept per cached template.
+    */
+   private final int _poolSize;
+
+   /**
+    * The cached templates. The key is the location, the value is the
+    * {@link Entry}. All accesses should be synchronized on this object.
+    */
+   private final HashMap _entries;
+
+   /**
+    * Counter used to determine the least recently used entry.
+    */
+   private long _accessCount;
+
+   /**
+    * The number of requests for a template that was compiled and up to date.
+    */
+   private long _hitCount;
+
+   /**
+    * The number of requests for a template that had to be compiled.
+    */
+   private long _missCount;
+
+   /**
+    * The number of templates compiled again because they were modified.
+    */
+   private long _reloadCount;
+
+   /**
+    * The number of templates removed from the cache because it was full.
+    */
+   private long _evictionCount;
+
+   /**
+    * The total time spent compiling templates, in milliseconds.
+    */
+   private long _compileTime;
+
+   /**
+    * Constructs a new <code>TemplatesCache</code> that keeps at most
+    * {@link #DEFAULT_POOL_SIZE} idle transformers per template.
+    *
+    * @param factory
+    *    the factory used to compile the templates, cannot be
+    *    <code>null</code>.
+    *
+    * @param maxSize
+    *    the maximum number of templates in the cache, or <code>0</code> if
+    *    the templates should be compiled each time they are requested.
+    *
+    * @param checkInterval
+    *    the interval in seconds between the checks for modified templates,
+    *    or <code>0</code> if the templates should not be checked.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>factory == null || maxSize &lt; 0 || checkInterval &lt; 0</code>.
+    */
+   public TemplatesCache(TransformerFactory factory, int maxSize, int checkInterval)
+   throws IllegalArgumentException {
+      this(factory, maxSize, checkInterval, DEFAULT_POOL_SIZE);
+   }
+
+   /**
+    * Constructs a new <code>TemplatesCache</code>.
+    *
+    * @param factory
+    *    the factory used to compile the templates, cannot be
+    *    <code>null</code>.
+    *
+    * @param maxSize
+    *    the maximum number of templates in the cache, or <code>0</code> if
+    *    the templates should be compiled each time they are requested.
+    *
+    * @param checkInterval
+    *    the interval in seconds between the checks for modified templates,
+    *    or <code>0</code> if the templates should not be checked.
+    *
+    * @param poolSize
+    *    the maximum number of idle transformers kept per cached template, or
+    *    <code>0</code> if the transformers should not be reused.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>factory == null || maxSize &lt; 0 || checkInterval &lt; 0
+    *          || poolSize &lt; 0</code>.
+    */
+   public TemplatesCache(TransformerFactory factory, int maxSize, int checkInterval, int poolSize)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("factory", factory);
+      if (maxSize < 0) {
+         throw new IllegalArgumentException("maxSize (" + maxSize + ") < 0");
+      } else if (checkInterval < 0) {
+         throw new IllegalArgumentException("checkInterval (" + checkInterval + ") < 0");
+      } else if (poolSize < 0) {
+         throw new IllegalArgumentException("poolSize (" + poolSize + ") < 0");
+      }
+
+      _factory       = factory;
+      _maxSize       = maxSize;
+      _checkInterval = checkInterval * 1000L;
+      _poolSize      = poolSize;
+      _entries       = new HashMap(89);
+   }
+
+   /**
+    * Constructs a new <code>TemplatesCache</code> configured with the
+    * runtime properties {@link #SIZE_PROPERTY},
+    * {@link #CHECK_INTERVAL_PROPERTY} and {@link #POOL_SIZE_PROPERTY}.
+    *
+    * @param factory
+    *    the factory used to compile the templates, cannot be
+    *    <code>null</code>.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @param enabled
+    *    <code>false</code> if the templates should be compiled each time
+    *    they are requested.
+    *
+    * @return
+    *    the new cache, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>factory == null || runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the runtime properties is invalid.
+    */
+   public static TemplatesCache create(TransformerFactory factory,
+                                       PropertyReader     runtimeProperties,
+                                       boolean            enabled)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("factory", factory, "runtimeProperties", runtimeProperties);
+
+      int maxSize = getIntProperty(runtimeProperties, SIZE_PROPERTY, DEFAULT_SIZE);
+      int checkInterval = getIntProperty(runtimeProperties, CHECK_INTERVAL_PROPERTY, DEFAULT_CHECK_INTERVAL);
+      int poolSize = getIntProperty(runtimeProperties, POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+      return new TemplatesCache(factory, enabled ? maxSize : 0, checkInterval, poolSize);
+   }
+
+   /**
+    * Gets the value of a runtime property that should contain a non-negative
+    * integer.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @param name
+    *    the name of the property, cannot be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value to return if the property is not set.
+    *
+    * @return
+    *    the value of the property.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value is not a non-negative integer.
+    */
+   private static int getIntProperty(PropertyReader runtimeProperties, String name, int defaultValue)
+   throws InvalidPropertyValueException {
+      String value = runtimeProperties.get(name);
+      if (value == null || value.trim().length() < 1) {
+         return defaultValue;
+      }
+      int intValue;
+      try {
+         intValue = Integer.parseInt(value.trim());
+      } catch (NumberFormatException exception) {
+         throw new InvalidPropertyValueException(name, value, "Not a 32-bit integer number.");
+      }
+      if (intValue < 0) {
+         throw new InvalidPropertyValueException(name, value, "Negative value.");
+      }
+      return intValue;
+   }
+
+   /**
+    * Determines whether all templates should be compiled at initialization,
+    * as specified by the runtime property {@link #PRECOMPILE_PROPERTY}.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the templates should be compiled at
+    *    initialization, <code>false</code> otherwise.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of the property is neither <code>"true"</code> nor
+    *    <code>"false"</code>.
+    */
+   public static boolean isPrecompile(PropertyReader runtimeProperties)
+   throws InvalidPropertyValueException {
+      String value = runtimeProperties.get(PRECOMPILE_PROPERTY);
+      if (value == null || value.trim().length() < 1 || "false".equals(value.trim())) {
+         return false;
+      } else if ("true".equals(value.trim())) {
+         return true;
+      }
+      throw new InvalidPropertyValueException(PRECOMPILE_PROPERTY, value,
+         "Expected either \"true\" or \"false\".");
+   }
+
+   /**
+    * Gets the compiled template at the specified location. The template is
+    * compiled if it is not in the cache yet or if it has been modified.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the compiled template, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>location == null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   public Templates get(String location)
+   throws IllegalArgumentException, TransformerConfigurationException {
+      return getTransformerPool(location).getTemplates();
+   }
+
+   /**
+    * Gets the pool of transformers for the compiled template at the
+    * specified location. The template is compiled if it is not in the cache
+    * yet or if it has been modified; in the latter case a new pool is
+    * returned.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the transformer pool of the compiled template, never
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>location == null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   public TransformerPool getTransformerPool(String location)
+   throws IllegalArgumentException, TransformerConfigurationException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("location", location);
+
+      // No caching, so the transformers cannot be reused either
+      if (_maxSize == 0) {
+         synchronized (this) {
+            _missCount++;
+         }
+         return new TransformerPool(compile(location), 0);
+      }
+
+      Entry entry;
+      synchronized (this) {
+         entry = (Entry) _entries.get(location);
+         if (entry == null) {
+            if (_entries.size() >= _maxSize) {
+               evict();
+            }
+            entry = new Entry(location);
+            _entries.put(location, entry);
+         }
+         entry._lastAccess = ++_accessCount;
+      }
+
+      try {
+         return entry.getPool();
+      } catch (TransformerConfigurationException exception) {
+
+         // Do not keep a template that could never be compiled
+         synchronized (this) {
+            if (entry._pool == null && _entries.get(location) == entry) {
+               _entries.remove(location);
+            }
+         }
+         throw exception;
+      }
+   }
+
+   /**
+    * Compiles all specified templates and stores them in the cache. The
+    * templates that cannot be compiled are skipped.
+    *
+    * @param locations
+    *    the URLs of the XSLT style sheets, cannot be <code>null</code>.
+    *
+    * @return
+    *    the number of compiled templates.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>locations == null</code>.
+    */
+   public int precompile(List locations) throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("locations", locations);
+
+      int compiled = 0;
+      Iterator iterator = locations.iterator();
+      while (iterator.hasNext()) {
+         String location = (String) iterator.next();
+         try {
+            get(location);
+            compiled++;
+         } catch (TransformerConfigurationException exception) {
+            Utils.logIgnoredException(exception);
+         }
+      }
+      return compiled;
+   }
+
+   /**
+    * Removes all templates from the cache.
+    */
+   public synchronized void clear() {
+      _entries.clear();
+   }
+
+   /**
+    * Removes the least recently used entry from the cache.
+    */
+   private void evict() {
+      Object oldestKey = null;
+      long oldestAccess = Long.MAX_VALUE;
+      Iterator iterator = _entries.values().iterator();
+      while (iterator.hasNext()) {
+         Entry entry = (Entry) iterator.next();
+         if (entry._lastAccess < oldestAccess) {
+            oldestAccess = entry._lastAccess;
+            oldestKey    = entry._location;
+         }
+      }
+      if (oldestKey != null) {
+         _entries.remove(oldestKey);
+         _evictionCount++;
+      }
+   }
+
+   /**
+    * Compiles the template at the specified location.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the compiled template, never <code>null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   private Templates compile(String location)
+   throws TransformerConfigurationException {
+      Log.log_3443(location);
+      long start = System.currentTimeMillis();
+      try {
+         synchronized (_factory) {
+            return _factory.newTemplates(new StreamSource(location));
+         }
+      } finally {
+         long duration = System.currentTimeMillis() - start;
+         synchronized (this) {
+            _compileTime += duration;
+         }
+      }
+   }
+
+   /**
+    * Returns the number of templates in the cache.
+    *
+    * @return
+    *    the number of cached templates, always &gt;= 0.
+    */
+   public synchronized int getSize() {
+      return _entries.size();
+   }
+
+   /**
+    * Returns the maximum number of templates in the cache.
+    *
+    * @return
+    *    the maximum number of cached templates, or <code>0</code> if the
+    *    templates are not cached.
+    */
+   public int getMaxSize() {
+      return _maxSize;
+   }
+
+   /**
+    * Returns the number of requests for a template that was already
+    * compiled and up to date.
+    *
+    * @return
+    *    the number of cache hits, always &gt;= 0.
+    */
+   public synchronized long getHitCount() {
+      return _hitCount;
+   }
+
+   /**
+    * Returns the number of requests for a template that had to be compiled.
+    *
+    * @return
+    *    the number of cache misses, always &gt;= 0.
+    */
+   public synchronized long getMissCount() {
+      return _missCount;
+   }
+
+   /**
+    * Returns the number of templates compiled again because they were
+    * modified.
+    *
+    * @return
+    *    the number of reloads, always &gt;= 0.
+    */
+   public synchronized long getReloadCount() {
+      return _reloadCount;
+   }
+
+   /**
+    * Returns the number of templates removed from the cache because it was
+    * full.
+    *
+    * @return
+    *    the number of evictions, always &gt;= 0.
+    */
+   public synchronized long getEvictionCount() {
+      return _evictionCount;
+   }
+
+   /**
+    * Returns the total time spent compiling templates.
+    *
+    * @return
+    *    the compilation time in milliseconds, always &gt;= 0.
+    */
+   public synchronized long getCompileTime() {
+      return _compileTime;
+   }
+
+   /**
+    * Returns the statistics of this cache as an XML element.
+    *
+    * @return
+    *    the <code>templates</code> element, never <code>null</code>.
+    */
+   public synchronized Element getStatisticsElement() {
+
+      // Determine the occupancy of the transformer pools
+      int  idle    = 0;
+      int  active  = 0;
+      long created = 0L;
+      long reused  = 0L;
+      Iterator iterator = _entries.values().iterator();
+      while (iterator.hasNext()) {
+         TransformerPool pool = ((Entry) iterator.next())._pool;
+         if (pool != null) {
+            idle    += pool.getIdleCount();
+            active  += pool.getActiveCount();
+            created += pool.getCreatedCount();
+            reused  += pool.getReusedCount();
+         }
+      }
+
+      ElementBuilder builder = new ElementBuilder("templates");
+      builder.setAttribute("size",        String.valueOf(_entries.size()));
+      builder.setAttribute("maxSize",     String.valueOf(_maxSize));
+      builder.setAttribute("hits",        String.valueOf(_hitCount));
+      builder.setAttribute("misses",      String.valueOf(_missCount));
+      builder.setAttribute("reloads",     String.valueOf(_reloadCount));
+      builder.setAttribute("evictions",   String.valueOf(_evictionCount));
+      builder.setAttribute("compileTime", String.valueOf(_compileTime));
+      builder.setAttribute("idleTransformers",    String.valueOf(idle));
+      builder.setAttribute("activeTransformers",  String.valueOf(active));
+      builder.setAttribute("createdTransformers", String.valueOf(created));
+      builder.setAttribute("reusedTransformers",  String.valueOf(reused));
+      return builder.createElement();
+   }
+
+   /**
+    * Cached template. The compilation and the modification checks of an
+    * entry are synchronized on the entry.
+    *
+    * @version $Revision$ $Date$
+    */
+   private final class Entry implements FileWatcher.Listener {
+
+      /**
+       * The location of the style sheet. Never <code>null</code>.
+       */
+      private final String _location;
+
+      /**
+       * The watcher used to check whether the style sheet has been modified,
+       * or <code>null</code> if the style sheet is not checked.
+       */
+      private FileWatcher _watcher;
+
+      /**
+       * The transformer pool of the compiled template, or <code>null</code>
+       * if the template is not compiled yet. Also read by
+       * {@link TemplatesCache#getStatisticsElement()}.
+       */
+      private volatile TransformerPool _pool;
+
+      /**
+       * Flag that indicates whether the style sheet has been modified since
+       * it was compiled.
+       */
+      private boolean _modified;
+
+      /**
+       * The time of the next modification check.
+       */
+      private long _nextCheck;
+
+      /**
+       * The value of the access counter of the cache when the entry was
+       * last used. Accessed while synchronized on the cache.
+       */
+      private long _lastAccess;
+
+      /**
+       * Constructs a new <code>Entry</code>.
+       *
+       * @param location
+       *    the location of the style sheet, cannot be <code>null</code>.
+       */
+      Entry(String location) {
+         _location = location;
+      }
+
+      /**
+       * Gets the transformer pool of the compiled template, compiling the
+       * template if needed.
+       *
+       * @return
+       *    the transformer pool, never <code>null</code>.
+       *
+       * @throws TransformerConfigurationException
+       *    if the style sheet cannot be read or compiled.
+       */
+      synchronized TransformerPool getPool()
+      throws TransformerConfigurationException {
+
+         // Check whether the style sheet has been modified
+         if (_pool != null && _watcher != null) {
+            long now = System.currentTimeMillis();
+            if (now >= _nextCheck) {
+               _nextCheck = now + _checkInterval;
+               _watcher.check();
+            }
+         }
+
+         if (_pool != null && ! _modified) {
+            synchronized (TemplatesCache.this) {
+               _hitCount++;
+            }
+            return _pool;
+         }
+
+         boolean reload = _pool != null;
+         if (_watcher == null && _checkInterval > 0L) {
+            _watcher = createWatcher(_location, this);
+            _nextCheck = System.currentTimeMillis() + _checkInterval;
+         }
+         _pool     = new TransformerPool(compile(_location), _poolSize);
+         _modified = false;
+         synchronized (TemplatesCache.this) {
+            _missCount++;
+            if (reload) {
+               _reloadCount++;
+            }
+         }
+         return _pool;
+      }
+
+      public void fileNotFound() {
+         // Keep the compiled template
+      }
+
+      public void fileFound() {
+         _modified = true;
+      }
+
+      public void securityException(SecurityException exception) {
+         Utils.logIgnoredException(exception);
+      }
+
+      public void fileModified() {
+         _modified = true;
+      }
+
+      public void fileNotModified() {
+         // Nothing changed
+      }
+   }
+
+   /**
+    * Creates a watcher for the modifications of the specified style sheet.
+    * The watcher is not started, its {@link FileWatcher#check()} method is
+    * called when the template is used.
+    *
+    * @param location
+    *    the location of the style sheet, cannot be <code>null</code>.
+    *
+    * @param listener
+    *    the listener to notify, cannot be <code>null</code>.
+    *
+    * @return
+    *    the watcher, or <code>null</code> if the modifications of the style
+    *    sheet cannot be checked.
+    */
+   private static FileWatcher createWatcher(String location, FileWatcher.Listener listener) {
+      try {
+         URL url = new URL(location);
+         String protocol = url.getProtocol();
+         if ("file".equals(protocol)) {
+            return new FileWatcher(new File(url.getFile()).getPath(), listener);
+         } else if ("http".equals(protocol) || "https".equals(protocol)) {
+            return new HTTPFileWatcher(location, listener);
+         }
+
+      // A location that is not a URL is a file name
+      } catch (MalformedURLException exception) {
+         return new FileWatcher(location, listener);
+      }
+      return null;
+   }
+}
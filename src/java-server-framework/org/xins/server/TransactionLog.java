@@ -0,0 +1,596 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.Enumeration;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.xins.common.FormattedParameters;
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.text.DateConverter;
+
+/**
+ * Writer of the transaction log entries 3540 and 3541. The request threads
+ * only put a record of the call in a bounded ring buffer; a background
+ * thread takes the records in batches, formats the parameters and writes
+ * the log entries.
+ *
+ * <p>Each API has its own transaction log, so the settings and the queued
+ * records of an API do not affect the other APIs running in the same
+ * container. The size of the buffer is set with the runtime property
+ * {@link #QUEUE_SIZE_PROPERTY}. With a size of <code>0</code>, the entries
+ * are written by the request thread, as in previous versions. When the
+ * buffer is full, the request thread either waits for some room or drops
+ * the record, as set with the runtime property {@link #OVERFLOW_PROPERTY}.
+ *
+ * <p>The diagnostic context identifier of the request is written with the
+ * entries, as if they were written by the request thread. The writer thread
+ * is a daemon thread. It is started when a record is added and stops after
+ * it has been idle for a while.
+ *
+ * <p>The records are also passed to the appenders attached to the logger
+ * {@link #BINARY_LOGGER_NAME}, if any, with the record as message of the
+ * logging event. {@link BinaryTransactionAppender} writes them in a compact
+ * binary format.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class TransactionLog {
+
+   /**
+    * The name of the runtime property that specifies the number of records
+    * that can wait to be logged. The value <code>0</code> means that the
+    * entries are logged by the request thread.
+    */
+   public static final String QUEUE_SIZE_PROPERTY = "org.xins.server.transactionLog.queueSize";
+
+   /**
+    * The name of the runtime property that specifies what happens when the
+    * queue is full: <code>"block"</code> to wait until there is room in the
+    * queue or <code>"drop"</code> to discard the record.
+    */
+   public static final String OVERFLOW_PROPERTY = "org.xins.server.transactionLog.overflow";
+
+   /**
+    * The name of the logger to which the appenders of the binary transaction
+    * log are attached. Only the appenders attached to this logger itself
+    * receive the records, not the ones of its parents.
+    */
+   public static final String BINARY_LOGGER_NAME = "org.xins.server.runtime.tx.binary";
+
+   /**
+    * The default number of records that can wait to be logged.
+    */
+   public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+   /**
+    * The maximum number of records taken from the queue at once by the
+    * writer thread.
+    */
+   private static final int BATCH_SIZE = 256;
+
+   /**
+    * The time in milliseconds after which an idle writer thread stops.
+    */
+   private static final long IDLE_TIME = 60000L;
+
+   /**
+    * Class used to convert dates to String.
+    */
+   private static final DateConverter DATE_CONVERTER = new DateConverter(true);
+
+   /**
+    * The logger of the binary transaction log.
+    */
+   private static final Logger BINARY_LOGGER = Logger.getLogger(BINARY_LOGGER_NAME);
+
+   /**
+    * The ring buffer of the records waiting to be logged. Never
+    * <code>null</code>.
+    */
+   private TransactionRecord[] _buffer = new TransactionRecord[DEFAULT_QUEUE_SIZE];
+
+   /**
+    * The index in the buffer of the next record to log.
+    */
+   private int _head;
+
+   /**
+    * The number of records in the buffer.
+    */
+   private int _count;
+
+   /**
+    * The maximum number of records in the queue, <code>0</code> if the
+    * entries are logged by the request threads.
+    */
+   private int _queueSize = DEFAULT_QUEUE_SIZE;
+
+   /**
+    * Indicates whether the records are dropped when the queue is full,
+    * instead of waiting for some room.
+    */
+   private boolean _drop;
+
+   /**
+    * The writer thread, or <code>null</code> if it is not running.
+    */
+   private Thread _thread;
+
+   /**
+    * Indicates whether the writer thread is logging a batch of records.
+    */
+   private boolean _writing;
+
+   /**
+    * The highest number of records that were in the queue at the same time.
+    */
+   private int _maxCount;
+
+   /**
+    * The number of records logged.
+    */
+   private long _loggedCount;
+
+   /**
+    * The number of batches of records logged by the writer thread.
+    */
+   private long _batchCount;
+
+   /**
+    * The number of records dropped because the queue was full.
+    */
+   private long _droppedCount;
+
+   /**
+    * The number of times a request thread waited because the queue was full.
+    */
+   private long _blockedCount;
+
+   /**
+    * Constructs a new <code>TransactionLog</code>.
+    */
+   public TransactionLog() {
+      // empty
+   }
+
+   /**
+    * Sets the size of the queue and the overflow policy from the runtime
+    * properties {@link #QUEUE_SIZE_PROPERTY} and {@link #OVERFLOW_PROPERTY}.
+    * The records already in the queue are kept.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the properties is invalid.
+    */
+   public void init(PropertyReader runtimeProperties)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+
+      MandatoryArgumentChecker.check("runtimeProperties", runtimeProperties);
+
+      int queueSize = DEFAULT_QUEUE_SIZE;
+      String value = runtimeProperties.get(QUEUE_SIZE_PROPERTY);
+      if (value != null && value.trim().length() > 0) {
+         try {
+            queueSize = Integer.parseInt(value.trim());
+         } catch (NumberFormatException exception) {
+            throw new InvalidPropertyValueException(QUEUE_SIZE_PROPERTY, value, "Not a 32-bit integer number.");
+         }
+         if (queueSize < 0) {
+            throw new InvalidPropertyValueException(QUEUE_SIZE_PROPERTY, value, "Negative value.");
+         }
+      }
+
+      boolean drop;
+      value = runtimeProperties.get(OVERFLOW_PROPERTY);
+      if (value == null || value.trim().length() < 1 || "block".equals(value.trim())) {
+         drop = false;
+      } else if ("drop".equals(value.trim())) {
+         drop = true;
+      } else {
+         throw new InvalidPropertyValueException(OVERFLOW_PROPERTY, value, "Expected either \"block\" or \"drop\".");
+      }
+
+      configure(queueSize, drop);
+   }
+
+   /**
+    * Sets the size of the queue and the overflow policy. The records already
+    * in the queue are kept.
+    *
+    * @param queueSize
+    *    the maximum number of records in the queue, or <code>0</code> if the
+    *    entries should be logged by the request threads.
+    *
+    * @param drop
+    *    <code>true</code> if the records should be dropped when the queue is
+    *    full, <code>false</code> if the request threads should wait.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>queueSize &lt; 0</code>.
+    */
+   public synchronized void configure(int queueSize, boolean drop)
+   throws IllegalArgumentException {
+      if (queueSize < 0) {
+         throw new IllegalArgumentException("queueSize (" + queueSize + ") < 0");
+      }
+
+      // Copy the waiting records to a buffer of the new size
+      int length = Math.max(Math.max(queueSize, _count), 1);
+      if (length != _buffer.length) {
+         TransactionRecord[] buffer = new TransactionRecord[length];
+         for (int i = 0; i < _count; i++) {
+            buffer[i] = _buffer[(_head + i) % _buffer.length];
+         }
+         _buffer = buffer;
+         _head   = 0;
+      }
+      _queueSize = queueSize;
+      _drop      = drop;
+
+      // Waiting request threads may log by themselves now
+      notifyAll();
+   }
+
+   /**
+    * Logs a function call. Depending on the configuration, the entries are
+    * logged now or by the writer thread. The request, the result and their
+    * data sections should not be modified afterwards.
+    *
+    * @param request
+    *    the request, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the result, cannot be <code>null</code>.
+    *
+    * @param ip
+    *    the IP address of the requester, cannot be <code>null</code>.
+    *
+    * @param start
+    *    the start time, as a number of milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @param duration
+    *    the duration of the function call in milliseconds.
+    */
+   public void log(FunctionRequest request,
+                   FunctionResult  result,
+                   String          ip,
+                   long            start,
+                   long            duration) {
+
+      TransactionRecord record = new TransactionRecord(request, result, ip, start, duration, NDC.get());
+      if (! enqueue(record)) {
+         write(record, false);
+         synchronized (this) {
+            _loggedCount++;
+         }
+      }
+   }
+
+   /**
+    * Puts a record in the queue, waiting for some room if needed.
+    *
+    * @param record
+    *    the record, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the record is queued or dropped,
+    *    <code>false</code> if it should be logged by the calling thread.
+    */
+   private synchronized boolean enqueue(TransactionRecord record) {
+      boolean blocked = false;
+      while (_queueSize > 0 && _count >= _queueSize) {
+         if (_drop) {
+            _droppedCount++;
+            return true;
+         }
+         if (! blocked) {
+            blocked = true;
+            _blockedCount++;
+         }
+         try {
+            wait();
+         } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+         }
+      }
+      if (_queueSize == 0) {
+         return false;
+      }
+
+      _buffer[(_head + _count) % _buffer.length] = record;
+      _count++;
+      if (_count > _maxCount) {
+         _maxCount = _count;
+      }
+
+      // Start the writer thread if needed
+      if (_thread == null) {
+         _thread = new WriterThread();
+         _thread.start();
+      }
+      notifyAll();
+      return true;
+   }
+
+   /**
+    * Takes the next batch of records from the queue. If the queue is empty,
+    * waits for records to be added.
+    *
+    * @return
+    *    the records to log, or <code>null</code> if the writer thread should
+    *    stop.
+    */
+   private synchronized TransactionRecord[] nextBatch() {
+      _writing = false;
+      notifyAll();
+
+      long idleSince = System.currentTimeMillis();
+      while (_count == 0) {
+         long idle = System.currentTimeMillis() - idleSince;
+         if (Thread.currentThread() != _thread || idle >= IDLE_TIME) {
+            if (Thread.currentThread() == _thread) {
+               _thread = null;
+            }
+            return null;
+         }
+         try {
+            wait(IDLE_TIME - idle);
+         } catch (InterruptedException exception) {
+            _thread = null;
+            return null;
+         }
+      }
+
+      TransactionRecord[] batch = new TransactionRecord[Math.min(_count, BATCH_SIZE)];
+      for (int i = 0; i < batch.length; i++) {
+         batch[i] = _buffer[_head];
+         _buffer[_head] = null;
+         _head = (_head + 1) % _buffer.length;
+      }
+      _count -= batch.length;
+      _batchCount++;
+      _writing = true;
+
+      // Waiting request threads can add their records
+      notifyAll();
+      return batch;
+   }
+
+   /**
+    * Waits until all the queued records are logged.
+    *
+    * @param timeOut
+    *    the maximum time to wait in milliseconds, <code>0</code> to wait
+    *    without time limit.
+    *
+    * @return
+    *    <code>true</code> if all the records are logged, <code>false</code>
+    *    if the time-out was reached.
+    *
+    * @throws InterruptedException
+    *    if the calling thread is interrupted while waiting.
+    */
+   public synchronized boolean flush(long timeOut) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeOut;
+      while (_count > 0 || _writing) {
+         if (_thread == null) {
+
+            // The writer thread died, restart it
+            _thread = new WriterThread();
+            _thread.start();
+         }
+         if (timeOut == 0L) {
+            wait();
+         } else {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+               return false;
+            }
+            wait(remaining);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Writes the log entries of a record.
+    *
+    * @param record
+    *    the record, cannot be <code>null</code>.
+    *
+    * @param pushContextID
+    *    <code>true</code> if the diagnostic context identifier of the record
+    *    should be associated with the current thread while logging.
+    */
+   private static void write(TransactionRecord record, boolean pushContextID) {
+      if (pushContextID && record._contextID != null) {
+         NDC.push(record._contextID);
+      }
+      try {
+         String serStart  = DATE_CONVERTER.format(record._start);
+         Object inParams  = new FormattedParameters(record._inParams,  record._inData);
+         Object outParams = new FormattedParameters(record._outParams, record._outData);
+         Log.log_3540(serStart, record._ip, record._functionName, record._duration, record._code, inParams, outParams);
+         Log.log_3541(serStart, record._ip, record._functionName, record._duration, record._code);
+         writeBinary(record);
+      } catch (Throwable exception) {
+         Utils.logIgnoredException(exception);
+      } finally {
+         if (pushContextID && record._contextID != null) {
+            NDC.pop();
+         }
+      }
+   }
+
+   /**
+    * Passes a record to the appenders of the binary transaction log.
+    *
+    * @param record
+    *    the record, cannot be <code>null</code>.
+    */
+   private static void writeBinary(TransactionRecord record) {
+      Enumeration appenders = BINARY_LOGGER.getAllAppenders();
+      if (! appenders.hasMoreElements() || ! BINARY_LOGGER.isEnabledFor(Level.INFO)) {
+         return;
+      }
+
+      // The event is not sent up the hierarchy, the text appenders would not
+      // know what to do with the record
+      LoggingEvent event = new LoggingEvent(TransactionLog.class.getName(), BINARY_LOGGER, Level.INFO, record, null);
+      while (appenders.hasMoreElements()) {
+         ((Appender) appenders.nextElement()).doAppend(event);
+      }
+   }
+
+   /**
+    * Returns the maximum number of records in the queue.
+    *
+    * @return
+    *    the size of the queue, or <code>0</code> if the entries are logged by
+    *    the request threads.
+    */
+   public synchronized int getQueueSize() {
+      return _queueSize;
+   }
+
+   /**
+    * Indicates whether the records are dropped when the queue is full.
+    *
+    * @return
+    *    <code>true</code> if the records are dropped, <code>false</code> if
+    *    the request threads wait for some room in the queue.
+    */
+   public synchronized boolean isDropping() {
+      return _drop;
+   }
+
+   /**
+    * Returns the number of records waiting to be logged.
+    *
+    * @return
+    *    the number of records in the queue, always &gt;= 0.
+    */
+   public synchronized int getQueuedCount() {
+      return _count;
+   }
+
+   /**
+    * Returns the highest number of records that were in the queue at the
+    * same time.
+    *
+    * @return
+    *    the highest depth of the queue, always &gt;= 0.
+    */
+   public synchronized int getMaxQueuedCount() {
+      return _maxCount;
+   }
+
+   /**
+    * Returns the number of records logged.
+    *
+    * @return
+    *    the number of records logged, always &gt;= 0.
+    */
+   public synchronized long getLoggedCount() {
+      return _loggedCount;
+   }
+
+   /**
+    * Returns the number of batches of records logged by the writer thread.
+    *
+    * @return
+    *    the number of batches, always &gt;= 0.
+    */
+   public synchronized long getBatchCount() {
+      return _batchCount;
+   }
+
+   /**
+    * Returns the number of records dropped because the queue was full.
+    *
+    * @return
+    *    the number of records dropped, always &gt;= 0.
+    */
+   public synchronized long getDroppedCount() {
+      return _droppedCount;
+   }
+
+   /**
+    * Returns the number of times a request thread waited because the queue
+    * was full.
+    *
+    * @return
+    *    the number of waits, always &gt;= 0.
+    */
+   public synchronized long getBlockedCount() {
+      return _blockedCount;
+   }
+
+   /**
+    * Thread that logs the queued records.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   private final class WriterThread extends Thread {
+
+      /**
+       * Constructs a new <code>WriterThread</code>.
+       */
+      WriterThread() {
+         super("XINS transaction log writer");
+         setDaemon(true);
+      }
+
+      public void run() {
+         try {
+            TransactionRecord[] batch;
+            while ((batch = nextBatch()) != null) {
+               for (int i = 0; i < batch.length; i++) {
+                  write(batch[i], true);
+               }
+               synchronized (TransactionLog.this) {
+                  _loggedCount += batch.length;
+               }
+            }
+         } finally {
+            NDC.remove();
+            synchronized (TransactionLog.this) {
+               if (_thread == this) {
+                  _thread = null;
+                  _writing = false;
+                  TransactionLog.this.notifyAll();
+               }
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,640 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.text.DateConverter;
+import org.xins.common.text.URLEncoding;
+
+/**
+ * Reader of the binary transaction log written by
+ * {@link BinaryTransactionAppender}. The entries can be filtered on the
+ * function name and on the start time; the parameters of the other entries
+ * are not decoded.
+ *
+ * <p>This class can be used from the command line to convert binary
+ * transaction logs to the text of the log entry 3540:
+ *
+ * <blockquote><pre>java org.xins.server.TransactionLogReader [-function <em>name</em>]... [-from <em>time</em>] [-to <em>time</em>] [-context] <em>file</em>...</pre></blockquote>
+ *
+ * <p>The times are in the format <code>yyyyMMdd-HHmmss</code>, optionally
+ * followed by milliseconds, in the time zone of the reader. With
+ * <code>-context</code> the diagnostic context identifier is written at the
+ * start of each line.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public class TransactionLogReader {
+
+   /**
+    * Class used to convert dates to String.
+    */
+   private static final DateConverter DATE_CONVERTER = new DateConverter(true);
+
+   /**
+    * The stream to read from. Never <code>null</code>.
+    */
+   private final DataInputStream _in;
+
+   /**
+    * The names of the functions, indexed by function identifier. Never
+    * <code>null</code>.
+    */
+   private final List _functions = new ArrayList();
+
+   /**
+    * The names of the functions to read, or <code>null</code> to read all
+    * functions.
+    */
+   private Set _functionFilter;
+
+   /**
+    * The lowest start time of the entries to read.
+    */
+   private long _from = Long.MIN_VALUE;
+
+   /**
+    * The highest start time of the entries to read.
+    */
+   private long _to = Long.MAX_VALUE;
+
+   /**
+    * The buffer for the body of a transaction record. Never
+    * <code>null</code>.
+    */
+   private byte[] _body = new byte[512];
+
+   /**
+    * Constructs a new <code>TransactionLogReader</code>. The header is read
+    * immediately.
+    *
+    * @param in
+    *    the stream to read from, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>in == null</code>.
+    *
+    * @throws IOException
+    *    if the header cannot be read or if the stream is not a binary
+    *    transaction log.
+    */
+   public TransactionLogReader(InputStream in)
+   throws IllegalArgumentException, IOException {
+      MandatoryArgumentChecker.check("in", in);
+      _in = new DataInputStream(new BufferedInputStream(in, 8192));
+      if (_in.read() != BinaryTransactionAppender.MAGIC[0]) {
+         throw new IOException("Not a binary transaction log.");
+      }
+      readHeader();
+   }
+
+   /**
+    * Sets the functions of the entries to read.
+    *
+    * @param functionNames
+    *    the names of the functions, or <code>null</code> to read the entries
+    *    of all functions.
+    */
+   public void setFunctions(Set functionNames) {
+      _functionFilter = (functionNames == null) ? null : new HashSet(functionNames);
+   }
+
+   /**
+    * Sets the period in which the entries to read were started.
+    *
+    * @param from
+    *    the lowest start time, inclusive.
+    *
+    * @param to
+    *    the highest start time, inclusive.
+    */
+   public void setTimeRange(long from, long to) {
+      _from = from;
+      _to   = to;
+   }
+
+   /**
+    * Reads the rest of the header, after the first byte, and resets the
+    * function table.
+    *
+    * @throws IOException
+    *    if the header cannot be read or is invalid.
+    */
+   private void readHeader() throws IOException {
+      for (int i = 1; i < BinaryTransactionAppender.MAGIC.length; i++) {
+         if (_in.readByte() != BinaryTransactionAppender.MAGIC[i]) {
+            throw new IOException("Not a binary transaction log.");
+         }
+      }
+      int version = _in.readUnsignedByte();
+      if (version != BinaryTransactionAppender.VERSION) {
+         throw new IOException("Unsupported version " + version + " of the binary transaction log.");
+      }
+      _functions.clear();
+   }
+
+   /**
+    * Reads the next entry that matches the filters.
+    *
+    * @return
+    *    the entry, or <code>null</code> if the end of the stream is reached.
+    *    An incomplete record at the end of the stream, as left by a server
+    *    that is still writing, is ignored.
+    *
+    * @throws IOException
+    *    if the stream cannot be read or is invalid.
+    */
+   public Entry next() throws IOException {
+      try {
+         while (true) {
+            int type = _in.read();
+            if (type < 0) {
+               return null;
+            } else if (type == BinaryTransactionAppender.MAGIC[0]) {
+               readHeader();
+            } else if (type == BinaryTransactionAppender.FUNCTION_RECORD) {
+               int id = _in.readUnsignedShort();
+               String name = _in.readUTF();
+               while (_functions.size() <= id) {
+                  _functions.add(null);
+               }
+               _functions.set(id, name);
+            } else if (type == BinaryTransactionAppender.TRANSACTION_RECORD) {
+               int length = _in.readInt();
+               if (length < 0) {
+                  throw new IOException("Invalid record length " + length + '.');
+               }
+               if (_body.length < length) {
+                  _body = new byte[Math.max(length, _body.length * 2)];
+               }
+               _in.readFully(_body, 0, length);
+               Entry entry = readEntry(new DataInputStream(new ByteArrayInputStream(_body, 0, length)));
+               if (entry != null) {
+                  return entry;
+               }
+            } else {
+               throw new IOException("Unknown record type " + type + '.');
+            }
+         }
+      } catch (EOFException exception) {
+         return null;
+      }
+   }
+
+   /**
+    * Reads the body of a transaction record.
+    *
+    * @param body
+    *    the body, cannot be <code>null</code>.
+    *
+    * @return
+    *    the entry, or <code>null</code> if it does not match the filters.
+    *
+    * @throws IOException
+    *    if the body is invalid.
+    */
+   private Entry readEntry(DataInputStream body) throws IOException {
+      long start = body.readLong();
+      if (start < _from || start > _to) {
+         return null;
+      }
+      long duration = body.readLong();
+      String ip = readIP(body);
+      int id = body.readUnsignedShort();
+      String function = (id < _functions.size()) ? (String) _functions.get(id) : null;
+      if (function == null) {
+         throw new IOException("Unknown function identifier " + id + '.');
+      }
+      if (_functionFilter != null && ! _functionFilter.contains(function)) {
+         return null;
+      }
+
+      Entry entry = new Entry(start, duration, ip, function);
+      entry._code      = body.readUTF();
+      entry._contextID = readString(body);
+      entry._inParams  = readParameters(body);
+      entry._inData    = readString(body);
+      entry._outParams = readParameters(body);
+      entry._outData   = readString(body);
+      return entry;
+   }
+
+   /**
+    * Reads an IP address.
+    *
+    * @param body
+    *    the body of the record, cannot be <code>null</code>.
+    *
+    * @return
+    *    the IP address, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the IP address is invalid.
+    */
+   private static String readIP(DataInputStream body) throws IOException {
+      int length = body.readUnsignedByte();
+      if (length == 0) {
+         return body.readUTF();
+      } else if (length == 4 || length == 16) {
+         byte[] address = new byte[length];
+         body.readFully(address);
+         return InetAddress.getByAddress(address).getHostAddress();
+      } else {
+         throw new IOException("Invalid IP address length " + length + '.');
+      }
+   }
+
+   /**
+    * Reads parameters.
+    *
+    * @param body
+    *    the body of the record, cannot be <code>null</code>.
+    *
+    * @return
+    *    the names and the values of the parameters, alternately, never
+    *    <code>null</code>.
+    *
+    * @throws IOException
+    *    if the parameters are invalid.
+    */
+   private static String[] readParameters(DataInputStream body) throws IOException {
+      int count = body.readInt();
+      if (count < 0) {
+         throw new IOException("Invalid number of parameters " + count + '.');
+      }
+      String[] parameters = new String[count * 2];
+      for (int i = 0; i < parameters.length; i++) {
+         parameters[i] = readString(body);
+      }
+      return parameters;
+   }
+
+   /**
+    * Reads a string written as its length in bytes followed by the UTF-8
+    * bytes.
+    *
+    * @param body
+    *    the body of the record, cannot be <code>null</code>.
+    *
+    * @return
+    *    the string, can be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the string is invalid.
+    */
+   private static String readString(DataInputStream body) throws IOException {
+      int length = body.readInt();
+      if (length == -1) {
+         return null;
+      } else if (length < 0) {
+         throw new IOException("Invalid string length " + length + '.');
+      }
+      byte[] bytes = new byte[length];
+      body.readFully(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+   /**
+    * Closes the stream.
+    *
+    * @throws IOException
+    *    if the stream cannot be closed.
+    */
+   public void close() throws IOException {
+      _in.close();
+   }
+
+   /**
+    * Writes the entries of binary transaction logs as text to the standard
+    * output.
+    *
+    * @param args
+    *    the command line arguments: the filters and the files to read.
+    */
+   public static void main(String[] args) {
+      Set functions = null;
+      long from = Long.MIN_VALUE;
+      long to = Long.MAX_VALUE;
+      boolean showContext = false;
+      List files = new ArrayList();
+      try {
+         for (int i = 0; i < args.length; i++) {
+            if ("-function".equals(args[i]) && i < args.length - 1) {
+               if (functions == null) {
+                  functions = new HashSet();
+               }
+               functions.add(args[++i]);
+            } else if ("-from".equals(args[i]) && i < args.length - 1) {
+               from = parseTime(args[++i]);
+            } else if ("-to".equals(args[i]) && i < args.length - 1) {
+               to = parseTime(args[++i]);
+            } else if ("-context".equals(args[i])) {
+               showContext = true;
+            } else if (args[i].startsWith("-")) {
+               throw new IllegalArgumentException("Unknown option " + args[i] + '.');
+            } else {
+               files.add(args[i]);
+            }
+         }
+         if (files.isEmpty()) {
+            throw new IllegalArgumentException("No file specified.");
+         }
+      } catch (IllegalArgumentException exception) {
+         System.err.println(exception.getMessage());
+         System.err.println("Usage: java " + TransactionLogReader.class.getName()
+               + " [-function name]... [-from yyyyMMdd-HHmmss[SSS]] [-to yyyyMMdd-HHmmss[SSS]] [-context] file...");
+         System.exit(1);
+      }
+
+      PrintStream out = System.out;
+      for (int i = 0; i < files.size(); i++) {
+         String file = (String) files.get(i);
+         try {
+            TransactionLogReader reader = new TransactionLogReader(new FileInputStream(file));
+            try {
+               reader.setFunctions(functions);
+               reader.setTimeRange(from, to);
+               Entry entry;
+               while ((entry = reader.next()) != null) {
+                  if (showContext) {
+                     out.print(entry.getContextID() == null ? "-" : entry.getContextID());
+                     out.print(" - ");
+                  }
+                  out.println(entry);
+               }
+            } finally {
+               reader.close();
+            }
+         } catch (IOException exception) {
+            out.flush();
+            System.err.println("Cannot read " + file + ": " + exception.getMessage());
+            System.exit(2);
+         }
+      }
+      out.flush();
+   }
+
+   /**
+    * Parses a time given on the command line.
+    *
+    * @param time
+    *    the time, in the format <code>yyyyMMdd-HHmmss</code>, optionally
+    *    followed by milliseconds.
+    *
+    * @return
+    *    the time in milliseconds since the epoch.
+    *
+    * @throws IllegalArgumentException
+    *    if the time is not in the expected format.
+    */
+   private static long parseTime(String time) throws IllegalArgumentException {
+      String pattern = (time.length() > 15) ? "yyyyMMdd-HHmmssSSS" : "yyyyMMdd-HHmmss";
+      SimpleDateFormat format = new SimpleDateFormat(pattern);
+      format.setLenient(false);
+      try {
+         Date date = format.parse(time);
+         if (format.format(date).equals(time)) {
+            return date.getTime();
+         }
+      } catch (java.text.ParseException exception) {
+         // fall through
+      }
+      throw new IllegalArgumentException("Invalid time \"" + time + "\", expected yyyyMMdd-HHmmss[SSS].");
+   }
+
+   /**
+    * Entry of the binary transaction log.
+    *
+    * @version $Revision$ $Date$
+    *
+    * @since XINS 2.4
+    */
+   public static final class Entry {
+
+      /**
+       * The start time of the call.
+       */
+      private final long _start;
+
+      /**
+       * The duration of the call in milliseconds.
+       */
+      private final long _duration;
+
+      /**
+       * The IP address of the requester.
+       */
+      private final String _ip;
+
+      /**
+       * The name of the function.
+       */
+      private final String _function;
+
+      /**
+       * The error code, or <code>"0"</code> if the call succeeded.
+       */
+      private String _code;
+
+      /**
+       * The diagnostic context identifier, can be <code>null</code>.
+       */
+      private String _contextID;
+
+      /**
+       * The names and the values of the input parameters, alternately.
+       */
+      private String[] _inParams;
+
+      /**
+       * The input data section as XML, can be <code>null</code>.
+       */
+      private String _inData;
+
+      /**
+       * The names and the values of the output parameters, alternately.
+       */
+      private String[] _outParams;
+
+      /**
+       * The output data section as XML, can be <code>null</code>.
+       */
+      private String _outData;
+
+      /**
+       * Constructs a new <code>Entry</code>.
+       *
+       * @param start
+       *    the start time of the call.
+       *
+       * @param duration
+       *    the duration of the call in milliseconds.
+       *
+       * @param ip
+       *    the IP address of the requester.
+       *
+       * @param function
+       *    the name of the function.
+       */
+      Entry(long start, long duration, String ip, String function) {
+         _start    = start;
+         _duration = duration;
+         _ip       = ip;
+         _function = function;
+      }
+
+      /**
+       * Returns the start time of the call.
+       *
+       * @return
+       *    the start time, in milliseconds since the epoch.
+       */
+      public long getStart() {
+         return _start;
+      }
+
+      /**
+       * Returns the duration of the call.
+       *
+       * @return
+       *    the duration in milliseconds.
+       */
+      public long getDuration() {
+         return _duration;
+      }
+
+      /**
+       * Returns the IP address of the requester.
+       *
+       * @return
+       *    the IP address, never <code>null</code>.
+       */
+      public String getIP() {
+         return _ip;
+      }
+
+      /**
+       * Returns the name of the function.
+       *
+       * @return
+       *    the function name, never <code>null</code>.
+       */
+      public String getFunctionName() {
+         return _function;
+      }
+
+      /**
+       * Returns the error code.
+       *
+       * @return
+       *    the error code, or <code>"0"</code> if the call succeeded.
+       */
+      public String getErrorCode() {
+         return _code;
+      }
+
+      /**
+       * Returns the diagnostic context identifier of the call.
+       *
+       * @return
+       *    the diagnostic context identifier, can be <code>null</code>.
+       */
+      public String getContextID() {
+         return _contextID;
+      }
+
+      /**
+       * Returns the entry in the text format of the log entry 3540.
+       *
+       * @return
+       *    the text of the entry, never <code>null</code>.
+       */
+      public String toString() {
+         StringBuffer buffer = new StringBuffer(256);
+         buffer.append(DATE_CONVERTER.format(_start));
+         buffer.append(' ');
+         buffer.append(_ip);
+         buffer.append(' ');
+         buffer.append(_function);
+         buffer.append(' ');
+         buffer.append(_duration);
+         buffer.append(' ');
+         buffer.append(_code);
+         buffer.append(' ');
+         formatParameters(buffer, _inParams, _inData);
+         buffer.append(' ');
+         formatParameters(buffer, _outParams, _outData);
+         return buffer.toString();
+      }
+
+      /**
+       * Formats parameters and a data section the same way as
+       * {@link org.xins.common.FormattedParameters}.
+       *
+       * @param buffer
+       *    the buffer to append to, cannot be <code>null</code>.
+       *
+       * @param parameters
+       *    the names and the values of the parameters, alternately.
+       *
+       * @param data
+       *    the data section as XML, can be <code>null</code>.
+       */
+      private static void formatParameters(StringBuffer buffer, String[] parameters, String data) {
+         if (parameters.length == 0 && data == null) {
+            buffer.append('-');
+            return;
+         }
+
+         boolean first = true;
+         for (int i = 0; i < parameters.length; i += 2) {
+            String value = parameters[i + 1];
+            if (value == null || value.length() == 0) {
+               continue;
+            }
+            if (!first) {
+               buffer.append('&');
+            } else {
+               first = false;
+            }
+            buffer.append(URLEncoding.encode(parameters[i]));
+            buffer.append('=');
+            buffer.append(URLEncoding.encode(value));
+         }
+
+         if (data != null) {
+            if (!first) {
+               buffer.append('&');
+            }
+            buffer.append("_data=");
+            buffer.append(URLEncoding.encode(data));
+         }
+      }
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.xml.Element;
+
+/**
+ * Record of a function call, as written to the transaction log. The
+ * {@link TransactionLog} queues these records and passes them as message to
+ * the appenders of the binary transaction log, such as
+ * {@link BinaryTransactionAppender}.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+final class TransactionRecord {
+
+   /**
+    * Constructs a new <code>TransactionRecord</code>.
+    *
+    * @param request
+    *    the request, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the result, cannot be <code>null</code>.
+    *
+    * @param ip
+    *    the IP address of the requester, cannot be <code>null</code>.
+    *
+    * @param start
+    *    the start time of the call.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    *
+    * @param contextID
+    *    the diagnostic context identifier, can be <code>null</code>.
+    */
+   TransactionRecord(FunctionRequest request, FunctionResult result, String ip,
+                     long start, long duration, String contextID) {
+
+      // Determine error code, fallback is a zero character
+      String code = result.getErrorCode();
+      if (code == null || code.length() < 1) {
+         code = "0";
+      }
+
+      _functionName = request.getFunctionName();
+      _ip           = ip;
+      _start        = start;
+      _duration     = duration;
+      _code         = code;
+      _inParams     = request.getParameters();
+      _inData       = request.getDataElement();
+      _outParams    = result.getParameters();
+      _outData      = result.getDataElement();
+      _contextID    = contextID;
+   }
+
+   /**
+    * The name of the function.
+    */
+   final String _functionName;
+
+   /**
+    * The IP address of the requester.
+    */
+   final String _ip;
+
+   /**
+    * The start time of the call.
+    */
+   final long _start;
+
+   /**
+    * The duration of the call in milliseconds.
+    */
+   final long _duration;
+
+   /**
+    * The error code, or <code>"0"</code> if the call succeeded.
+    */
+   final String _code;
+
+   /**
+    * The input parameters, can be <code>null</code>.
+    */
+   final PropertyReader _inParams;
+
+   /**
+    * The input data section, can be <code>null</code>.
+    */
+   final Element _inData;
+
+   /**
+    * The output parameters, can be <code>null</code>.
+    */
+   final PropertyReader _outParams;
+
+   /**
+    * The output data section, can be <code>null</code>.
+    */
+   final Element _outData;
+
+   /**
+    * The diagnostic context identifier, can be <code>null</code>.
+    */
+   final String _contextID;
+}
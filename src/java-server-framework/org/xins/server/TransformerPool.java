@@ -0,0 +1,226 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.ArrayList;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Pool of reusable transformers for a compiled XSLT template. A transformer
+ * is checked out by a thread, used for one transformation and then checked
+ * in again, so that the next transformation does not need to create a new
+ * transformer.
+ *
+ * <p>When a transformer is checked in, its parameters are cleared. Users of
+ * the pool should not change the output properties, the URI resolver or the
+ * error listener of the transformers. A transformer whose transformation
+ * failed should be discarded with {@link #discard(Transformer)} instead of
+ * being checked in, since its state is unknown.
+ *
+ * <h2>Thread-safety</h2>
+ *
+ * <p>Instances of this class can safely be used from multiple threads at the
+ * same time. A checked out transformer should only be used by one thread.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @since XINS 2.4
+ */
+public final class TransformerPool {
+
+   /**
+    * The compiled template. Never <code>null</code>.
+    */
+   private final Templates _templates;
+
+   /**
+    * The maximum number of idle transformers kept in the pool.
+    */
+   private final int _maxIdle;
+
+   /**
+    * The idle transformers. All accesses should be synchronized on this
+    * pool.
+    */
+   private final ArrayList _idle;
+
+   /**
+    * The number of transformers checked out and not checked in yet.
+    */
+   private int _activeCount;
+
+   /**
+    * The number of transformers created.
+    */
+   private long _createdCount;
+
+   /**
+    * The number of check-outs that reused an idle transformer.
+    */
+   private long _reusedCount;
+
+   /**
+    * Constructs a new <code>TransformerPool</code>.
+    *
+    * @param templates
+    *    the compiled template, cannot be <code>null</code>.
+    *
+    * @param maxIdle
+    *    the maximum number of idle transformers kept in the pool, or
+    *    <code>0</code> if transformers should not be reused.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>templates == null || maxIdle &lt; 0</code>.
+    */
+   public TransformerPool(Templates templates, int maxIdle)
+   throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("templates", templates);
+      if (maxIdle < 0) {
+         throw new IllegalArgumentException("maxIdle (" + maxIdle + ") < 0");
+      }
+
+      _templates = templates;
+      _maxIdle   = maxIdle;
+      _idle      = new ArrayList(Math.min(maxIdle, 16));
+   }
+
+   /**
+    * Returns the compiled template.
+    *
+    * @return
+    *    the template of this pool, never <code>null</code>.
+    */
+   public Templates getTemplates() {
+      return _templates;
+   }
+
+   /**
+    * Checks out a transformer. The transformer should be checked in with
+    * {@link #checkIn(Transformer)} when the transformation is finished, or
+    * discarded with {@link #discard(Transformer)} if it failed.
+    *
+    * @return
+    *    a transformer for the template, never <code>null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if a new transformer cannot be created.
+    */
+   public Transformer checkOut() throws TransformerConfigurationException {
+      synchronized (this) {
+         _activeCount++;
+         int size = _idle.size();
+         if (size > 0) {
+            _reusedCount++;
+            return (Transformer) _idle.remove(size - 1);
+         }
+         _createdCount++;
+      }
+      try {
+         return _templates.newTransformer();
+      } catch (TransformerConfigurationException exception) {
+         synchronized (this) {
+            _activeCount--;
+         }
+         throw exception;
+      }
+   }
+
+   /**
+    * Checks in a transformer that was checked out from this pool. The
+    * transformer is reset and kept for reuse, unless the pool already
+    * contains the maximum number of idle transformers.
+    *
+    * @param transformer
+    *    the transformer, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>transformer == null</code>.
+    */
+   public void checkIn(Transformer transformer) throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("transformer", transformer);
+
+      // Reset the transformer
+      transformer.clearParameters();
+
+      synchronized (this) {
+         _activeCount--;
+         if (_idle.size() < _maxIdle) {
+            _idle.add(transformer);
+         }
+      }
+   }
+
+   /**
+    * Discards a transformer that was checked out from this pool. This
+    * method should be called instead of {@link #checkIn(Transformer)} if
+    * the transformation failed, so that the transformer is not reused.
+    *
+    * @param transformer
+    *    the transformer, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>transformer == null</code>.
+    */
+   public void discard(Transformer transformer) throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("transformer", transformer);
+
+      synchronized (this) {
+         _activeCount--;
+      }
+   }
+
+   /**
+    * Returns the number of idle transformers in the pool.
+    *
+    * @return
+    *    the number of idle transformers, always &gt;= 0.
+    */
+   public synchronized int getIdleCount() {
+      return _idle.size();
+   }
+
+   /**
+    * Returns the number of transformers checked out and not checked in yet.
+    *
+    * @return
+    *    the number of transformers in use, always &gt;= 0.
+    */
+   public synchronized int getActiveCount() {
+      return _activeCount;
+   }
+
+   /**
+    * Returns the number of transformers created.
+    *
+    * @return
+    *    the number of created transformers, always &gt;= 0.
+    */
+   public synchronized long getCreatedCount() {
+      return _createdCount;
+   }
+
+   /**
+    * Returns the number of check-outs that reused an idle transformer.
+    *
+    * @return
+    *    the number of reused transformers, always &gt;= 0.
+    */
+   public synchronized long getReusedCount() {
+      return _reusedCount;
+   }
+}
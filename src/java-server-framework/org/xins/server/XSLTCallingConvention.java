@@ -9,11 +9,9 @@ package org.xins.server;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import javax.xml.transform.Result;
@@ -21,8 +19,8 @@ import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -33,8 +31,11 @@ import org.xins.common.collections.MissingRequiredPropertyException;
 import org.xins.common.collections.PropertyReader;
 import org.xins.common.manageable.InitializationException;
 import org.xins.common.text.TextUtils;
+import org.xins.common.xml.Element;
 import org.xins.logdoc.ExceptionUtils;
 
+import org.xml.sax.InputSource;
+
 /**
  * XSLT calling convention.
  * The XSLT calling convention input is the same as for the standard calling
@@ -95,9 +96,10 @@ public class XSLTCallingConvention extends StandardCallingConvention {
    private String _location;
 
    /**
-    * Cache for the XSLT templates. Never <code>null</code>.
+    * Cache for the XSLT templates. This field is initially
+    * <code>null</code> and set during initialization.
     */
-   private Map _templateCache;
+   private TemplatesCache _templateCache;
 
    /**
     * Constructs a new <code>XSLTCallingConvention</code> object.
@@ -106,9 +108,6 @@ public class XSLTCallingConvention extends StandardCallingConvention {
 
       // Create the transformer factory
       _factory = TransformerFactory.newInstance();
-
-      // Initialize the template cache
-      _templateCache = new HashMap(89);
    }
 
    protected void initImpl(PropertyReader runtimeProperties)
@@ -125,6 +124,20 @@ public class XSLTCallingConvention extends StandardCallingConvention {
 
       // Determine whether template location can be passed as parameter
       _templatesPrefix = getXSLTLocation(runtimeProperties, "parameter.prefix");
+
+      // Create the template cache
+      _templateCache = TemplatesCache.create(_factory, runtimeProperties, _cacheTemplates);
+
+      // Compile the templates of all functions, if requested
+      if (_cacheTemplates && _location != null && TemplatesCache.isPrecompile(runtimeProperties)) {
+         List locations = new ArrayList();
+         Iterator functions = getAPI().getFunctionList().iterator();
+         while (functions.hasNext()) {
+            Function function = (Function) functions.next();
+            locations.add(_location + function.getName() + ".xslt");
+         }
+         _templateCache.precompile(locations);
+      }
    }
 
    /**
@@ -247,11 +260,6 @@ public class XSLTCallingConvention extends StandardCallingConvention {
          return;
       }
 
-      // Get the XML output similar to the standard calling convention.
-      StringWriter xmlOutput = new StringWriter(1024);
-      CallResultOutputter.output(xmlOutput, xinsResult);
-      xmlOutput.close();
-
       // Get the location of the XSLT file.
       String xsltLocation = null;
       String templatesSuffix = httpRequest.getParameter(TEMPLATE_PARAMETER);
@@ -274,34 +282,36 @@ public class XSLTCallingConvention extends StandardCallingConvention {
       try {
 
          // Load the template or get it from the cache.
-         Templates templates;
-         if (_cacheTemplates && _templateCache.containsKey(xsltLocation)) {
-            templates = (Templates) _templateCache.get(xsltLocation);
-         } else {
-            Log.log_3443(xsltLocation);
-            templates = _factory.newTemplates(new StreamSource(xsltLocation));
-            if (_cacheTemplates) {
-               _templateCache.put(xsltLocation, templates);
-            }
-         }
-
-         // Proceed to the transformation.
-         Transformer xformer = templates.newTransformer();
-         Source source = new StreamSource(new StringReader(xmlOutput.toString()));
-         Writer buffer = new StringWriter(4096);
-         Result result = new StreamResult(buffer);
-         xformer.transform(source, result);
+         TransformerPool pool = _templateCache.getTransformerPool(xsltLocation);
+         Templates templates = pool.getTemplates();
 
          // Determine the MIME type for the output.
          String mimeType = getContentType(templates.getOutputProperties());
          if (mimeType != null) {
             httpResponse.setContentType(mimeType);
          }
-
          httpResponse.setStatus(HttpServletResponse.SC_OK);
-         PrintWriter out = httpResponse.getWriter();
-         out.print(buffer.toString());
-         out.close();
+
+         // Proceed to the transformation. The XML similar to the standard
+         // calling convention is generated as SAX events from the result and
+         // the output is written directly to the response.
+         // A transformer that failed is not reused.
+         Transformer xformer = pool.checkOut();
+         boolean succeeded = false;
+         try {
+            Source source = new SAXSource(new CallResultXMLReader(xinsResult), new InputSource());
+            PrintWriter out = httpResponse.getWriter();
+            Result result = new StreamResult(out);
+            xformer.transform(source, result);
+            out.close();
+            succeeded = true;
+         } finally {
+            if (succeeded) {
+               pool.checkIn(xformer);
+            } else {
+               pool.discard(xformer);
+            }
+         }
       } catch (Exception exception) {
          if (exception instanceof IOException) {
             throw (IOException) exception;
@@ -315,6 +325,11 @@ public class XSLTCallingConvention extends StandardCallingConvention {
       }
    }
 
+   protected Element getStatisticsElement() {
+      TemplatesCache cache = _templateCache;
+      return cache == null ? null : cache.getStatisticsElement();
+   }
+
    /**
     * Gets the MIME type and the character encoding to return for the HTTP response.
     *
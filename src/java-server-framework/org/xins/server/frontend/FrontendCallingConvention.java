@@ -66,6 +66,8 @@ import org.xins.server.FunctionRequest;
 import org.xins.server.FunctionResult;
 import org.xins.server.InvalidRequestException;
 import org.xins.server.Log;
+import org.xins.server.TemplatesCache;
+import org.xins.server.TransformerPool;
 import org.znerd.xmlenc.XMLOutputter;
 
 /**
@@ -153,7 +155,8 @@ public class FrontendCallingConvention extends CustomCallingConvention {
 
    /**
     * Conditional redirection map. The key is the command and the value is the
-    * {@link Templates} that will return the name of the redirection command.
+    * {@link TransformerPool} of the template that will return the name of the
+    * redirection command.
     */
    private Map _conditionalRedirectionMap = new HashMap();
 
@@ -164,19 +167,20 @@ public class FrontendCallingConvention extends CustomCallingConvention {
    private boolean _cacheTemplates;
 
    /**
-    * Cache for the XSLT templates. Never <code>null</code>.
+    * Cache for the XSLT templates. This field is initially
+    * <code>null</code> and set during initialization.
     */
-   private Map _templateCache = new HashMap();
+   private TemplatesCache _templateCache;
 
    /**
-    * The template used for the Control command.
+    * The transformers for the template used for the Control command.
     */
-   private Templates _templateControl;
+   private TransformerPool _templateControl;
 
    /**
-    * The template used for the error page.
+    * The transformers for the template used for the error page.
     */
-   private Templates _templateError;
+   private TransformerPool _templateError;
 
    /**
     * The list of the real function names for this API.
@@ -251,6 +255,12 @@ public class FrontendCallingConvention extends CustomCallingConvention {
          Function nextFunction = (Function) itFunctions.next();
          _functionList.add(nextFunction.getName());
       }
+
+      // Create the template cache and compile the templates, if requested
+      _templateCache = TemplatesCache.create(_factory, runtimeProperties, _cacheTemplates);
+      if (_cacheTemplates && TemplatesCache.isPrecompile(runtimeProperties)) {
+         _templateCache.precompile(getCommandTemplateLocations());
+      }
    }
 
    /**
@@ -359,7 +369,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       String dataSectionValue = httpRequest.getParameter("_data");
       Element dataElement;
       if (dataSectionValue != null && dataSectionValue.length() > 0) {
-         ElementParser parser = new ElementParser();
+         ElementParser parser = ElementParser.getThreadInstance();
 
          // Parse the data section
          try {
@@ -467,11 +477,11 @@ public class FrontendCallingConvention extends CustomCallingConvention {
          }*/
          String xsltLocation = _baseXSLTDir + command + ".xslt";
          try {
-            Templates template = null;
+            TransformerPool template = null;
             if ("Control".equals(command) && _templateControl == null) {
                try {
                   StringReader controlXSLT = new StringReader(ControlResult.getControlTemplate());
-                  _templateControl = _factory.newTemplates(new StreamSource(controlXSLT));
+                  _templateControl = newTransformerPool(new StreamSource(controlXSLT));
                   template = _templateControl;
                } catch (TransformerConfigurationException tcex) {
                   Log.log_3701(tcex, "control");
@@ -483,7 +493,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
             }
             Log.log_3704(command);
             String resultHTML = translate(commandResultXML, template);
-            String contentType = getContentType(template.getOutputProperties());
+            String contentType = getContentType(template.getTemplates().getOutputProperties());
             PrintWriter out = httpResponse.getWriter();
             httpResponse.setContentType(contentType);
             httpResponse.setStatus(HttpServletResponse.SC_OK);
@@ -754,7 +764,8 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     *    the XML input that should be transformed, never <code>null</code>.
     *
     * @param template
-    *    the template that should be used to transform the input XML, never <code>null</code>.
+    *    the transformers of the template that should be used to transform the
+    *    input XML, never <code>null</code>.
     *
     * @return
     *    the transformed XML, never <code>null</code>.
@@ -762,24 +773,35 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     * @throws Exception
     *    if the transformation fails.
     */
-   private String translate(String xmlInput, Templates template) throws Exception {
+   private String translate(String xmlInput, TransformerPool template) throws Exception {
       try {
 
-         // Use the template to create a transformer
-         Transformer xformer = template.newTransformer();
+         // Get a transformer for the template
+         // A transformer that failed is not reused.
+         Transformer xformer = template.checkOut();
+         boolean succeeded = false;
+         try {
 
-         // Prepare the input and output files
-         Source source = new StreamSource(new StringReader(xmlInput));
+            // Prepare the input and output files
+            Source source = new StreamSource(new StringReader(xmlInput));
 
-         // Store the result in a StringWriter before sending it.
-         Writer buffer = new StringWriter(8192);
+            // Store the result in a StringWriter before sending it.
+            Writer buffer = new StringWriter(8192);
 
-         Result result = new StreamResult(buffer);
+            Result result = new StreamResult(buffer);
 
-         // Apply the xsl file to the source file and write the result to the output file
-         xformer.transform(source, result);
+            // Apply the xsl file to the source file and write the result to the output file
+            xformer.transform(source, result);
+            succeeded = true;
 
-         return buffer.toString();
+            return buffer.toString();
+         } finally {
+            if (succeeded) {
+               template.checkIn(xformer);
+            } else {
+               template.discard(xformer);
+            }
+         }
       } catch (TransformerConfigurationException tcex) {
 
          // An error occurred in the XSL file
@@ -811,30 +833,71 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     *    never <code>null</code>.
     *
     * @return
-    *    the template, never <code>null</code>.
+    *    the transformers of the template, never <code>null</code>.
     *
     * @throws Exception
     *    if the URL is not found or the XSLT cannot be read correctly.
     */
-   private Templates getTemplate(String xsltUrl) throws Exception {
+   private TransformerPool getTemplate(String xsltUrl) throws Exception {
 
-      // Use the factory to create a template containing the xsl file
       // Load the template or get it from the cache.
+      try {
+         return _templateCache.getTransformerPool(xsltUrl);
+      } catch (TransformerConfigurationException tcex) {
+         Log.log_3701(tcex, xsltUrl);
+         throw tcex;
+      }
+   }
+
+   /**
+    * Compiles a template that is not stored in the template cache.
+    *
+    * @param xslt
+    *    the source of the XSLT, cannot be <code>null</code>.
+    *
+    * @return
+    *    the transformers of the compiled template, never <code>null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the XSLT cannot be compiled.
+    */
+   private TransformerPool newTransformerPool(Source xslt)
+   throws TransformerConfigurationException {
       Templates template;
-      if (_cacheTemplates && _templateCache.containsKey(xsltUrl)) {
-         template = (Templates) _templateCache.get(xsltUrl);
-      } else {
-         try {
-            template = _factory.newTemplates(new StreamSource(xsltUrl));
-            if (_cacheTemplates) {
-               _templateCache.put(xsltUrl, template);
-            }
-         } catch (TransformerConfigurationException tcex) {
-            Log.log_3701(tcex, xsltUrl);
-            throw tcex;
+      synchronized (_factory) {
+         template = _factory.newTemplates(xslt);
+      }
+      return new TransformerPool(template, TemplatesCache.DEFAULT_POOL_SIZE);
+   }
+
+   /**
+    * Gets the locations of the XSLT files of all commands. The commands are
+    * the functions of the API and the virtual functions that are not
+    * redirected.
+    *
+    * @return
+    *    the list of the locations, never <code>null</code>.
+    */
+   private List getCommandTemplateLocations() {
+      List locations = new ArrayList();
+      Iterator itRealFunctions = _api.getFunctionList().iterator();
+      while (itRealFunctions.hasNext()) {
+         Function nextFunction = (Function) itRealFunctions.next();
+         locations.add(_baseXSLTDir + nextFunction.getName() + ".xslt");
+      }
+      Iterator itVirtualFunctions = _redirectionMap.entrySet().iterator();
+      while (itVirtualFunctions.hasNext()) {
+         Map.Entry nextFunction = (Map.Entry) itVirtualFunctions.next();
+         if (nextFunction.getValue().equals("-")) {
+            locations.add(_baseXSLTDir + nextFunction.getKey() + ".xslt");
          }
       }
-      return template;
+      return locations;
+   }
+
+   protected Element getStatisticsElement() {
+      TemplatesCache cache = _templateCache;
+      return cache == null ? null : cache.getStatisticsElement();
    }
 
    /**
@@ -907,34 +970,11 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       } else if ("FlushCommandTemplateCache".equals(action)) {
          _templateCache.clear();
       } else if ("RefreshCommandTemplateCache".equals(action)) {
+
+         // Templates that cannot be compiled are ignored, as if the function
+         // name includes the action, it won't match a XSLT file
          _templateCache.clear();
-         String xsltLocation;
-         Iterator itRealFunctions = _api.getFunctionList().iterator();
-         while (itRealFunctions.hasNext()) {
-            Function nextFunction = (Function) itRealFunctions.next();
-            String nextCommand = nextFunction.getName();
-            xsltLocation = _baseXSLTDir + nextCommand + ".xslt";
-
-            try {
-               Templates template = _factory.newTemplates(new StreamSource(xsltLocation));
-               _templateCache.put(xsltLocation, template);
-            } catch (TransformerConfigurationException tcex) {
-               // Ignore as if the functionName include the action, it won't match a XSLT file
-            }
-         }
-         Iterator itVirtualFunctions = _redirectionMap.entrySet().iterator();
-         while (itVirtualFunctions.hasNext()) {
-            Map.Entry nextFunction = (Map.Entry) itVirtualFunctions.next();
-            xsltLocation = _baseXSLTDir + nextFunction.getKey() + ".xslt";
-            if (nextFunction.getValue().equals("-")) {
-               try {
-                  Templates template = _factory.newTemplates(new StreamSource(xsltLocation));
-                  _templateCache.put(xsltLocation, template);
-               } catch (TransformerConfigurationException tcex) {
-                  // Ignore as if the functionName include the action, it won't match a XSLT file
-               }
-            }
-         }
+         _templateCache.precompile(getCommandTemplateLocations());
       }
       return new ControlResult(_api, _session, _redirectionMap);
    }
@@ -967,7 +1007,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       }
 
       if (redirection == null && xinsResult.getErrorCode() == null && _conditionalRedirectionMap.get(functionName) != null) {
-         Templates conditionTemplate = (Templates) _conditionalRedirectionMap.get(functionName);
+         TransformerPool conditionTemplate = (TransformerPool) _conditionalRedirectionMap.get(functionName);
          try {
             redirection = translate(xmlResult, conditionTemplate);
          } catch (Exception ex) {
@@ -1075,7 +1115,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
 
    /**
     * Finishes the creation of the XSLT, creates the {@link Templates} object
-    * and stores it in the map.
+    * and stores its {@link TransformerPool} in the map.
     *
     * @param command
     *    the command to store, cannot be <code>null</code>.
@@ -1094,7 +1134,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       xsltText += "</xsl:choose></xsl:template></xsl:stylesheet>";
       try {
          StringReader conditionXSLT = new StringReader(xsltText);
-         Templates conditionTemplate = _factory.newTemplates(new StreamSource(conditionXSLT));
+         TransformerPool conditionTemplate = newTransformerPool(new StreamSource(conditionXSLT));
          _conditionalRedirectionMap.put(command, conditionTemplate);
       } catch (TransformerConfigurationException tcex) {
          Log.log_3701(tcex, "conditional redirection for " + command + " command");
@@ -1124,7 +1164,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
             if (_errorPage == null) {
                try {
                   StringReader errorXSLT = new StringReader(ErrorResult.getDefaultErrorTemplate());
-                  _templateError = _factory.newTemplates(new StreamSource(errorXSLT));
+                  _templateError = newTransformerPool(new StreamSource(errorXSLT));
                } catch (TransformerConfigurationException tcex) {
                   Log.log_3701(tcex, "error");
                }
@@ -1135,7 +1175,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
          Element commandResult = createXMLResult(httpRequest, errorResult);
          String commandResultXML = serializeResult(commandResult);
          String resultHTML = translate(commandResultXML, _templateError);
-         String contentType = getContentType(_templateError.getOutputProperties());
+         String contentType = getContentType(_templateError.getTemplates().getOutputProperties());
          PrintWriter out = httpResponse.getWriter();
          httpResponse.setContentType(contentType);
          httpResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
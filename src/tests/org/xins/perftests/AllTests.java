@@ -34,8 +34,10 @@ public class AllTests extends TestSuite {
    public static Test suite() {
       TestSuite suite = new TestSuite();
       suite.addTestSuite(AllInOneTests.class);
+      suite.addTestSuite(ChainedMapTests.class);
       suite.addTestSuite(DateConverterTests.class);
       suite.addTestSuite(MandatoryArgumentCheckerTests.class);
+      suite.addTestSuite(XINSCallResultParserTests.class);
       return suite;
    }
 }
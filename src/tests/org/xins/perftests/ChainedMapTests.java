@@ -0,0 +1,194 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.perftests;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.ChainedMap;
+
+/**
+ * Performance tests for class <code>ChainedMap</code>. The lookups are
+ * compared with the ones of a map that keeps its entries in lists only, as
+ * <code>ChainedMap</code> did before XINS 2.4.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ChainedMapTests extends TestCase {
+
+   /**
+    * The number of lookups per test, whatever the size of the map.
+    */
+   private static final int LOOKUPS = 1000000;
+
+   /**
+    * Constructs a new <code>ChainedMapTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public ChainedMapTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(ChainedMapTests.class);
+   }
+
+   public void testChainedMap10() {
+      lookup(new ChainedMap(), 10);
+   }
+
+   public void testListMap10() {
+      lookup(new ListMap(), 10);
+   }
+
+   public void testChainedMap100() {
+      lookup(new ChainedMap(), 100);
+   }
+
+   public void testListMap100() {
+      lookup(new ListMap(), 100);
+   }
+
+   public void testChainedMap1000() {
+      lookup(new ChainedMap(), 1000);
+   }
+
+   public void testListMap1000() {
+      lookup(new ListMap(), 1000);
+   }
+
+   /**
+    * Fills a map and looks up all its keys, plus a missing key, until
+    * {@link #LOOKUPS} lookups are done.
+    *
+    * @param map
+    *    the empty map to test.
+    *
+    * @param size
+    *    the number of entries to put in the map.
+    */
+   private void lookup(Map map, int size) {
+      String[] keys = new String[size];
+      for (int i = 0; i < size; i++) {
+         keys[i] = "_function" + i;
+         map.put(keys[i], new Integer(i));
+      }
+
+      int rounds = LOOKUPS / (size + 1);
+      for (int round = 0; round < rounds; round++) {
+         for (int i = 0; i < size; i++) {
+            assertNotNull(map.get(keys[i]));
+         }
+         assertNull(map.get("_missing"));
+      }
+   }
+
+   /**
+    * Insertion-ordered map without index: a lookup copies and scans the
+    * entries.
+    */
+   private static class ListMap extends AbstractMap {
+
+      /**
+       * The keys of the map.
+       */
+      private List _keys = new ArrayList();
+
+      /**
+       * The entries of the map.
+       */
+      private List _entries = new ArrayList();
+
+      public Set entrySet() {
+         final List entries = new ArrayList(_entries);
+         return new AbstractSet() {
+            public int size() {
+               return entries.size();
+            }
+
+            public Iterator iterator() {
+               return entries.iterator();
+            }
+         };
+      }
+
+      public Object put(Object key, Object value) {
+         int oldKeyPos = _keys.indexOf(key);
+         if (oldKeyPos == -1) {
+            _keys.add(key);
+            _entries.add(new ListEntry(key, value));
+            return null;
+         } else {
+            Object oldValue = ((Map.Entry) _entries.get(oldKeyPos)).getValue();
+            _entries.set(oldKeyPos, new ListEntry(key, value));
+            return oldValue;
+         }
+      }
+   }
+
+   /**
+    * Entry of a <code>ListMap</code>.
+    */
+   private static class ListEntry implements Map.Entry {
+
+      /**
+       * The key.
+       */
+      private final Object _key;
+
+      /**
+       * The value.
+       */
+      private Object _value;
+
+      /**
+       * Creates a new <code>ListEntry</code>.
+       *
+       * @param key
+       *    the key.
+       *
+       * @param value
+       *    the value.
+       */
+      ListEntry(Object key, Object value) {
+         _key   = key;
+         _value = value;
+      }
+
+      public Object getKey() {
+         return _key;
+      }
+
+      public Object getValue() {
+         return _value;
+      }
+
+      public Object setValue(Object value) {
+         Object oldValue = _value;
+         _value = value;
+         return oldValue;
+      }
+   }
+}
@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.perftests;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.client.XINSCallResultData;
+import org.xins.client.XINSCallResultParser;
+
+/**
+ * Performance tests for class <code>XINSCallResultParser</code>. The result
+ * is parsed with SAX to an element tree and read as a stream with StAX.
+ *
+ * @version $Revision$ $Date$
+ */
+public class XINSCallResultParserTests extends TestCase {
+
+   /**
+    * The number of results parsed per test.
+    */
+   private static final int PARSES = 20000;
+
+   /**
+    * A result with a few parameters and no data section.
+    */
+   private static final byte[] SMALL_RESULT = createResult(10, 0);
+
+   /**
+    * A result with a few parameters and a data section.
+    */
+   private static final byte[] DATA_RESULT = createResult(10, 100);
+
+   /**
+    * Constructs a new <code>XINSCallResultParserTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public XINSCallResultParserTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(XINSCallResultParserTests.class);
+   }
+
+   public void testSAXParameters() throws Exception {
+      parse(new XINSCallResultParser(false), SMALL_RESULT);
+   }
+
+   public void testStAXParameters() throws Exception {
+      parse(new XINSCallResultParser(true), SMALL_RESULT);
+   }
+
+   public void testSAXDataSection() throws Exception {
+      parse(new XINSCallResultParser(false), DATA_RESULT);
+   }
+
+   public void testStAXDataSection() throws Exception {
+      parse(new XINSCallResultParser(true), DATA_RESULT);
+   }
+
+   /**
+    * Parses a result {@link #PARSES} times.
+    *
+    * @param parser
+    *    the parser to test.
+    *
+    * @param xml
+    *    the result to parse.
+    */
+   private void parse(XINSCallResultParser parser, byte[] xml) throws Exception {
+      for (int i = 0; i < PARSES; i++) {
+         XINSCallResultData result = parser.parse(xml);
+         assertEquals("value0", result.getParameters().get("param0"));
+      }
+   }
+
+   /**
+    * Creates the XML of a result.
+    *
+    * @param parameterCount
+    *    the number of output parameters.
+    *
+    * @param elementCount
+    *    the number of elements in the data section, <code>0</code> for no
+    *    data section.
+    *
+    * @return
+    *    the XML, encoded in UTF-8.
+    */
+   private static byte[] createResult(int parameterCount, int elementCount) {
+      StringBuffer xml = new StringBuffer();
+      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<result>");
+      for (int i = 0; i < parameterCount; i++) {
+         xml.append("<param name=\"param" + i + "\">value" + i + "</param>");
+      }
+      if (elementCount > 0) {
+         xml.append("<data>");
+         for (int i = 0; i < elementCount; i++) {
+            xml.append("<person id=\"" + i + "\" name=\"Person " + i + "\"><address>Street " + i + "</address></person>");
+         }
+         xml.append("</data>");
+      }
+      xml.append("</result>");
+      try {
+         return xml.toString().getBytes("UTF-8");
+      } catch (java.io.UnsupportedEncodingException exception) {
+         throw new Error(exception.getMessage());
+      }
+   }
+}
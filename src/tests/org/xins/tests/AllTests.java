@@ -106,6 +106,7 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.common.ExceptionUtilsTests.class);
       suite.addTestSuite(org.xins.tests.common.MandatoryArgumentCheckerTests.class);
       suite.addTestSuite(org.xins.tests.common.UtilsTests.class);
+      suite.addTestSuite(org.xins.tests.common.WorkerPoolTests.class);
 
       suite.addTestSuite(org.xins.tests.common.ant.CallXINSTaskTests.class);
       suite.addTestSuite(org.xins.tests.common.ant.HostnameTaskTests.class);
@@ -142,6 +143,8 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.common.service.DescriptorBuilderTests.class);
       suite.addTestSuite(org.xins.tests.common.service.TargetDescriptorTests.class);
       suite.addTestSuite(org.xins.tests.common.service.GroupDescriptorTests.class);
+      suite.addTestSuite(org.xins.tests.common.service.HedgedCallTests.class);
+      suite.addTestSuite(org.xins.tests.common.service.TargetStatisticsTests.class);
       suite.addTestSuite(org.xins.tests.common.service.UnsupportedProtocolExceptionTests.class);
 
       suite.addTestSuite(org.xins.tests.common.servlet.ServletRequestPropertyReaderTests.class);
@@ -190,22 +193,31 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.client.XINSCallConfigTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSCallRequestTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSCallResultParserTests.class);
+      suite.addTestSuite(org.xins.tests.client.StAXCallResultParserTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSServiceCallerTests.class);
 
       suite.addTestSuite(org.xins.tests.client.async.CallCAPIThreadTests.class);
       suite.addTestSuite(org.xins.tests.client.async.AsynchronousCallTests.class);
+      suite.addTestSuite(org.xins.tests.client.async.CallFutureTests.class);
 
       suite.addTestSuite(org.xins.tests.server.AccessRuleListTests.class);
       suite.addTestSuite(org.xins.tests.server.AccessRuleTests.class);
       suite.addTestSuite(org.xins.tests.server.APITests.class);
       suite.addTestSuite(org.xins.tests.server.APIServletTests.class);
+      suite.addTestSuite(org.xins.tests.server.BinaryCallingConventionTests.class);
+      suite.addTestSuite(org.xins.tests.server.CacheableResponseTests.class);
       suite.addTestSuite(org.xins.tests.server.CallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.FunctionResultTests.class);
       suite.addTestSuite(org.xins.tests.server.IPFilterTests.class);
       suite.addTestSuite(org.xins.tests.server.JSONCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.JSONRPCCallingConventionTests.class);
+      suite.addTestSuite(org.xins.tests.server.JSONStreamTests.class);
       suite.addTestSuite(org.xins.tests.server.MetaFunctionsTests.class);
+      suite.addTestSuite(org.xins.tests.server.ResponseCompressionTests.class);
       suite.addTestSuite(org.xins.tests.server.StandardCallingConventionTests.class);
+      suite.addTestSuite(org.xins.tests.server.TemplatesCacheTests.class);
+      suite.addTestSuite(org.xins.tests.server.TransactionLogTests.class);
+      suite.addTestSuite(org.xins.tests.server.BinaryTransactionLogTests.class);
       suite.addTestSuite(org.xins.tests.server.SOAPCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.SOAPMapCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.XMLCallingConventionTests.class);
@@ -0,0 +1,124 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.client;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.collections.PropertyReaderUtils;
+import org.xins.common.text.ParseException;
+
+import org.xins.client.XINSCallResultData;
+import org.xins.client.XINSCallResultParser;
+
+/**
+ * Tests for class <code>XINSCallResultParser</code> when the result is read
+ * as a stream with StAX. All the tests of
+ * {@link XINSCallResultParserTests} are run with the StAX parser.
+ *
+ * @version $Revision$ $Date$
+ */
+public class StAXCallResultParserTests extends XINSCallResultParserTests {
+
+   /**
+    * Constructs a new <code>StAXCallResultParserTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public StAXCallResultParserTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(StAXCallResultParserTests.class);
+   }
+
+   protected XINSCallResultParser createParser() {
+      return new XINSCallResultParser(true);
+   }
+
+   /**
+    * Tests that the StAX and SAX parsers give the same results.
+    *
+    * @throws Exception
+    *    if an unexpected exception is thrown.
+    */
+   public void testSameAsSAX() throws Exception {
+      String[] valid = {
+         "<result/>",
+         "<?xml version='1.0' encoding='ISO-8859-1'?><!-- comment --><result errorcode='E'>\n<param name='a'>\u00e9</param></result>",
+         "<result code='E'><param name='a'>1<!-- x -->2</param><param name='b'><x/>after</param></result>",
+         "<result><param name='a'>1</param><data id='1'>text<b xmlns='ns' c='d'>e</b>tail</data></result>",
+         "<result>PCDATA before <param name='a'>1</param> \n</result>",
+         "<result><other>not a param<param name='a'>1</param></other></result>"
+      };
+      XINSCallResultParser sax  = new XINSCallResultParser(false);
+      XINSCallResultParser stax = new XINSCallResultParser(true);
+      for (int i = 0; i < valid.length; i++) {
+         byte[] xml = valid[i].getBytes("ISO-8859-1");
+         assertEquals(valid[i], toString(sax.parse(xml)), toString(stax.parse(xml)));
+      }
+
+      String[] invalid = {
+         "",
+         "<result>",
+         "<result></result>trailing",
+         "<result><data/><data/></result>",
+         "<result><param>no name</param></result>",
+         "<result><param name='a'>1</param>text</result>",
+         "<result/><result/>"
+      };
+      for (int i = 0; i < invalid.length; i++) {
+         byte[] xml = invalid[i].getBytes("UTF-8");
+         assertInvalid(sax,  xml);
+         assertInvalid(stax, xml);
+      }
+   }
+
+   /**
+    * Checks that the specified XML is not accepted.
+    *
+    * @param parser
+    *    the parser.
+    *
+    * @param xml
+    *    the XML.
+    */
+   private static void assertInvalid(XINSCallResultParser parser, byte[] xml) throws Exception {
+      try {
+         parser.parse(xml);
+         fail("Expected a ParseException for " + new String(xml, "UTF-8"));
+      } catch (ParseException exception) {
+         // as expected
+      }
+   }
+
+   /**
+    * Returns a textual representation of a result.
+    *
+    * @param result
+    *    the result.
+    *
+    * @return
+    *    the error code, the parameters and the data section.
+    */
+   private static String toString(XINSCallResultData result) {
+      PropertyReader parameters = result.getParameters();
+      return result.getErrorCode() + " "
+           + (parameters == null ? "-" : PropertyReaderUtils.toString(parameters)) + " "
+           + result.getDataElement();
+   }
+}
@@ -49,6 +49,12 @@ public class XINSCallConfigTests extends TestCase {
       assertEquals("Incorrect HTTP method.", HTTPMethod.POST, config.getHTTPMethod());
       config.setHTTPMethod(HTTPMethod.GET);
       assertEquals("Incorrect HTTP method.", HTTPMethod.GET, config.getHTTPMethod());
+      assertFalse(config.getCompressRequest());
+      config.setCompressRequest(true);
+      assertTrue(config.getCompressRequest());
+      assertFalse(config.getBinaryConvention());
+      config.setBinaryConvention(true);
+      assertTrue(config.getBinaryConvention());
       config.describe();
    }
 }
@@ -49,6 +49,16 @@ public class XINSCallResultParserTests extends TestCase {
       return new TestSuite(XINSCallResultParserTests.class);
    }
 
+   /**
+    * Creates the parser to test.
+    *
+    * @return
+    *    the parser, never <code>null</code>.
+    */
+   protected XINSCallResultParser createParser() {
+      return new XINSCallResultParser(false);
+   }
+
    /**
     * Tests the behaviour of <code>XINSCallResultParser</code>, method
     * parse(byte[]) behaviour, in general and specifically also with regard to
@@ -59,7 +69,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult1() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -163,7 +173,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult2() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -264,7 +274,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult3() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -310,7 +320,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult4() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -331,7 +341,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult5() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -357,7 +367,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult6() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -402,7 +412,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult7() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -454,7 +464,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    public void testParseXINSCallResult8() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
@@ -480,7 +490,7 @@ public class XINSCallResultParserTests extends TestCase {
     */
    /*public void testParseXINSCallResult9() throws Exception {
 
-      XINSCallResultParser parser = new XINSCallResultParser();
+      XINSCallResultParser parser = createParser();
 
       // Prepare the string to parse
       final String ENCODING = "UTF-8";
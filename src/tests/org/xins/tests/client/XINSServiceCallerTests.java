@@ -7,6 +7,8 @@
 package org.xins.tests.client;
 
 
+import java.util.List;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -21,6 +23,8 @@ import org.xins.common.collections.PropertyReader;
 import org.xins.common.http.HTTPMethod;
 import org.xins.common.service.TargetDescriptor;
 import org.xins.common.service.UnsupportedProtocolException;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementBuilder;
 
 import org.xins.tests.AllTests;
 
@@ -131,4 +135,32 @@ public class XINSServiceCallerTests extends TestCase {
       request2.setXINSCallConfig(config);
       caller.call(request2);
    }
+
+   /**
+    * Tests a call with a compressed request body.
+    */
+   public void testCompressedRequest() throws Throwable {
+      ElementBuilder builder = new ElementBuilder("data");
+      for (int i = 0; i < 60; i++) {
+         ElementBuilder address = new ElementBuilder("address");
+         address.setAttribute("company", "Company \u00e9 " + i);
+         address.setAttribute("postcode", "Postcode <" + i + ">");
+         builder.addChild(address.createElement());
+      }
+      XINSCallRequest request = new XINSCallRequest("DataSection3", null, builder.createElement());
+      XINSCallConfig config = new XINSCallConfig();
+      config.setCompressRequest(true);
+      assertTrue(config.getCompressRequest());
+      request.setXINSCallConfig(config);
+
+      TargetDescriptor descriptor = new TargetDescriptor(AllTests.url() + "allinone/");
+      XINSServiceCaller caller = new XINSServiceCaller(descriptor);
+      XINSCallResult result = caller.call(request);
+      List envelopes = result.getDataElement().getChildElements("envelope");
+      assertEquals(61, envelopes.size());
+      for (int i = 0; i < 60; i++) {
+         Element envelope = (Element) envelopes.get(i);
+         assertEquals("Postcode <" + i + ">", envelope.getAttribute("destination"));
+      }
+   }
 }
@@ -0,0 +1,154 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.client.async;
+
+import com.mycompany.allinone.capi.*;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.client.UnacceptableRequestException;
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSServiceCaller;
+import org.xins.client.async.CallFailedEvent;
+import org.xins.client.async.CallFuture;
+import org.xins.client.async.CallListener;
+import org.xins.client.async.CallSucceededEvent;
+import org.xins.client.async.CAPICallFuture;
+import org.xins.client.async.XINSCallFuture;
+import org.xins.common.ProgrammingException;
+import org.xins.common.service.TargetDescriptor;
+
+import org.xins.tests.AllTests;
+
+/**
+ * Tests the <code>CallFuture</code> classes.
+ *
+ * @version $Revision$ $Date$
+ */
+public class CallFutureTests extends TestCase {
+
+   /**
+    * Constructs a new <code>CallFutureTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public CallFutureTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(CallFutureTests.class);
+   }
+
+   public void testCAPICallFuture() throws Throwable {
+
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), 5000, 1000, 4000);
+      CAPI capi = new CAPI(target);
+      RuntimePropsRequest request1 = new RuntimePropsRequest();
+      request1.setPrice(100);
+      RuntimePropsRequest request2 = new RuntimePropsRequest();
+
+      CAPICallFuture future1 = capi.callAsync(request1);
+      CAPICallFuture future2 = capi.callAsync(request2);
+      assertTrue(CallFuture.waitForAll(new CallFuture[] { future1, future2 }, 10000L));
+
+      // Successful call
+      if (future1.getException() != null) {
+         throw future1.getException();
+      }
+      RuntimePropsResult result = (RuntimePropsResult) future1.getCAPIResult();
+      assertNotNull(result);
+      assertEquals(20.6f, result.getTaxes(), 0.01f);
+      assertEquals("Euros", result.getCurrency());
+      assertTrue(future1.getDuration() >= 0L);
+      assertFalse(future1.isCancelled());
+      assertFalse(future1.cancel());
+
+      // Unsuccessful call
+      assertNull(future2.getCAPIResult());
+      assertTrue(future2.getException() instanceof UnacceptableRequestException);
+
+      // A listener added after the call finished is notified immediately
+      RecordingListener listener = new RecordingListener();
+      future1.addCallListener(listener);
+      assertNotNull(listener._succeeded);
+      assertNull(listener._failed);
+      assertSame(future1.getCAPIResult(), listener._succeeded.getResult());
+   }
+
+   public void testXINSCallFuture() throws Throwable {
+
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), 5000, 1000, 4000);
+      XINSServiceCaller caller = new XINSServiceCaller(target);
+      XINSCallRequest request = new XINSCallRequest("_GetVersion");
+
+      XINSCallFuture future = caller.callAsync(request);
+      assertTrue(future.waitFor(10000L));
+      if (future.getException() != null) {
+         throw future.getException();
+      }
+      assertNotNull(future.getXINSCallResult());
+      assertNull(future.getXINSCallResult().getErrorCode());
+      assertNotNull(future.getXINSCallResult().getParameter("java.version"));
+   }
+
+   public void testWaitForInvalidArguments() throws Throwable {
+      try {
+         CallFuture.waitForAll(null, 0L);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      try {
+         CallFuture.waitForAll(new CallFuture[0], -1L);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      assertTrue(CallFuture.waitForAll(new CallFuture[0], 0L));
+   }
+
+   public void testCallThrowingError() throws Throwable {
+      CallFuture future = new CallFuture() {
+         {
+            start();
+         }
+
+         protected Object execute() {
+            throw new NoClassDefFoundError("Test");
+         }
+      };
+      assertTrue(CallFuture.waitForAll(new CallFuture[] { future }, 0L));
+      assertTrue(future.isDone());
+      assertNull(future.getResult());
+      assertTrue(future.getException() instanceof ProgrammingException);
+   }
+
+   private static class RecordingListener implements CallListener {
+
+      private CallSucceededEvent _succeeded;
+      private CallFailedEvent _failed;
+
+      public void callSucceeded(CallSucceededEvent event) {
+         _succeeded = event;
+      }
+
+      public void callFailed(CallFailedEvent event) {
+         _failed = event;
+      }
+   }
+}
@@ -0,0 +1,195 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.TimeOutController;
+import org.xins.common.TimeOutException;
+import org.xins.common.WorkerPool;
+
+/**
+ * Tests for the classes <code>WorkerPool</code> and
+ * <code>TimeOutController</code>.
+ *
+ * @version $Revision$ $Date$
+ */
+public class WorkerPoolTests extends TestCase {
+
+   /**
+    * Constructs a new <code>WorkerPoolTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public WorkerPoolTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(WorkerPoolTests.class);
+   }
+
+   public void testConstructor() {
+      try {
+         new WorkerPool(null, 1, 1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      try {
+         new WorkerPool("test", 0, 1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      try {
+         new WorkerPool("test", 1, -1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      assertSame(WorkerPool.getSharedInstance(), WorkerPool.getSharedInstance());
+   }
+
+   public void testBoundedPool() throws Exception {
+      WorkerPool pool = new WorkerPool("test", 1, 1);
+      BlockingTask first  = new BlockingTask();
+      BlockingTask second = new BlockingTask();
+      BlockingTask third  = new BlockingTask();
+
+      // The first task is executed, the second one queued, the third rejected
+      assertTrue(pool.execute(first));
+      for (int i = 0; i < 50 && pool.getActiveCount() < 1; i++) {
+         Thread.sleep(100L);
+      }
+      assertEquals(1, pool.getActiveCount());
+      assertTrue(pool.execute(second));
+      assertFalse(pool.execute(third));
+      assertEquals(1, pool.getThreadCount());
+      assertEquals(1, pool.getQueueSize());
+      assertEquals(1L, pool.getRejectedCount());
+
+      first.release();
+      second.release();
+      second.waitUntilDone();
+      assertTrue(first.isDone());
+      assertFalse(third.isDone());
+      assertEquals(0, pool.getQueueSize());
+
+      // The same thread executed both tasks
+      assertSame(first.getThread(), second.getThread());
+      assertEquals(1, pool.getLargestThreadCount());
+   }
+
+   public void testWaitForRoom() throws Exception {
+      final WorkerPool pool = new WorkerPool("test", 1, 0);
+      BlockingTask first  = new BlockingTask();
+      final BlockingTask second = new BlockingTask();
+      second.release();
+
+      // The time-out elapses while the only thread is busy
+      assertTrue(pool.execute(first));
+      assertFalse(pool.execute(second, 100L));
+      assertEquals(1L, pool.getRejectedCount());
+
+      // The task is accepted once the thread is available again
+      final boolean[] accepted = new boolean[1];
+      Thread submitter = new Thread() {
+         public void run() {
+            accepted[0] = pool.execute(second, 5000L);
+         }
+      };
+      submitter.start();
+      Thread.sleep(100L);
+      first.release();
+      submitter.join();
+      assertTrue(accepted[0]);
+      second.waitUntilDone();
+      assertTrue(second.isDone());
+      assertEquals(1L, pool.getRejectedCount());
+      assertEquals(1, pool.getLargestThreadCount());
+   }
+
+   public void testTimeOutController() throws Exception {
+
+      // Task finishing in time
+      BlockingTask quick = new BlockingTask();
+      quick.release();
+      TimeOutController.execute(quick, 5000);
+      assertTrue(quick.isDone());
+      assertNotSame(Thread.currentThread(), quick.getThread());
+
+      // Task not finishing in time is interrupted
+      BlockingTask slow = new BlockingTask();
+      try {
+         TimeOutController.execute(slow, 100);
+         fail("Expected TimeOutException.");
+      } catch (TimeOutException exception) {
+         // as expected
+      }
+      slow.waitUntilDone();
+      assertTrue(slow.wasInterrupted());
+   }
+
+   /**
+    * Task that waits until it is released or interrupted.
+    */
+   private static class BlockingTask implements Runnable {
+
+      private boolean _released;
+      private boolean _done;
+      private boolean _interrupted;
+      private Thread _thread;
+
+      public synchronized void run() {
+         _thread = Thread.currentThread();
+         try {
+            while (! _released) {
+               wait();
+            }
+         } catch (InterruptedException exception) {
+            _interrupted = true;
+         }
+         _done = true;
+         notifyAll();
+      }
+
+      synchronized void release() {
+         _released = true;
+         notifyAll();
+      }
+
+      synchronized void waitUntilDone() throws InterruptedException {
+         long deadline = System.currentTimeMillis() + 5000L;
+         while (! _done && System.currentTimeMillis() < deadline) {
+            wait(100L);
+         }
+      }
+
+      synchronized boolean isDone() {
+         return _done;
+      }
+
+      synchronized boolean wasInterrupted() {
+         return _interrupted;
+      }
+
+      synchronized Thread getThread() {
+         return _thread;
+      }
+   }
+}
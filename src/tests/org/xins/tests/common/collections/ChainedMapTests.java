@@ -6,6 +6,10 @@
  */
 package org.xins.tests.common.collections;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -85,4 +89,79 @@ public class ChainedMapTests extends TestCase {
 
       assertEquals(itemsCount, sortedMap.size());
    }
+
+   public void testLookup() {
+      ChainedMap map = new ChainedMap();
+      for (int i = 0; i < 100; i++) {
+         assertNull(map.put("key" + i, "value" + i));
+      }
+      assertNull(map.put(null, "null value"));
+      assertEquals("value5", map.put("key5", "new value"));
+
+      assertEquals(101, map.size());
+      assertEquals("value99", map.get("key99"));
+      assertEquals("new value", map.get("key5"));
+      assertEquals("null value", map.get(null));
+      assertNull(map.get("key100"));
+      assertTrue(map.containsKey("key0"));
+      assertTrue(map.containsKey(null));
+      assertFalse(map.containsKey("key100"));
+
+      // Replacing a value keeps the position of the key
+      Iterator itKeys = map.keySet().iterator();
+      for (int i = 0; i < 100; i++) {
+         assertEquals("key" + i, itKeys.next());
+      }
+      assertNull(itKeys.next());
+   }
+
+   public void testRemove() {
+      ChainedMap map = new ChainedMap();
+      map.put("a", "1");
+      map.put("b", "2");
+      map.put("c", "3");
+      map.put("d", "4");
+
+      assertEquals("2", map.remove("b"));
+      assertNull(map.remove("b"));
+      assertEquals(3, map.size());
+      assertNull(map.get("b"));
+      assertEquals("3", map.get("c"));
+      assertEquals("4", map.get("d"));
+      assertEquals("[a, c, d]", map.keySet().toString());
+
+      map.put("b", "5");
+      assertEquals("[a, c, d, b]", map.keySet().toString());
+      assertEquals("5", map.get("b"));
+
+      map.clear();
+      assertTrue(map.isEmpty());
+      assertNull(map.get("a"));
+   }
+
+   public void testCloneAndSerialization() throws Exception {
+      ChainedMap map = new ChainedMap();
+      map.put("a", "1");
+      map.put("b", "2");
+
+      ChainedMap clone = (ChainedMap) map.clone();
+      clone.put("c", "3");
+      clone.put("a", "4");
+      assertEquals(2, map.size());
+      assertEquals("1", map.get("a"));
+      assertNull(map.get("c"));
+      assertEquals("{a=4, b=2, c=3}", clone.toString());
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(clone);
+      out.close();
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      ChainedMap copy = (ChainedMap) in.readObject();
+      assertEquals(clone, copy);
+      assertEquals("{a=4, b=2, c=3}", copy.toString());
+      assertEquals("2", copy.get("b"));
+      copy.put("d", "5");
+      assertEquals("5", copy.get("d"));
+   }
 }
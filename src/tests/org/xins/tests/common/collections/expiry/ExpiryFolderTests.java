@@ -18,6 +18,7 @@ import junit.framework.TestSuite;
 import org.xins.common.collections.expiry.ExpiryFolder;
 import org.xins.common.collections.expiry.ExpiryListener;
 import org.xins.common.collections.expiry.ExpiryStrategy;
+import org.xins.common.collections.expiry.ExpiryTimer;
 
 /**
  * Tests for class <code>ExpiryFolder</code>.
@@ -157,6 +158,87 @@ public class ExpiryFolderTests extends TestCase {
       }
    }
 
+   public void testConcurrentAccess() throws Exception {
+
+      ExpiryStrategy strategy = new ExpiryStrategy(60000L, PRECISION);
+      try {
+         final ExpiryFolder folder = new ExpiryFolder(NAME, strategy);
+         final List errors = new ArrayList();
+         Thread[] threads = new Thread[8];
+         for (int i = 0; i < threads.length; i++) {
+            final String prefix = "Thread" + i + '-';
+            threads[i] = new Thread() {
+               public void run() {
+                  for (int j = 0; j < 1000; j++) {
+                     String key = prefix + j;
+                     folder.put(key, new Integer(j));
+                     if (! new Integer(j).equals(folder.get(key))) {
+                        synchronized (errors) {
+                           errors.add(key);
+                        }
+                     }
+                     if (j % 2 == 0) {
+                        folder.remove(key);
+                     }
+                  }
+               }
+            };
+            threads[i].start();
+         }
+         for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+         }
+
+         assertEquals("Lost entries: " + errors, 0, errors.size());
+         assertEquals(threads.length * 500, folder.size());
+         assertNull(folder.find("Thread0-0"));
+         assertEquals(new Integer(1), folder.find("Thread0-1"));
+      } finally {
+         strategy.stop();
+      }
+   }
+
+   public void testExpiryTimer() throws Exception {
+
+      ExpiryTimer timer = ExpiryTimer.getSharedInstance();
+      long ticks   = timer.getTickCount();
+      long expired = timer.getExpiredCount();
+
+      ExpiryStrategy strategy1 = new ExpiryStrategy(DURATION, PRECISION);
+      ExpiryStrategy strategy2 = new ExpiryStrategy(DURATION * 2L, PRECISION / 2L);
+      try {
+         assertTrue(timer.getStrategyCount() >= 2);
+
+         // The timer thread does not keep the JVM running
+         Thread[] threads = new Thread[Thread.activeCount() * 2];
+         int threadCount = Thread.enumerate(threads);
+         boolean found = false;
+         for (int i = 0; i < threadCount; i++) {
+            if ("XINS expiry timer".equals(threads[i].getName())) {
+               assertTrue(threads[i].isDaemon());
+               found = true;
+            }
+         }
+         assertTrue(found);
+
+         ExpiryFolder folder1 = new ExpiryFolder("Folder1", strategy1);
+         ExpiryFolder folder2 = new ExpiryFolder("Folder2", strategy2);
+         folder1.put("hello", "world");
+         folder2.put("hello", "world");
+         folder2.put("foo", "bar");
+         Thread.sleep(DURATION * 3L);
+
+         assertEquals(0, folder1.size());
+         assertEquals(0, folder2.size());
+         assertTrue(timer.getTickCount() - ticks >= (DURATION * 2L) / PRECISION);
+         assertTrue(timer.getExpiredCount() - expired >= 3L);
+         assertTrue(timer.getMaxExpiredCount() >= 2);
+      } finally {
+         strategy1.stop();
+         strategy2.stop();
+      }
+   }
+
    public void doTestExpiryFolder(ExpiryStrategy strategy)
    throws Exception {
 
@@ -7,6 +7,7 @@
 package org.xins.tests.common.http;
 
 import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
 import java.util.zip.CRC32;
 
 import junit.framework.Test;
@@ -17,17 +18,21 @@ import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.http.HTTPCallConfig;
 import org.xins.common.http.HTTPCallRequest;
 import org.xins.common.http.HTTPCallResult;
+import org.xins.common.http.HTTPConnectionPool;
 import org.xins.common.http.HTTPMethod;
 import org.xins.common.http.HTTPServiceCaller;
 
 import org.xins.common.service.CallException;
 import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.ConnectionTimeOutCallException;
 import org.xins.common.service.Descriptor;
 import org.xins.common.service.GroupDescriptor;
 import org.xins.common.service.SocketTimeOutCallException;
 import org.xins.common.service.TargetDescriptor;
 import org.xins.common.service.UnsupportedProtocolException;
 
+import org.xins.tests.AllTests;
+
 /**
  * Tests for class <code>HTTPServiceCallerTests</code>.
  *
@@ -288,4 +293,103 @@ public class HTTPServiceCallerTests extends TestCase {
       // First exception message must contain second one
       assertTrue("Expected first exception message to contain second one. First one is: \"" + em1 + "\" and second one is \"" + em2 + '"', em1.indexOf(em2) >= 0);
    }
+
+   public void testConnectionPool() throws Exception {
+
+      HTTPConnectionPool pool = new HTTPConnectionPool();
+      assertEquals(HTTPConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST, pool.getMaxConnectionsPerHost());
+      assertEquals(HTTPConnectionPool.DEFAULT_MAX_TOTAL_CONNECTIONS, pool.getMaxTotalConnections());
+      assertEquals(HTTPConnectionPool.DEFAULT_IDLE_TIME_OUT, pool.getIdleTimeOut());
+      try {
+         pool.setMaxConnectionsPerHost(0);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      try {
+         pool.setIdleTimeOut(-1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+      pool.setMaxConnectionsPerHost(2);
+      pool.setMaxTotalConnections(4);
+
+      // Share the pool between two callers to the same target
+      String url = AllTests.url() + "allinone/?_convention=_xins-std&_function=_GetVersion";
+      TargetDescriptor target = new TargetDescriptor(url, TOTAL_TO, CONN_TO, SOCKET_TO);
+      HTTPServiceCaller caller1 = new HTTPServiceCaller(target);
+      HTTPServiceCaller caller2 = new HTTPServiceCaller(target);
+      caller1.setConnectionPool(pool);
+      caller2.setConnectionPool(pool);
+      assertSame(pool, caller1.getConnectionPool());
+
+      HTTPCallRequest request = new HTTPCallRequest();
+      for (int i = 0; i < 3; i++) {
+         HTTPCallResult result = caller1.call(request);
+         assertEquals(200, result.getStatusCode());
+         result = caller2.call(request);
+         assertEquals(200, result.getStatusCode());
+      }
+      assertEquals(1, pool.getTargetCount());
+      assertEquals(6L, pool.getAcquiredCount());
+      assertEquals(0, pool.getActiveConnections());
+      assertEquals(0L, pool.getTimeOutCount());
+      assertTrue(pool.getConnectionsInPool(target) <= 2);
+
+      pool.closeIdleConnections(0L);
+      pool.shutdown();
+      assertEquals(0, pool.getTargetCount());
+      assertEquals(0, pool.getConnectionsInPool());
+   }
+
+   public void testConnectionPoolTotalLimit() throws Exception {
+
+      HTTPConnectionPool pool = new HTTPConnectionPool();
+      pool.setMaxTotalConnections(1);
+
+      // A server that accepts connections but never answers
+      ServerSocket silentServer = new ServerSocket(0);
+      try {
+         String silentURL = "http://127.0.0.1:" + silentServer.getLocalPort() + "/";
+         TargetDescriptor silentTarget = new TargetDescriptor(silentURL, 3000, 1000, 2000);
+         final HTTPServiceCaller silentCaller = new HTTPServiceCaller(silentTarget);
+         silentCaller.setConnectionPool(pool);
+         Thread silentCall = new Thread() {
+            public void run() {
+               try {
+                  silentCaller.call(new HTTPCallRequest());
+               } catch (CallException exception) {
+                  // as expected
+               }
+            }
+         };
+         silentCall.start();
+         for (int i = 0; i < 50 && pool.getActiveConnections() < 1; i++) {
+            Thread.sleep(20L);
+         }
+         assertEquals(1, pool.getActiveConnections());
+
+         // The only connection is in use for the other target
+         String url = AllTests.url() + "allinone/?_convention=_xins-std&_function=_GetVersion";
+         TargetDescriptor target = new TargetDescriptor(url, TOTAL_TO, 500, SOCKET_TO);
+         HTTPServiceCaller caller = new HTTPServiceCaller(target);
+         caller.setConnectionPool(pool);
+         try {
+            caller.call(new HTTPCallRequest());
+            fail("Expected ConnectionTimeOutCallException.");
+         } catch (ConnectionTimeOutCallException exception) {
+            // as expected
+         }
+         assertEquals(1L, pool.getTimeOutCount());
+
+         // Once the connection is released, the call succeeds
+         silentCall.join();
+         assertEquals(0, pool.getActiveConnections());
+         assertEquals(200, caller.call(new HTTPCallRequest()).getStatusCode());
+      } finally {
+         silentServer.close();
+         pool.shutdown();
+      }
+   }
 }
@@ -147,4 +147,23 @@ public class DescriptorBuilderTests extends TestCase {
          // as expected
       }
    }
+
+   public void testWeightedGroup() throws Throwable {
+      _properties.setProperty("s2",       "group, weighted, host1:3, host2");
+      _properties.setProperty("s2.host1", "service, http://host1/, 8000");
+      _properties.setProperty("s2.host2", "service, http://host2/, 8000");
+      GroupDescriptor group = (GroupDescriptor) DescriptorBuilder.build(_propertyReader, "s2");
+      assertEquals(GroupDescriptor.WEIGHTED_TYPE, group.getType());
+      assertEquals(2, group.getTargetCount());
+      assertEquals(3, group.getWeights()[0]);
+      assertEquals(1, group.getWeights()[1]);
+
+      _properties.setProperty("s2", "group, weighted, host1:zero, host2");
+      try {
+         DescriptorBuilder.build(_propertyReader, "s2");
+         fail("Expected InvalidPropertyValueException.");
+      } catch (InvalidPropertyValueException exception) {
+         // as expected
+      }
+   }
 }
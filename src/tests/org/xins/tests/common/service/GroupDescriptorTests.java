@@ -6,6 +6,10 @@
  */
 package org.xins.tests.common.service;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -125,4 +129,75 @@ public class GroupDescriptorTests extends TestCase {
       assertEquals(true,     gd.isGroup());
       assertEquals(TYP_ORDR, gd.getType());
    }
+
+   public void testGetType() throws Exception {
+      assertSame(GroupDescriptor.RANDOM_TYPE,            GroupDescriptor.getType("random"));
+      assertSame(GroupDescriptor.ORDERED_TYPE,           GroupDescriptor.getType("ordered"));
+      assertSame(GroupDescriptor.LEAST_OUTSTANDING_TYPE, GroupDescriptor.getType("least-outstanding"));
+      assertSame(GroupDescriptor.LATENCY_TYPE,           GroupDescriptor.getType("latency"));
+      assertSame(GroupDescriptor.WEIGHTED_TYPE,          GroupDescriptor.getType("weighted"));
+      assertNull(GroupDescriptor.getType("unknown"));
+   }
+
+   public void testBalancedTypes() throws Exception {
+      TargetDescriptor a = new TargetDescriptor("http://www.a.com/");
+      TargetDescriptor b = new TargetDescriptor("http://www.b.com/");
+      TargetDescriptor c = new TargetDescriptor("http://www.c.com/");
+      Descriptor[] members = new Descriptor[] {
+         a, new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { b, c })
+      };
+
+      // Each target is returned exactly once
+      GroupDescriptor.Type[] types = new GroupDescriptor.Type[] {
+         GroupDescriptor.LEAST_OUTSTANDING_TYPE,
+         GroupDescriptor.LATENCY_TYPE,
+         GroupDescriptor.WEIGHTED_TYPE
+      };
+      for (int i = 0; i < types.length; i++) {
+         GroupDescriptor gd = new GroupDescriptor(types[i], members);
+         assertEquals(3, gd.getTargetCount());
+         Set targets = new HashSet();
+         Iterator iterator = gd.iterateTargets();
+         while (iterator.hasNext()) {
+            assertTrue(targets.add(iterator.next()));
+         }
+         assertEquals(3, targets.size());
+      }
+   }
+
+   public void testWeightedType() throws Exception {
+      TargetDescriptor a = new TargetDescriptor("http://www.a.com/");
+      TargetDescriptor b = new TargetDescriptor("http://www.b.com/");
+      Descriptor[] members = new Descriptor[] { a, b };
+
+      try {
+         new GroupDescriptor(GroupDescriptor.WEIGHTED_TYPE, members, new int[] { 1 });
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         new GroupDescriptor(GroupDescriptor.WEIGHTED_TYPE, members, new int[] { 1, 0 });
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+
+      // Target a is called first 3 times as often as target b
+      GroupDescriptor gd = new GroupDescriptor(GroupDescriptor.WEIGHTED_TYPE, members, new int[] { 3, 1 });
+      assertEquals(3, gd.getWeights()[0]);
+      int countA = 0;
+      for (int i = 0; i < 8; i++) {
+         Iterator iterator = gd.iterateTargets();
+         Object first = iterator.next();
+         if (first.equals(a)) {
+            countA++;
+            assertEquals(b, iterator.next());
+         } else {
+            assertEquals(a, iterator.next());
+         }
+         assertFalse(iterator.hasNext());
+      }
+      assertEquals(6, countA);
+   }
 }
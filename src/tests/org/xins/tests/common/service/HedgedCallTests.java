@@ -0,0 +1,142 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallResult;
+import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.Descriptor;
+import org.xins.common.service.GroupDescriptor;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.service.TargetStatistics;
+
+/**
+ * Tests the parallel calls of the <code>ServiceCaller</code> class, enabled
+ * with <code>CallConfig.setHedgeDelay(int)</code>.
+ *
+ * @version $Revision$ $Date$
+ */
+public class HedgedCallTests extends TestCase {
+
+   private TargetDescriptor _slow;
+   private TargetDescriptor _fast;
+   private TargetDescriptor _failed;
+
+   /**
+    * Constructs a new <code>HedgedCallTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public HedgedCallTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(HedgedCallTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _slow   = new TargetDescriptor("http://slow.example.org/");
+      _fast   = new TargetDescriptor("http://fast.example.org/");
+      _failed = new TargetDescriptor("http://failed.example.org/");
+   }
+
+   public void testHedgeDelay() throws Exception {
+      CallConfig config = new CallConfig();
+      assertEquals(-1, config.getHedgeDelay());
+      config.setHedgeDelay(0);
+      assertEquals(0, config.getHedgeDelay());
+      config.setHedgeDelay(-1);
+      try {
+         config.setHedgeDelay(-2);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+   }
+
+   public void testSequentialCall() throws Exception {
+      StubServiceCaller caller = new StubServiceCaller(group(_slow, _fast));
+      long start = System.currentTimeMillis();
+      CallResult result = caller.call(new CallConfig());
+      assertEquals(_slow, result.getSucceededTarget());
+      assertTrue(System.currentTimeMillis() - start >= 1000L);
+   }
+
+   public void testHedgedCall() throws Exception {
+      StubServiceCaller caller = new StubServiceCaller(group(_slow, _fast));
+      CallConfig config = new CallConfig();
+      config.setHedgeDelay(100);
+      long start = System.currentTimeMillis();
+      CallResult result = caller.call(config);
+      assertEquals(_fast, result.getSucceededTarget());
+      assertTrue(System.currentTimeMillis() - start < 1000L);
+      assertNull(result.getExceptions());
+
+      // The slow call is cancelled
+      assertTrue(caller.waitForInterrupted(5000L));
+
+      // The cancelled call is not a failure of the slow target
+      TargetStatistics statistics = TargetStatistics.get(_slow);
+      for (int i = 0; i < 50 && statistics.getOutstandingCount() > 0; i++) {
+         Thread.sleep(100L);
+      }
+      assertEquals(0, statistics.getOutstandingCount());
+      assertEquals(0L, statistics.getFailureCount());
+      assertEquals(0, statistics.getConsecutiveFailures());
+   }
+
+   public void testRacedCall() throws Exception {
+      StubServiceCaller caller = new StubServiceCaller(group(_slow, _fast));
+      CallConfig config = new CallConfig();
+      config.setHedgeDelay(0);
+      CallResult result = caller.call(config);
+      assertEquals(_fast, result.getSucceededTarget());
+   }
+
+   public void testFailOver() throws Exception {
+      StubServiceCaller caller = new StubServiceCaller(group(_failed, _fast));
+      CallConfig config = new CallConfig();
+      config.setHedgeDelay(5000);
+      long start = System.currentTimeMillis();
+      CallResult result = caller.call(config);
+      assertEquals(_fast, result.getSucceededTarget());
+      assertTrue(System.currentTimeMillis() - start < 1000L);
+      assertEquals(1, result.getExceptions().size());
+   }
+
+   public void testAllFailed() throws Exception {
+      TargetDescriptor failed2 = new TargetDescriptor("http://failed2.example.org/");
+      StubServiceCaller caller = new StubServiceCaller(group(_failed, failed2));
+      CallConfig config = new CallConfig();
+      config.setHedgeDelay(0);
+      try {
+         caller.call(config);
+         fail("Expected CallException.");
+      } catch (ConnectionRefusedCallException exception) {
+         assertNotNull(exception.getNext());
+         assertNull(exception.getNext().getNext());
+      }
+   }
+
+   private static Descriptor group(TargetDescriptor first, TargetDescriptor second) {
+      Descriptor[] members = new Descriptor[] { first, second };
+      return new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, members);
+   }
+}
@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.service;
+
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallException;
+import org.xins.common.service.CallExceptionList;
+import org.xins.common.service.CallRequest;
+import org.xins.common.service.CallResult;
+import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.Descriptor;
+import org.xins.common.service.ServiceCaller;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.service.TotalTimeOutCallException;
+
+/**
+ * Service caller used by the tests. It waits 2 seconds when calling a
+ * target with <code>"slow"</code> in its URL and fails when calling a target
+ * with <code>"failed"</code> in its URL.
+ *
+ * @version $Revision$ $Date$
+ */
+class StubServiceCaller extends ServiceCaller {
+
+   private boolean _interrupted;
+
+   StubServiceCaller(Descriptor descriptor) throws Exception {
+      super(descriptor, null);
+   }
+
+   protected boolean isProtocolSupportedImpl(String protocol) {
+      return "http".equals(protocol);
+   }
+
+   protected CallConfig getDefaultCallConfig() {
+      return new CallConfig();
+   }
+
+   CallResult call(CallConfig config) throws CallException {
+      return doCall(new StubCallRequest(), config);
+   }
+
+   public Object doCallImpl(CallRequest request, CallConfig callConfig, TargetDescriptor target)
+   throws CallException {
+      if (target.getURL().indexOf("failed") >= 0) {
+         throw new ConnectionRefusedCallException(request, target, 0L);
+      } else if (target.getURL().indexOf("slow") >= 0) {
+         try {
+            Thread.sleep(2000L);
+         } catch (InterruptedException exception) {
+            synchronized (this) {
+               _interrupted = true;
+               notifyAll();
+            }
+
+            // Like HTTPServiceCaller, report the interruption as a time-out
+            throw new TotalTimeOutCallException(request, target, 0L);
+         }
+      }
+      return target.getURL();
+   }
+
+   protected CallResult createCallResult(CallRequest request, TargetDescriptor succeededTarget,
+         long duration, CallExceptionList exceptions, Object result) {
+      return new StubCallResult(request, succeededTarget, duration, exceptions);
+   }
+
+   synchronized boolean waitForInterrupted(long timeOut) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeOut;
+      while (! _interrupted && System.currentTimeMillis() < deadline) {
+         wait(100L);
+      }
+      return _interrupted;
+   }
+
+   private static class StubCallRequest extends CallRequest {
+      public String describe() {
+         return "stub request";
+      }
+   }
+
+   private static class StubCallResult extends CallResult {
+      StubCallResult(CallRequest request, TargetDescriptor target, long duration, CallExceptionList exceptions) {
+         super(request, target, duration, exceptions);
+      }
+   }
+}
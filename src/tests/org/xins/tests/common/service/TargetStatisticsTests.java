@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallResult;
+import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.Descriptor;
+import org.xins.common.service.GroupDescriptor;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.service.TargetStatistics;
+
+/**
+ * Tests for class <code>TargetStatistics</code>.
+ *
+ * @version $Revision$ $Date$
+ */
+public class TargetStatisticsTests extends TestCase {
+
+   /**
+    * Constructs a new <code>TargetStatisticsTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public TargetStatisticsTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(TargetStatisticsTests.class);
+   }
+
+   public void testStatistics() throws Exception {
+      TargetDescriptor target = new TargetDescriptor("http://statistics.example.org/");
+      TargetStatistics statistics = TargetStatistics.get(target);
+      assertSame(statistics, TargetStatistics.get(target));
+      assertNotSame(statistics, TargetStatistics.get(new TargetDescriptor("http://statistics.example.org/")));
+      assertEquals(-1.0, statistics.getAverageDuration(), 0.0);
+
+      StubServiceCaller caller = new StubServiceCaller(target);
+      caller.call(new CallConfig());
+      assertEquals(1L, statistics.getSuccessCount());
+      assertEquals(0L, statistics.getFailureCount());
+      assertEquals(0, statistics.getOutstandingCount());
+      assertTrue(statistics.getAverageDuration() >= 0.0);
+      assertTrue(statistics.isAvailable());
+
+      try {
+         TargetStatistics.get(null);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException exception) {
+         // as expected
+      }
+   }
+
+   public void testCircuitBreaker() throws Exception {
+      TargetDescriptor failed = new TargetDescriptor("http://failed.breaker.example.org/");
+      TargetDescriptor fast   = new TargetDescriptor("http://fast.breaker.example.org/");
+      Descriptor[] members = new Descriptor[] { failed, fast };
+      GroupDescriptor group = new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, members);
+      StubServiceCaller caller = new StubServiceCaller(group);
+      TargetStatistics statistics = TargetStatistics.get(failed);
+
+      // The failing target is called first until the circuit breaker opens
+      CallConfig config = new CallConfig();
+      for (int i = 0; i < TargetStatistics.DEFAULT_THRESHOLD; i++) {
+         assertTrue(statistics.isAvailable());
+         CallResult result = caller.call(config);
+         assertEquals(fast, result.getSucceededTarget());
+         assertEquals(1, result.getExceptions().size());
+         assertTrue(result.getExceptions().get(0) instanceof ConnectionRefusedCallException);
+      }
+      assertFalse(statistics.isAvailable());
+      assertEquals(TargetStatistics.DEFAULT_THRESHOLD, statistics.getConsecutiveFailures());
+      assertEquals(1L, statistics.getTripCount());
+
+      // Now the failing target is skipped
+      CallResult result = caller.call(config);
+      assertEquals(fast, result.getSucceededTarget());
+      assertNull(result.getExceptions());
+   }
+}
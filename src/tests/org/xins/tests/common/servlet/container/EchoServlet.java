@@ -0,0 +1,64 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.servlet.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns a description of the request: the method, the query
+ * string and the length and checksum of the body.
+ *
+ * @version $Revision$ $Date$
+ */
+public class EchoServlet extends HttpServlet {
+
+   /**
+    * Creates a new instance of EchoServlet.
+    */
+   public EchoServlet() {
+   }
+
+   /**
+    * Handles a request to this servlet.
+    *
+    * @param request
+    *    the servlet request, should not be <code>null</code>.
+    *
+    * @param response
+    *    the servlet response, should not be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the request cannot be read or the response cannot be written.
+    */
+   public void service(HttpServletRequest request, HttpServletResponse response)
+   throws IOException {
+      CRC32 checksum = new CRC32();
+      long length = 0L;
+      if ("POST".equals(request.getMethod())) {
+         InputStream in = request.getInputStream();
+         byte[] buffer = new byte[4096];
+         for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+            checksum.update(buffer, 0, count);
+            length += count;
+         }
+      }
+
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.setContentType("text/plain;charset=UTF-8");
+      Writer writer = response.getWriter();
+      writer.write(request.getMethod() + ' ' + request.getQueryString()
+            + ' ' + length + ' ' + checksum.getValue());
+      writer.close();
+   }
+}
@@ -9,6 +9,7 @@ package org.xins.tests.common.servlet.container;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.zip.CRC32;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -16,14 +17,19 @@ import junit.framework.TestSuite;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.OptionsMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 
+import org.xins.common.WorkerPool;
+
 import org.xins.common.collections.BasicPropertyReader;
 import org.xins.common.http.HTTPCallRequest;
 import org.xins.common.http.HTTPCallResult;
 import org.xins.common.http.HTTPServiceCaller;
 import org.xins.common.service.TargetDescriptor;
+import org.xins.common.servlet.container.HTTPServletHandler;
 import org.xins.common.text.HexConverter;
 import org.xins.common.text.ParseException;
 import org.xins.common.xml.Element;
@@ -150,4 +156,214 @@ public class HTTPServletHandlerTests extends TestCase {
       // Status should be 200 OK
       assertEquals("Expected 200 OK in response to HTTP/1.0 GET request.", "200 OK", result.getStatus());
    }
+
+   /**
+    * Tests the selector-based mode with several requests on the same
+    * connection, sent without waiting for the responses.
+    */
+   public void testSelectorPipelining() throws Exception {
+      HTTPServletHandler server = startSelectorServer();
+      Socket socket = new Socket(AllTests.host(), server.getPort());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = new BufferedInputStream(socket.getInputStream());
+
+         // A GET, a POST larger than 16 KB and a chunked POST at once
+         byte[] body = createBody(100000);
+         ByteArrayOutputStream requests = new ByteArrayOutputStream();
+         requests.write(toBytes("GET /?a=1 HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+         requests.write(toBytes("POST /?a=2 HTTP/1.1\r\nHost: localhost\r\n"
+               + "Content-Type: application/octet-stream\r\nContent-Length: " + body.length + "\r\n\r\n"));
+         requests.write(body);
+         requests.write(toBytes("POST /?a=3 HTTP/1.1\r\nHost: localhost\r\n"
+               + "Content-Type: application/octet-stream\r\nTransfer-Encoding: chunked\r\n\r\n"));
+         for (int i = 0; i < body.length; i += 30000) {
+            int length = Math.min(30000, body.length - i);
+            requests.write(toBytes(Integer.toHexString(length) + ";ext=1\r\n"));
+            requests.write(body, i, length);
+            requests.write(toBytes("\r\n"));
+         }
+         requests.write(toBytes("0\r\nX-Trailer: yes\r\n\r\n"));
+         out.write(requests.toByteArray());
+         out.flush();
+
+         assertEquals("GET a=1 0 0", readResponse(in, true));
+         assertEquals("POST a=2 " + body.length + ' ' + checksum(body), readResponse(in, true));
+         assertEquals("POST a=3 " + body.length + ' ' + checksum(body), readResponse(in, true));
+
+         // The connection is still open
+         out.write(toBytes("GET /?a=4 HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+         out.flush();
+         assertEquals("GET a=4 0 0", readResponse(in, true));
+
+         // The server closes the connection if asked to
+         out.write(toBytes("GET /?a=5 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+         out.flush();
+         assertEquals("GET a=5 0 0", readResponse(in, false));
+         assertEquals(-1, in.read());
+      } finally {
+         socket.close();
+         server.close();
+      }
+   }
+
+   /**
+    * Tests the selector-based mode with HTTP/1.0 and invalid requests.
+    */
+   public void testSelectorHTTP_1_0() throws Exception {
+      HTTPServletHandler server = startSelectorServer();
+      try {
+
+         // HTTP/1.0 connections are closed after the response
+         HTTPCallerResult result = HTTPCaller.call("1.0", AllTests.host(), server.getPort(), "GET", "/?a=1", null);
+         assertEquals("200 OK", result.getStatus());
+         assertEquals("GET a=1 0 0", result.getBody());
+
+         // Unless the client asks to keep them open
+         Socket socket = new Socket(AllTests.host(), server.getPort());
+         try {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write(toBytes("GET /?a=2 HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"));
+            out.flush();
+            assertEquals("GET a=2 0 0", readResponse(in, true));
+
+            // An invalid request is rejected and the connection is closed
+            out.write(toBytes("GET /?a=3 HTTP/2.0\r\n\r\n"));
+            out.flush();
+            assertEquals("400 Bad Request", readLine(in).substring(9));
+            while (readLine(in).length() > 0) {
+               // skip the headers
+            }
+            assertEquals(-1, in.read());
+         } finally {
+            socket.close();
+         }
+      } finally {
+         server.close();
+      }
+   }
+
+   /**
+    * Tests the selector-based mode with HttpClient, which keeps the
+    * connections open between the requests.
+    */
+   public void testSelectorWithHttpClient() throws Exception {
+      HTTPServletHandler server = startSelectorServer();
+      try {
+         HttpClient client = new HttpClient();
+         client.getHttpConnectionManager().getParams().setSoTimeout(10000);
+         String url = "http://" + AllTests.host() + ':' + server.getPort() + '/';
+         for (int i = 0; i < 5; i++) {
+            byte[] body = createBody(i * 20000 + 1);
+            PostMethod post = new PostMethod(url + "?call=" + i);
+            post.setRequestEntity(new ByteArrayRequestEntity(body, "application/octet-stream"));
+            try {
+               assertEquals(200, client.executeMethod(post));
+               assertEquals("POST call=" + i + ' ' + body.length + ' ' + checksum(body), post.getResponseBodyAsString());
+            } finally {
+               post.releaseConnection();
+            }
+
+            GetMethod get = new GetMethod(url + "?call=" + i);
+            try {
+               assertEquals(200, client.executeMethod(get));
+               assertEquals("GET call=" + i + " 0 0", get.getResponseBodyAsString());
+            } finally {
+               get.releaseConnection();
+            }
+         }
+      } finally {
+         server.close();
+      }
+   }
+
+   /**
+    * Starts a servlet container in the selector-based mode with the
+    * <code>EchoServlet</code>.
+    *
+    * @return
+    *    the started servlet container, never <code>null</code>.
+    */
+   private static HTTPServletHandler startSelectorServer() throws Exception {
+      WorkerPool workerPool = new WorkerPool("Test worker", 4, 16);
+      HTTPServletHandler server = new HTTPServletHandler(AllTests.port() + 4, true, 50, workerPool);
+      server.addServlet(EchoServlet.class.getName(), "/");
+      return server;
+   }
+
+   /**
+    * Creates a body with random bytes.
+    */
+   private static byte[] createBody(int length) {
+      byte[] body = new byte[length];
+      RANDOM.nextBytes(body);
+      return body;
+   }
+
+   /**
+    * Returns the CRC-32 checksum of the specified bytes.
+    */
+   private static long checksum(byte[] bytes) {
+      CRC32 checksum = new CRC32();
+      checksum.update(bytes);
+      return checksum.getValue();
+   }
+
+   /**
+    * Converts the specified text to ISO-8859-1 bytes.
+    */
+   private static byte[] toBytes(String text) throws Exception {
+      return text.getBytes("ISO-8859-1");
+   }
+
+   /**
+    * Reads a line, without the line separator.
+    */
+   private static String readLine(InputStream in) throws Exception {
+      StringBuffer line = new StringBuffer();
+      for (int c = in.read(); c != '\n'; c = in.read()) {
+         if (c < 0) {
+            throw new EOFException();
+         } else if (c != '\r') {
+            line.append((char) c);
+         }
+      }
+      return line.toString();
+   }
+
+   /**
+    * Reads a successful response and returns its body.
+    *
+    * @param keepAlive
+    *    <code>true</code> if the connection should be kept open,
+    *    <code>false</code> if it should be closed.
+    */
+   private static String readResponse(InputStream in, boolean keepAlive) throws Exception {
+      assertEquals("HTTP/1.1 200 OK", readLine(in));
+      int length = -1;
+      String connection = null;
+      for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+         int colon = line.indexOf(':');
+         String name  = line.substring(0, colon);
+         String value = line.substring(colon + 1).trim();
+         if ("Content-Length".equalsIgnoreCase(name)) {
+            length = Integer.parseInt(value);
+         } else if ("Connection".equalsIgnoreCase(name)) {
+            connection = value;
+         }
+      }
+      assertEquals(keepAlive, !"close".equals(connection));
+      byte[] body = new byte[length];
+      for (int read = 0; read < length; ) {
+         int count = in.read(body, read, length - read);
+         if (count < 0) {
+            throw new EOFException();
+         }
+         read += count;
+      }
+      return new String(body, "UTF-8");
+   }
 }
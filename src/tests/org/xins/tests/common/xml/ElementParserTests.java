@@ -6,7 +6,12 @@
  */
 package org.xins.tests.common.xml;
 
+import java.io.ByteArrayInputStream;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 import junit.framework.Test;
@@ -16,6 +21,7 @@ import org.xins.common.text.ParseException;
 
 import org.xins.common.xml.ElementParser;
 import org.xins.common.xml.Element;
+import org.xins.common.xml.StAXElementParser;
 
 /**
  * Tests for class <code>ElementParser</code>.
@@ -100,4 +106,156 @@ public class ElementParserTests extends TestCase {
          // as expected.
       }
    }
+
+   /**
+    * Tests that a parser gives the same results when it is reused, also
+    * after a parsing error or a large document.
+    */
+   public void testReuse() throws Exception {
+      ElementParser parser = new ElementParser();
+      String xml = "<a xmlns:p=\"ns\" x=\"1\" p:y=\"2\"><b x=\"3\">text</b><b/></a>";
+      String expected = parser.parse(xml).toString();
+      assertEquals(expected, parser.parse(xml).toString());
+
+      try {
+         parser.parse("<a><b></a>");
+         fail("Expected a ParseException.");
+      } catch (ParseException exception) {
+         // as expected
+      }
+      assertEquals(expected, parser.parse(xml).toString());
+
+      // Large text and deep nesting
+      StringBuffer large = new StringBuffer();
+      for (int i = 0; i < 100; i++) {
+         large.append("<c>");
+      }
+      for (int i = 0; i < 10000; i++) {
+         large.append("text ");
+      }
+      for (int i = 0; i < 100; i++) {
+         large.append("</c>");
+      }
+      assertEquals(50000, deepest(parser.parse(large.toString())).getText().length());
+      assertEquals(expected, parser.parse(xml).toString());
+
+      // Same local name of attribute in another namespace
+      Element element = parser.parse("<a xmlns:q=\"other\" q:y=\"3\" y=\"4\"/>");
+      assertEquals("3", element.getAttribute("other", "y"));
+      assertEquals("4", element.getAttribute("y"));
+      assertNull(element.getAttribute("ns", "y"));
+      element = parser.parse(xml);
+      assertEquals("2", element.getAttribute("ns", "y"));
+      assertEquals("p", getAttributeName(element, "y").getNamespacePrefix());
+   }
+
+   /**
+    * Tests the parser of the current thread and the use of a parser by
+    * several threads at the same time.
+    */
+   public void testThreads() throws Exception {
+      assertSame(ElementParser.getThreadInstance(), ElementParser.getThreadInstance());
+
+      final ElementParser shared = new ElementParser();
+      final List instances = Collections.synchronizedList(new ArrayList());
+      final List errors = Collections.synchronizedList(new ArrayList());
+      Thread[] threads = new Thread[4];
+      for (int i = 0; i < threads.length; i++) {
+         final String name = "t" + i;
+         threads[i] = new Thread() {
+            public void run() {
+               instances.add(ElementParser.getThreadInstance());
+               try {
+                  for (int j = 0; j < 200; j++) {
+                     String xml = "<" + name + " j=\"" + j + "\"><c>" + j + "</c></" + name + ">";
+                     Element element = shared.parse(xml);
+                     if (! xml.equals(element.toString())) {
+                        errors.add(xml + " parsed as " + element);
+                     }
+                  }
+               } catch (Exception exception) {
+                  errors.add(exception);
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++) {
+         threads[i].join();
+      }
+      assertEquals(errors.toString(), 0, errors.size());
+      assertEquals(threads.length, new HashSet(instances).size());
+      assertFalse(instances.contains(ElementParser.getThreadInstance()));
+   }
+
+   /**
+    * Tests that the StAX parser gives the same elements as the SAX parser.
+    */
+   public void testStAX() throws Exception {
+      String[] valid = {
+         "<a/>",
+         "<?xml version='1.0'?><!-- comment --><a x='1'>text</a>",
+         "<a xmlns='ns' xmlns:p='other' p:x='1' y='2'><p:b>c</p:b><d/></a>",
+         "<a>before<b/>after<![CDATA[<cdata>]]>&lt;&#233;</a>",
+         "<a>  <b>\n  </b>  </a>",
+         "<a><?pi data?><b x='&quot;'/></a>"
+      };
+      ElementParser parser = new ElementParser();
+      for (int i = 0; i < valid.length; i++) {
+         String expected = parser.parse(valid[i]).toString();
+         assertEquals(valid[i], expected, StAXElementParser.parse(valid[i]).toString());
+         assertEquals(valid[i], expected, StAXElementParser.parse(new ByteArrayInputStream(valid[i].getBytes("UTF-8"))).toString());
+      }
+
+      String[] invalid = { "", "<a>", "<a></b>", "<a/><b/>", "<a/>text", "text" };
+      for (int i = 0; i < invalid.length; i++) {
+         try {
+            StAXElementParser.parse(invalid[i]);
+            fail("Expected a ParseException for " + invalid[i]);
+         } catch (ParseException exception) {
+            // as expected
+         }
+      }
+   }
+
+   /**
+    * Returns the deepest first descendant of an element.
+    *
+    * @param element
+    *    the element.
+    *
+    * @return
+    *    the first child of the first child, etc.
+    */
+   private static Element deepest(Element element) {
+      while (! element.getChildElements().isEmpty()) {
+         element = (Element) element.getChildElements().get(0);
+      }
+      return element;
+   }
+
+   /**
+    * Returns the qualified name of an attribute with the specified local
+    * name.
+    *
+    * @param element
+    *    the element.
+    *
+    * @param localName
+    *    the local name of the attribute.
+    *
+    * @return
+    *    the qualified name, or <code>null</code> if there is no such
+    *    attribute.
+    */
+   private static Element.QualifiedName getAttributeName(Element element, String localName) {
+      Iterator names = element.getAttributeMap().keySet().iterator();
+      while (names.hasNext()) {
+         Element.QualifiedName name = (Element.QualifiedName) names.next();
+         if (name.getLocalName().equals(localName)) {
+            return name;
+         }
+      }
+      return null;
+   }
 }
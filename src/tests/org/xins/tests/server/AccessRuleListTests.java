@@ -6,9 +6,14 @@
  */
 package org.xins.tests.server;
 
+import java.io.File;
+import java.io.FileWriter;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+
+import org.xins.common.text.ParseException;
 import org.xins.server.AccessRuleList;
 
 /**
@@ -94,4 +99,65 @@ public class AccessRuleListTests extends TestCase {
       assertEquals(2, arl.getRuleCount());
       // TODO: More tests
    }
+
+   public void testRuleOrder() throws Throwable {
+      String descriptor = "deny 10.0.0.5 *;"
+                        + "allow 10.0.0.0/24 _*;"
+                        + "deny 10.0.0.0/8 *;"
+                        + "allow 10.0.0.0/16 * _xins-std;"
+                        + "allow 0.0.0.0/0 Public*;"
+                        + "allow 3FFE:200::/32 *;"
+                        + "deny ::/0 *";
+      AccessRuleList arl = AccessRuleList.parseAccessRuleList(descriptor, 0);
+      assertEquals(7, arl.getRuleCount());
+
+      // The results are the same when the decisions are cached
+      for (int i = 0; i < 2; i++) {
+         assertEquals(Boolean.FALSE, arl.isAllowed("10.0.0.5", "_GetVersion", null));
+         assertEquals(Boolean.TRUE,  arl.isAllowed("10.0.0.6", "_GetVersion", null));
+         assertEquals(Boolean.FALSE, arl.isAllowed("10.0.0.6", "Public", null));
+         assertEquals(Boolean.FALSE, arl.isAllowed("10.0.1.6", "_GetVersion", "_xins-std"));
+         assertEquals(Boolean.TRUE,  arl.isAllowed("11.0.0.1", "PublicFunction", null));
+         assertNull(arl.isAllowed("11.0.0.1", "Private", null));
+         assertEquals(Boolean.TRUE,  arl.isAllowed("3ffe:200::1", "Private", null));
+         assertEquals(Boolean.FALSE, arl.isAllowed("::1", "PublicFunction", null));
+         assertEquals(Boolean.FALSE, arl.isAllowed("::1", "Private", null));
+      }
+
+      try {
+         arl.isAllowed("10.0.0.256", "_GetVersion", null);
+         fail("Expected ParseException.");
+      } catch (ParseException exception) {
+         // as expected
+      }
+   }
+
+   public void testFileReload() throws Throwable {
+      File file = File.createTempFile("xins", ".acl");
+      try {
+         writeRules(file, "allow 10.0.0.0/8 *");
+         AccessRuleList arl = AccessRuleList.parseAccessRuleList("file " + file.getPath() + ";deny 0.0.0.0/0 *", 0);
+         AccessRuleList other = AccessRuleList.parseAccessRuleList("file " + file.getPath(), 0);
+         assertEquals(Boolean.TRUE, arl.isAllowed("10.0.0.1", "Function", null));
+         assertEquals(Boolean.TRUE, other.isAllowed("10.0.0.1", "Function", null));
+
+         // The cached decision is not used after the file is reloaded
+         writeRules(file, "deny 10.0.0.0/8 *");
+         arl.reload();
+         assertEquals(Boolean.FALSE, arl.isAllowed("10.0.0.1", "Function", null));
+
+         // Reloading the file of another list does not affect this list
+         assertEquals(Boolean.TRUE, other.isAllowed("10.0.0.1", "Function", null));
+         arl.dispose();
+         other.dispose();
+      } finally {
+         file.delete();
+      }
+   }
+
+   private void writeRules(File file, String rules) throws Exception {
+      FileWriter writer = new FileWriter(file);
+      writer.write(rules);
+      writer.close();
+   }
 }
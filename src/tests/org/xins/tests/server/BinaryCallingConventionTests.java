@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import org.xins.client.UnsuccessfulXINSCallException;
+import org.xins.client.XINSCallConfig;
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSCallResult;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.collections.PropertyReader;
+import org.xins.common.io.BinaryCallReader;
+import org.xins.common.io.BinaryCallWriter;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.text.ParseException;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementBuilder;
+import org.xins.common.xml.ElementSerializer;
+
+import org.xins.tests.AllTests;
+
+/**
+ * Tests for the binary calling convention.
+ *
+ * @version $Revision$ $Date$
+ */
+public class BinaryCallingConventionTests extends TestCase {
+
+   /**
+    * Constructs a new <code>BinaryCallingConventionTests</code> test suite
+    * with the specified name. The name will be passed to the
+    * superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public BinaryCallingConventionTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(BinaryCallingConventionTests.class);
+   }
+
+   /**
+    * Tests that a request written with <code>BinaryCallWriter</code> is read
+    * back by <code>BinaryCallReader</code>.
+    */
+   public void testWriteAndRead() throws Exception {
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      parameters.set("text", "Hello \u00e9\u20ac <&>\n");
+      parameters.set("empty", "");
+      parameters.set("number", "12");
+      Element dataSection = createDataSection(50);
+      dataSection.setAttribute("ns", "http://www.xins.org/test", "lang", "en");
+
+      byte[] data = BinaryCallWriter.writeRequest("MyFunction", parameters, dataSection);
+      assertTrue(BinaryCallReader.isBinary(data));
+      String xml = new ElementSerializer().serialize(dataSection);
+      assertTrue(data.length < xml.length());
+
+      BinaryCallReader reader = new BinaryCallReader(data);
+      assertEquals("MyFunction", reader.readString());
+      PropertyReader readParameters = reader.readParameters();
+      assertEquals(2, readParameters.size());
+      assertEquals("Hello \u00e9\u20ac <&>\n", readParameters.get("text"));
+      assertEquals("12", readParameters.get("number"));
+      assertNull(readParameters.get("empty"));
+      assertEquals(xml, new ElementSerializer().serialize(reader.readElement()));
+      reader.end();
+
+      // Without parameters and data section
+      data = BinaryCallWriter.writeResult(null, null, null);
+      reader = new BinaryCallReader(data);
+      assertNull(reader.readString());
+      assertEquals(0, reader.readParameters().size());
+      assertNull(reader.readElement());
+      reader.end();
+   }
+
+   /**
+    * Tests that invalid binary data is rejected.
+    */
+   public void testInvalidData() throws Exception {
+      assertFalse(BinaryCallReader.isBinary("<result/>".getBytes("US-ASCII")));
+      try {
+         new BinaryCallReader("<result/>".getBytes("US-ASCII"));
+         fail("Expected ParseException.");
+      } catch (ParseException exception) {
+         // as expected
+      }
+
+      byte[] data = BinaryCallWriter.writeRequest("Echo", null, createDataSection(3));
+      byte[] truncated = new byte[data.length - 1];
+      System.arraycopy(data, 0, truncated, 0, truncated.length);
+      BinaryCallReader reader = new BinaryCallReader(truncated);
+      reader.readString();
+      reader.readParameters();
+      try {
+         reader.readElement();
+         fail("Expected ParseException.");
+      } catch (ParseException exception) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests calls with the binary calling convention using the XINS service
+    * caller.
+    */
+   public void testServiceCaller() throws Exception {
+      TargetDescriptor descriptor = new TargetDescriptor(AllTests.url() + "allinone/");
+      XINSCallConfig config = new XINSCallConfig();
+      config.setBinaryConvention(true);
+      assertTrue(config.getBinaryConvention());
+      XINSServiceCaller caller = new XINSServiceCaller(descriptor, config);
+
+      // Parameters
+      String text = "Hello \u00e9\u20ac <&> %20 +";
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      parameters.set("in", text);
+      XINSCallResult result = caller.call(new XINSCallRequest("Echo", parameters));
+      assertEquals(text, result.getParameter("out"));
+
+      // Data section, with and without compression
+      for (int i = 0; i < 2; i++) {
+         config.setCompressRequest(i == 1);
+         XINSCallRequest request = new XINSCallRequest("DataSection3", null, createDataSection(60));
+         result = caller.call(request);
+         List envelopes = result.getDataElement().getChildElements("envelope");
+         assertEquals(61, envelopes.size());
+         for (int j = 0; j < 60; j++) {
+            Element envelope = (Element) envelopes.get(j);
+            assertEquals("Postcode <" + j + ">", envelope.getAttribute("destination"));
+         }
+      }
+
+      // Error code with a data section
+      parameters = new BasicPropertyReader();
+      parameters.set("useDefault", "false");
+      try {
+         caller.call(new XINSCallRequest("ResultCode", parameters));
+         fail("Expected UnsuccessfulXINSCallException.");
+      } catch (UnsuccessfulXINSCallException exception) {
+         assertEquals("MissingInput", exception.getErrorCode());
+         Element inputParameter = exception.getDataElement().getUniqueChildElement("inputParameter");
+         assertEquals("inputText", inputParameter.getAttribute("name"));
+      }
+   }
+
+   /**
+    * Tests that an invalid binary request is rejected with HTTP status code
+    * 400, as with the other calling conventions.
+    */
+   public void testInvalidRequest() throws Exception {
+      PostMethod post = new PostMethod(AllTests.url() + "allinone/?_convention=_xins-bin");
+      byte[] data = BinaryCallWriter.writeRequest("Echo", null, null);
+      byte[] invalid = new byte[data.length - 2];
+      System.arraycopy(data, 0, invalid, 0, invalid.length);
+      post.setRequestEntity(new ByteArrayRequestEntity(invalid, BinaryCallWriter.CONTENT_TYPE));
+      try {
+         HttpClient client = new HttpClient();
+         client.getHttpConnectionManager().getParams().setConnectionTimeout(5000);
+         client.getHttpConnectionManager().getParams().setSoTimeout(5000);
+         assertEquals(400, client.executeMethod(post));
+      } finally {
+         post.releaseConnection();
+      }
+   }
+
+   /**
+    * Creates a data section with addresses.
+    *
+    * @param count
+    *    the number of addresses.
+    *
+    * @return
+    *    the data section, never <code>null</code>.
+    */
+   private static Element createDataSection(int count) {
+      ElementBuilder builder = new ElementBuilder("data");
+      for (int i = 0; i < count; i++) {
+         ElementBuilder address = new ElementBuilder("address");
+         address.setAttribute("company", "Company \u00e9 " + i);
+         address.setAttribute("postcode", "Postcode <" + i + ">");
+         builder.addChild(address.createElement());
+      }
+      return builder.createElement();
+   }
+}
@@ -0,0 +1,353 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementParser;
+import org.xins.server.BinaryTransactionAppender;
+import org.xins.server.FunctionRequest;
+import org.xins.server.FunctionResult;
+import org.xins.server.TransactionLog;
+import org.xins.server.TransactionLogReader;
+
+/**
+ * Tests for the <code>BinaryTransactionAppender</code> and
+ * <code>TransactionLogReader</code> classes.
+ *
+ * @version $Revision$ $Date$
+ */
+public class BinaryTransactionLogTests extends TestCase {
+
+   /**
+    * The logger of the log entry 3540.
+    */
+   private static final Logger TEXT_LOGGER = Logger.getLogger("org.xins.server.runtime.tx.3540");
+
+   /**
+    * The logger of the binary transaction log.
+    */
+   private static final Logger BINARY_LOGGER = Logger.getLogger(TransactionLog.BINARY_LOGGER_NAME);
+
+   /**
+    * The start time of the first call.
+    */
+   private static final long START = 1200000000000L;
+
+   /**
+    * The binary transaction log.
+    */
+   private ByteArrayOutputStream _bytes;
+
+   /**
+    * The appender that writes the binary transaction log.
+    */
+   private BinaryTransactionAppender _binaryAppender;
+
+   /**
+    * The appender that records the 3540 log entries.
+    */
+   private TextAppender _textAppender;
+
+   /**
+    * The level of the 3540 logger before the test.
+    */
+   private Level _textLevel;
+
+   /**
+    * The level of the binary transaction logger before the test.
+    */
+   private Level _binaryLevel;
+
+   /**
+    * Constructs a new <code>BinaryTransactionLogTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public BinaryTransactionLogTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(BinaryTransactionLogTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _bytes = new ByteArrayOutputStream();
+      _binaryAppender = new BinaryTransactionAppender(_bytes);
+      _binaryLevel = BINARY_LOGGER.getLevel();
+      BINARY_LOGGER.setLevel(Level.INFO);
+      BINARY_LOGGER.addAppender(_binaryAppender);
+      _textAppender = new TextAppender();
+      _textLevel = TEXT_LOGGER.getLevel();
+      TEXT_LOGGER.setLevel(Level.INFO);
+      TEXT_LOGGER.addAppender(_textAppender);
+   }
+
+   protected void tearDown() {
+      BINARY_LOGGER.removeAppender(_binaryAppender);
+      BINARY_LOGGER.setLevel(_binaryLevel);
+      TEXT_LOGGER.removeAppender(_textAppender);
+      TEXT_LOGGER.setLevel(_textLevel);
+   }
+
+   /**
+    * Tests that the entries read from the binary transaction log have the
+    * same text as the 3540 log entries.
+    */
+   public void testRoundTrip() throws Exception {
+      logCalls();
+
+      TransactionLogReader reader = reader(_bytes.toByteArray());
+      List texts = _textAppender.getMessages();
+      assertEquals(6, texts.size());
+      for (int i = 0; i < texts.size(); i++) {
+         TransactionLogReader.Entry entry = reader.next();
+         assertNotNull(entry);
+         assertEquals(texts.get(i), entry.toString());
+         assertEquals(START + i * 1000L, entry.getStart());
+         assertEquals(i, entry.getDuration());
+      }
+      assertNull(reader.next());
+
+      reader = reader(_bytes.toByteArray());
+      TransactionLogReader.Entry entry = reader.next();
+      assertEquals("context0", entry.getContextID());
+      assertEquals("127.0.0.1", entry.getIP());
+      assertEquals("GetPerson", entry.getFunctionName());
+      assertEquals("0", entry.getErrorCode());
+      entry = reader.next();
+      assertEquals("2001:db8:0:0:0:0:0:1", entry.getIP());
+      assertEquals("NoSuchPerson", entry.getErrorCode());
+      assertEquals("unknown", reader.next().getIP());
+      assertNull(reader.next().getContextID());
+   }
+
+   /**
+    * Tests the filters of the reader.
+    */
+   public void testFilters() throws Exception {
+      logCalls();
+
+      TransactionLogReader reader = reader(_bytes.toByteArray());
+      reader.setFunctions(Collections.singleton("AddPerson"));
+      assertEquals("AddPerson", reader.next().getFunctionName());
+      assertEquals("AddPerson", reader.next().getFunctionName());
+      assertNull(reader.next());
+
+      reader = reader(_bytes.toByteArray());
+      reader.setTimeRange(START + 1000L, START + 3000L);
+      assertEquals(START + 1000L, reader.next().getStart());
+      assertEquals(START + 2000L, reader.next().getStart());
+      assertEquals(START + 3000L, reader.next().getStart());
+      assertNull(reader.next());
+   }
+
+   /**
+    * Tests that an incomplete record at the end of the file is ignored and
+    * that a header in the middle of the file resets the function table.
+    */
+   public void testTruncatedAndReopened() throws Exception {
+      logCalls();
+      byte[] first = _bytes.toByteArray();
+
+      // Same calls, written after the file was opened again
+      BINARY_LOGGER.removeAppender(_binaryAppender);
+      _binaryAppender = new BinaryTransactionAppender(_bytes);
+      BINARY_LOGGER.addAppender(_binaryAppender);
+      logCalls();
+      byte[] all = _bytes.toByteArray();
+      assertEquals(12, count(reader(all)));
+
+      for (int length = first.length + 1; length < all.length; length++) {
+         byte[] truncated = new byte[length];
+         System.arraycopy(all, 0, truncated, 0, length);
+         int count = count(reader(truncated));
+         assertTrue(count >= 6 && count < 12);
+      }
+
+      try {
+         reader("Not a log".getBytes());
+         fail("Expected an IOException.");
+      } catch (IOException exception) {
+         // as expected
+      }
+   }
+
+   /**
+    * Logs 6 calls of different functions, with the start time increased by a
+    * second and the duration by a millisecond for each call.
+    */
+   private void logCalls() throws Exception {
+      TransactionLog log = new TransactionLog();
+      log.configure(0, false);
+
+      BasicPropertyReader input = new BasicPropertyReader();
+      input.set("name", "Doe & Sons");
+      input.set("empty", "");
+      input.set("city", "S\u00e3o Paulo");
+      BasicPropertyReader output = new BasicPropertyReader();
+      output.set("age", "42");
+      FunctionResult result = new DataResult(output, new ElementParser().parse("<person id=\"1\">x = y</person>"));
+      log(log, new FunctionRequest("GetPerson", input, null), result, "127.0.0.1", 0, "context0");
+
+      log(log, new FunctionRequest("GetPerson", input, null), new FunctionResult("NoSuchPerson"), "2001:db8:0:0:0:0:0:1", 1, "context1");
+
+      FunctionRequest withData = new FunctionRequest("AddPerson", null,
+            new ElementParser().parse("<data><person name=\"\u00e9\"/></data>"));
+      log(log, withData, new FunctionResult(), "unknown", 2, "context2");
+      log(log, new FunctionRequest("Ping", new BasicPropertyReader(), null), new FunctionResult(), "10.0.0.1", 3, null);
+
+      BasicPropertyReader empty = new BasicPropertyReader();
+      empty.set("empty", "");
+      log(log, new FunctionRequest("AddPerson", empty, null), new FunctionResult(), "::ffff:10.0.0.1", 4, "context4");
+      log(log, new FunctionRequest("Ping", null, null), new FunctionResult(), "10.0.0.2", 5, "context5");
+   }
+
+   /**
+    * Logs a call.
+    *
+    * @param log
+    *    the transaction log.
+    *
+    * @param request
+    *    the request.
+    *
+    * @param result
+    *    the result.
+    *
+    * @param ip
+    *    the IP address of the requester.
+    *
+    * @param index
+    *    the index of the call, used for the start time and the duration.
+    *
+    * @param contextID
+    *    the diagnostic context identifier, or <code>null</code>.
+    */
+   private static void log(TransactionLog log, FunctionRequest request, FunctionResult result,
+                           String ip, int index, String contextID) {
+      if (contextID != null) {
+         NDC.push(contextID);
+      }
+      try {
+         log.log(request, result, ip, START + index * 1000L, index);
+      } finally {
+         if (contextID != null) {
+            NDC.pop();
+         }
+      }
+   }
+
+   /**
+    * Creates a reader of a binary transaction log.
+    *
+    * @param bytes
+    *    the binary transaction log.
+    *
+    * @return
+    *    the reader.
+    */
+   private static TransactionLogReader reader(byte[] bytes) throws IOException {
+      return new TransactionLogReader(new ByteArrayInputStream(bytes));
+   }
+
+   /**
+    * Counts the entries of a binary transaction log.
+    *
+    * @param reader
+    *    the reader of the binary transaction log.
+    *
+    * @return
+    *    the number of entries.
+    */
+   private static int count(TransactionLogReader reader) throws IOException {
+      int count = 0;
+      while (reader.next() != null) {
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * Function result with a data section.
+    */
+   private static class DataResult extends FunctionResult {
+
+      /**
+       * Constructs a new <code>DataResult</code>.
+       *
+       * @param parameters
+       *    the output parameters.
+       *
+       * @param element
+       *    the element to add to the data section.
+       */
+      DataResult(BasicPropertyReader parameters, Element element) {
+         super(null, parameters);
+         add(element);
+      }
+   }
+
+   /**
+    * Appender that records the rendered messages.
+    */
+   private static class TextAppender extends AppenderSkeleton {
+
+      /**
+       * The recorded messages.
+       */
+      private final List _messages = new ArrayList();
+
+      protected synchronized void append(LoggingEvent event) {
+         _messages.add(event.getRenderedMessage());
+      }
+
+      /**
+       * Returns a copy of the recorded messages.
+       *
+       * @return
+       *    the messages.
+       */
+      synchronized List getMessages() {
+         return new ArrayList(_messages);
+      }
+
+      public void close() {
+         // empty
+      }
+
+      public boolean requiresLayout() {
+         return false;
+      }
+   }
+}
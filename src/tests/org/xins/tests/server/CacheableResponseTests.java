@@ -0,0 +1,241 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import org.xins.tests.AllTests;
+
+/**
+ * Tests for the <code>ETag</code> and conditional <em>GET</em> support of
+ * the cacheable functions. The <em>Echo</em> function of the
+ * <em>allinone</em> API is declared cacheable with a maximum age of 60
+ * seconds.
+ *
+ * @version $Revision$ $Date$
+ */
+public class CacheableResponseTests extends TestCase {
+
+   /**
+    * Constructs a new <code>CacheableResponseTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public CacheableResponseTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(CacheableResponseTests.class);
+   }
+
+   /**
+    * Tests that the result of a cacheable function is not sent again if the
+    * <code>If-None-Match</code> header matches its entity tag.
+    */
+   public void testConditionalGet() throws Exception {
+      String query = "_convention=_xins-std&_function=Echo&in=hello";
+
+      GetMethod get = executeGet(query, null, null, 200);
+      String eTag;
+      String body;
+      try {
+         eTag = getHeader(get, "ETag");
+         assertNotNull(eTag);
+         assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+         assertEquals("max-age=60", getHeader(get, "Cache-Control"));
+         body = get.getResponseBodyAsString();
+         assertTrue(body.indexOf("hello") > 0);
+      } finally {
+         get.releaseConnection();
+      }
+
+      // The same result has the same tag
+      get = executeGet(query, null, null, 200);
+      try {
+         assertEquals(eTag, getHeader(get, "ETag"));
+         assertEquals(body, get.getResponseBodyAsString());
+      } finally {
+         get.releaseConnection();
+      }
+
+      // Matching tags
+      String[] ifNoneMatch = { eTag, "\"other\", " + eTag, "W/" + eTag, "*" };
+      for (int i = 0; i < ifNoneMatch.length; i++) {
+         get = executeGet(query, ifNoneMatch[i], null, 304);
+         try {
+            assertEquals(eTag, getHeader(get, "ETag"));
+            assertEquals("max-age=60", getHeader(get, "Cache-Control"));
+            byte[] notModified = get.getResponseBody();
+            assertTrue(notModified == null || notModified.length == 0);
+         } finally {
+            get.releaseConnection();
+         }
+      }
+
+      // A different result has a different tag
+      get = executeGet("_convention=_xins-std&_function=Echo&in=bye", eTag, null, 200);
+      try {
+         assertFalse(eTag.equals(getHeader(get, "ETag")));
+         assertTrue(get.getResponseBodyAsString().indexOf("bye") > 0);
+      } finally {
+         get.releaseConnection();
+      }
+   }
+
+   /**
+    * Tests that the compressed and the uncompressed results have different
+    * entity tags.
+    */
+   public void testCompressed() throws Exception {
+      StringBuffer text = new StringBuffer(2000);
+      for (int i = 0; i < 2000; i++) {
+         text.append((char) ('a' + (i * 7) % 26));
+      }
+      String query = "_convention=_xins-std&_function=Echo&in=" + text;
+
+      GetMethod get = executeGet(query, null, "gzip", 200);
+      String eTag;
+      try {
+         assertEquals("gzip", getHeader(get, "Content-Encoding"));
+         eTag = getHeader(get, "ETag");
+         assertTrue(eTag, eTag.endsWith("-gzip\""));
+      } finally {
+         get.releaseConnection();
+      }
+
+      get = executeGet(query, eTag, "gzip", 304);
+      get.releaseConnection();
+
+      get = executeGet(query, eTag, null, 200);
+      try {
+         assertNull(getHeader(get, "Content-Encoding"));
+         assertFalse(eTag.equals(getHeader(get, "ETag")));
+         assertTrue(get.getResponseBodyAsString().indexOf(text.toString()) > 0);
+      } finally {
+         get.releaseConnection();
+      }
+   }
+
+   /**
+    * Tests that no entity tag is sent for a function that is not cacheable,
+    * for an unsuccessful result or for a <em>POST</em> request.
+    */
+   public void testNotCacheable() throws Exception {
+      GetMethod get = executeGet("_convention=_xins-std&_function=SimpleOutput", "*", null, 200);
+      try {
+         assertNull(getHeader(get, "ETag"));
+         assertNull(getHeader(get, "Cache-Control"));
+      } finally {
+         get.releaseConnection();
+      }
+
+      get = executeGet("_convention=_xins-std&_function=ResultCode&useDefault=false", "*", null, 200);
+      try {
+         assertNull(getHeader(get, "ETag"));
+         assertTrue(get.getResponseBodyAsString().indexOf("MissingInput") > 0);
+      } finally {
+         get.releaseConnection();
+      }
+
+      PostMethod post = new PostMethod(AllTests.url() + "allinone/");
+      post.addParameter("_convention", "_xins-std");
+      post.addParameter("_function", "Echo");
+      post.addParameter("in", "hello");
+      post.setRequestHeader("If-None-Match", "*");
+      try {
+         execute(post, 200);
+         assertNull(getHeader(post, "ETag"));
+         assertTrue(post.getResponseBodyAsString().indexOf("hello") > 0);
+      } finally {
+         post.releaseConnection();
+      }
+   }
+
+   /**
+    * Executes a <em>GET</em> request on the <em>allinone</em> API.
+    *
+    * @param query
+    *    the query string, not <code>null</code>.
+    *
+    * @param ifNoneMatch
+    *    the <code>If-None-Match</code> header to send, or
+    *    <code>null</code>.
+    *
+    * @param acceptEncoding
+    *    the <code>Accept-Encoding</code> header to send, or
+    *    <code>null</code>.
+    *
+    * @param expectedStatus
+    *    the expected HTTP status code.
+    *
+    * @return
+    *    the executed method, the connection has to be released.
+    */
+   private static GetMethod executeGet(String query, String ifNoneMatch, String acceptEncoding, int expectedStatus)
+   throws Exception {
+      GetMethod get = new GetMethod(AllTests.url() + "allinone/");
+      get.setQueryString(query);
+      if (ifNoneMatch != null) {
+         get.setRequestHeader("If-None-Match", ifNoneMatch);
+      }
+      if (acceptEncoding != null) {
+         get.setRequestHeader("Accept-Encoding", acceptEncoding);
+      }
+      execute(get, expectedStatus);
+      return get;
+   }
+
+   /**
+    * Executes an HTTP method and checks the HTTP status code.
+    *
+    * @param method
+    *    the method to execute, not <code>null</code>.
+    *
+    * @param expectedStatus
+    *    the expected HTTP status code.
+    */
+   private static void execute(HttpMethod method, int expectedStatus) throws Exception {
+      HttpClient client = new HttpClient();
+      client.getHttpConnectionManager().getParams().setConnectionTimeout(5000);
+      client.getHttpConnectionManager().getParams().setSoTimeout(5000);
+      assertEquals(expectedStatus, client.executeMethod(method));
+   }
+
+   /**
+    * Returns the value of a response header.
+    *
+    * @param method
+    *    the executed method.
+    *
+    * @param name
+    *    the name of the header.
+    *
+    * @return
+    *    the value of the header, or <code>null</code> if there is none.
+    */
+   private static String getHeader(HttpMethod method, String name) {
+      Header header = method.getResponseHeader(name);
+      return (header == null) ? null : header.getValue();
+   }
+}
@@ -0,0 +1,290 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.XML;
+
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.text.ParseException;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementParser;
+
+import org.xins.server.FunctionResult;
+import org.xins.server.JSONStreamReader;
+import org.xins.server.JSONStreamWriter;
+
+/**
+ * Tests for the <code>JSONStreamReader</code> and
+ * <code>JSONStreamWriter</code> classes. The results are compared with the
+ * ones of the <code>org.json</code> library.
+ *
+ * @version $Revision$ $Date$
+ */
+public class JSONStreamTests extends TestCase {
+
+   /**
+    * Constructs a new <code>JSONStreamTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public JSONStreamTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(JSONStreamTests.class);
+   }
+
+   /**
+    * Tests the reading of data sections.
+    */
+   public void testReadDataSection() throws Exception {
+      assertReadDataSection("{\"data\":{\"person\":{\"name\":\"Doe\",\"age\":42}}}");
+      assertReadDataSection("{\"data\":{\"person\":[{\"name\":\"Doe\"},{\"name\":\"Smith\"}]}}");
+      assertReadDataSection("{\"data\":{\"text\":{\"content\":\"Hello\\nworld \\u00e9\"}}}");
+      assertReadDataSection("{\"data\":{\"value\":[1,2.5,true,null]}}");
+      assertReadDataSection("{'data':{empty:{}, /* comment */ other:'x'}} // end");
+
+      Element data = read("{\"data\":{\"a\":{\"content\":\"x\",\"b\":\"y\"}}}");
+      assertEquals("data", data.getLocalName());
+      Element a = data.getUniqueChildElement("a");
+      assertEquals("x", a.getText());
+      assertEquals("y", a.getUniqueChildElement("b").getText());
+   }
+
+   /**
+    * Tests that invalid data sections are rejected.
+    */
+   public void testInvalidDataSection() throws Exception {
+      assertInvalid("");
+      assertInvalid("[]");
+      assertInvalid("{}");
+      assertInvalid("{\"a\":1,\"b\":2}");
+      assertInvalid("{\"content\":\"x\"}");
+      assertInvalid("{\"data\":{\"a\":1}");
+      assertInvalid("{\"data\":\"unterminated}");
+      assertInvalid("{\"da ta\":1}");
+      assertInvalid("{\"data\":{\"a\":{\"content\":{}}}}");
+   }
+
+   /**
+    * Tests the reading of simple values.
+    */
+   public void testReadValues() throws Exception {
+      JSONStreamReader reader = new JSONStreamReader(new StringReader(
+            "[\"a\\\"b\", 'c', 12, 3000000000, 1.5, 0x1F, true, null, {\"x\":[1]}, plain]"));
+      reader.beginArray();
+      Object[] expected = { "a\"b", "c", new Integer(12), new Long(3000000000L),
+            new Double(1.5), new Integer(31), Boolean.TRUE, JSONStreamReader.NULL };
+      for (int i = 0; i < expected.length; i++) {
+         assertTrue(reader.hasNextItem());
+         assertEquals(expected[i], reader.nextValue());
+      }
+      assertTrue(reader.hasNextItem());
+      assertEquals("{\"x\":[1]}", reader.nextValue().toString());
+      assertTrue(reader.hasNextItem());
+      assertEquals("plain", reader.nextValue());
+      assertFalse(reader.hasNextItem());
+   }
+
+   /**
+    * Tests the writing of strings and numbers.
+    */
+   public void testWriteValues() throws Exception {
+      String[] strings = { "", "simple", "quote \" and \\", "</script>",
+            "tab\tnew line\ncontrol\u0001", "\u00e9\u20ac" };
+      for (int i = 0; i < strings.length; i++) {
+         assertEquals(JSONObject.quote(strings[i]), write(strings[i]));
+      }
+      assertEquals("1", write(new Double(1.0)));
+      assertEquals("1.25", write(new Double(1.25)));
+      assertEquals("42", write(new Integer(42)));
+      assertEquals("true", write(Boolean.TRUE));
+      assertEquals("null", write(null));
+   }
+
+   /**
+    * Tests the writing of elements.
+    */
+   public void testWriteElement() throws Exception {
+      assertWriteElement("<data><person name=\"Doe\" age=\"42\"/></data>");
+      assertWriteElement("<data><a>1</a><a>2</a><b/><c>text</c></data>");
+      assertWriteElement("<data id=\"1\"><child/> Some text </data>");
+      assertWriteElement("<data><a><b><c x=\"y\">z</c></b></a><a/></data>");
+      assertWriteElement("<data><item>\u00e9 &lt;/&gt;</item></data>");
+   }
+
+   /**
+    * Tests the writing of function results.
+    */
+   public void testWriteResult() throws Exception {
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      parameters.set("name", "Doe");
+      parameters.set("age", "42");
+      Element data = new ElementParser().parse("<data><person id=\"1\"/><person id=\"2\"/></data>");
+      FunctionResult result = new DataResult(parameters, data);
+
+      StringWriter json = new StringWriter();
+      new JSONStreamWriter(json).beginObject().writeResult(result).endObject();
+
+      JSONObject expected = new JSONObject();
+      expected.put("name", "Doe");
+      expected.put("age", "42");
+      expected.accumulate("data", XML.toJSONObject(data.toString()));
+      assertJSONEquals(expected, new JSONObject(json.toString()));
+   }
+
+   /**
+    * Checks that the data section read by <code>JSONStreamReader</code> is
+    * the same as the one obtained with <code>org.json</code>.
+    *
+    * @param json
+    *    the JSON text of the data section.
+    */
+   private void assertReadDataSection(String json) throws Exception {
+      String xml = XML.toString(new JSONObject(json));
+      Element expected = new ElementParser().parse(xml);
+      Element actual = read(json);
+
+      // The order of the elements created by org.json is not defined
+      assertJSONEquals(XML.toJSONObject(expected.toString()), XML.toJSONObject(actual.toString()));
+   }
+
+   /**
+    * Checks that the JSON text written by <code>JSONStreamWriter</code> for
+    * an element is the same as the one obtained with <code>org.json</code>.
+    *
+    * @param xml
+    *    the XML text of the element.
+    */
+   private void assertWriteElement(String xml) throws Exception {
+      Element element = new ElementParser().parse(xml);
+      StringWriter json = new StringWriter();
+      JSONStreamWriter writer = new JSONStreamWriter(json);
+      writer.beginObject().name(element.getLocalName()).writeElement(element).endObject();
+      assertJSONEquals(XML.toJSONObject(xml), new JSONObject(json.toString()));
+   }
+
+   /**
+    * Checks that the specified JSON text is not accepted as data section.
+    *
+    * @param json
+    *    the JSON text.
+    */
+   private void assertInvalid(String json) throws Exception {
+      try {
+         read(json);
+         fail("Expected a ParseException for " + json);
+      } catch (ParseException exception) {
+         // as expected
+      }
+   }
+
+   /**
+    * Reads a data section.
+    *
+    * @param json
+    *    the JSON text.
+    *
+    * @return
+    *    the data section.
+    */
+   private Element read(String json) throws Exception {
+      return new JSONStreamReader(new StringReader(json)).readDataSection();
+   }
+
+   /**
+    * Writes a single value.
+    *
+    * @param value
+    *    the value.
+    *
+    * @return
+    *    the JSON text.
+    */
+   private String write(Object value) throws Exception {
+      StringWriter json = new StringWriter();
+      new JSONStreamWriter(json).value(value);
+      return json.toString();
+   }
+
+   /**
+    * Checks that two JSON values are equal, ignoring the order of the
+    * members of the objects.
+    *
+    * @param expected
+    *    the expected value.
+    *
+    * @param actual
+    *    the actual value.
+    */
+   private static void assertJSONEquals(Object expected, Object actual) throws Exception {
+      if (expected instanceof JSONObject) {
+         assertTrue("Expected " + expected + " but was " + actual, actual instanceof JSONObject);
+         JSONObject expectedObject = (JSONObject) expected;
+         JSONObject actualObject = (JSONObject) actual;
+         assertEquals(expectedObject.length(), actualObject.length());
+         Iterator keys = expectedObject.keys();
+         while (keys.hasNext()) {
+            String key = (String) keys.next();
+            assertTrue("Missing " + key + " in " + actual, actualObject.has(key));
+            assertJSONEquals(expectedObject.get(key), actualObject.get(key));
+         }
+      } else if (expected instanceof JSONArray) {
+         assertTrue("Expected " + expected + " but was " + actual, actual instanceof JSONArray);
+         JSONArray expectedArray = (JSONArray) expected;
+         JSONArray actualArray = (JSONArray) actual;
+         assertEquals(expectedArray.length(), actualArray.length());
+         for (int i = 0; i < expectedArray.length(); i++) {
+            assertJSONEquals(expectedArray.get(i), actualArray.get(i));
+         }
+      } else {
+         assertEquals(String.valueOf(expected), String.valueOf(actual));
+      }
+   }
+
+   /**
+    * Function result with a data section.
+    */
+   private static class DataResult extends FunctionResult {
+
+      /**
+       * Constructs a new <code>DataResult</code>.
+       *
+       * @param parameters
+       *    the output parameters.
+       *
+       * @param data
+       *    the data section, its child elements are added to the result.
+       */
+      DataResult(BasicPropertyReader parameters, Element data) {
+         super(null, parameters);
+         Iterator children = data.getChildElements().iterator();
+         while (children.hasNext()) {
+            add((Element) children.next());
+         }
+      }
+   }
+}
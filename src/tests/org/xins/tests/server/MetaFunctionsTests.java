@@ -7,10 +7,13 @@
 package org.xins.tests.server;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -156,10 +159,54 @@ public class MetaFunctionsTests extends TestCase {
          fail("Incorrect value while parsing a memory size.");
       }
 
+      Element workerPool = (Element) children.get(1);
+      assertEquals("workerPool", workerPool.getLocalName());
+      try {
+         assertTrue(Integer.parseInt(workerPool.getAttribute("threads")) >= 0);
+         assertTrue(Integer.parseInt(workerPool.getAttribute("maxThreads")) > 0);
+         assertTrue(Integer.parseInt(workerPool.getAttribute("queued")) >= 0);
+         assertTrue(Long.parseLong(workerPool.getAttribute("completed")) >= 0L);
+         assertTrue(Long.parseLong(workerPool.getAttribute("rejected")) >= 0L);
+      } catch (Exception exception) {
+         fail("Incorrect value while parsing a worker pool statistic.");
+      }
+
+      Element expiryTimer = (Element) children.get(2);
+      assertEquals("expiryTimer", expiryTimer.getLocalName());
+      try {
+         assertTrue(Integer.parseInt(expiryTimer.getAttribute("strategies")) >= 0);
+         assertTrue(Long.parseLong(expiryTimer.getAttribute("ticks")) >= 0L);
+         assertTrue(Long.parseLong(expiryTimer.getAttribute("expired")) >= 0L);
+         assertTrue(Integer.parseInt(expiryTimer.getAttribute("maxExpiredPerTick")) >= 0);
+      } catch (Exception exception) {
+         fail("Incorrect value while parsing an expiry timer statistic.");
+      }
+
+      Element transactionLog = (Element) children.get(3);
+      assertEquals("transactionLog", transactionLog.getLocalName());
+      try {
+         assertTrue(Integer.parseInt(transactionLog.getAttribute("queueSize")) >= 0);
+         assertTrue(Integer.parseInt(transactionLog.getAttribute("queued")) >= 0);
+         assertTrue(Integer.parseInt(transactionLog.getAttribute("maxQueued")) >= 0);
+         assertTrue(Long.parseLong(transactionLog.getAttribute("logged")) >= 0L);
+         assertTrue(Long.parseLong(transactionLog.getAttribute("dropped")) >= 0L);
+         assertTrue(Long.parseLong(transactionLog.getAttribute("blocked")) >= 0L);
+      } catch (Exception exception) {
+         fail("Incorrect value while parsing a transaction log statistic.");
+      }
+
       // browse all function
       int size = children.size();
-      for (int i = 1; i < size; i++) {
+      for (int i = 4; i < size; i++) {
          Element nextFunction = (Element) children.get(i);
+
+         // Statistics of the XSLT templates of the calling conventions
+         if ("templates".equals(nextFunction.getLocalName())) {
+            assertNotNull(nextFunction.getAttribute("convention"));
+            assertTrue(Long.parseLong(nextFunction.getAttribute("hits")) >= 0L);
+            assertTrue(Long.parseLong(nextFunction.getAttribute("misses")) >= 0L);
+            continue;
+         }
          assertEquals("Object other than a function has been found.", "function", nextFunction.getLocalName());
          assertNotNull("The function does not have a name", nextFunction.getAttribute("name"));
          // XXX: Also test the children.
@@ -205,6 +252,17 @@ public class MetaFunctionsTests extends TestCase {
       assertEquals("The function does not have any successful sub-section.", "last", last.getLocalName());
       assertNotNull("No average attribute defined", last.getAttribute("start"));
       assertNotNull("No count attribute defined", last.getAttribute("duration"));
+      if (successful || functionElement.getAttribute("errorcode") == null) {
+         Element percentiles = functionElement.getUniqueChildElement("percentiles");
+         String p50  = percentiles.getAttribute("p50");
+         String p999 = percentiles.getAttribute("p999");
+         if ("N/A".equals(p50)) {
+            assertEquals("0", functionElement.getAttribute("count"));
+         } else {
+            assertTrue(Long.parseLong(p50) <= Long.parseLong(p999));
+            assertTrue(Long.parseLong(p999) >= Long.parseLong(min.getAttribute("duration")));
+         }
+      }
    }
 
    /**
@@ -370,6 +428,67 @@ public class MetaFunctionsTests extends TestCase {
       assertNull("The function returned some parameters.", result.getParameters());
    }
 
+   /**
+    * Tests that the calls keep succeeding while the runtime properties are
+    * reloaded.
+    */
+   public void testReloadPropertiesWhileCalling() throws Throwable {
+      final TargetDescriptor descriptor = new TargetDescriptor(AllTests.url());
+      final List failures = Collections.synchronizedList(new ArrayList());
+      final boolean[] stop = new boolean[1];
+      Thread callThread = new Thread() {
+         public void run() {
+            XINSServiceCaller caller = new XINSServiceCaller(descriptor);
+            while (! stop[0]) {
+               try {
+                  caller.call(new XINSCallRequest("_NoOp", null));
+               } catch (Throwable exception) {
+                  failures.add(exception);
+               }
+            }
+         }
+      };
+      callThread.start();
+
+      // Modify the runtime properties file and force the reload
+      File propsFile = new File(System.getProperty("user.dir"), "src/tests/xins.properties".replace('/', File.separatorChar));
+      long lastModified = propsFile.lastModified();
+      XINSServiceCaller caller = new XINSServiceCaller(descriptor);
+      try {
+         for (int i = 1; i <= 3; i++) {
+            propsFile.setLastModified(lastModified + i * 2000L);
+            caller.call(new XINSCallRequest("_ReloadProperties", null));
+            Thread.sleep(300L);
+         }
+      } finally {
+         propsFile.setLastModified(lastModified);
+         caller.call(new XINSCallRequest("_ReloadProperties", null));
+         Thread.sleep(300L);
+         stop[0] = true;
+         callThread.join();
+      }
+      assertEquals("Failed calls: " + failures, 0, failures.size());
+   }
+
+   /**
+    * Tests the _ReloadProperties meta function on an API that does not
+    * watch its runtime properties, so that the API is re-initialized by the
+    * call itself.
+    */
+   public void testReloadPropertiesWithoutWatcher() throws Throwable {
+      String url = "http://" + AllTests.host() + ':' + (AllTests.port() + 1) + "/portal/";
+      TargetDescriptor descriptor = new TargetDescriptor(url);
+      XINSServiceCaller caller = new XINSServiceCaller(descriptor);
+      for (int i = 0; i < 2; i++) {
+         XINSCallResult result = caller.call(new XINSCallRequest("_ReloadProperties", null));
+         assertNull("The function returned a result code.", result.getErrorCode());
+      }
+
+      // The calls keep succeeding with the new calling conventions
+      XINSCallResult result = caller.call(new XINSCallRequest("_NoOp", null));
+      assertNull("The function returned a result code.", result.getErrorCode());
+   }
+
    /**
     * Tests the _WSDL meta function.
     * This test just tests if the meta function return with a WSDL file.
@@ -0,0 +1,207 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSCallResult;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.http.HTTPCallRequest;
+import org.xins.common.http.HTTPCallResult;
+import org.xins.common.http.HTTPServiceCaller;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.xml.Element;
+import org.xins.common.xml.ElementParser;
+
+import org.xins.tests.AllTests;
+
+/**
+ * Tests for the compression of the HTTP responses.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ResponseCompressionTests extends TestCase {
+
+   /**
+    * Constructs a new <code>ResponseCompressionTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public ResponseCompressionTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(ResponseCompressionTests.class);
+   }
+
+   /**
+    * Tests that a large response is compressed with gzip or deflate,
+    * depending on the <code>Accept-Encoding</code> header.
+    */
+   public void testCompressed() throws Exception {
+      String text = createText(2000);
+
+      PostMethod post = callEcho(text, "gzip");
+      try {
+         assertEquals("gzip", getHeader(post, "Content-Encoding"));
+         assertEquals("Accept-Encoding", getHeader(post, "Vary"));
+         byte[] body = post.getResponseBody();
+         assertTrue(body.length < text.length());
+         assertEcho(text, new GZIPInputStream(post.getResponseBodyAsStream()));
+      } finally {
+         post.releaseConnection();
+      }
+
+      post = callEcho(text, "gzip;q=0.5, deflate");
+      try {
+         assertEquals("deflate", getHeader(post, "Content-Encoding"));
+         assertEcho(text, new InflaterInputStream(post.getResponseBodyAsStream()));
+      } finally {
+         post.releaseConnection();
+      }
+   }
+
+   /**
+    * Tests that a response is not compressed if it is small or if the
+    * client does not accept a compressed response.
+    */
+   public void testNotCompressed() throws Exception {
+      String[] texts      = { "hello", createText(2000), createText(2000), createText(2000) };
+      String[] encodings  = { "gzip, deflate", null, "identity", "gzip;q=0, deflate;q=0" };
+      for (int i = 0; i < texts.length; i++) {
+         PostMethod post = callEcho(texts[i], encodings[i]);
+         try {
+            assertNull(getHeader(post, "Content-Encoding"));
+            assertEcho(texts[i], post.getResponseBodyAsStream());
+         } finally {
+            post.releaseConnection();
+         }
+      }
+   }
+
+   /**
+    * Tests that the service callers decode the compressed responses.
+    */
+   public void testServiceCallers() throws Exception {
+      String text = createText(2000);
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      parameters.set("_convention", "_xins-std");
+      parameters.set("_function", "Echo");
+      parameters.set("in", text);
+
+      TargetDescriptor descriptor = new TargetDescriptor(AllTests.url() + "allinone/");
+      HTTPServiceCaller httpCaller = new HTTPServiceCaller(descriptor);
+      HTTPCallResult httpResult = httpCaller.call(new HTTPCallRequest(parameters));
+      assertEcho(text, httpResult.getStream());
+
+      parameters = new BasicPropertyReader();
+      parameters.set("in", text);
+      XINSServiceCaller xinsCaller = new XINSServiceCaller(descriptor);
+      XINSCallResult xinsResult = xinsCaller.call(new XINSCallRequest("Echo", parameters));
+      assertEquals(text, xinsResult.getParameter("out"));
+   }
+
+   /**
+    * Calls the <em>Echo</em> function.
+    *
+    * @param text
+    *    the input of the function.
+    *
+    * @param acceptEncoding
+    *    the <code>Accept-Encoding</code> header to send, or
+    *    <code>null</code>.
+    *
+    * @return
+    *    the executed method, the connection has to be released.
+    */
+   private static PostMethod callEcho(String text, String acceptEncoding) throws Exception {
+      PostMethod post = new PostMethod(AllTests.url() + "allinone/");
+      post.addParameter("_convention", "_xins-std");
+      post.addParameter("_function", "Echo");
+      post.addParameter("in", text);
+      if (acceptEncoding != null) {
+         post.setRequestHeader("Accept-Encoding", acceptEncoding);
+      }
+      HttpClient client = new HttpClient();
+      client.getHttpConnectionManager().getParams().setConnectionTimeout(5000);
+      client.getHttpConnectionManager().getParams().setSoTimeout(5000);
+      assertEquals(200, client.executeMethod(post));
+      return post;
+   }
+
+   /**
+    * Returns the value of a response header.
+    *
+    * @param post
+    *    the executed method.
+    *
+    * @param name
+    *    the name of the header.
+    *
+    * @return
+    *    the value of the header, or <code>null</code> if there is none.
+    */
+   private static String getHeader(PostMethod post, String name) {
+      Header header = post.getResponseHeader(name);
+      return (header == null) ? null : header.getValue();
+   }
+
+   /**
+    * Checks that the result of the <em>Echo</em> function contains the
+    * specified text.
+    *
+    * @param text
+    *    the expected output of the function.
+    *
+    * @param in
+    *    the decoded body of the response.
+    */
+   private static void assertEcho(String text, InputStream in) throws Exception {
+      Element result = new ElementParser().parse(in);
+      Element param = result.getUniqueChildElement("param");
+      assertEquals("out", param.getAttribute("name"));
+      assertEquals(text, param.getText());
+   }
+
+   /**
+    * Creates a text of the specified length.
+    *
+    * @param length
+    *    the length of the text.
+    *
+    * @return
+    *    the text.
+    */
+   private static String createText(int length) {
+      StringBuffer buffer = new StringBuffer(length);
+      for (int i = 0; i < length; i++) {
+         buffer.append((char) ('a' + (i * 7) % 26));
+      }
+      return buffer.toString();
+   }
+}
@@ -0,0 +1,215 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.xml.Element;
+import org.xins.server.TemplatesCache;
+import org.xins.server.TransformerPool;
+
+/**
+ * Tests for the <code>TemplatesCache</code> class.
+ *
+ * @version $Revision$ $Date$
+ */
+public class TemplatesCacheTests extends TestCase {
+
+   private static final String XSLT = "<?xml version=\"1.0\"?>"
+         + "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+         + "<xsl:template match=\"/\">test</xsl:template></xsl:stylesheet>";
+
+   private File _first;
+   private File _second;
+
+   /**
+    * Constructs a new <code>TemplatesCacheTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public TemplatesCacheTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(TemplatesCacheTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _first  = createStyleSheet("first");
+      _second = createStyleSheet("second");
+   }
+
+   protected void tearDown() throws Exception {
+      _first.delete();
+      _second.delete();
+   }
+
+   private File createStyleSheet(String name) throws Exception {
+      File file = File.createTempFile(name, ".xslt");
+      writeStyleSheet(file);
+      return file;
+   }
+
+   private void writeStyleSheet(File file) throws Exception {
+      FileWriter writer = new FileWriter(file);
+      writer.write(XSLT);
+      writer.close();
+   }
+
+   public void testCache() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 10, 0);
+      String location = _first.toURL().toString();
+      Templates templates = cache.get(location);
+      assertNotNull(templates);
+      assertSame(templates, cache.get(location));
+      assertEquals(1, cache.getSize());
+      assertEquals(1L, cache.getMissCount());
+      assertEquals(1L, cache.getHitCount());
+
+      cache.clear();
+      assertEquals(0, cache.getSize());
+      assertNotSame(templates, cache.get(location));
+      assertEquals(2L, cache.getMissCount());
+
+      Element statistics = cache.getStatisticsElement();
+      assertEquals("templates", statistics.getLocalName());
+      assertEquals("2", statistics.getAttribute("misses"));
+   }
+
+   public void testDisabledCache() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 0, 0);
+      String location = _first.toURL().toString();
+      assertNotSame(cache.get(location), cache.get(location));
+      assertEquals(0, cache.getSize());
+      assertEquals(2L, cache.getMissCount());
+   }
+
+   public void testEviction() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 1, 0);
+      String first  = _first.toURL().toString();
+      String second = _second.toURL().toString();
+      Templates templates = cache.get(first);
+      cache.get(second);
+      assertEquals(1, cache.getSize());
+      assertEquals(1L, cache.getEvictionCount());
+      assertNotSame(templates, cache.get(first));
+   }
+
+   public void testReload() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 10, 1);
+      String first  = _first.toURL().toString();
+      String second = _second.toURL().toString();
+      Templates templates1 = cache.get(first);
+      Templates templates2 = cache.get(second);
+
+      // Modify the first style sheet
+      _first.setLastModified(_first.lastModified() - 10000L);
+      Thread.sleep(1100L);
+
+      assertNotSame(templates1, cache.get(first));
+      assertSame(templates2, cache.get(second));
+      assertEquals(1L, cache.getReloadCount());
+      assertEquals(2, cache.getSize());
+   }
+
+   public void testInvalidStyleSheet() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 10, 0);
+      String location = new File(_first.getParentFile(), "nonexistent-xins.xslt").toURL().toString();
+      try {
+         cache.get(location);
+         fail("Expected TransformerConfigurationException.");
+      } catch (TransformerConfigurationException exception) {
+         // as expected
+      }
+      assertEquals(0, cache.getSize());
+
+      List locations = new ArrayList();
+      locations.add(location);
+      locations.add(_first.toURL().toString());
+      assertEquals(1, cache.precompile(locations));
+      assertEquals(1, cache.getSize());
+   }
+
+   public void testTransformerPool() throws Exception {
+      TemplatesCache cache = new TemplatesCache(TransformerFactory.newInstance(), 10, 0, 1);
+      String location = _first.toURL().toString();
+      TransformerPool pool = cache.getTransformerPool(location);
+      assertSame(pool, cache.getTransformerPool(location));
+      assertSame(pool.getTemplates(), cache.get(location));
+
+      Transformer first = pool.checkOut();
+      Transformer second = pool.checkOut();
+      assertNotSame(first, second);
+      assertEquals(2, pool.getActiveCount());
+      first.setParameter("test", "value");
+      assertTrue(transform(first).endsWith("test"));
+
+      // Only one transformer is kept, reset
+      pool.checkIn(first);
+      pool.checkIn(second);
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(1, pool.getIdleCount());
+      Transformer reused = pool.checkOut();
+      assertSame(first, reused);
+      assertNull(reused.getParameter("test"));
+      assertEquals(2L, pool.getCreatedCount());
+      assertEquals(1L, pool.getReusedCount());
+
+      Element statistics = cache.getStatisticsElement();
+      assertEquals("0", statistics.getAttribute("idleTransformers"));
+      assertEquals("1", statistics.getAttribute("activeTransformers"));
+      assertEquals("2", statistics.getAttribute("createdTransformers"));
+      assertEquals("1", statistics.getAttribute("reusedTransformers"));
+      pool.checkIn(reused);
+
+      // A discarded transformer is not reused
+      Transformer failed = pool.checkOut();
+      assertSame(first, failed);
+      pool.discard(failed);
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(0, pool.getIdleCount());
+      assertNotSame(failed, pool.checkOut());
+      assertEquals(3L, pool.getCreatedCount());
+
+      // The transformers are not reused if the cache is disabled
+      cache = new TemplatesCache(TransformerFactory.newInstance(), 0, 0);
+      pool = cache.getTransformerPool(location);
+      pool.checkIn(pool.checkOut());
+      assertEquals(0, pool.getIdleCount());
+   }
+
+   private String transform(Transformer transformer) throws Exception {
+      StringWriter out = new StringWriter();
+      transformer.transform(new StreamSource(new StringReader("<test/>")), new StreamResult(out));
+      return out.toString().trim();
+   }
+}
@@ -0,0 +1,333 @@
+/*
+ * $Id$
+ *
+ * Copyright 2003-2008 Online Breedband B.V.
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.xins.common.collections.BasicPropertyReader;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.server.FunctionRequest;
+import org.xins.server.FunctionResult;
+import org.xins.server.TransactionLog;
+
+/**
+ * Tests for the <code>TransactionLog</code> class.
+ *
+ * @version $Revision$ $Date$
+ */
+public class TransactionLogTests extends TestCase {
+
+   /**
+    * The logger of the log entry 3541.
+    */
+   private static final Logger LOGGER = Logger.getLogger("org.xins.server.runtime.tx.3541");
+
+   /**
+    * The appender that records the 3541 log entries.
+    */
+   private RecordingAppender _appender;
+
+   /**
+    * The level of the logger before the test.
+    */
+   private Level _level;
+
+   /**
+    * Constructs a new <code>TransactionLogTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public TransactionLogTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(TransactionLogTests.class);
+   }
+
+   protected void setUp() {
+      _appender = new RecordingAppender();
+      _level = LOGGER.getLevel();
+      LOGGER.setLevel(Level.INFO);
+      LOGGER.addAppender(_appender);
+   }
+
+   protected void tearDown() {
+      _appender.release();
+      LOGGER.removeAppender(_appender);
+      LOGGER.setLevel(_level);
+   }
+
+   /**
+    * Tests that the entries are written by the writer thread, in order and
+    * with the diagnostic context identifier of the request.
+    */
+   public void testAsynchronous() throws Exception {
+      TransactionLog log = new TransactionLog();
+      log.configure(16, false);
+      for (int i = 0; i < 10; i++) {
+         NDC.push("context" + i);
+         try {
+            log.log(request(i), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), i);
+         } finally {
+            NDC.pop();
+         }
+      }
+      assertTrue(log.flush(5000L));
+
+      List events = _appender.getEvents();
+      assertEquals(10, events.size());
+      for (int i = 0; i < 10; i++) {
+         LoggingEvent event = (LoggingEvent) events.get(i);
+         assertEquals("context" + i, event.getNDC());
+         assertFalse(Thread.currentThread().getName().equals(event.getThreadName()));
+         assertTrue(event.getRenderedMessage(), event.getRenderedMessage().indexOf("Function" + i) >= 0);
+      }
+      assertEquals(10L, log.getLoggedCount());
+      assertEquals(0, log.getQueuedCount());
+      assertTrue(log.getBatchCount() >= 1L);
+      assertEquals(0L, log.getDroppedCount());
+   }
+
+   /**
+    * Tests that the entries are written by the calling thread if the queue
+    * is disabled.
+    */
+   public void testSynchronous() throws Exception {
+      TransactionLog log = new TransactionLog();
+      log.configure(0, false);
+      log.log(request(1), new FunctionResult("SomeError"), "127.0.0.1", System.currentTimeMillis(), 5L);
+
+      List events = _appender.getEvents();
+      assertEquals(1, events.size());
+      LoggingEvent event = (LoggingEvent) events.get(0);
+      assertEquals(Thread.currentThread().getName(), event.getThreadName());
+      assertTrue(event.getRenderedMessage().indexOf("SomeError") >= 0);
+      assertEquals(1L, log.getLoggedCount());
+      assertEquals(0L, log.getBatchCount());
+   }
+
+   /**
+    * Tests that the records are dropped when the queue is full and the
+    * overflow policy is to drop.
+    */
+   public void testDrop() throws Exception {
+      TransactionLog log = new TransactionLog();
+      log.configure(2, true);
+      _appender.block();
+
+      // The writer thread takes the first record and waits in the appender
+      log.log(request(0), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), 0L);
+      _appender.waitForBlocked();
+
+      for (int i = 1; i < 6; i++) {
+         log.log(request(i), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), 0L);
+      }
+      assertEquals(2, log.getQueuedCount());
+      assertEquals(2, log.getMaxQueuedCount());
+      assertEquals(3L, log.getDroppedCount());
+
+      _appender.release();
+      assertTrue(log.flush(5000L));
+      assertEquals(3, _appender.getEvents().size());
+      assertEquals(3L, log.getLoggedCount());
+   }
+
+   /**
+    * Tests that the request threads wait when the queue is full and the
+    * overflow policy is to block.
+    */
+   public void testBlock() throws Exception {
+      final TransactionLog log = new TransactionLog();
+      log.configure(1, false);
+      _appender.block();
+
+      log.log(request(0), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), 0L);
+      _appender.waitForBlocked();
+      log.log(request(1), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), 0L);
+      assertEquals(1, log.getQueuedCount());
+
+      // The third record has to wait until the writer thread takes the second
+      Thread caller = new Thread() {
+         public void run() {
+            log.log(request(2), new FunctionResult(), "127.0.0.1", System.currentTimeMillis(), 0L);
+         }
+      };
+      caller.start();
+      for (int i = 0; i < 100 && log.getBlockedCount() == 0L; i++) {
+         Thread.sleep(20L);
+      }
+      assertEquals(1L, log.getBlockedCount());
+      assertTrue(caller.isAlive());
+
+      _appender.release();
+      caller.join(5000L);
+      assertFalse(caller.isAlive());
+      assertTrue(log.flush(5000L));
+      assertEquals(3, _appender.getEvents().size());
+      assertEquals(0L, log.getDroppedCount());
+   }
+
+   /**
+    * Tests the runtime properties.
+    */
+   public void testInit() throws Exception {
+      TransactionLog log = new TransactionLog();
+      BasicPropertyReader properties = new BasicPropertyReader();
+      log.init(properties);
+      assertEquals(TransactionLog.DEFAULT_QUEUE_SIZE, log.getQueueSize());
+      assertFalse(log.isDropping());
+
+      properties.set(TransactionLog.QUEUE_SIZE_PROPERTY, "10");
+      properties.set(TransactionLog.OVERFLOW_PROPERTY, "drop");
+      log.init(properties);
+      assertEquals(10, log.getQueueSize());
+      assertTrue(log.isDropping());
+
+      assertInvalid(log, TransactionLog.QUEUE_SIZE_PROPERTY, "-1");
+      assertInvalid(log, TransactionLog.QUEUE_SIZE_PROPERTY, "ten");
+      assertInvalid(log, TransactionLog.OVERFLOW_PROPERTY, "wait");
+   }
+
+   /**
+    * Checks that a runtime property value is rejected.
+    *
+    * @param log
+    *    the transaction log.
+    *
+    * @param name
+    *    the name of the property.
+    *
+    * @param value
+    *    the invalid value.
+    */
+   private static void assertInvalid(TransactionLog log, String name, String value) {
+      BasicPropertyReader properties = new BasicPropertyReader();
+      properties.set(name, value);
+      try {
+         log.init(properties);
+         fail("Expected an InvalidPropertyValueException for " + name + "=" + value);
+      } catch (InvalidPropertyValueException exception) {
+         assertEquals(name, exception.getPropertyName());
+      }
+   }
+
+   /**
+    * Creates a request.
+    *
+    * @param index
+    *    the index used in the function name and the parameter value.
+    *
+    * @return
+    *    the request.
+    */
+   private static FunctionRequest request(int index) {
+      BasicPropertyReader parameters = new BasicPropertyReader();
+      parameters.set("index", String.valueOf(index));
+      return new FunctionRequest("Function" + index, parameters, null);
+   }
+
+   /**
+    * Appender that records the log events and that can hold the logging
+    * thread.
+    */
+   private static class RecordingAppender extends AppenderSkeleton {
+
+      /**
+       * The recorded events.
+       */
+      private final List _events = new ArrayList();
+
+      /**
+       * Indicates whether the logging threads should wait.
+       */
+      private boolean _blocking;
+
+      /**
+       * Indicates whether a logging thread is waiting.
+       */
+      private boolean _blocked;
+
+      protected synchronized void append(LoggingEvent event) {
+         event.getNDC();
+         event.getThreadName();
+         _events.add(event);
+         while (_blocking) {
+            _blocked = true;
+            notifyAll();
+            try {
+               wait();
+            } catch (InterruptedException exception) {
+               return;
+            }
+         }
+      }
+
+      /**
+       * Makes the logging threads wait until {@link #release()} is called.
+       */
+      synchronized void block() {
+         _blocking = true;
+      }
+
+      /**
+       * Releases the logging threads.
+       */
+      synchronized void release() {
+         _blocking = false;
+         notifyAll();
+      }
+
+      /**
+       * Waits until a logging thread waits in the appender.
+       */
+      synchronized void waitForBlocked() throws InterruptedException {
+         long deadline = System.currentTimeMillis() + 5000L;
+         while (! _blocked && System.currentTimeMillis() < deadline) {
+            wait(100L);
+         }
+         assertTrue(_blocked);
+      }
+
+      /**
+       * Returns a copy of the recorded events.
+       *
+       * @return
+       *    the events.
+       */
+      synchronized List getEvents() {
+         return new ArrayList(_events);
+      }
+
+      public void close() {
+         // empty
+      }
+
+      public boolean requiresLayout() {
+         return false;
+      }
+   }
+}
@@ -6,11 +6,19 @@
  */
 package org.xins.tests.server;
 
+import java.io.ByteArrayOutputStream;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import org.xins.common.xml.ElementParser;
 import org.xins.common.text.HexConverter;
 import org.xins.common.xml.Element;
 
@@ -60,6 +68,36 @@ public class XMLCallingConventionTests extends TestCase {
       postXMLRequest(randomFive, false);
    }
 
+   /**
+    * Tests that a request compressed with gzip is decompressed.
+    */
+   public void testCompressedRequest() throws Throwable {
+      String text = "Compressed \u00e9 request";
+      String data = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+              "<request function=\"Echo\">" +
+              "  <param name=\"in\">" + text + "</param>" +
+              "</request>";
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      GZIPOutputStream out = new GZIPOutputStream(bytes);
+      out.write(data.getBytes("UTF-8"));
+      out.close();
+
+      PostMethod post = new PostMethod(AllTests.url() + "allinone/?_convention=_xins-xml");
+      post.setRequestHeader("Content-Encoding", "gzip");
+      post.setRequestEntity(new ByteArrayRequestEntity(bytes.toByteArray(), "text/xml; charset=UTF-8"));
+      HttpClient client = new HttpClient();
+      try {
+         assertEquals(200, client.executeMethod(post));
+         Element result = new ElementParser().parse(post.getResponseBodyAsStream());
+         assertNull(result.getAttribute("errorcode"));
+         Element param = result.getUniqueChildElement("param");
+         assertEquals("out", param.getAttribute("name"));
+         assertEquals(text, param.getText());
+      } finally {
+         post.releaseConnection();
+      }
+   }
+
    /**
     * Posts XML request.
     *
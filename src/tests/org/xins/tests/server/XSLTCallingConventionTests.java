@@ -93,6 +93,24 @@ public class XSLTCallingConventionTests extends TestCase {
       }
    }
 
+   /**
+    * Tests that the data section of the result is passed to the XSLT.
+    */
+   public void testXSLTCallingConventionDataSection() throws Throwable {
+      TargetDescriptor descriptor = new TargetDescriptor(AllTests.url(), 2000);
+      BasicPropertyReader params = new BasicPropertyReader();
+      params.set("_function", "_GetStatistics");
+      params.set("_convention", "_xins-xslt");
+      params.set("_template", "src/tests/getStatistics.xslt");
+      HTTPCallRequest request = new HTTPCallRequest(params);
+      HTTPServiceCaller caller = new HTTPServiceCaller(descriptor);
+
+      String html = caller.call(request).getString();
+      assertTrue("The returned data is not an HTML file: " + html, html.startsWith("<html>"));
+      assertTrue("Incorrect HTML data returned: " + html, html.indexOf("Function ResultCode") != -1);
+      assertTrue("Incorrect HTML data returned: " + html, html.indexOf("Heap ") != -1);
+   }
+
    private String getHTMLVersion(boolean useTemplateParam) throws Exception {
       TargetDescriptor descriptor = new TargetDescriptor(AllTests.url(), 2000);
       BasicPropertyReader params = new BasicPropertyReader();